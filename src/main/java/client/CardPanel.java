@@ -17,7 +17,9 @@ public class CardPanel extends JPanel {
     private CardClickListener listener;
     private boolean enabled;
     private BufferedImage cardImage;
-    private BufferedImage backImage;
+    // Ảnh mặt sau dùng chung cho mọi thẻ, chỉ đọc file một lần
+    private static BufferedImage backImage;
+    private static boolean backImageLoaded;
     
     // Animation
     private float flipAngle = 0f;
@@ -70,7 +72,9 @@ public class CardPanel extends JPanel {
         });
     }
     
-    private void loadBackImage() {
+    private static void loadBackImage() {
+        if (backImageLoaded) return;
+        backImageLoaded = true;
         // Try to load custom back image
         try {
             File backFile = new File("resources/images/card_back.png");
@@ -82,6 +86,13 @@ public class CardPanel extends JPanel {
         }
     }
     
+    public void setCardImage(BufferedImage image) {
+        cardImage = image;
+        if (flipped || matched) {
+            repaint();
+        }
+    }
+    
     public void setCardImage(String imagePath) {
         try {
             File imageFile = new File(imagePath);
@@ -181,8 +192,8 @@ public class CardPanel extends JPanel {
             // Draw default pattern
             g2d.setColor(new Color(255, 255, 255, 100));
             
-            // Question mark with glow
-            Font font = new Font("Arial", Font.BOLD, 60);
+            // Question mark with glow (cỡ chữ theo kích thước thẻ, thẻ bàn lớn rất nhỏ)
+            Font font = new Font("Arial", Font.BOLD, Math.max(12, height / 2));
             g2d.setFont(font);
             String text = "?";
             FontMetrics fm = g2d.getFontMetrics();
@@ -202,10 +213,12 @@ public class CardPanel extends JPanel {
             
             // Decorative circles
             g2d.setColor(new Color(255, 255, 255, 80));
-            g2d.fillOval(10, 10, 20, 20);
-            g2d.fillOval(width - 30, 10, 20, 20);
-            g2d.fillOval(10, height - 30, 20, 20);
-            g2d.fillOval(width - 30, height - 30, 20, 20);
+            int dot = width / 5;
+            int margin = dot / 2;
+            g2d.fillOval(margin, margin, dot, dot);
+            g2d.fillOval(width - margin - dot, margin, dot, dot);
+            g2d.fillOval(margin, height - margin - dot, dot, dot);
+            g2d.fillOval(width - margin - dot, height - margin - dot, dot, dot);
         }
     }
     
@@ -243,10 +256,11 @@ public class CardPanel extends JPanel {
 
         } else {
             // Fallback: Draw value number với nice design (khi không có hình)
+            // value < 0: bàn ẩn, đang chờ server trả giá trị của lá này
             g2d.setColor(new Color(52, 73, 94));
-            Font font = new Font("Arial", Font.BOLD, 48);
+            Font font = new Font("Arial", Font.BOLD, Math.max(10, height * 2 / 5));
             g2d.setFont(font);
-            String text = String.valueOf(value);
+            String text = value >= 0 ? String.valueOf(value) : "…";
             FontMetrics fm = g2d.getFontMetrics();
             int x = (width - fm.stringWidth(text)) / 2;
             int y = (height + fm.getAscent() - fm.getDescent()) / 2;
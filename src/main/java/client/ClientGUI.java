@@ -1,6 +1,9 @@
 package client;
 
+import common.BoardConfig;
+import common.BoardGenerator;
 import common.Protocol;
+import common.Replay;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import javax.swing.*;
@@ -9,6 +12,8 @@ import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.border.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.List;
 import javax.swing.Timer;
@@ -32,6 +37,10 @@ public class ClientGUI extends JFrame {
     private static final Color TEXT_MUTED = new Color(107, 114, 128);
     private static final Color BORDER_COLOR = new Color(229, 231, 235);
     
+    private static final int PLAYBACK_TICK_MILLIS = 50;
+    // Như GameRoom: mỗi cặp đúng được 10 điểm
+    private static final int PLAYBACK_MATCH_POINTS = 10;
+    
     // Components
     private JPanel loginPanel, lobbyPanel, gamePanel;
     private JTextField loginUsername;
@@ -41,6 +50,7 @@ public class ClientGUI extends JFrame {
     private JLabel welcomeLabel, statsLabel;
     private JTable playerTable, leaderboardTable;
     private DefaultTableModel playerTableModel, leaderboardTableModel;
+    private JComboBox<String> leaderboardPeriodBox, leaderboardDifficultyBox;
     private String currentUsername;
     private int currentPlayerId;
     
@@ -50,17 +60,49 @@ public class ClientGUI extends JFrame {
     private List<CardPanel> cards;
     private CardPanel firstCard, secondCard;
     private boolean canClick;
+    // Số thứ tự của từng lần FLIP trong ván hiện tại
+    private long flipSeq;
     private String opponent;
+    // Mọi người trong phòng (phòng nhiều người có 3-8 người), kể cả mình
+    private List<String> roomPlayers = new ArrayList<>();
+    // Số ghế lúc bắt đầu ván; roomPlayers bớt đi khi có người thoát nhưng phòng vẫn là phòng nhiều người
+    private int roomSize;
+    // Người đang được xem (chế độ xem trận); null khi đang tự chơi
+    private String spectatedPlayer;
     private Timer gameTimer;
     private int remainingTime;
+    
+    // Xem lại replay (null khi không xem lại): phát các sự kiện theo đồng hồ replay, nhân với tốc độ
+    private Replay playback;
+    private int playbackSeat;
+    private int playbackNext;
+    private double playbackClock;
+    private double playbackSpeed = 1;
+    private int[] playbackScores;
+    private Timer playbackTimer;
+    // Cặp lật sai của người đang xem, úp lại khi đồng hồ replay tới playbackUnflipAt
+    private final List<CardPanel> playbackUnflip = new ArrayList<>();
+    private double playbackUnflipAt;
+    private JPanel playbackControls;
+    private JLabel playbackSpeedLabel;
+    private JButton playbackPauseButton;
+    private ByteArrayOutputStream replayDownload;
     private JProgressBar gameProgress;
     private JDialog rematchWaitingDialog;
     private JDialog rematchRequestDialog;
+    // Hộp "đang tìm trận" khi chờ QUICK_PLAY
+    private JDialog quickPlayDialog;
+    private Timer quickPlayTimer;
     
     // Match History
     private JDialog historyDialog;
     private JTable historyTable;
     private DefaultTableModel historyTableModel;
+    private JLabel historyInfoLabel;
+    private String historyNextCursor;
+    private boolean historyLoading;
+    // replay_id của từng dòng trong bảng lịch sử, 0 = trận không có replay
+    private final List<Long> historyReplayIds = new ArrayList<>();
     
     public ClientGUI() {
         setTitle("GAME LẬT THẺ BÀI - TRẬN ĐẤU TRÍ NHỚ");
@@ -294,6 +336,11 @@ public class ClientGUI extends JFrame {
         JPanel rightPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 15, 0));
         rightPanel.setOpaque(false);
         
+        JButton quickPlayButton = createModernButton("Chơi nhanh", SUCCESS_COLOR, false);
+        quickPlayButton.setPreferredSize(new Dimension(130, 45));
+        quickPlayButton.addActionListener(e -> handleQuickPlay());
+        rightPanel.add(quickPlayButton);
+        
         JButton historyButton = createModernButton("Lịch sử đấu", ACCENT_PURPLE, false);
         historyButton.setPreferredSize(new Dimension(140, 45));
         historyButton.addActionListener(e -> showMatchHistoryDialog());
@@ -323,14 +370,18 @@ public class ClientGUI extends JFrame {
         };
         playerTable = new JTable(playerTableModel);
         styleModernTable(playerTable);
+        // Ctrl/Shift để chọn nhiều người cho phòng nhiều người
+        playerTable.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
         
         playerTable.addMouseListener(new MouseAdapter() {
             @Override
             public void mouseClicked(MouseEvent e) {
                 if (e.getClickCount() == 2) {
-                    int row = playerTable.getSelectedRow();
-                    if (row != -1) {
-                        handleQuickChallenge(row);
+                    int[] rows = playerTable.getSelectedRows();
+                    if (rows.length > 1) {
+                        handleGroupChallenge(rows);
+                    } else if (rows.length == 1) {
+                        handleQuickChallenge(rows[0]);
                     }
                 }
             }
@@ -354,7 +405,7 @@ public class ClientGUI extends JFrame {
         JLabel tipIcon = new JLabel("💡");
         tipIcon.setFont(new Font("Segoe UI Emoji", Font.PLAIN, 16));
         
-        JLabel infoLabel = new JLabel("Nháy đúp để thách đấu với họ!");
+        JLabel infoLabel = new JLabel("Nháy đúp để thách đấu với họ! Giữ Ctrl để chọn nhiều người");
         infoLabel.setFont(new Font("Segoe UI", Font.ITALIC, 13));
         infoLabel.setForeground(TEXT_MUTED);
         
@@ -386,11 +437,27 @@ public class ClientGUI extends JFrame {
         leaderContent.setBorder(new EmptyBorder(15, 15, 15, 15));
         leaderContent.add(leaderScroll, BorderLayout.CENTER);
         
+        // Bộ lọc: theo ngày / tuần / trọn đời / rating và theo độ khó
+        leaderboardPeriodBox = new JComboBox<>(new String[]{
+            Protocol.PERIOD_ALL_TIME, Protocol.PERIOD_WEEKLY, Protocol.PERIOD_DAILY, Protocol.PERIOD_RATING});
+        leaderboardDifficultyBox = new JComboBox<>(new String[]{
+            Protocol.ALL_DIFFICULTIES, Protocol.EASY, Protocol.MEDIUM, Protocol.HARD});
+        leaderboardPeriodBox.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        leaderboardDifficultyBox.setFont(new Font("Segoe UI", Font.PLAIN, 13));
+        leaderboardPeriodBox.addActionListener(e -> requestLeaderboard());
+        leaderboardDifficultyBox.addActionListener(e -> requestLeaderboard());
+        
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 0));
+        filterPanel.setBackground(Color.WHITE);
+        filterPanel.add(leaderboardPeriodBox);
+        filterPanel.add(leaderboardDifficultyBox);
+        leaderContent.add(filterPanel, BorderLayout.NORTH);
+        
         JButton refreshButton = createModernButton("Làm mới", SUCCESS_COLOR, false);
         refreshButton.setPreferredSize(new Dimension(120, 35));
         refreshButton.addActionListener(e -> {
             network.getPlayers();
-            network.getLeaderboard();
+            requestLeaderboard();
         });
         
         JPanel refreshPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
@@ -406,7 +473,7 @@ public class ClientGUI extends JFrame {
         Timer refreshTimer = new Timer(3000, e -> {
             if (lobbyPanel.isVisible()) {
                 network.getPlayers();
-                network.getLeaderboard();
+                requestLeaderboard();
             }
         });
         refreshTimer.start();
@@ -420,6 +487,8 @@ public class ClientGUI extends JFrame {
         }
         
         historyDialog = new JDialog(this, "Lịch sử đấu - " + currentUsername, false);
+        historyNextCursor = null;
+        historyLoading = false;
         historyDialog.setSize(1000, 600);
         historyDialog.setLocationRelativeTo(this);
         
@@ -437,12 +506,13 @@ public class ClientGUI extends JFrame {
         
         JButton refreshBtn = createModernButton("Làm mới", SUCCESS_COLOR, false);
         refreshBtn.setPreferredSize(new Dimension(110, 40));
-        refreshBtn.addActionListener(e -> network.getMatchHistory());
+        refreshBtn.addActionListener(e -> requestMatchHistoryPage(null));
         headerPanel.add(refreshBtn, BorderLayout.EAST);
         
         mainPanel.add(headerPanel, BorderLayout.NORTH);
         
-        String[] columns = {"Ngày", "Đối thủ", "Kết quả", "Độ khó", "Điểm của bạn", "Điểm của đối thủ", "Thời gian"};
+        String[] columns = {"Ngày", "Đối thủ", "Kết quả", "Độ khó", "Điểm của bạn", "Điểm của đối thủ", "Thời gian",
+                            "Replay"};
         historyTableModel = new DefaultTableModel(columns, 0) {
             @Override
             public boolean isCellEditable(int row, int column) {
@@ -482,34 +552,68 @@ public class ClientGUI extends JFrame {
             }
         });
         
+        historyTable.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int row = historyTable.getSelectedRow();
+                if (e.getClickCount() == 2 && row >= 0 && row < historyReplayIds.size() && historyReplayIds.get(row) != 0) {
+                    requestReplay(historyReplayIds.get(row));
+                }
+            }
+        });
+        
         JScrollPane scrollPane = new JScrollPane(historyTable);
         scrollPane.setBorder(new EmptyBorder(15, 15, 15, 15));
         scrollPane.getViewport().setBackground(Color.WHITE);
         
+        // Cuộn gần tới cuối thì tải trang tiếp theo
+        scrollPane.getVerticalScrollBar().addAdjustmentListener(e -> {
+            JScrollBar bar = (JScrollBar) e.getAdjustable();
+            if (historyNextCursor != null &&
+                bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - historyTable.getRowHeight() * 2) {
+                requestMatchHistoryPage(historyNextCursor);
+            }
+        });
+        
         mainPanel.add(scrollPane, BorderLayout.CENTER);
         
         JPanel footerPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
         footerPanel.setBackground(new Color(249, 250, 251));
         footerPanel.setBorder(new MatteBorder(1, 0, 0, 0, BORDER_COLOR));
         
-        JLabel infoLabel = new JLabel("20 trận đấu gần nhất");
-        infoLabel.setFont(new Font("Segoe UI", Font.ITALIC, 13));
-        infoLabel.setForeground(TEXT_MUTED);
-        footerPanel.add(infoLabel);
+        historyInfoLabel = new JLabel("Đang tải...");
+        historyInfoLabel.setFont(new Font("Segoe UI", Font.ITALIC, 13));
+        historyInfoLabel.setForeground(TEXT_MUTED);
+        footerPanel.add(historyInfoLabel);
         
         mainPanel.add(footerPanel, BorderLayout.SOUTH);
         
         historyDialog.add(mainPanel);
         historyDialog.setVisible(true);
         
-        network.getMatchHistory();
+        requestMatchHistoryPage(null);
     }
     
-    public void updateMatchHistory(JSONArray data) {
+    private void requestMatchHistoryPage(String cursor) {
+        // cursor == null: tải lại từ trang đầu; ngược lại chỉ tải khi đúng là trang kế tiếp
+        if (historyLoading || (cursor != null && !cursor.equals(historyNextCursor))) return;
+        historyLoading = true;
+        network.getMatchHistory(cursor);
+    }
+    
+    public void updateMatchHistory(JSONObject message) {
         SwingUtilities.invokeLater(() -> {
             if (historyTableModel == null) return;
             
-            historyTableModel.setRowCount(0);
+            JSONArray data = message.getJSONArray("data");
+            historyLoading = false;
+            historyNextCursor = message.optString("nextCursor", null);
+            
+            // Trang đầu thay thế toàn bộ bảng, các trang sau nối thêm vào cuối
+            if (!message.has("cursor")) {
+                historyTableModel.setRowCount(0);
+                historyReplayIds.clear();
+            }
             
             for (int i = 0; i < data.length(); i++) {
                 JSONObject match = data.getJSONObject(i);
@@ -542,10 +646,16 @@ public class ClientGUI extends JFrame {
                     difficulty,
                     myScore,
                     oppScore,
-                    durationStr
+                    durationStr,
+                    match.has("replay_id") ? "▶ Xem lại" : "-"
                 });
+                historyReplayIds.add(match.optLong("replay_id", 0));
             }
             
+            historyInfoLabel.setText(historyNextCursor != null
+                ? historyTableModel.getRowCount() + " trận - cuộn xuống để xem thêm, nhấp đúp để xem lại"
+                : "Đã hiển thị tất cả " + historyTableModel.getRowCount() + " trận - nhấp đúp để xem lại");
+            
             System.out.println("Match history updated: " + data.length() + " matches");
         });
     }
@@ -647,6 +757,26 @@ public class ClientGUI extends JFrame {
         quitButton.addActionListener(e -> handleQuitGame());
         controlPanel.add(quitButton);
         
+        // Điều khiển xem lại, chỉ hiện khi đang phát replay
+        playbackControls = new JPanel(new FlowLayout(FlowLayout.CENTER, 8, 0));
+        playbackControls.setOpaque(false);
+        playbackPauseButton = createModernButton("Tạm dừng", ACCENT_BLUE, false);
+        playbackPauseButton.setPreferredSize(new Dimension(110, 45));
+        playbackPauseButton.addActionListener(e -> togglePlaybackPause());
+        playbackControls.add(playbackPauseButton);
+        for (double speed : new double[]{0.5, 1, 2, 4}) {
+            JButton speedButton = createModernButton(formatSpeed(speed), ACCENT_PURPLE, false);
+            speedButton.setPreferredSize(new Dimension(70, 45));
+            speedButton.addActionListener(e -> setPlaybackSpeed(speed));
+            playbackControls.add(speedButton);
+        }
+        playbackSpeedLabel = new JLabel();
+        playbackSpeedLabel.setFont(new Font("Segoe UI", Font.BOLD, 14));
+        playbackSpeedLabel.setForeground(TEXT_MUTED);
+        playbackControls.add(playbackSpeedLabel);
+        playbackControls.setVisible(false);
+        controlPanel.add(playbackControls);
+        
         gamePanel.add(controlPanel, BorderLayout.SOUTH);
         
         cards = new ArrayList<>();
@@ -822,6 +952,7 @@ public class ClientGUI extends JFrame {
             JOptionPane.QUESTION_MESSAGE);
         
         if (confirm == JOptionPane.YES_OPTION) {
+            closeQuickPlayDialog();
             if (network != null && network.isConnected()) {
                 network.disconnect();
             }
@@ -835,6 +966,73 @@ public class ClientGUI extends JFrame {
         }
     }
     
+    private void handleQuickPlay() {
+        if (quickPlayDialog != null) {
+            quickPlayDialog.toFront();
+            return;
+        }
+        String[] difficulties = {Protocol.EASY, Protocol.MEDIUM, Protocol.HARD};
+        Object choice = JOptionPane.showInputDialog(this, "Chọn độ khó, hệ thống sẽ tìm đối thủ cùng trình độ:",
+            "Chơi nhanh", JOptionPane.QUESTION_MESSAGE, null, difficulties, Protocol.MEDIUM);
+        if (choice != null) {
+            network.quickPlay((String) choice);
+        }
+    }
+    
+    /** Server xác nhận vào/rời hàng chờ; ghép được trận thì GAME_START tự đóng hộp chờ. */
+    public void handleQueueStatus(JSONObject data) {
+        SwingUtilities.invokeLater(() -> {
+            closeQuickPlayDialog();
+            if (!data.getBoolean("queued")) return;
+            
+            int expected = data.optInt("expectedWait", 0);
+            long joinedAt = System.currentTimeMillis();
+            quickPlayDialog = new JDialog(this, "Chơi nhanh", false);
+            quickPlayDialog.setSize(380, 200);
+            quickPlayDialog.setLocationRelativeTo(this);
+            quickPlayDialog.setDefaultCloseOperation(JDialog.DO_NOTHING_ON_CLOSE);
+            
+            JPanel panel = new JPanel(new BorderLayout(0, 20));
+            panel.setBackground(Color.WHITE);
+            panel.setBorder(new EmptyBorder(25, 30, 25, 30));
+            
+            JLabel waitingLabel = new JLabel("", SwingConstants.CENTER);
+            panel.add(waitingLabel, BorderLayout.CENTER);
+            Runnable refresh = () -> waitingLabel.setText(
+                "<html><div style='text-align: center;'>" +
+                "<h2 style='color: #22C55E;'>Đang tìm đối thủ - " + data.getString("difficulty") + "</h2>" +
+                "<p style='color: #6B7280; margin-top: 10px;'>Đã chờ " + (System.currentTimeMillis() - joinedAt) / 1000 +
+                "s" + (expected > 0 ? " (thường khoảng " + expected + "s)" : "") + "</p></div></html>");
+            refresh.run();
+            quickPlayTimer = new Timer(1000, e -> refresh.run());
+            quickPlayTimer.start();
+            
+            JButton cancelButton = createModernButton("Hủy", DANGER_COLOR, false);
+            cancelButton.addActionListener(e -> {
+                network.cancelQuickPlay();
+                closeQuickPlayDialog();
+            });
+            JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
+            buttonPanel.setBackground(Color.WHITE);
+            buttonPanel.add(cancelButton);
+            panel.add(buttonPanel, BorderLayout.SOUTH);
+            
+            quickPlayDialog.add(panel);
+            quickPlayDialog.setVisible(true);
+        });
+    }
+    
+    private void closeQuickPlayDialog() {
+        if (quickPlayTimer != null) {
+            quickPlayTimer.stop();
+            quickPlayTimer = null;
+        }
+        if (quickPlayDialog != null) {
+            quickPlayDialog.dispose();
+            quickPlayDialog = null;
+        }
+    }
+    
     private void handleQuickChallenge(int selectedRow) {
         String targetPlayer = (String) playerTableModel.getValueAt(selectedRow, 0);
         String status = (String) playerTableModel.getValueAt(selectedRow, 1);
@@ -845,16 +1043,48 @@ public class ClientGUI extends JFrame {
         }
         
         if (status.equals("In Game")) {
-            showModernError("Player is currently in a game", "Player Unavailable");
+            int watch = JOptionPane.showConfirmDialog(this,
+                targetPlayer + " đang trong trận.\n\nBạn có muốn xem trận này không?",
+                "Xem trận",
+                JOptionPane.YES_NO_OPTION,
+                JOptionPane.QUESTION_MESSAGE);
+            if (watch == JOptionPane.YES_OPTION) {
+                spectatedPlayer = targetPlayer;
+                network.spectate(targetPlayer);
+            }
             return;
         }
         
-        showDifficultySelectionDialog(targetPlayer);
+        showDifficultySelectionDialog(Collections.singletonList(targetPlayer));
     }
     
-    private void showDifficultySelectionDialog(String targetPlayer) {
+    private void handleGroupChallenge(int[] selectedRows) {
+        List<String> targets = new ArrayList<>();
+        for (int row : selectedRows) {
+            String player = (String) playerTableModel.getValueAt(row, 0);
+            String status = (String) playerTableModel.getValueAt(row, 1);
+            if (player.equals(currentUsername)) continue;
+            if (status.equals("In Game")) {
+                showModernError(player + " is currently in a game", "Player Unavailable");
+                return;
+            }
+            targets.add(player);
+        }
+        if (targets.isEmpty()) {
+            showModernError("You cannot challenge yourself", "Invalid Action");
+            return;
+        }
+        if (targets.size() + 1 > Protocol.MAX_ROOM_PLAYERS) {
+            showModernError("A room holds at most " + Protocol.MAX_ROOM_PLAYERS + " players", "Too Many Players");
+            return;
+        }
+        showDifficultySelectionDialog(targets);
+    }
+    
+    private void showDifficultySelectionDialog(List<String> targets) {
+        String targetPlayer = String.join(", ", targets);
         JDialog diffDialog = new JDialog(this, "Thách đấu " + targetPlayer, true);
-        diffDialog.setSize(450, 480);
+        diffDialog.setSize(450, 565);
         diffDialog.setLocationRelativeTo(this);
         diffDialog.setResizable(false);
 
@@ -889,12 +1119,13 @@ public class ClientGUI extends JFrame {
         String[][] optionData = {
             {"Dễ", "12 thẻ bài - 3 phút", "EASY"},
             {"Trung bình", "20 thẻ bài - 4 phút", "MEDIUM"},
-            {"Khó", "30 thẻ bài - 5 phút", "HARD"}
+            {"Khó", "30 thẻ bài - 5 phút", "HARD"},
+            {"Giải đấu", "Tự chọn " + BoardConfig.MIN_CARDS + "-" + BoardConfig.MAX_CARDS + " thẻ bài", "CUSTOM"}
         };
 
-        JPanel[] optionPanels = new JPanel[3];
+        JPanel[] optionPanels = new JPanel[optionData.length];
 
-        for (int i = 0; i < 3; i++) {
+        for (int i = 0; i < optionData.length; i++) {
             final int index = i;
             String title = optionData[i][0];
             String desc = optionData[i][1];
@@ -1021,7 +1252,7 @@ public class ClientGUI extends JFrame {
             optionPanels[i] = optionPanel;
             optionsPanel.add(optionPanel);
 
-            if (i < 2) {
+            if (i < optionData.length - 1) {
                 optionsPanel.add(Box.createVerticalStrut(15));
             }
         }
@@ -1035,7 +1266,14 @@ public class ClientGUI extends JFrame {
         JButton sendButton = createModernButton("Thách đấu", SUCCESS_COLOR, true);
         sendButton.setPreferredSize(new Dimension(150, 45));
         sendButton.addActionListener(e -> {
-            network.sendChallenge(targetPlayer, selectedDifficulty[0]);
+            BoardConfig board = Protocol.CUSTOM.equals(selectedDifficulty[0])
+                                ? askCustomBoard(diffDialog) : BoardConfig.of(selectedDifficulty[0]);
+            if (board == null) return;
+            if (targets.size() == 1) {
+                network.sendChallenge(targets.get(0), board);
+            } else {
+                network.sendGroupChallenge(targets, board);
+            }
             diffDialog.dispose();
             showModernSuccess(
                 "Đã gửi lời thách đấu đến " + targetPlayer + "!\nXin chờ phản hồi...",
@@ -1056,7 +1294,36 @@ public class ClientGUI extends JFrame {
         diffDialog.setVisible(true);
     }
     
+    // Bàn giải đấu: chọn số thẻ và thời gian; null nếu người chơi hủy
+    private BoardConfig askCustomBoard(Component parent) {
+        JSpinner cardsSpinner = new JSpinner(new SpinnerNumberModel(200, BoardConfig.MIN_CARDS, BoardConfig.MAX_CARDS, 2));
+        JSpinner minutesSpinner = new JSpinner(new SpinnerNumberModel(15, 1, BoardConfig.MAX_TIME_LIMIT / 60, 1));
+        JPanel panel = new JPanel(new GridLayout(2, 2, 10, 10));
+        panel.add(new JLabel("Số thẻ bài:"));
+        panel.add(cardsSpinner);
+        panel.add(new JLabel("Thời gian (phút):"));
+        panel.add(minutesSpinner);
+        int result = JOptionPane.showConfirmDialog(parent, panel, "Bàn giải đấu",
+                                                   JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (result != JOptionPane.OK_OPTION) return null;
+        try {
+            return BoardConfig.custom((Integer) cardsSpinner.getValue(), (Integer) minutesSpinner.getValue() * 60);
+        } catch (IllegalArgumentException ex) {
+            showModernError(ex.getMessage(), "Bàn không hợp lệ");
+            return null;
+        }
+    }
+    
     private void handleQuitGame() {
+        if (spectatedPlayer != null) {
+            stopSpectating();
+            return;
+        }
+        if (playback != null) {
+            stopPlayback();
+            returnToLobby();
+            return;
+        }
         int confirm = JOptionPane.showConfirmDialog(this,
             "Cảnh báo: Hệ thống sẽ ghi lại hành động của bạn.\n" +
             "3 lần thoát đấu = Tài khoản của bạn sẽ bị BAN!\n\nBạn chắc chứ?",
@@ -1085,12 +1352,27 @@ public class ClientGUI extends JFrame {
             int losses = data.getInt("losses");
             int totalGames = wins + losses;
             
-            statsLabel.setText(String.format("Score: %d | Wins: %d | Losses: %d | Games: %d", 
-                                            score, wins, losses, totalGames));
+            statsLabel.setText(String.format("Score: %d | Rating: %d | Wins: %d | Losses: %d | Games: %d", 
+                                            score, data.optInt("rating", 1500), wins, losses, totalGames));
             
             cardLayout.show(mainPanel, "LOBBY");
             network.getPlayers();
-            network.getLeaderboard();
+            requestLeaderboard();
+        });
+    }
+    
+    public void handleAccountBanned(String message) {
+        SwingUtilities.invokeLater(() -> {
+            if (gameTimer != null) {
+                gameTimer.stop();
+            }
+            closeRematchWaitingDialog();
+            closeRematchRequestDialog();
+            if (historyDialog != null) {
+                historyDialog.dispose();
+            }
+            cardLayout.show(mainPanel, "LOGIN");
+            showModernError(message, "Tài khoản bị khóa");
         });
     }
     
@@ -1127,7 +1409,8 @@ public class ClientGUI extends JFrame {
                 JSONObject player = data.getJSONObject(i);
                 int rank = i + 1;
                 String username = player.getString("username");
-                int score = player.getInt("total_score");
+                // Bảng RATING hiện rating ở cột điểm
+                int score = player.has("rating") ? player.getInt("rating") : player.getInt("total_score");
                 int wins = player.getInt("wins");
                 int losses = player.getInt("losses");
                 String wl = wins + "-" + losses;
@@ -1145,6 +1428,11 @@ public class ClientGUI extends JFrame {
         });
     }
     
+    private void requestLeaderboard() {
+        network.getLeaderboard((String) leaderboardPeriodBox.getSelectedItem(),
+                               (String) leaderboardDifficultyBox.getSelectedItem());
+    }
+    
     private String getRankIcon(int rank) {
         switch(rank) {
             case 1: return "### ";
@@ -1154,38 +1442,76 @@ public class ClientGUI extends JFrame {
         }
     }
     
-    public void handleChallengeReceived(String from, String difficulty) {
+    public void handleChallengeReceived(String from, BoardConfig board) {
         SwingUtilities.invokeLater(() -> {
             int response = JOptionPane.showConfirmDialog(this,
-                "🎮 " + from + " đã thách đấu với chế độ " + difficulty + "!\n\nBạn có chấp nhận lời thách đấu không?",
+                "🎮 " + from + " đã thách đấu với chế độ " + board.describe() + "!\n\nBạn có chấp nhận lời thách đấu không?",
                 "Đã nhận được lời thách đấu",
                 JOptionPane.YES_NO_OPTION,
                 JOptionPane.QUESTION_MESSAGE);
             
             if (response == JOptionPane.YES_OPTION) {
-                network.acceptChallenge(from, difficulty);
+                network.acceptChallenge(from);
             } else {
                 network.declineChallenge(from);
             }
         });
     }
     
+    /** Lời mời vào phòng nhiều người; phòng chỉ bắt đầu khi mọi người đã đồng ý. */
+    public void handleGroupChallengeReceived(String from, String challengeId, List<String> players, BoardConfig board) {
+        SwingUtilities.invokeLater(() -> {
+            int response = JOptionPane.showConfirmDialog(this,
+                "🎮 " + from + " mời bạn vào phòng " + players.size() + " người (" + String.join(", ", players) +
+                ") với chế độ " + board.describe() + "!\n\nBạn có tham gia không?",
+                "Đã nhận được lời mời",
+                JOptionPane.YES_NO_OPTION,
+                JOptionPane.QUESTION_MESSAGE);
+            
+            if (response == JOptionPane.YES_OPTION) {
+                network.acceptGroupChallenge(challengeId);
+            } else {
+                network.declineGroupChallenge(challengeId);
+            }
+        });
+    }
+    
     public void handleChallengeDeclined(String decliner) {
         SwingUtilities.invokeLater(() -> showModernError(decliner + " từ chối lời thách đấu", "Từ chối thách đấu"));
     }
     
     public void handleGameStart(JSONObject data) {
         SwingUtilities.invokeLater(() -> {
+            spectatedPlayer = null;
+            stopPlayback();
+            closeQuickPlayDialog();
             opponent = data.getString("opponent");
+            roomPlayers = new ArrayList<>();
+            JSONArray playersArray = data.optJSONArray("players");
+            if (playersArray != null) {
+                for (int i = 0; i < playersArray.length(); i++) {
+                    roomPlayers.add(playersArray.getString(i));
+                }
+            }
+            roomSize = Math.max(2, roomPlayers.size());
+            opponentScoreLabel.setToolTipText(null);
             int cardCount = data.getInt("cardCount");
             remainingTime = data.getInt("timeLimit");
             int rows = data.getInt("rows");
             int cols = data.getInt("cols");
             
-            JSONArray cardValuesArray = data.getJSONArray("cardValues");
-            int[] cardValues = new int[cardValuesArray.length()];
-            for (int i = 0; i < cardValuesArray.length(); i++) {
-                cardValues[i] = cardValuesArray.getInt(i);
+            // Bàn ẩn (HIDDEN): chưa biết giá trị nào, server gửi dần qua GAME_UPDATE
+            int[] cardValues = new int[cardCount];
+            Arrays.fill(cardValues, -1);
+            JSONArray cardValuesArray = data.optJSONArray("cardValues");
+            if (data.has("seed")) {
+                cardValues = BoardGenerator.generate(data.getLong("seed"), cardCount);
+            } else if (data.opt("cardValues") instanceof String) {
+                cardValues = BoardConfig.unpackValues(data.getString("cardValues"));
+            } else if (cardValuesArray != null) {
+                for (int i = 0; i < cardValuesArray.length(); i++) {
+                    cardValues[i] = cardValuesArray.getInt(i);
+                }
             }
             
             setupGameBoard(cardCount, cardValues, rows, cols);
@@ -1213,17 +1539,23 @@ public class ClientGUI extends JFrame {
         cards.clear();
         firstCard = null;
         secondCard = null;
+        flipSeq = 0;
         
-        cardGridPanel.setLayout(new GridLayout(rows, cols, 15, 15));
+        // Bàn giải đấu (hàng trăm thẻ): thẻ nhỏ, khe hẹp để vẫn vừa màn hình
+        boolean largeBoard = cardCount > 30;
+        int gap = largeBoard ? 4 : 15;
+        Dimension cardSize = largeBoard ? new Dimension(48, 58) : new Dimension(100, 120);
+        cardGridPanel.setLayout(new GridLayout(rows, cols, gap, gap));
         
         for (int i = 0; i < cardCount; i++) {
             CardPanel card = new CardPanel(i);
+            card.setPreferredSize(cardSize);
             int value = cardValues[i];
             card.setValue(value);
             
-            String imagePath = imageManager.getImagePath(value);
-            if (imagePath != null) {
-                card.setCardImage(imagePath);
+            // Ảnh lấy từ cache của ImageManager, mỗi ảnh chỉ đọc từ đĩa một lần dù bàn có bao nhiêu thẻ
+            if (value >= 0) {
+                card.setCardImage(imageManager.getImage(value));
             }
             
             card.setCardClickListener(this::onCardClick);
@@ -1238,20 +1570,45 @@ public class ClientGUI extends JFrame {
     }
     
     private void onCardClick(CardPanel card) {
-        if (!canClick) return;
+        if (!canClick || spectatedPlayer != null || playback != null) return;
         
+        // Mỗi lá gửi ngay một FLIP; server trả CARD_REVEAL cho lá đầu và GAME_UPDATE khi đủ cặp
         if (firstCard == null) {
             firstCard = card;
             firstCard.flip();
+            network.flipCard(card.getIndex(), ++flipSeq);
         } else if (secondCard == null && card != firstCard) {
             secondCard = card;
             secondCard.flip();
             canClick = false;
-            
-            network.flipCards(firstCard.getIndex(), secondCard.getIndex());
+            network.flipCard(card.getIndex(), ++flipSeq);
         }
     }
     
+    public void handleCardReveal(JSONObject data) {
+        SwingUtilities.invokeLater(() -> {
+            CardPanel card = cards.get(data.getInt("card"));
+            int value = data.getInt("value");
+            card.setValue(value);
+            card.setCardImage(imageManager.getImage(value));
+            card.repaint();
+        });
+    }
+    
+    public void handleFlipRejected(JSONObject data) {
+        SwingUtilities.invokeLater(() -> {
+            int index = data.getInt("card");
+            if (secondCard != null && secondCard.getIndex() == index) {
+                secondCard.unflip();
+                secondCard = null;
+            } else if (firstCard != null && firstCard.getIndex() == index) {
+                firstCard.unflip();
+                firstCard = null;
+            }
+            canClick = true;
+        });
+    }
+    
     public void handleGameUpdate(JSONObject data) {
         SwingUtilities.invokeLater(() -> {
             int card1 = data.getInt("card1");
@@ -1259,6 +1616,9 @@ public class ClientGUI extends JFrame {
             int value1 = data.getInt("value1");
             int value2 = data.getInt("value2");
             boolean matched = data.getBoolean("matched");
+            if (data.has("score")) {
+                myScoreLabel.setText(String.valueOf(data.getInt("score")));
+            }
             
             CardPanel c1 = cards.get(card1);
             CardPanel c2 = cards.get(card2);
@@ -1266,10 +1626,8 @@ public class ClientGUI extends JFrame {
             c1.setValue(value1);
             c2.setValue(value2);
             
-            String img1 = imageManager.getImagePath(value1);
-            String img2 = imageManager.getImagePath(value2);
-            if (img1 != null) c1.setCardImage(img1);
-            if (img2 != null) c2.setCardImage(img2);
+            c1.setCardImage(imageManager.getImage(value1));
+            c2.setCardImage(imageManager.getImage(value2));
             
             c1.flip();
             c2.flip();
@@ -1300,17 +1658,370 @@ public class ClientGUI extends JFrame {
     
     public void handleScoreUpdate(JSONObject data) {
         SwingUtilities.invokeLater(() -> {
-            if (data.has(currentUsername)) {
-                int myScore = data.getInt(currentUsername);
+            // Khi xem trận/xem lại, ô "của bạn" là điểm của người đang được xem
+            String me = spectatedPlayer != null ? spectatedPlayer
+                      : playback != null ? playback.players[playbackSeat] : currentUsername;
+            if (data.has(me)) {
+                int myScore = data.getInt(me);
                 myScoreLabel.setText(String.valueOf(myScore));
             }
-            if (data.has(opponent)) {
+            if (roomSize > 2) {
+                // Phòng nhiều người: hiện điểm đối thủ dẫn đầu, bảng điểm đầy đủ ở tooltip
+                String leader = null;
+                StringBuilder standings = new StringBuilder("<html>");
+                for (String player : roomPlayers) {
+                    if (!data.has(player)) continue;
+                    standings.append(player).append(": ").append(data.getInt(player)).append("<br>");
+                    if (!player.equals(me) && (leader == null || data.getInt(player) > data.getInt(leader))) {
+                        leader = player;
+                    }
+                }
+                if (leader != null) {
+                    opponentScoreLabel.setText(String.valueOf(data.getInt(leader)));
+                }
+                opponentScoreLabel.setToolTipText(standings.append("</html>").toString());
+            } else if (data.has(opponent)) {
                 int oppScore = data.getInt(opponent);
                 opponentScoreLabel.setText(String.valueOf(oppScore));
             }
         });
     }
     
+    /** Ảnh chụp trận đang xem (trễ vài giây so với thực tế), sau đó là các SPECTATE_EVENT. */
+    public void handleSpectateStart(JSONObject data) {
+        SwingUtilities.invokeLater(() -> {
+            if (spectatedPlayer == null) return;
+            int cardCount = data.getInt("cardCount");
+            JSONArray valuesArray = data.getJSONArray("cardValues");
+            int[] cardValues = new int[cardCount];
+            for (int i = 0; i < cardCount; i++) {
+                cardValues[i] = valuesArray.getInt(i);
+            }
+            setupGameBoard(cardCount, cardValues, data.getInt("rows"), data.getInt("cols"));
+            
+            roomPlayers = new ArrayList<>();
+            opponent = null;
+            JSONObject scores = new JSONObject();
+            JSONArray players = data.getJSONArray("players");
+            roomSize = players.length();
+            for (int i = 0; i < players.length(); i++) {
+                JSONObject player = players.getJSONObject(i);
+                String name = player.getString("username");
+                if (player.getBoolean("left")) continue;
+                roomPlayers.add(name);
+                scores.put(name, player.getInt("score"));
+                if (name.equals(spectatedPlayer)) {
+                    JSONArray matched = player.getJSONArray("matched");
+                    for (int j = 0; j < matched.length(); j++) {
+                        cards.get(matched.getInt(j)).setMatched(true);
+                    }
+                } else if (opponent == null) {
+                    opponent = name;
+                }
+            }
+            myScoreLabel.setText("0");
+            opponentScoreLabel.setText("0");
+            opponentScoreLabel.setToolTipText(null);
+            handleScoreUpdate(scores);
+            
+            canClick = false;
+            remainingTime = data.getInt("timeLimit") - data.getInt("elapsed");
+            updateTimer();
+            if (gameTimer != null) {
+                gameTimer.stop();
+            }
+            gameTimer = new Timer(1000, e -> {
+                remainingTime--;
+                updateTimer();
+                if (remainingTime <= 0) {
+                    gameTimer.stop();
+                }
+            });
+            gameTimer.start();
+            cardLayout.show(mainPanel, "GAME");
+        });
+    }
+    
+    /** Một message của ván đang xem; chỉ các lượt lật của người đang được xem hiện lên bàn. */
+    public void handleSpectateEvent(JSONObject event) {
+        SwingUtilities.invokeLater(() -> {
+            if (spectatedPlayer == null) return;
+            switch (event.getString("type")) {
+                case Protocol.GAME_UPDATE:
+                    if (spectatedPlayer.equals(event.getString("player"))) {
+                        handleGameUpdate(event);
+                    }
+                    break;
+                case Protocol.SCORE_UPDATE:
+                    handleScoreUpdate(event);
+                    break;
+                case Protocol.PLAYER_LEFT:
+                    handlePlayerLeft(event.getString("player"));
+                    break;
+                case Protocol.GAME_END:
+                    spectatedPlayer = null;
+                    if (gameTimer != null) {
+                        gameTimer.stop();
+                    }
+                    showRoomStandings(event.getString("winner"), event.getJSONArray("players"));
+                    break;
+                case Protocol.OPPONENT_QUIT:
+                    spectatedPlayer = null;
+                    if (gameTimer != null) {
+                        gameTimer.stop();
+                    }
+                    showModernSuccess(event.getString("quitter") + " đã thoát, trận đấu kết thúc.", "Kết thúc");
+                    returnToLobby();
+                    break;
+                default:
+                    break;
+            }
+        });
+    }
+    
+    public void handleSpectateEnd(String message) {
+        SwingUtilities.invokeLater(() -> {
+            // Trận đã kết thúc trước khi kịp xem, hoặc kết thúc mà không có GAME_END
+            if (spectatedPlayer == null) return;
+            spectatedPlayer = null;
+            if (gameTimer != null) {
+                gameTimer.stop();
+            }
+            // Có message: server ngắt xem vì kết nối quá chậm
+            if (message != null) {
+                showModernError(message, "Dừng xem trận");
+            } else {
+                showModernSuccess("Trận đấu đã kết thúc.", "Kết thúc");
+            }
+            returnToLobby();
+        });
+    }
+    
+    private void stopSpectating() {
+        network.stopSpectate();
+        spectatedPlayer = null;
+        if (gameTimer != null) {
+            gameTimer.stop();
+        }
+        returnToLobby();
+    }
+    
+    private void requestReplay(long replayId) {
+        if (playback != null || (gameTimer != null && gameTimer.isRunning())) return;
+        replayDownload = null;
+        network.getReplay(replayId);
+    }
+    
+    /** Ghép các REPLAY_CHUNK lại; đủ đoạn cuối thì bắt đầu phát. */
+    public void handleReplayChunk(JSONObject data) {
+        SwingUtilities.invokeLater(() -> {
+            if (data.getInt("index") == 0) {
+                replayDownload = new ByteArrayOutputStream(data.getInt("size"));
+            }
+            if (replayDownload == null) return;
+            byte[] bytes = Base64.getDecoder().decode(data.getString("data"));
+            replayDownload.write(bytes, 0, bytes.length);
+            if (!data.getBoolean("last")) return;
+            
+            byte[] record = replayDownload.toByteArray();
+            replayDownload = null;
+            try {
+                startPlayback(Replay.parse(ByteBuffer.wrap(record)));
+            } catch (IllegalArgumentException e) {
+                showModernError("Không đọc được replay: " + e.getMessage(), "Xem lại");
+            }
+        });
+    }
+    
+    /** Phát lại một ván trên bàn chơi; bàn dựng lại từ seed, chỉ các lượt lật của một người hiện lên bàn. */
+    private void startPlayback(Replay replay) {
+        // Đang chơi hoặc đang xem trận thì bỏ qua
+        if (gameTimer != null && gameTimer.isRunning()) return;
+        stopPlayback();
+        if (historyDialog != null) {
+            historyDialog.dispose();
+        }
+        
+        playback = replay;
+        // Xem từ ghế của mình nếu mình có trong trận
+        playbackSeat = Math.max(0, Arrays.asList(replay.players).indexOf(currentUsername));
+        playbackNext = 0;
+        playbackClock = 0;
+        playbackScores = new int[replay.players.length];
+        roomPlayers = new ArrayList<>(Arrays.asList(replay.players));
+        roomSize = replay.players.length;
+        opponent = replay.players[(playbackSeat + 1) % replay.players.length];
+        
+        BoardConfig board = Protocol.CUSTOM.equals(replay.difficulty)
+            ? BoardConfig.custom(replay.cardCount, replay.timeLimit) : BoardConfig.of(replay.difficulty);
+        setupGameBoard(replay.cardCount, BoardGenerator.generate(replay.seed, replay.cardCount), board.rows, board.cols);
+        canClick = false;
+        myScoreLabel.setText("0");
+        opponentScoreLabel.setText("0");
+        opponentScoreLabel.setToolTipText(null);
+        remainingTime = replay.timeLimit;
+        updateTimer();
+        
+        setPlaybackSpeed(1);
+        playbackPauseButton.setText("Tạm dừng");
+        playbackControls.setVisible(true);
+        quitButton.setText("Dừng xem");
+        playbackTimer = new Timer(PLAYBACK_TICK_MILLIS, e -> advancePlayback());
+        playbackTimer.start();
+        cardLayout.show(mainPanel, "GAME");
+        
+        System.out.println("Replay playback: " + String.join(" vs ", replay.players) + ", " +
+                           replay.events.size() + " events, " + replay.durationMillis() / 1000 + "s");
+    }
+    
+    private void advancePlayback() {
+        Replay replay = playback;
+        if (replay == null) return;
+        playbackClock += PLAYBACK_TICK_MILLIS * playbackSpeed;
+        if (!playbackUnflip.isEmpty() && playbackClock >= playbackUnflipAt) {
+            unflipPlayback();
+        }
+        while (playback == replay && playbackNext < replay.events.size() &&
+               replay.events.get(playbackNext).millis <= playbackClock) {
+            applyPlaybackEvent(replay.events.get(playbackNext++));
+        }
+        if (playback != replay) return;
+        if (playbackNext >= replay.events.size()) {
+            // Bản ghi không có END (không nên xảy ra)
+            stopPlayback();
+            returnToLobby();
+            return;
+        }
+        int remaining = Math.max(0, replay.timeLimit - (int) (playbackClock / 1000));
+        if (remaining != remainingTime) {
+            remainingTime = remaining;
+            updateTimer();
+        }
+    }
+    
+    private void applyPlaybackEvent(Replay.Event event) {
+        switch (event.type) {
+            case Replay.REVEAL:
+                if (event.seat == playbackSeat) {
+                    unflipPlayback();
+                    cards.get(event.card1).flip();
+                }
+                break;
+            case Replay.PAIR:
+                if (event.matched) {
+                    playbackScores[event.seat] += PLAYBACK_MATCH_POINTS;
+                    showPlaybackScores();
+                }
+                if (event.seat == playbackSeat) {
+                    CardPanel c1 = cards.get(event.card1);
+                    CardPanel c2 = cards.get(event.card2);
+                    if (event.matched) {
+                        c1.setMatched(true);
+                        c2.setMatched(true);
+                    } else {
+                        c2.flip();
+                        playbackUnflip.add(c1);
+                        playbackUnflip.add(c2);
+                        // Như lúc chơi: cặp sai mở 1.2 giây (theo đồng hồ replay) rồi úp lại
+                        playbackUnflipAt = playbackClock + 1200;
+                    }
+                }
+                break;
+            case Replay.LEAVE:
+                roomPlayers.remove(playback.players[event.seat]);
+                showPlaybackScores();
+                break;
+            default:
+                finishPlayback(event);
+                break;
+        }
+    }
+    
+    private void unflipPlayback() {
+        for (CardPanel card : playbackUnflip) {
+            card.unflip();
+        }
+        playbackUnflip.clear();
+    }
+    
+    private void showPlaybackScores() {
+        JSONObject scores = new JSONObject();
+        for (int seat = 0; seat < playback.players.length; seat++) {
+            scores.put(playback.players[seat], playbackScores[seat]);
+        }
+        handleScoreUpdate(scores);
+    }
+    
+    private void finishPlayback(Replay.Event end) {
+        Replay replay = playback;
+        stopPlayback();
+        
+        // Bảng kết quả như GAME_END: điểm cuối giảm dần, người thoát xếp sau
+        boolean[] left = new boolean[replay.players.length];
+        for (Replay.Event event : replay.events) {
+            if (event.type == Replay.LEAVE) left[event.seat] = true;
+        }
+        List<Integer> seats = new ArrayList<>();
+        for (int seat = 0; seat < replay.players.length; seat++) {
+            seats.add(seat);
+        }
+        seats.sort(Comparator.<Integer, Boolean>comparing(seat -> left[seat])
+                             .thenComparing(seat -> -end.scores[seat]));
+        JSONArray standings = new JSONArray();
+        for (int seat : seats) {
+            JSONObject standing = new JSONObject();
+            standing.put("username", replay.players[seat]);
+            standing.put("score", end.scores[seat]);
+            standing.put("left", left[seat]);
+            standings.put(standing);
+        }
+        myScoreLabel.setText(String.valueOf(end.scores[playbackSeat]));
+        showRoomStandings(end.winnerSeat < 0 ? "DRAW" : replay.players[end.winnerSeat], standings);
+    }
+    
+    private void stopPlayback() {
+        if (playbackTimer != null) {
+            playbackTimer.stop();
+            playbackTimer = null;
+        }
+        playback = null;
+        playbackUnflip.clear();
+        playbackControls.setVisible(false);
+        quitButton.setText("Thoát Game");
+    }
+    
+    private void togglePlaybackPause() {
+        if (playbackTimer == null) return;
+        if (playbackTimer.isRunning()) {
+            playbackTimer.stop();
+            playbackPauseButton.setText("Tiếp tục");
+        } else {
+            playbackTimer.start();
+            playbackPauseButton.setText("Tạm dừng");
+        }
+    }
+    
+    private void setPlaybackSpeed(double speed) {
+        playbackSpeed = speed;
+        playbackSpeedLabel.setText("Tốc độ " + formatSpeed(speed));
+    }
+    
+    private static String formatSpeed(double speed) {
+        return (speed == Math.floor(speed) ? String.valueOf((int) speed) : String.valueOf(speed)) + "x";
+    }
+    
+    public void handlePlayerLeft(String player) {
+        SwingUtilities.invokeLater(() -> {
+            roomPlayers.remove(player);
+            JOptionPane pane = new JOptionPane(player + " đã thoát, ván đấu vẫn tiếp tục.",
+                                               JOptionPane.INFORMATION_MESSAGE);
+            // Không chặn màn chơi trong lúc thông báo
+            JDialog dialog = pane.createDialog(this, "Người chơi thoát");
+            dialog.setModal(false);
+            dialog.setVisible(true);
+        });
+    }
+    
     public void handleGameEnd(JSONObject data) {
         SwingUtilities.invokeLater(() -> {
             if (gameTimer != null) {
@@ -1318,6 +2029,11 @@ public class ClientGUI extends JFrame {
             }
 
             String winner = data.getString("winner");
+            // Theo số người trong kết quả (kể cả người đã thoát), không theo roomPlayers đã bớt người thoát
+            if (data.has("players") && data.getJSONArray("players").length() > 2) {
+                showRoomStandings(winner, data.getJSONArray("players"));
+                return;
+            }
             String player1 = data.getString("player1");
             String player2 = data.getString("player2");
             int p1Score = data.getInt("player1Score");
@@ -1364,11 +2080,51 @@ public class ClientGUI extends JFrame {
                 );
             }
 
+            int myRating = myRating(data.optJSONArray("players"));
+            if (myRating > 0) {
+                message = message.replace("</p></div></html>",
+                                          "<br><b>Rating:</b> " + myRating + "</p></div></html>");
+            }
+
             JOptionPane.showMessageDialog(this, message, title, JOptionPane.INFORMATION_MESSAGE);
             showRematchChoiceDialog(opponent);
         });
     }
     
+    /** Rating mới của mình trong kết quả trận, 0 nếu không có (trận cũ, xem lại replay). */
+    private int myRating(JSONArray standings) {
+        if (standings == null) return 0;
+        for (int i = 0; i < standings.length(); i++) {
+            JSONObject standing = standings.getJSONObject(i);
+            if (standing.getString("username").equals(currentUsername)) return standing.optInt("rating", 0);
+        }
+        return 0;
+    }
+    
+    /** Kết quả phòng nhiều người: bảng xếp hạng rồi về sảnh (không có đấu lại). */
+    private void showRoomStandings(String winner, JSONArray standings) {
+        StringBuilder rows = new StringBuilder();
+        for (int i = 0; i < standings.length(); i++) {
+            JSONObject standing = standings.getJSONObject(i);
+            String name = standing.getString("username");
+            boolean me = name.equals(currentUsername);
+            rows.append(String.format("<tr><td>%d.</td><td>%s%s%s</td><td style='text-align: right;'>%s</td>" +
+                                      "<td style='text-align: right; color: #6B7280;'>%s</td></tr>",
+                i + 1, me ? "<b>" : "", name, me ? "</b>" : "",
+                standing.getBoolean("left") ? "thoát" : String.valueOf(standing.getInt("score")),
+                standing.has("rating") ? String.valueOf(standing.getInt("rating")) : ""));
+        }
+        String title = winner.equals(currentUsername) ? "Chiến thắng!" : winner.equals("DRAW") ? "Hòa!" : "Kết thúc";
+        String headline = winner.equals(currentUsername) ? "🏆 Xin chúc mừng! Bạn đã thắng! 🏆"
+                        : winner.equals("DRAW") ? "Kết thúc game ván này hòa!" : winner + " đã thắng!";
+        String message = "<html><div style='text-align: center; padding: 10px;'>" +
+            "<h2 style='margin: 10px 0;'>" + headline + "</h2>" +
+            "<table style='font-size: 14px; margin: 15px auto;'>" + rows + "</table></div></html>";
+        
+        JOptionPane.showMessageDialog(this, message, title, JOptionPane.INFORMATION_MESSAGE);
+        returnToLobby();
+    }
+    
     private void showRematchChoiceDialog(String opponentName) {
         closeRematchWaitingDialog();
         closeRematchRequestDialog();
@@ -1679,7 +2435,7 @@ public class ClientGUI extends JFrame {
     private void returnToLobby() {
         cardLayout.show(mainPanel, "LOBBY");
         network.getPlayers();
-        network.getLeaderboard();
+        requestLeaderboard();
     }
     
     public void showError(String message) {
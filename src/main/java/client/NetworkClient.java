@@ -1,6 +1,8 @@
 package client;
 
+import common.BoardConfig;
 import common.Protocol;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import java.io.*;
 import java.net.Socket;
@@ -76,8 +78,17 @@ public class NetworkClient {
                     gui.updatePlayerList(json.getJSONArray("players"));
                     break;
                 case Protocol.CHALLENGE_RECEIVED:
-                    gui.handleChallengeReceived(json.getString("from"), 
-                                               json.getString("difficulty"));
+                    if (json.has("challengeId")) {
+                        List<String> players = new ArrayList<>();
+                        JSONArray names = json.getJSONArray("players");
+                        for (int i = 0; i < names.length(); i++) {
+                            players.add(names.getString(i));
+                        }
+                        gui.handleGroupChallengeReceived(json.getString("from"), json.getString("challengeId"),
+                                                         players, BoardConfig.fromJSON(json));
+                    } else {
+                        gui.handleChallengeReceived(json.getString("from"), BoardConfig.fromJSON(json));
+                    }
                     break;
                 case Protocol.CHALLENGE_DECLINED:
                     gui.handleChallengeDeclined(json.getString("decliner"));
@@ -88,12 +99,30 @@ public class NetworkClient {
                 case Protocol.GAME_UPDATE:
                     gui.handleGameUpdate(json);
                     break;
+                case Protocol.CARD_REVEAL:
+                    gui.handleCardReveal(json);
+                    break;
+                case Protocol.FLIP_REJECTED:
+                    gui.handleFlipRejected(json);
+                    break;
                 case Protocol.SCORE_UPDATE:
                     gui.handleScoreUpdate(json);
                     break;
                 case Protocol.GAME_END:
                     gui.handleGameEnd(json);
                     break;
+                case Protocol.SPECTATE_START:
+                    gui.handleSpectateStart(json);
+                    break;
+                case Protocol.SPECTATE_EVENT:
+                    gui.handleSpectateEvent(json.getJSONObject("event"));
+                    break;
+                case Protocol.SPECTATE_END:
+                    gui.handleSpectateEnd(json.optString("message", null));
+                    break;
+                case Protocol.PLAYER_LEFT:
+                    gui.handlePlayerLeft(json.getString("player"));
+                    break;
                 case Protocol.OPPONENT_QUIT:
                     gui.handleOpponentQuit(json.getString("quitter"));
                     break;
@@ -110,6 +139,9 @@ public class NetworkClient {
                 case Protocol.LEADERBOARD:
                     gui.updateLeaderboard(json.getJSONArray("data"));
                     break;
+                case Protocol.ACCOUNT_BANNED:
+                    gui.handleAccountBanned(json.getString("message"));
+                    break;
                 case Protocol.ERROR:
                     gui.showError(json.getString("message"));
                     break;
@@ -117,7 +149,13 @@ public class NetworkClient {
                     gui.handleOpponentLeftLobby(message);
                     break;
                 case Protocol.MATCH_HISTORY:
-                    gui.updateMatchHistory(json.getJSONArray("data"));
+                    gui.updateMatchHistory(json);
+                    break;
+                case Protocol.QUEUE_STATUS:
+                    gui.handleQueueStatus(json);
+                    break;
+                case Protocol.REPLAY_CHUNK:
+                    gui.handleReplayChunk(json);
                     break;
             }
         } catch (Exception e) {
@@ -126,8 +164,15 @@ public class NetworkClient {
     }
     
     public void getMatchHistory() {
+        getMatchHistory(null);
+    }
+    
+    public void getMatchHistory(String cursor) {
         Map<String, Object> msg = new HashMap<>();
         msg.put("type", Protocol.GET_MATCH_HISTORY);
+        if (cursor != null) {
+            msg.put("cursor", cursor);
+        }
         sendMessage(msg);
     }
     
@@ -143,6 +188,7 @@ public class NetworkClient {
         msg.put("type", Protocol.LOGIN);
         msg.put("username", username);
         msg.put("password", password);
+        msg.put("cardReveal", true);
         sendMessage(msg);
     }
     
@@ -160,19 +206,74 @@ public class NetworkClient {
         sendMessage(msg);
     }
     
-    public void sendChallenge(String target, String difficulty) {
+    public void sendChallenge(String target, BoardConfig board) {
         Map<String, Object> msg = new HashMap<>();
         msg.put("type", Protocol.CHALLENGE);
         msg.put("target", target);
+        board.writeTo(msg);
+        sendMessage(msg);
+    }
+    
+    public void sendGroupChallenge(List<String> targets, BoardConfig board) {
+        Map<String, Object> msg = new HashMap<>();
+        msg.put("type", Protocol.CHALLENGE);
+        msg.put("targets", targets);
+        board.writeTo(msg);
+        sendMessage(msg);
+    }
+    
+    public void acceptGroupChallenge(String challengeId) {
+        Map<String, Object> msg = new HashMap<>();
+        msg.put("type", Protocol.ACCEPT_CHALLENGE);
+        msg.put("challengeId", challengeId);
+        sendMessage(msg);
+    }
+    
+    public void declineGroupChallenge(String challengeId) {
+        Map<String, Object> msg = new HashMap<>();
+        msg.put("type", Protocol.DECLINE_CHALLENGE);
+        msg.put("challengeId", challengeId);
+        sendMessage(msg);
+    }
+    
+    public void quickPlay(String difficulty) {
+        Map<String, Object> msg = new HashMap<>();
+        msg.put("type", Protocol.QUICK_PLAY);
         msg.put("difficulty", difficulty);
         sendMessage(msg);
     }
     
-    public void acceptChallenge(String challenger, String difficulty) {
+    public void cancelQuickPlay() {
+        Map<String, Object> msg = new HashMap<>();
+        msg.put("type", Protocol.CANCEL_QUICK_PLAY);
+        sendMessage(msg);
+    }
+    
+    public void getReplay(long replayId) {
+        Map<String, Object> msg = new HashMap<>();
+        msg.put("type", Protocol.GET_REPLAY);
+        msg.put("replayId", replayId);
+        sendMessage(msg);
+    }
+    
+    public void spectate(String player) {
+        Map<String, Object> msg = new HashMap<>();
+        msg.put("type", Protocol.SPECTATE);
+        msg.put("player", player);
+        sendMessage(msg);
+    }
+    
+    public void stopSpectate() {
+        Map<String, Object> msg = new HashMap<>();
+        msg.put("type", Protocol.STOP_SPECTATE);
+        sendMessage(msg);
+    }
+    
+    /** Server dùng bàn chơi đã lưu cùng lời thách đấu, không cần gửi lại. */
+    public void acceptChallenge(String challenger) {
         Map<String, Object> msg = new HashMap<>();
         msg.put("type", Protocol.ACCEPT_CHALLENGE);
         msg.put("challenger", challenger);
-        msg.put("difficulty", difficulty);
         sendMessage(msg);
     }
     
@@ -191,6 +292,14 @@ public class NetworkClient {
         sendMessage(msg);
     }
     
+    public void flipCard(int card, long seq) {
+        Map<String, Object> msg = new HashMap<>();
+        msg.put("type", Protocol.FLIP);
+        msg.put("card", card);
+        msg.put("seq", seq);
+        sendMessage(msg);
+    }
+    
     public void quitGame() {
         Map<String, Object> msg = new HashMap<>();
         msg.put("type", Protocol.QUIT_GAME);
@@ -227,8 +336,14 @@ public class NetworkClient {
     }
     
     public void getLeaderboard() {
+        getLeaderboard(Protocol.PERIOD_ALL_TIME, Protocol.ALL_DIFFICULTIES);
+    }
+    
+    public void getLeaderboard(String period, String difficulty) {
         Map<String, Object> msg = new HashMap<>();
         msg.put("type", Protocol.GET_LEADERBOARD);
+        msg.put("period", period);
+        msg.put("difficulty", difficulty);
         sendMessage(msg);
     }
     
@@ -0,0 +1,100 @@
+package common;
+
+import java.util.Base64;
+import java.util.Map;
+import org.json.JSONObject;
+
+/**
+ * Cấu hình một bàn chơi: độ khó, số lá, thời gian và cách xếp hàng/cột.
+ * EASY/MEDIUM/HARD là các cấu hình có sẵn; CUSTOM cho bàn giải đấu tự chọn tới MAX_CARDS lá.
+ * Trong message, cấu hình đi dưới các khóa "difficulty", "cardCount", "timeLimit".
+ */
+public final class BoardConfig {
+    public static final int MIN_CARDS = 4;
+    public static final int MAX_CARDS = 400;
+    public static final int MIN_TIME_LIMIT = 30;
+    public static final int MAX_TIME_LIMIT = 3600;
+    // Bàn lớn hơn ngưỡng này thì xếp rộng theo chiều ngang thay vì gần vuông
+    private static final int SQUARE_LAYOUT_MAX_CARDS = 30;
+
+    public final String difficulty;
+    public final int cardCount;
+    public final int timeLimit;
+    public final int rows;
+    public final int cols;
+
+    private BoardConfig(String difficulty, int cardCount, int timeLimit) {
+        this.difficulty = difficulty;
+        this.cardCount = cardCount;
+        this.timeLimit = timeLimit;
+        // Màn hình ngang: bàn lớn dùng khoảng 2 cột cho mỗi hàng (400 lá -> 29 x 14)
+        this.cols = cardCount <= SQUARE_LAYOUT_MAX_CARDS ? (int) Math.ceil(Math.sqrt(cardCount))
+                                                          : (int) Math.ceil(Math.sqrt(cardCount * 2.0));
+        this.rows = (int) Math.ceil((double) cardCount / cols);
+    }
+
+    /** Cấu hình có sẵn; độ khó lạ được coi là MEDIUM. */
+    public static BoardConfig of(String difficulty) {
+        if (!Protocol.EASY.equals(difficulty) && !Protocol.HARD.equals(difficulty)) {
+            difficulty = Protocol.MEDIUM;
+        }
+        return new BoardConfig(difficulty, Protocol.getCardCount(difficulty), Protocol.getTimeLimit(difficulty));
+    }
+
+    public static BoardConfig custom(int cardCount, int timeLimit) {
+        if (cardCount < MIN_CARDS || cardCount > MAX_CARDS || cardCount % 2 != 0) {
+            throw new IllegalArgumentException("cardCount must be an even number between " + MIN_CARDS +
+                                               " and " + MAX_CARDS);
+        }
+        if (timeLimit < MIN_TIME_LIMIT || timeLimit > MAX_TIME_LIMIT) {
+            throw new IllegalArgumentException("timeLimit must be between " + MIN_TIME_LIMIT + " and " +
+                                               MAX_TIME_LIMIT + " seconds");
+        }
+        return new BoardConfig(Protocol.CUSTOM, cardCount, timeLimit);
+    }
+
+    /** Đọc từ message; ném IllegalArgumentException nếu cấu hình CUSTOM không hợp lệ. */
+    public static BoardConfig fromJSON(JSONObject json) {
+        String difficulty = json.optString("difficulty", Protocol.MEDIUM);
+        if (Protocol.CUSTOM.equals(difficulty)) {
+            return custom(json.optInt("cardCount", 0), json.optInt("timeLimit", 0));
+        }
+        return of(difficulty);
+    }
+
+    public void writeTo(Map<String, Object> message) {
+        message.put("difficulty", difficulty);
+        message.put("cardCount", cardCount);
+        message.put("timeLimit", timeLimit);
+    }
+
+    public boolean isCustom() {
+        return Protocol.CUSTOM.equals(difficulty);
+    }
+
+    public String describe() {
+        return (isCustom() ? "CUSTOM" : difficulty) + " - " + cardCount + " cards, " + (timeLimit / 60) + "m" +
+               (timeLimit % 60 > 0 ? " " + (timeLimit % 60) + "s" : "");
+    }
+
+    /**
+     * Giá trị bàn gói thành base64, mỗi lá một byte (tối đa MAX_CARDS / 2 = 200 giá trị khác nhau),
+     * thay cho mảng JSON: 400 lá còn khoảng 540 ký tự thay vì hơn 1.5KB.
+     */
+    public static String packValues(int[] values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+    public static int[] unpackValues(String packed) {
+        byte[] bytes = Base64.getDecoder().decode(packed);
+        int[] values = new int[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            values[i] = bytes[i] & 0xFF;
+        }
+        return values;
+    }
+}
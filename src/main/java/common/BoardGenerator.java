@@ -0,0 +1,46 @@
+package common;
+
+/**
+ * Sinh bàn bài từ (seed, số lá), dùng chung cho server và client nên cả hai dựng ra cùng một bàn
+ * chỉ từ 8 byte seed. Thuật toán là một phần của giao thức, KHÔNG được đổi (đổi thì replay/đối soát
+ * các trận cũ sẽ sai):
+ *
+ *   1. deck[i] = i / 2 với i = 0..cardCount-1 (mỗi giá trị xuất hiện hai lần)
+ *   2. Fisher-Yates từ cuối về đầu: với i = cardCount-1..1, j = bound(next(), i + 1), đổi deck[i] và deck[j]
+ *   3. next() là SplitMix64: state += 0x9E3779B97F4A7C15, rồi trộn state bằng hàm finalizer của SplitMix64
+ *   4. bound(x, n) = ((x >>> 32) * n) >>> 32 (32 bit cao nhân n, lấy phần nguyên)
+ *
+ * Bàn chuẩn cho các seed cố định nằm trong BoardGeneratorTest.
+ */
+public final class BoardGenerator {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private BoardGenerator() {
+    }
+
+    public static int[] generate(long seed, String difficulty) {
+        return generate(seed, Protocol.getCardCount(difficulty));
+    }
+
+    public static int[] generate(long seed, int cardCount) {
+        int[] deck = new int[cardCount];
+        for (int i = 0; i < cardCount; i++) {
+            deck[i] = i / 2;
+        }
+        long state = seed;
+        for (int i = cardCount - 1; i > 0; i--) {
+            state += GOLDEN_GAMMA;
+            int j = (int) (((mix(state) >>> 32) * (i + 1)) >>> 32);
+            int tmp = deck[i];
+            deck[i] = deck[j];
+            deck[j] = tmp;
+        }
+        return deck;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
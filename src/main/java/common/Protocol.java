@@ -13,10 +13,16 @@ public class Protocol {
     public static final String ACCEPT_CHALLENGE = "ACCEPT_CHALLENGE";
     public static final String DECLINE_CHALLENGE = "DECLINE_CHALLENGE";
     public static final String CARD_FLIP = "CARD_FLIP";
+    public static final String FLIP = "FLIP"; // một lá: "card", "seq"
     public static final String QUIT_GAME = "QUIT_GAME";
     public static final String REMATCH = "REMATCH";
     public static final String GET_LEADERBOARD = "GET_LEADERBOARD";
     public static final String GET_MATCH_HISTORY = "GET_MATCH_HISTORY"; // NEW
+    public static final String SPECTATE = "SPECTATE"; // xem trận của "player"
+    public static final String STOP_SPECTATE = "STOP_SPECTATE";
+    public static final String QUICK_PLAY = "QUICK_PLAY"; // vào hàng chờ ghép trận theo "difficulty"
+    public static final String CANCEL_QUICK_PLAY = "CANCEL_QUICK_PLAY";
+    public static final String GET_REPLAY = "GET_REPLAY"; // "replayId" lấy từ lịch sử đấu ("replay_id")
     
     // Server -> Client
     public static final String LOGIN_SUCCESS = "LOGIN_SUCCESS";
@@ -29,15 +35,25 @@ public class Protocol {
     public static final String CHALLENGE_DECLINED = "CHALLENGE_DECLINED";
     public static final String GAME_START = "GAME_START";
     public static final String GAME_UPDATE = "GAME_UPDATE";
+    public static final String CARD_REVEAL = "CARD_REVEAL"; // giá trị lá thứ nhất của một lượt FLIP
+    public static final String FLIP_REJECTED = "FLIP_REJECTED";
     public static final String SCORE_UPDATE = "SCORE_UPDATE";
     public static final String GAME_END = "GAME_END";
     public static final String OPPONENT_QUIT = "OPPONENT_QUIT";
+    public static final String PLAYER_LEFT = "PLAYER_LEFT"; // phòng nhiều người: "player" thoát, ván vẫn tiếp tục
     public static final String REMATCH_REQUEST = "REMATCH_REQUEST";
     public static final String REMATCH_ACCEPTED = "REMATCH_ACCEPTED";
     public static final String REMATCH_DECLINED = "REMATCH_DECLINED";
     public static final String LEADERBOARD = "LEADERBOARD";
     public static final String MATCH_HISTORY = "MATCH_HISTORY"; // NEW
     public static final String ACCOUNT_BANNED = "ACCOUNT_BANNED";
+    // Xem trận: SPECTATE_START là ảnh chụp bàn, SPECTATE_EVENT bọc một message của ván ("event"), trễ vài giây
+    public static final String SPECTATE_START = "SPECTATE_START";
+    public static final String SPECTATE_EVENT = "SPECTATE_EVENT";
+    public static final String SPECTATE_END = "SPECTATE_END";
+    // Replay gửi thành nhiều REPLAY_CHUNK: "index", "data" (base64 của đoạn bản ghi), "size" cả bản ghi, "last"
+    public static final String REPLAY_CHUNK = "REPLAY_CHUNK";
+    public static final String QUEUE_STATUS = "QUEUE_STATUS"; // "queued", "difficulty", "expectedWait" (giây)
     public static final String ERROR = "ERROR";
     public static final String OPPONENT_LEFT_LOBBY = "OPPONENT_LEFT_LOBBY";
     
@@ -45,6 +61,25 @@ public class Protocol {
     public static final String EASY = "EASY";
     public static final String MEDIUM = "MEDIUM";
     public static final String HARD = "HARD";
+    public static final String CUSTOM = "CUSTOM"; // số lá/thời gian tự chọn, xem BoardConfig
+    public static final String ALL_DIFFICULTIES = "ALL";
+    
+    // Phòng nhiều người: CHALLENGE với "targets" thay cho "target"
+    public static final int MAX_ROOM_PLAYERS = 8;
+    
+    // Board modes (GAME_START "boardMode"): HIDDEN chỉ gửi kích thước bàn, giá trị lộ ra qua GAME_UPDATE;
+    // SEEDED gửi "seed" để client tự dựng bàn bằng BoardGenerator. Phòng có client không gửi "cardReveal" lúc LOGIN
+    // thì HIDDEN được đổi thành OPEN
+    public static final String BOARD_HIDDEN = "HIDDEN";
+    public static final String BOARD_OPEN = "OPEN";
+    public static final String BOARD_SEEDED = "SEEDED";
+    
+    // Leaderboard periods
+    public static final String PERIOD_DAILY = "DAILY";
+    public static final String PERIOD_WEEKLY = "WEEKLY";
+    public static final String PERIOD_ALL_TIME = "ALL_TIME";
+    // Xếp theo rating Glicko (RatingEngine), không chia theo độ khó; mỗi dòng có thêm "rating", "rating_rd"
+    public static final String PERIOD_RATING = "RATING";
     
     // Game difficulty configurations
     public static int getCardCount(String difficulty) {
@@ -0,0 +1,198 @@
+package common;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Định dạng replay nhị phân, dùng chung cho server (ReplayRecorder ghi, ReplayStore đọc) và client (xem lại).
+ *
+ * Định dạng (big-endian):
+ *   header: int MAGIC, int độ dài cả bản ghi, byte VERSION, long startTime, long seed, short cardCount,
+ *           int timeLimit, str difficulty, byte số người, rồi mỗi người: int id, str username
+ *   sự kiện: byte loại, byte ghế, int mili giây từ lúc bắt đầu, rồi
+ *           REVEAL: short lá | PAIR: short lá 1, short lá 2, byte ghép đúng | LEAVE: (không có)
+ *           END: byte lý do, byte ghế thắng (-1 = hòa), rồi int điểm của từng ghế
+ *   str = short độ dài + UTF-8. Bàn bài dựng lại từ seed bằng BoardGenerator.
+ */
+public final class Replay {
+    public static final int MAGIC = 0x52504C31; // "RPL1"
+    public static final byte VERSION = 1;
+    // MAGIC + độ dài: đủ để biết một bản ghi dài bao nhiêu
+    public static final int PREFIX_BYTES = 8;
+
+    public static final byte REVEAL = 1;
+    public static final byte PAIR = 2;
+    public static final byte LEAVE = 3;
+    public static final byte END = 4;
+
+    public static final byte END_COMPLETED = 0;
+    public static final byte END_TIME = 1;
+    public static final byte END_QUIT = 2;
+    public static final byte END_LAST_PLAYER = 3;
+    private static final String[] END_REASONS = {"COMPLETED", "TIME", "QUIT", "LAST_PLAYER"};
+
+    public static final class Event {
+        public final byte type;
+        public final int seat;
+        public final int millis;
+        // REVEAL dùng card1; PAIR dùng card1, card2, matched
+        public final int card1;
+        public final int card2;
+        public final boolean matched;
+        // Chỉ có ở END
+        public final byte reason;
+        public final int winnerSeat;
+        public final int[] scores;
+
+        private Event(byte type, int seat, int millis, int card1, int card2, boolean matched,
+                      byte reason, int winnerSeat, int[] scores) {
+            this.type = type;
+            this.seat = seat;
+            this.millis = millis;
+            this.card1 = card1;
+            this.card2 = card2;
+            this.matched = matched;
+            this.reason = reason;
+            this.winnerSeat = winnerSeat;
+            this.scores = scores;
+        }
+    }
+
+    public final byte version;
+    public final long startTime;
+    public final long seed;
+    public final int cardCount;
+    public final int timeLimit;
+    public final String difficulty;
+    public final int[] playerIds;
+    public final String[] players;
+    public final List<Event> events;
+
+    private Replay(byte version, long startTime, long seed, int cardCount, int timeLimit, String difficulty,
+                   int[] playerIds, String[] players, List<Event> events) {
+        this.version = version;
+        this.startTime = startTime;
+        this.seed = seed;
+        this.cardCount = cardCount;
+        this.timeLimit = timeLimit;
+        this.difficulty = difficulty;
+        this.playerIds = playerIds;
+        this.players = players;
+        this.events = events;
+    }
+
+    /** Đọc một bản ghi hoàn chỉnh bắt đầu ở vị trí hiện tại; ném IllegalArgumentException nếu hỏng. */
+    public static Replay parse(ByteBuffer in) {
+        try {
+            int base = in.position();
+            if (in.getInt() != MAGIC) {
+                throw new IllegalArgumentException("not a replay");
+            }
+            int end = base + in.getInt();
+            byte version = in.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("unsupported replay version " + version);
+            }
+            long startTime = in.getLong();
+            long seed = in.getLong();
+            int cardCount = in.getShort();
+            int timeLimit = in.getInt();
+            String difficulty = getString(in);
+            int[] playerIds = new int[in.get()];
+            String[] players = new String[playerIds.length];
+            for (int i = 0; i < players.length; i++) {
+                playerIds[i] = in.getInt();
+                players[i] = getString(in);
+            }
+
+            List<Event> events = new ArrayList<>();
+            while (in.position() < end) {
+                byte type = in.get();
+                int seat = in.get();
+                int millis = in.getInt();
+                if (seat >= players.length) {
+                    throw new IllegalArgumentException("bad seat " + seat);
+                }
+                switch (type) {
+                    case REVEAL:
+                        events.add(new Event(type, seat, millis, in.getShort(), -1, false, (byte) 0, -1, null));
+                        break;
+                    case PAIR:
+                        events.add(new Event(type, seat, millis, in.getShort(), in.getShort(), in.get() != 0,
+                                             (byte) 0, -1, null));
+                        break;
+                    case LEAVE:
+                        events.add(new Event(type, seat, millis, -1, -1, false, (byte) 0, -1, null));
+                        break;
+                    case END: {
+                        byte reason = in.get();
+                        int winner = in.get();
+                        int[] scores = new int[players.length];
+                        for (int i = 0; i < scores.length; i++) {
+                            scores[i] = in.getInt();
+                        }
+                        events.add(new Event(type, seat, millis, -1, -1, false, reason, winner, scores));
+                        break;
+                    }
+                    default:
+                        throw new IllegalArgumentException("unknown event type " + type);
+                }
+            }
+            return new Replay(version, startTime, seed, cardCount, timeLimit, difficulty, playerIds, players, events);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated replay");
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static String endReason(byte reason) {
+        return reason >= 0 && reason < END_REASONS.length ? END_REASONS[reason] : "UNKNOWN";
+    }
+
+    /** Mili giây tới sự kiện cuối (thường là END). */
+    public int durationMillis() {
+        return events.isEmpty() ? 0 : events.get(events.size() - 1).millis;
+    }
+
+    /** Diễn giải thành từng dòng, để kiểm tra bằng tay (ReplayStore.main). */
+    public List<String> describe() {
+        String[] names = new String[players.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = players[i] + "#" + playerIds[i];
+        }
+        List<String> lines = new ArrayList<>();
+        lines.add("v" + version + " " + new Date(startTime) + " " + difficulty + " " + cardCount + " cards, " +
+                  timeLimit + "s, seed " + seed + ", players " + String.join(", ", names));
+        for (Event event : events) {
+            String prefix = String.format("%8.3fs  %-10s ", event.millis / 1000.0, names[event.seat]);
+            switch (event.type) {
+                case REVEAL:
+                    lines.add(prefix + "reveal " + event.card1);
+                    break;
+                case PAIR:
+                    lines.add(prefix + "pair " + event.card1 + "+" + event.card2 + (event.matched ? " ✓" : " ✗"));
+                    break;
+                case LEAVE:
+                    lines.add(prefix + "left");
+                    break;
+                default: {
+                    StringBuilder scores = new StringBuilder();
+                    for (int i = 0; i < names.length; i++) {
+                        scores.append(' ').append(names[i]).append('=').append(event.scores[i]);
+                    }
+                    lines.add(String.format("%8s  end %s, winner %s,%s", "", endReason(event.reason),
+                                            event.winnerSeat < 0 ? "DRAW" : names[event.winnerSeat], scores));
+                    break;
+                }
+            }
+        }
+        return lines;
+    }
+}
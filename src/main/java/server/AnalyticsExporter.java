@@ -0,0 +1,207 @@
+package server;
+
+import java.io.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Xuất dần match_history sang file dạng cột cho phân tích offline, không truy vấn production nữa.
+ * Mỗi lần chạy chỉ lấy các trận sau watermark (created_at, id), ghi thành một hoặc nhiều segment matches-*.cmf.
+ * Watermark chính là tên segment mới nhất (đặt theo dòng cuối của nó), nên đổi tên segment xong là đã
+ * dời watermark: chết giữa chừng cũng không xuất lại hay đếm trùng.
+ *
+ * Segment (nén gzip): header, từ điển difficulty và player id, rồi từng cột liền nhau:
+ * difficulty (byte, mã từ điển), player1/player2 (int, mã từ điển), outcome (byte: 0 hòa, 1 player1
+ * thắng, 2 player2 thắng), score1, score2, duration (int), created_at (long).
+ * Đọc bằng AnalyticsExporter.read() / AnalyticsReport.
+ */
+public class AnalyticsExporter {
+    private static final int MAGIC = 0x434D4631; // "CMF1"
+    private static final int SEGMENT_ROWS = 1_000_000;
+    static final String SEGMENT_SUFFIX = ".cmf";
+
+    /** Một segment đã đọc vào bộ nhớ. */
+    public static class Segment {
+        public String[] difficulties;
+        public int[] players;
+        public byte[] difficulty;
+        public int[] player1;
+        public int[] player2;
+        public byte[] outcome;
+        public int[] score1;
+        public int[] score2;
+        public int[] duration;
+        public long[] createdAt;
+
+        public int size() {
+            return difficulty.length;
+        }
+    }
+
+    private final File directory;
+
+    public AnalyticsExporter(File directory) {
+        this.directory = directory;
+        directory.mkdirs();
+    }
+
+    public int exportNew() throws SQLException, IOException {
+        long[] watermark = readWatermark();
+        String url = DatabaseManager.urlFor(DatabaseManager.DB_HOST, DatabaseManager.DB_PORT, DatabaseManager.DB_NAME);
+        int exported = 0;
+        try (Connection c = DriverManager.getConnection(url, DatabaseManager.DB_USER, DatabaseManager.password());
+             PreparedStatement pstmt = c.prepareStatement(
+                     "SELECT id, player1_id, player2_id, winner_id, difficulty, player1_score, player2_score, " +
+                     "duration, created_at FROM match_history " +
+                     "WHERE created_at > ? OR (created_at = ? AND id > ?) " +
+                     "ORDER BY created_at, id",
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            pstmt.setFetchSize(Integer.MIN_VALUE);
+            pstmt.setTimestamp(1, new Timestamp(watermark[0]));
+            pstmt.setTimestamp(2, new Timestamp(watermark[0]));
+            pstmt.setLong(3, watermark[1]);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                SegmentBuilder builder = new SegmentBuilder();
+                while (rs.next()) {
+                    int p1 = rs.getInt("player1_id");
+                    int p2 = rs.getInt("player2_id");
+                    int winnerId = rs.getInt("winner_id");
+                    byte outcome = rs.wasNull() ? 0 : (byte) (winnerId == p1 ? 1 : 2);
+                    long createdAt = rs.getTimestamp("created_at").getTime();
+                    builder.add(rs.getString("difficulty"), p1, p2, outcome, rs.getInt("player1_score"),
+                                rs.getInt("player2_score"), rs.getInt("duration"), createdAt);
+                    watermark[0] = createdAt;
+                    watermark[1] = rs.getInt("id");
+                    exported++;
+                    if (builder.size == SEGMENT_ROWS) {
+                        builder.write(segmentFile(watermark));
+                        builder = new SegmentBuilder();
+                    }
+                }
+                if (builder.size > 0) {
+                    builder.write(segmentFile(watermark));
+                }
+            }
+        }
+        System.out.println("✓ Exported " + exported + " new matches to " + directory.getPath());
+        return exported;
+    }
+
+    // Đặt tên theo watermark cuối segment, nên thứ tự tên file cũng là thứ tự thời gian
+    private File segmentFile(long[] watermark) {
+        return new File(directory, String.format("matches-%013d-%010d", watermark[0], watermark[1]) + SEGMENT_SUFFIX);
+    }
+
+    /** Watermark = tên segment mới nhất; chưa có segment nào thì xuất từ đầu. */
+    private long[] readWatermark() {
+        String[] names = directory.list((dir, name) -> name.startsWith("matches-") && name.endsWith(SEGMENT_SUFFIX));
+        if (names == null || names.length == 0) return new long[]{0, 0};
+        String last = Collections.max(Arrays.asList(names));
+        String[] parts = last.substring("matches-".length(), last.length() - SEGMENT_SUFFIX.length()).split("-");
+        return new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1])};
+    }
+
+    /** Gom các dòng của một segment theo cột, mã hóa difficulty và player id bằng từ điển. */
+    private static class SegmentBuilder {
+        private final Map<String, Integer> difficultyCodes = new LinkedHashMap<>();
+        private final Map<Integer, Integer> playerCodes = new LinkedHashMap<>();
+        private final ByteArrayOutputStream difficulty = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream outcome = new ByteArrayOutputStream();
+        private int[] player1 = new int[1024];
+        private int[] player2 = new int[1024];
+        private int[] score1 = new int[1024];
+        private int[] score2 = new int[1024];
+        private int[] duration = new int[1024];
+        private long[] createdAt = new long[1024];
+        int size;
+
+        void add(String diff, int p1, int p2, byte result, int s1, int s2, int seconds, long at) {
+            if (size == player1.length) {
+                int capacity = size * 2;
+                player1 = Arrays.copyOf(player1, capacity);
+                player2 = Arrays.copyOf(player2, capacity);
+                score1 = Arrays.copyOf(score1, capacity);
+                score2 = Arrays.copyOf(score2, capacity);
+                duration = Arrays.copyOf(duration, capacity);
+                createdAt = Arrays.copyOf(createdAt, capacity);
+            }
+            difficulty.write(difficultyCodes.computeIfAbsent(diff, k -> difficultyCodes.size()));
+            outcome.write(result);
+            player1[size] = playerCodes.computeIfAbsent(p1, k -> playerCodes.size());
+            player2[size] = playerCodes.computeIfAbsent(p2, k -> playerCodes.size());
+            score1[size] = s1;
+            score2[size] = s2;
+            duration[size] = seconds;
+            createdAt[size] = at;
+            size++;
+        }
+
+        void write(File file) throws IOException {
+            File temp = new File(file.getPath() + ".tmp");
+            try (FileOutputStream fileOut = new FileOutputStream(temp);
+                 GZIPOutputStream gzip = new GZIPOutputStream(fileOut, 64 * 1024);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gzip, 64 * 1024))) {
+                out.writeInt(MAGIC);
+                out.writeInt(size);
+                out.writeInt(difficultyCodes.size());
+                for (String diff : difficultyCodes.keySet()) out.writeUTF(diff);
+                out.writeInt(playerCodes.size());
+                for (int playerId : playerCodes.keySet()) out.writeInt(playerId);
+                difficulty.writeTo(out);
+                writeInts(out, player1);
+                writeInts(out, player2);
+                outcome.writeTo(out);
+                writeInts(out, score1);
+                writeInts(out, score2);
+                writeInts(out, duration);
+                for (int i = 0; i < size; i++) out.writeLong(createdAt[i]);
+                out.flush();
+                gzip.finish();
+                // Tên segment là watermark: nội dung phải xuống đĩa trước khi đổi tên
+                fileOut.getFD().sync();
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private void writeInts(DataOutputStream out, int[] column) throws IOException {
+            for (int i = 0; i < size; i++) out.writeInt(column[i]);
+        }
+    }
+
+    public static Segment read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file), 64 * 1024), 64 * 1024))) {
+            if (in.readInt() != MAGIC) throw new IOException("not an analytics segment: " + file);
+            int size = in.readInt();
+            Segment segment = new Segment();
+            segment.difficulties = new String[in.readInt()];
+            for (int i = 0; i < segment.difficulties.length; i++) segment.difficulties[i] = in.readUTF();
+            segment.players = readInts(in, in.readInt());
+            segment.difficulty = new byte[size];
+            in.readFully(segment.difficulty);
+            segment.player1 = readInts(in, size);
+            segment.player2 = readInts(in, size);
+            segment.outcome = new byte[size];
+            in.readFully(segment.outcome);
+            segment.score1 = readInts(in, size);
+            segment.score2 = readInts(in, size);
+            segment.duration = readInts(in, size);
+            segment.createdAt = new long[size];
+            for (int i = 0; i < size; i++) segment.createdAt[i] = in.readLong();
+            return segment;
+        }
+    }
+
+    private static int[] readInts(DataInputStream in, int count) throws IOException {
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) values[i] = in.readInt();
+        return values;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new AnalyticsExporter(new File(args.length > 0 ? args[0] : "analytics")).exportNew();
+    }
+}
@@ -0,0 +1,142 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Thống kê nhanh từ các segment của AnalyticsExporter, không chạm tới MySQL:
+ * tỉ lệ thắng/hòa theo độ khó, thời lượng trung bình và phân vị, histogram điểm.
+ * Các segment được đọc và tính song song (parallel stream), rồi gộp kết quả.
+ *
+ *   java server.AnalyticsReport [analytics]
+ */
+public class AnalyticsReport {
+    private static final int SCORE_BUCKET = 50;
+    private static final int SCORE_BUCKETS = 20;        // 0..999, bucket cuối gồm cả >= 1000
+    private static final int MAX_DURATION = 600;         // giây, để tính phân vị bằng đếm
+
+    /** Số liệu của một độ khó; gộp được nên mỗi segment/luồng tính riêng rồi merge. */
+    static class DifficultyStats {
+        long games;
+        long player1Wins;
+        long player2Wins;
+        long draws;
+        long totalDuration;
+        final long[] durationCounts = new long[MAX_DURATION + 1];
+        final long[] scoreHistogram = new long[SCORE_BUCKETS];
+
+        void add(AnalyticsExporter.Segment s, int row) {
+            games++;
+            switch (s.outcome[row]) {
+                case 1: player1Wins++; break;
+                case 2: player2Wins++; break;
+                default: draws++;
+            }
+            int duration = s.duration[row];
+            totalDuration += duration;
+            durationCounts[Math.min(Math.max(duration, 0), MAX_DURATION)]++;
+            scoreHistogram[Math.min(Math.max(s.score1[row], 0) / SCORE_BUCKET, SCORE_BUCKETS - 1)]++;
+            scoreHistogram[Math.min(Math.max(s.score2[row], 0) / SCORE_BUCKET, SCORE_BUCKETS - 1)]++;
+        }
+
+        DifficultyStats merge(DifficultyStats other) {
+            games += other.games;
+            player1Wins += other.player1Wins;
+            player2Wins += other.player2Wins;
+            draws += other.draws;
+            totalDuration += other.totalDuration;
+            for (int i = 0; i < durationCounts.length; i++) durationCounts[i] += other.durationCounts[i];
+            for (int i = 0; i < scoreHistogram.length; i++) scoreHistogram[i] += other.scoreHistogram[i];
+            return this;
+        }
+
+        int durationPercentile(double p) {
+            long target = (long) Math.ceil(games * p);
+            long seen = 0;
+            for (int seconds = 0; seconds < durationCounts.length; seconds++) {
+                seen += durationCounts[seconds];
+                if (seen >= target && seen > 0) return seconds;
+            }
+            return MAX_DURATION;
+        }
+    }
+
+    /** Tính cho mọi segment trong thư mục; kết quả theo tên độ khó (đã giải mã từ điển). */
+    public static Map<String, DifficultyStats> compute(File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(AnalyticsExporter.SEGMENT_SUFFIX));
+        if (files == null) return new TreeMap<>();
+        return Arrays.stream(files)
+                .parallel()
+                .map(AnalyticsReport::computeSegment)
+                .reduce(new TreeMap<>(), AnalyticsReport::mergeAll, AnalyticsReport::mergeAll);
+    }
+
+    private static Map<String, DifficultyStats> computeSegment(File file) {
+        AnalyticsExporter.Segment segment;
+        try {
+            segment = AnalyticsExporter.read(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int codes = segment.difficulties.length;
+        // Mỗi luồng gom vào mảng riêng theo mã độ khó, không cần khóa
+        DifficultyStats[] perCode = IntStream.range(0, segment.size())
+                .parallel()
+                .collect(() -> newStats(codes),
+                         (stats, row) -> stats[segment.difficulty[row]].add(segment, row),
+                         (a, b) -> {
+                             for (int i = 0; i < codes; i++) a[i].merge(b[i]);
+                         });
+        Map<String, DifficultyStats> result = new TreeMap<>();
+        for (int code = 0; code < codes; code++) {
+            result.merge(segment.difficulties[code], perCode[code], DifficultyStats::merge);
+        }
+        return result;
+    }
+
+    private static DifficultyStats[] newStats(int count) {
+        DifficultyStats[] stats = new DifficultyStats[count];
+        for (int i = 0; i < count; i++) stats[i] = new DifficultyStats();
+        return stats;
+    }
+
+    // reduce() dùng cùng một identity cho mọi nhánh, nên luôn gộp vào map mới
+    private static Map<String, DifficultyStats> mergeAll(Map<String, DifficultyStats> a, Map<String, DifficultyStats> b) {
+        Map<String, DifficultyStats> merged = new TreeMap<>();
+        for (Map<String, DifficultyStats> source : Arrays.asList(a, b)) {
+            source.forEach((difficulty, stats) ->
+                    merged.computeIfAbsent(difficulty, k -> new DifficultyStats()).merge(stats));
+        }
+        return merged;
+    }
+
+    public static void main(String[] args) {
+        File directory = new File(args.length > 0 ? args[0] : "analytics");
+        long start = System.currentTimeMillis();
+        Map<String, DifficultyStats> report = compute(directory);
+
+        System.out.println("=== Match analytics (" + directory.getPath() + ") ===");
+        for (Map.Entry<String, DifficultyStats> entry : report.entrySet()) {
+            DifficultyStats s = entry.getValue();
+            if (s.games == 0) continue;
+            System.out.printf("%-8s %8d games | P1 win %5.1f%% | P2 win %5.1f%% | draw %5.1f%% | " +
+                              "avg %5.1fs, p50 %ds, p90 %ds, p99 %ds%n",
+                              entry.getKey(), s.games,
+                              s.player1Wins * 100.0 / s.games, s.player2Wins * 100.0 / s.games,
+                              s.draws * 100.0 / s.games, s.totalDuration / (double) s.games,
+                              s.durationPercentile(0.5), s.durationPercentile(0.9), s.durationPercentile(0.99));
+            StringBuilder histogram = new StringBuilder("         scores:");
+            for (int i = 0; i < SCORE_BUCKETS; i++) {
+                if (s.scoreHistogram[i] == 0) continue;
+                histogram.append(' ').append(i * SCORE_BUCKET)
+                         .append(i == SCORE_BUCKETS - 1 ? "+" : "-" + ((i + 1) * SCORE_BUCKET - 1))
+                         .append('=').append(s.scoreHistogram[i]);
+            }
+            System.out.println(histogram);
+        }
+        System.out.println("(" + (System.currentTimeMillis() - start) + "ms)");
+    }
+}
@@ -0,0 +1,309 @@
+package server;
+
+import java.io.*;
+import java.sql.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Xuất/nhập players, match_history và match_participants giữa các môi trường, thay cho mysqldump.
+ * match_history gồm cả các tháng đã chuyển ra file archive (MatchArchive), đọc từ thư mục archive
+ * của schema nguồn (-Dhistory.archive.dir); khi nhập, chúng quay lại bảng match_history ở đích.
+ *
+ *   java server.BulkTransfer export dump.cfgb
+ *   java -Ddb.name=card_flip_game_staging server.BulkTransfer import dump.cfgb
+ *
+ * Export đọc bằng ResultSet forward-only với fetchSize = Integer.MIN_VALUE (Connector/J stream
+ * từng dòng), ghi ra file nhị phân nén; import đọc tuần tự và ghi theo lô JDBC lớn.
+ * Cả hai chiều dùng bộ nhớ cố định, không phụ thuộc số dòng.
+ *
+ * File: "CFGB" + version, rồi từng section [tag][record...][END]; mỗi record bắt đầu bằng ROW.
+ * Version 2 thêm rating (rating, rating_rd, rated_games, rating_period) vào cuối mỗi player; file version 1
+ * vẫn nhập được, rating lấy giá trị mặc định. Version 3 thêm replay_id (0 = không có replay) vào cuối mỗi trận.
+ * Version 4 thêm section PARTICIPANTS (ghế của trận nhiều người) sau MATCHES.
+ */
+public class BulkTransfer {
+    private static final int MAGIC = 0x43464742; // "CFGB"
+    private static final int VERSION = 4;
+    private static final byte PLAYERS = 1;
+    private static final byte MATCHES = 2;
+    private static final byte PARTICIPANTS = 3;
+    private static final byte ROW = 1;
+    private static final byte END = 0;
+    private static final int BATCH_SIZE = 5000;
+    private static final int PROGRESS_EVERY = 100_000;
+
+    private static Connection connect(boolean forImport) throws SQLException {
+        String url = DatabaseManager.urlFor(DatabaseManager.DB_HOST, DatabaseManager.DB_PORT, DatabaseManager.DB_NAME);
+        // Gộp cả lô thành một câu INSERT nhiều VALUES thay vì gửi từng câu
+        if (forImport) url += "&rewriteBatchedStatements=true";
+        return DriverManager.getConnection(url, DatabaseManager.DB_USER, DatabaseManager.password());
+    }
+
+    private static Statement streaming(Connection c) throws SQLException {
+        Statement stmt = c.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(Integer.MIN_VALUE);
+        return stmt;
+    }
+
+    public static void export(File file) throws SQLException, IOException {
+        long start = System.currentTimeMillis();
+        try (Connection c = connect(false);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                     new GZIPOutputStream(new FileOutputStream(file), 64 * 1024), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeByte(PLAYERS);
+            long players = 0;
+            try (Statement stmt = streaming(c);
+                 ResultSet rs = stmt.executeQuery("SELECT id, username, password, total_score, wins, losses, " +
+                                                  "quit_count, is_banned, created_at, last_login, rating, " +
+                                                  "rating_rd, rated_games, rating_period FROM players")) {
+                while (rs.next()) {
+                    out.writeByte(ROW);
+                    out.writeInt(rs.getInt(1));
+                    out.writeUTF(rs.getString(2));
+                    out.writeUTF(rs.getString(3));
+                    out.writeInt(rs.getInt(4));
+                    out.writeInt(rs.getInt(5));
+                    out.writeInt(rs.getInt(6));
+                    out.writeInt(rs.getInt(7));
+                    out.writeBoolean(rs.getBoolean(8));
+                    writeTimestamp(out, rs.getTimestamp(9));
+                    writeTimestamp(out, rs.getTimestamp(10));
+                    out.writeDouble(rs.getDouble(11));
+                    out.writeDouble(rs.getDouble(12));
+                    out.writeInt(rs.getInt(13));
+                    out.writeInt(rs.getInt(14));
+                    progress("Exported", "players", ++players);
+                }
+            }
+            out.writeByte(END);
+
+            out.writeByte(MATCHES);
+            // Các tháng đã lưu trữ trước (cũ hơn), rồi tới phần còn trong DB
+            long[] matches = {0};
+            MatchArchive archive = new MatchArchive(null, MatchArchive.directoryFor(DatabaseManager.DB_NAME));
+            archive.forEachArchivedMatch(row -> {
+                out.writeByte(ROW);
+                out.writeInt(row.getInt("id"));
+                out.writeInt(row.getInt("p1"));
+                out.writeInt(row.getInt("p2"));
+                out.writeInt(row.getInt("winner"));
+                out.writeUTF(row.getString("difficulty"));
+                out.writeInt(row.getInt("s1"));
+                out.writeInt(row.getInt("s2"));
+                out.writeInt(row.getInt("duration"));
+                writeTimestamp(out, new Timestamp(row.getLong("at")));
+                out.writeLong(row.optLong("replay", 0));
+                progress("Exported", "matches", ++matches[0]);
+            });
+            long archived = matches[0];
+            try (Statement stmt = streaming(c);
+                 ResultSet rs = stmt.executeQuery("SELECT id, player1_id, player2_id, winner_id, difficulty, " +
+                                                  "player1_score, player2_score, duration, created_at, " +
+                                                  "replay_id FROM match_history")) {
+                while (rs.next()) {
+                    out.writeByte(ROW);
+                    out.writeInt(rs.getInt(1));
+                    out.writeInt(rs.getInt(2));
+                    out.writeInt(rs.getInt(3));
+                    int winnerId = rs.getInt(4);
+                    out.writeInt(rs.wasNull() ? -1 : winnerId);
+                    out.writeUTF(rs.getString(5));
+                    out.writeInt(rs.getInt(6));
+                    out.writeInt(rs.getInt(7));
+                    out.writeInt(rs.getInt(8));
+                    writeTimestamp(out, rs.getTimestamp(9));
+                    out.writeLong(rs.getLong(10));
+                    progress("Exported", "matches", ++matches[0]);
+                }
+            }
+            out.writeByte(END);
+
+            // Ghế đã lưu trữ nằm trong "seats" của dòng archive (đọc lại archive lần nữa)
+            out.writeByte(PARTICIPANTS);
+            long[] seats = {0};
+            archive.forEachArchivedMatch(row -> {
+                JSONArray matchSeats = row.optJSONArray("seats");
+                for (int i = 0; matchSeats != null && i < matchSeats.length(); i++) {
+                    JSONObject seat = matchSeats.getJSONObject(i);
+                    out.writeByte(ROW);
+                    out.writeInt(row.getInt("id"));
+                    out.writeInt(seat.getInt("id"));
+                    out.writeByte(i + 1);
+                    out.writeInt(seat.getInt("score"));
+                    out.writeBoolean(seat.getBoolean("left"));
+                    writeTimestamp(out, new Timestamp(row.getLong("at")));
+                    progress("Exported", "participants", ++seats[0]);
+                }
+            });
+            try (Statement stmt = streaming(c);
+                 ResultSet rs = stmt.executeQuery("SELECT match_id, player_id, placement, score, left_early, " +
+                                                  "created_at FROM match_participants")) {
+                while (rs.next()) {
+                    out.writeByte(ROW);
+                    out.writeInt(rs.getInt(1));
+                    out.writeInt(rs.getInt(2));
+                    out.writeByte(rs.getInt(3));
+                    out.writeInt(rs.getInt(4));
+                    out.writeBoolean(rs.getBoolean(5));
+                    writeTimestamp(out, rs.getTimestamp(6));
+                    progress("Exported", "participants", ++seats[0]);
+                }
+            }
+            out.writeByte(END);
+            System.out.println("✓ Exported " + players + " players, " + matches[0] + " matches (" + archived +
+                               " from archive), " + seats[0] + " participants to " + file +
+                               " (" + (file.length() / 1024) + "KB) in " + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    /** INSERT IGNORE: chạy lại sau khi bị ngắt giữa chừng sẽ bỏ qua các dòng đã nhập. */
+    public static void importFile(File file) throws SQLException, IOException {
+        long start = System.currentTimeMillis();
+        // Tạo schema/bảng nếu môi trường đích còn trống
+        new DatabaseManager().close();
+        try (Connection c = connect(true);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(
+                     new GZIPInputStream(new FileInputStream(file), 64 * 1024), 64 * 1024))) {
+            if (in.readInt() != MAGIC) throw new IOException("not a bulk transfer file: " + file);
+            int version = in.readInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("unsupported bulk transfer version " + version);
+            }
+            c.setAutoCommit(false);
+
+            expectSection(in, PLAYERS);
+            long players = 0;
+            try (PreparedStatement pstmt = c.prepareStatement(
+                    "INSERT IGNORE INTO players (id, username, password, total_score, wins, losses, " +
+                    "quit_count, is_banned, created_at, last_login, rating, rating_rd, rated_games, rating_period) " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+                while (in.readByte() == ROW) {
+                    pstmt.setInt(1, in.readInt());
+                    pstmt.setString(2, in.readUTF());
+                    pstmt.setString(3, in.readUTF());
+                    pstmt.setInt(4, in.readInt());
+                    pstmt.setInt(5, in.readInt());
+                    pstmt.setInt(6, in.readInt());
+                    pstmt.setInt(7, in.readInt());
+                    pstmt.setBoolean(8, in.readBoolean());
+                    pstmt.setTimestamp(9, readTimestamp(in));
+                    pstmt.setTimestamp(10, readTimestamp(in));
+                    boolean rated = version >= 2;
+                    pstmt.setDouble(11, rated ? in.readDouble() : RatingEngine.INITIAL_RATING);
+                    pstmt.setDouble(12, rated ? in.readDouble() : RatingEngine.MAX_RD);
+                    pstmt.setInt(13, rated ? in.readInt() : 0);
+                    pstmt.setInt(14, rated ? in.readInt() : 0);
+                    addToBatch(c, pstmt, ++players);
+                    progress("Imported", "players", players);
+                }
+                pstmt.executeBatch();
+                c.commit();
+            }
+
+            expectSection(in, MATCHES);
+            long matches = 0;
+            try (PreparedStatement pstmt = c.prepareStatement(
+                    "INSERT IGNORE INTO match_history (id, player1_id, player2_id, winner_id, difficulty, " +
+                    "player1_score, player2_score, duration, created_at, replay_id) " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+                while (in.readByte() == ROW) {
+                    pstmt.setInt(1, in.readInt());
+                    pstmt.setInt(2, in.readInt());
+                    pstmt.setInt(3, in.readInt());
+                    int winnerId = in.readInt();
+                    if (winnerId > 0) {
+                        pstmt.setInt(4, winnerId);
+                    } else {
+                        pstmt.setNull(4, Types.INTEGER);
+                    }
+                    pstmt.setString(5, in.readUTF());
+                    pstmt.setInt(6, in.readInt());
+                    pstmt.setInt(7, in.readInt());
+                    pstmt.setInt(8, in.readInt());
+                    pstmt.setTimestamp(9, readTimestamp(in));
+                    long replayId = version >= 3 ? in.readLong() : 0;
+                    if (replayId != 0) {
+                        pstmt.setLong(10, replayId);
+                    } else {
+                        pstmt.setNull(10, Types.BIGINT);
+                    }
+                    addToBatch(c, pstmt, ++matches);
+                    progress("Imported", "matches", matches);
+                }
+                pstmt.executeBatch();
+                c.commit();
+            }
+
+            long seats = 0;
+            if (version >= 4) {
+                expectSection(in, PARTICIPANTS);
+                try (PreparedStatement pstmt = c.prepareStatement(
+                        "INSERT IGNORE INTO match_participants (match_id, player_id, placement, score, left_early, " +
+                        "created_at) VALUES (?, ?, ?, ?, ?, ?)")) {
+                    while (in.readByte() == ROW) {
+                        pstmt.setInt(1, in.readInt());
+                        pstmt.setInt(2, in.readInt());
+                        pstmt.setInt(3, in.readByte());
+                        pstmt.setInt(4, in.readInt());
+                        pstmt.setBoolean(5, in.readBoolean());
+                        pstmt.setTimestamp(6, readTimestamp(in));
+                        addToBatch(c, pstmt, ++seats);
+                        progress("Imported", "participants", seats);
+                    }
+                    pstmt.executeBatch();
+                    c.commit();
+                }
+            }
+            System.out.println("✓ Imported " + players + " players, " + matches + " matches, " + seats +
+                               " participants from " + file +
+                               " in " + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    private static void addToBatch(Connection c, PreparedStatement pstmt, long count) throws SQLException {
+        pstmt.addBatch();
+        if (count % BATCH_SIZE == 0) {
+            pstmt.executeBatch();
+            c.commit();
+        }
+    }
+
+    private static void expectSection(DataInputStream in, byte tag) throws IOException {
+        byte actual = in.readByte();
+        if (actual != tag) throw new IOException("expected section " + tag + " but found " + actual);
+    }
+
+    private static void writeTimestamp(DataOutputStream out, Timestamp ts) throws IOException {
+        out.writeLong(ts != null ? ts.getTime() : Long.MIN_VALUE);
+    }
+
+    private static Timestamp readTimestamp(DataInputStream in) throws IOException {
+        long millis = in.readLong();
+        return millis == Long.MIN_VALUE ? null : new Timestamp(millis);
+    }
+
+    private static void progress(String action, String what, long count) {
+        if (count % PROGRESS_EVERY == 0) {
+            System.out.println("  " + action + " " + count + " " + what + "...");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2 || !(args[0].equals("export") || args[0].equals("import"))) {
+            System.out.println("Usage: java [-Ddb.host=... -Ddb.name=...] server.BulkTransfer export|import <file>");
+            return;
+        }
+        File file = new File(args[1]);
+        if (args[0].equals("export")) {
+            export(file);
+        } else {
+            importFile(file);
+        }
+    }
+}
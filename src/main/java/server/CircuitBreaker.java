@@ -0,0 +1,58 @@
+package server;
+
+/**
+ * Circuit breaker đơn giản cho DB.
+ * Sau vài lỗi liên tiếp thì "mở" mạch: các luồng xử lý client không gọi DB nữa mà trả lỗi ngay;
+ * hết thời gian chờ thì cho một lần thử (half-open), thành công thì đóng mạch lại.
+ * Thời gian chờ tăng gấp đôi sau mỗi lần thử thất bại, tối đa MAX_OPEN_MILLIS.
+ */
+public class CircuitBreaker {
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long BASE_OPEN_MILLIS = 2_000;
+    private static final long MAX_OPEN_MILLIS = 60_000;
+
+    private final String name;
+    private int consecutiveFailures;
+    private long openMillis = BASE_OPEN_MILLIS;
+    private long retryAt;
+    private boolean open;
+
+    public CircuitBreaker(String name) {
+        this.name = name;
+    }
+
+    /** true nếu được phép gọi: mạch đóng, hoặc đã tới lúc thử lại. */
+    public synchronized boolean allowRequest() {
+        return !open || System.currentTimeMillis() >= retryAt;
+    }
+
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    public synchronized void recordSuccess() {
+        if (open) {
+            System.out.println("✓ " + name + " is reachable again, circuit closed");
+        }
+        open = false;
+        consecutiveFailures = 0;
+        openMillis = BASE_OPEN_MILLIS;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (open) {
+            // Lần thử half-open thất bại: chờ lâu hơn
+            openMillis = Math.min(openMillis * 2, MAX_OPEN_MILLIS);
+            retryAt = System.currentTimeMillis() + openMillis;
+        } else if (consecutiveFailures >= FAILURE_THRESHOLD) {
+            open = true;
+            retryAt = System.currentTimeMillis() + openMillis;
+            System.err.println("✗ " + name + " unavailable, circuit opened for " + openMillis + "ms");
+        }
+    }
+
+    public synchronized long millisUntilRetry() {
+        return open ? Math.max(0, retryAt - System.currentTimeMillis()) : 0;
+    }
+}
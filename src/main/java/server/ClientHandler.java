@@ -1,21 +1,41 @@
 package server;
 
+import common.BoardConfig;
 import common.Protocol;
+import common.Replay;
+import org.json.JSONArray;
 import org.json.JSONObject;
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ClientHandler implements Runnable {
+    // Mỗi REPLAY_CHUNK mang chừng này byte bản ghi (khoảng 21KB sau base64)
+    private static final int REPLAY_CHUNK_BYTES = 16 * 1024;
+    private static final String DATABASE_UNAVAILABLE = "Database is temporarily unavailable, please try again shortly";
     private Socket socket;
     private BufferedReader in;
-    private PrintWriter out;
+    // Ghi byte trực tiếp để SpectatorChannel dùng chung một mảng byte cho mọi người xem
+    private OutputStream out;
+    private final Object writeLock = new Object();
     private Server server;
     private int playerId;
     private String username;
     private boolean isLoggedIn;
     private boolean inGame;
+    // Client gửi "cardReveal" lúc LOGIN: lật từng lá (FLIP) và nhận giá trị qua GAME_UPDATE
+    private boolean cardReveal;
     private GameRoom currentGame;
+    // Luồng writer của SpectatorChannel cũng xóa khi ngắt người xem chậm
+    private volatile SpectatorChannel spectating;
+    // Rating (làm tròn) lúc vào hàng chờ QUICK_PLAY, để chia dải kỹ năng
+    private int skill;
+    // Thách đấu 1-1 đang chờ mình trả lời, theo tên người thách; bàn chơi lấy từ đây chứ không từ lời đồng ý
+    private final Map<String, GroupChallenge> challengesReceived = new ConcurrentHashMap<>();
     
     public ClientHandler(Socket socket, Server server) {
         this.socket = socket;
@@ -25,7 +45,7 @@ public class ClientHandler implements Runnable {
         
         try {
             in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out = new PrintWriter(socket.getOutputStream(), true);
+            out = new BufferedOutputStream(socket.getOutputStream());
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -72,6 +92,24 @@ public class ClientHandler implements Runnable {
                 case Protocol.CARD_FLIP:
                     handleCardFlip(json);
                     break;
+                case Protocol.FLIP:
+                    handleFlip(json);
+                    break;
+                case Protocol.SPECTATE:
+                    handleSpectate(json);
+                    break;
+                case Protocol.STOP_SPECTATE:
+                    stopSpectating();
+                    break;
+                case Protocol.QUICK_PLAY:
+                    handleQuickPlay(json);
+                    break;
+                case Protocol.CANCEL_QUICK_PLAY:
+                    handleCancelQuickPlay();
+                    break;
+                case Protocol.GET_REPLAY:
+                    handleGetReplay(json);
+                    break;
                 case Protocol.QUIT_GAME:
                     handleQuitGame();
                     break;
@@ -79,7 +117,7 @@ public class ClientHandler implements Runnable {
                     handleRematch(json);
                     break;
                 case Protocol.GET_LEADERBOARD:
-                    handleGetLeaderboard();
+                    handleGetLeaderboard(json);
                     break;
                 case Protocol.LOGOUT:
                     disconnect();
@@ -88,7 +126,7 @@ public class ClientHandler implements Runnable {
                     handleLeftLobby(json);
                     break;
                 case Protocol.GET_MATCH_HISTORY:
-                    handleGetMatchHistory();
+                    handleGetMatchHistory(json);
                     break;   
             }
         } catch (Exception e) {
@@ -97,21 +135,52 @@ public class ClientHandler implements Runnable {
         }
     }
     
-    private void handleGetMatchHistory() {
+    private void handleGetMatchHistory(JSONObject json) {
         if (!isLoggedIn) {
             sendError("Please login first");
             return;
         }
 
-        DatabaseManager db = Server.getDatabase();
-        List<Map<String, Object>> history = db.getPlayerMatchHistory(this.playerId, 20);
+        String cursorValue = json.optString("cursor", null);
+        HistoryCursor cursor = HistoryCursor.parse(cursorValue);
+        int pageSize = HistoryCursor.clampPageSize(json.optInt("pageSize", HistoryCursor.DEFAULT_PAGE_SIZE));
+
+        // Lấy dư 1 dòng để biết còn trang sau hay không; trang đầu ưu tiên lấy từ cache
+        List<Map<String, Object>> history = null;
+        if (cursor == null) {
+            history = Server.getRecentMatches().getFirstPage(this.playerId, pageSize + 1);
+        }
+        boolean fromCache = history != null;
+        if (history == null) {
+            if (databaseUnavailable()) {
+                sendError(DATABASE_UNAVAILABLE);
+                return;
+            }
+            GameStorage db = Server.getDatabase();
+            history = db.getPlayerMatchHistory(this.playerId, cursor, pageSize + 1);
+            if (history == null) {
+                sendError(DATABASE_UNAVAILABLE);
+                return;
+            }
+        }
+        boolean hasMore = history.size() > pageSize;
+        if (hasMore) {
+            history = history.subList(0, pageSize);
+        }
 
         Map<String, Object> response = new HashMap<>();
         response.put("type", Protocol.MATCH_HISTORY);
         response.put("data", history);
+        if (cursor != null) {
+            response.put("cursor", cursorValue);
+        }
+        if (hasMore) {
+            response.put("nextCursor", HistoryCursor.of(history.get(history.size() - 1)).encode());
+        }
         sendMessage(response);
 
-        System.out.println("📜 Sent match history to " + username + " (" + history.size() + " matches)");
+        System.out.println("📜 Sent match history to " + username + " (" + history.size() + " matches" +
+                           (cursor != null ? ", paged" : "") + (fromCache ? ", cached" : "") + ")");
     }
     
     private void handleLeftLobby(JSONObject json) {
@@ -132,19 +201,38 @@ public class ClientHandler implements Runnable {
         String user = json.getString("username");
         String pass = json.getString("password");
         
-        DatabaseManager db = Server.getDatabase();
+        if (databaseUnavailable()) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("type", Protocol.LOGIN_FAILED);
+            response.put("message", DATABASE_UNAVAILABLE);
+            sendMessage(response);
+            return;
+        }
+        GameStorage db = Server.getDatabase();
         Map<String, Object> playerData = db.loginPlayer(user, pass);
+        if (playerData != null && Server.getDiscipline().isBanned((int) playerData.get("id"))) {
+            playerData = null;
+        }
         
         if (playerData != null) {
             this.playerId = (int) playerData.get("id");
             this.username = user;
             this.isLoggedIn = true;
+            this.cardReveal = json.optBoolean("cardReveal", false);
+            // Các lần đọc sau trên luồng này thấy được kết quả vừa ghi của người này
+            ReplicaRouter.bindSession(playerId);
+            RatingEngine.Rating rating = Server.getRatings().load(playerId);
             
             Map<String, Object> response = new HashMap<>(playerData);
             response.put("type", Protocol.LOGIN_SUCCESS);
+            response.put("rating", (int) Math.round(rating.rating));
+            response.put("rating_rd", (int) Math.round(rating.rd));
             sendMessage(response);
             
             server.addOnlinePlayer(this);
+            Server.getJournal().submit(ResultEvent.login(playerId, username));
+            Server.getDiscipline().register(this, (int) playerData.get("quit_count"));
+            Server.getRecentMatches().load(playerId);
         } else {
             Map<String, Object> response = new HashMap<>();
             response.put("type", Protocol.LOGIN_FAILED);
@@ -157,7 +245,14 @@ public class ClientHandler implements Runnable {
         String user = json.getString("username");
         String pass = json.getString("password");
         
-        DatabaseManager db = Server.getDatabase();
+        if (databaseUnavailable()) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("type", Protocol.REGISTER_FAILED);
+            response.put("message", DATABASE_UNAVAILABLE);
+            sendMessage(response);
+            return;
+        }
+        GameStorage db = Server.getDatabase();
         boolean success = db.registerPlayer(user, pass);
         
         Map<String, Object> response = new HashMap<>();
@@ -180,47 +275,237 @@ public class ClientHandler implements Runnable {
     }
     
     private void handleChallenge(JSONObject json) {
-        String targetUsername = json.getString("target");
-        String difficulty = json.getString("difficulty");
+        String targetUsername = json.optString("target");
+        BoardConfig board;
+        try {
+            board = BoardConfig.fromJSON(json);
+        } catch (IllegalArgumentException e) {
+            sendError("Invalid board: " + e.getMessage());
+            return;
+        }
+        
+        if (json.has("targets")) {
+            handleGroupChallenge(json.getJSONArray("targets"), board);
+            return;
+        }
         
         ClientHandler target = server.findPlayerByUsername(targetUsername);
         if (target != null && !target.isInGame()) {
             Map<String, Object> challenge = new HashMap<>();
             challenge.put("type", Protocol.CHALLENGE_RECEIVED);
             challenge.put("from", this.username);
-            challenge.put("difficulty", difficulty);
+            board.writeTo(challenge);
+            target.challengesReceived.put(username, new GroupChallenge(username, List.of(targetUsername), board));
             target.sendMessage(challenge);
         } else {
             sendError("Player not available");
         }
     }
     
+    /** Thách đấu nhiều người (phòng 3-8 người): "targets" là danh sách người được mời. */
+    private void handleGroupChallenge(JSONArray targets, BoardConfig board) {
+        List<String> invited = new ArrayList<>();
+        for (int i = 0; i < targets.length(); i++) {
+            String name = targets.getString(i);
+            if (name.equals(username) || invited.contains(name)) continue;
+            ClientHandler target = server.findPlayerByUsername(name);
+            if (target == null || target.isInGame()) {
+                sendError("Player not available: " + name);
+                return;
+            }
+            invited.add(name);
+        }
+        if (invited.isEmpty() || invited.size() + 1 > GameRoom.MAX_PLAYERS) {
+            sendError("A room needs 2-" + GameRoom.MAX_PLAYERS + " players");
+            return;
+        }
+        
+        GroupChallenge group = new GroupChallenge(username, invited, board);
+        server.addGroupChallenge(group);
+        
+        Map<String, Object> challenge = new HashMap<>();
+        challenge.put("type", Protocol.CHALLENGE_RECEIVED);
+        challenge.put("from", this.username);
+        challenge.put("challengeId", group.id);
+        challenge.put("players", group.getPlayers());
+        board.writeTo(challenge);
+        for (String name : invited) {
+            server.findPlayerByUsername(name).sendMessage(challenge);
+        }
+        System.out.println("📬 Group challenge " + group.id + ": " + String.join(", ", group.getPlayers()));
+    }
+    
+    private void handleAcceptGroupChallenge(String challengeId) {
+        GroupChallenge group = server.findGroupChallenge(challengeId);
+        if (group == null || !group.isInvited(username)) {
+            sendError("Challenge expired");
+            return;
+        }
+        if (!group.accept(username) || !server.removeGroupChallenge(group.id)) {
+            return;
+        }
+        
+        // Mọi người đã đồng ý: chủ phòng ngồi ghế đầu
+        List<ClientHandler> seats = new ArrayList<>();
+        String unavailable = null;
+        for (String name : group.getPlayers()) {
+            ClientHandler player = server.findPlayerByUsername(name);
+            if (player == null) {
+                unavailable = name;
+                break;
+            }
+            seats.add(player);
+        }
+        // Kiểm tra và giữ chỗ cùng khóa với hàng chờ QUICK_PLAY, để không ai vào hai phòng
+        if (unavailable == null && !reserve(server, seats)) {
+            for (ClientHandler player : seats) {
+                if (player.isInGame()) unavailable = player.getUsername();
+            }
+            if (unavailable == null) unavailable = "a player";
+        }
+        if (unavailable != null) {
+            for (ClientHandler seated : seats) {
+                if (seated != this) seated.sendError("Cannot start game - " + unavailable + " is not available");
+            }
+            sendError("Cannot start game - " + unavailable + " is not available");
+            return;
+        }
+        openRoom(server, seats, group.board);
+    }
+    
     private void handleAcceptChallenge(JSONObject json) {
+        if (json.has("challengeId")) {
+            handleAcceptGroupChallenge(json.getString("challengeId"));
+            return;
+        }
         String challengerUsername = json.getString("challenger");
-        String difficulty = json.getString("difficulty");
+        GroupChallenge challenge = challengesReceived.remove(challengerUsername);
+        if (challenge == null || challenge.isExpired()) {
+            sendError("Challenge expired");
+            return;
+        }
         
         ClientHandler challenger = server.findPlayerByUsername(challengerUsername);
-        if (challenger != null && !challenger.isInGame() && !this.isInGame()) {
-            // Tạo game room
-            String roomId = UUID.randomUUID().toString();
-            GameRoom room = new GameRoom(roomId, challenger, this, difficulty);
-            
-            this.currentGame = room;
-            challenger.currentGame = room;
-            this.inGame = true;
-            challenger.inGame = true;
-            
-            server.addGameRoom(room);
+        if (challenger != null && reserve(server, Arrays.asList(challenger, this))) {
+            openRoom(server, Arrays.asList(challenger, this), challenge.board);
         } else {
             sendError("Cannot start game");
         }
     }
     
+    private void handleQuickPlay(JSONObject json) {
+        if (!isLoggedIn) {
+            sendError("Please login first");
+            return;
+        }
+        if (inGame) {
+            sendError("Already in a game");
+            return;
+        }
+        String difficulty = json.optString("difficulty", Protocol.MEDIUM);
+        // Lấy từ cache của RatingEngine, đã tính cả các ván vừa chơi
+        skill = (int) Math.round(Server.getRatings().load(playerId).rating);
+        Matchmaker matchmaker = Server.getMatchmaker();
+        if (!matchmaker.join(this, difficulty, skill)) {
+            sendError("Quick play is only available for EASY, MEDIUM and HARD");
+            return;
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("type", Protocol.QUEUE_STATUS);
+        response.put("queued", true);
+        response.put("difficulty", difficulty);
+        response.put("expectedWait", (matchmaker.expectedWaitMillis() + 999) / 1000);
+        sendMessage(response);
+        System.out.println("⏳ " + username + " joined quick play (" + difficulty + ", skill " + skill + ")");
+    }
+    
+    private void handleCancelQuickPlay() {
+        Server.getMatchmaker().leave(this);
+        Map<String, Object> response = new HashMap<>();
+        response.put("type", Protocol.QUEUE_STATUS);
+        response.put("queued", false);
+        sendMessage(response);
+    }
+    
+    /**
+     * Giữ chỗ cho một phòng mới: kiểm tra mọi người còn online, chưa vào ván, rồi đánh dấu inGame,
+     * tất cả trong khóa Matchmaker.class để một người không bị xếp vào hai phòng. Phòng được tạo sau đó,
+     * ngoài khóa (openRoom), vì tạo phòng gửi GAME_START qua socket.
+     */
+    static boolean reserve(Server server, List<ClientHandler> players) {
+        synchronized (Matchmaker.class) {
+            for (ClientHandler player : players) {
+                if (player.inGame || server.findPlayerByUsername(player.username) != player) return false;
+            }
+            for (ClientHandler player : players) {
+                player.inGame = true;
+            }
+            return true;
+        }
+    }
+    
+    /** Tạo phòng cho những người đã giữ chỗ; lỗi thì trả chỗ, báo cho từng người và trả về null. */
+    static GameRoom openRoom(Server server, List<ClientHandler> players, BoardConfig board) {
+        GameRoom room;
+        try {
+            room = new GameRoom(UUID.randomUUID().toString(), players, board);
+        } catch (RuntimeException e) {
+            System.err.println("✗ Failed to create game room:");
+            e.printStackTrace();
+            for (ClientHandler player : players) {
+                player.inGame = false;
+                player.sendError("Could not start the game, please try again");
+            }
+            return null;
+        }
+        for (ClientHandler player : players) {
+            player.currentGame = room;
+        }
+        server.addGameRoom(room);
+        // Ai thoát trong lúc phòng đang được tạo thì tính là bỏ cuộc ngay
+        for (ClientHandler player : players) {
+            if (server.findPlayerByUsername(player.username) != player) room.playerQuit(player);
+        }
+        return room;
+    }
+    
+    /** Gọi từ luồng matchmaker; false nếu một trong hai đã vào ván khác hoặc đã thoát. */
+    static boolean reserveQuickMatch(Server server, ClientHandler player1, ClientHandler player2) {
+        return reserve(server, Arrays.asList(player1, player2));
+    }
+    
+    /** Tạo phòng cho cặp vừa giữ chỗ; lỗi thì hai người được báo đã rời hàng chờ. */
+    static void startQuickMatch(Server server, ClientHandler player1, ClientHandler player2, BoardConfig board) {
+        if (openRoom(server, Arrays.asList(player1, player2), board) == null) {
+            Map<String, Object> status = new HashMap<>();
+            status.put("type", Protocol.QUEUE_STATUS);
+            status.put("queued", false);
+            player1.sendMessage(status);
+            player2.sendMessage(status);
+            return;
+        }
+        System.out.println("🎯 Quick play: " + player1.username + " vs " + player2.username + " (" +
+                           board.difficulty + ", skill " + player1.skill + "/" + player2.skill + ")");
+    }
+    
     private void handleDeclineChallenge(JSONObject json) {
+        if (json.has("challengeId")) {
+            GroupChallenge group = server.findGroupChallenge(json.getString("challengeId"));
+            if (group != null && group.isInvited(username) && server.removeGroupChallenge(group.id)) {
+                Map<String, Object> response = new HashMap<>();
+                response.put("type", Protocol.CHALLENGE_DECLINED);
+                response.put("decliner", this.username);
+                for (String name : group.getPlayers()) {
+                    ClientHandler player = server.findPlayerByUsername(name);
+                    if (player != null && player != this) player.sendMessage(response);
+                }
+            }
+            return;
+        }
         String challengerUsername = json.getString("challenger");
         ClientHandler challenger = server.findPlayerByUsername(challengerUsername);
         
-        if (challenger != null) {
+        if (challengesReceived.remove(challengerUsername) != null && challenger != null) {
             Map<String, Object> response = new HashMap<>();
             response.put("type", Protocol.CHALLENGE_DECLINED);
             response.put("decliner", this.username);
@@ -236,6 +521,12 @@ public class ClientHandler implements Runnable {
         }
     }
     
+    private void handleFlip(JSONObject json) {
+        if (currentGame != null && inGame) {
+            currentGame.flipCard(this, json.getInt("card"), json.getLong("seq"));
+        }
+    }
+    
     private void handleQuitGame() {
         if (currentGame != null && inGame) {
             currentGame.playerQuit(this);
@@ -272,8 +563,8 @@ public class ClientHandler implements Runnable {
             boolean accept = json.getBoolean("accept");
             
             if (accept) {
-                // Check if both players are available
-                if (!target.isInGame() && !this.isInGame()) {
+                // Check if both players are available (và giữ chỗ luôn)
+                if (reserve(server, Arrays.asList(target, this))) {
                     // Notify the requester
                     Map<String, Object> response = new HashMap<>();
                     response.put("type", Protocol.REMATCH_ACCEPTED);
@@ -281,15 +572,9 @@ public class ClientHandler implements Runnable {
                     target.sendMessage(response);
                     
                     // Create new game room
-                    String roomId = UUID.randomUUID().toString();
-                    GameRoom room = new GameRoom(roomId, target, this, difficulty);
-                    this.currentGame = room;
-                    target.currentGame = room;
-                    this.inGame = true;
-                    target.inGame = true;
-                    server.addGameRoom(room);
-                    
-                    System.out.println("✓ Rematch accepted - New game created");
+                    if (openRoom(server, Arrays.asList(target, this), BoardConfig.of(difficulty)) != null) {
+                        System.out.println("✓ Rematch accepted - New game created");
+                    }
                 } else {
                     sendError("Cannot start rematch - player busy");
                 }
@@ -305,12 +590,24 @@ public class ClientHandler implements Runnable {
         }
     }
     
-    private void handleGetLeaderboard() {
-        DatabaseManager db = Server.getDatabase();
-        List<Map<String, Object>> leaderboard = db.getLeaderboard(10);
+    private void handleGetLeaderboard(JSONObject json) {
+        String period = json.optString("period", Protocol.PERIOD_ALL_TIME);
+        String difficulty = json.optString("difficulty", Protocol.ALL_DIFFICULTIES);
+        if (!LeaderboardService.isValidPeriod(period) || !LeaderboardService.isValidDifficulty(difficulty)) {
+            sendError("Invalid leaderboard filter");
+            return;
+        }
+        
+        if (databaseUnavailable()) {
+            sendError(DATABASE_UNAVAILABLE);
+            return;
+        }
+        List<Map<String, Object>> leaderboard = Server.getLeaderboards().getLeaderboard(period, difficulty, 10);
         
         Map<String, Object> response = new HashMap<>();
         response.put("type", Protocol.LEADERBOARD);
+        response.put("period", period);
+        response.put("difficulty", difficulty);
         response.put("data", leaderboard);
         sendMessage(response);
     }
@@ -318,12 +615,126 @@ public class ClientHandler implements Runnable {
     public void sendMessage(Map<String, Object> data) {
         try {
             JSONObject json = new JSONObject(data);
-            out.println(json.toString());
+            sendLine((json.toString() + "\n").getBytes(Charset.defaultCharset()));
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
     
+    /** Ghi một dòng đã mã hóa sẵn; false nếu socket đã đóng (như PrintWriter trước đây, không ném lỗi). */
+    public boolean sendLine(byte[] line) {
+        synchronized (writeLock) {
+            try {
+                out.write(line);
+                out.flush();
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+    
+    private void handleSpectate(JSONObject json) {
+        if (!isLoggedIn) {
+            sendError("Please login first");
+            return;
+        }
+        if (inGame) {
+            sendError("Cannot spectate while playing");
+            return;
+        }
+        ClientHandler target = server.findPlayerByUsername(json.getString("player"));
+        GameRoom room = target != null && target.inGame ? target.currentGame : null;
+        if (room == null) {
+            sendError("Player is not in a game");
+            return;
+        }
+        stopSpectating();
+        spectating = room.getSpectators();
+        spectating.attach(this);
+        System.out.println("👀 " + username + " is spectating " + target.getUsername());
+    }
+    
+    /**
+     * Gửi một replay đã lưu thành từng đoạn REPLAY_CHUNK_BYTES. Bản ghi được map từ file (ReplayStore.open),
+     * mỗi lần chỉ mã hóa base64 một đoạn nên bộ nhớ dùng không phụ thuộc độ dài replay.
+     * Id replay là vị trí trong file nên dễ đoán: chỉ người đã chơi ván đó được tải.
+     */
+    private void handleGetReplay(JSONObject json) {
+        if (!isLoggedIn) {
+            sendError("Please login first");
+            return;
+        }
+        long replayId = json.getLong("replayId");
+        ByteBuffer record;
+        try {
+            record = Server.getReplays().open(replayId);
+        } catch (IOException e) {
+            System.err.println("✗ Cannot read replay " + replayId + ": " + e.getMessage());
+            record = null;
+        }
+        if (record != null && !playedIn(record)) {
+            System.out.println("⚠ " + username + " requested replay " + replayId + " of a match they did not play");
+            record = null;
+        }
+        if (record == null) {
+            sendError("Replay not found");
+            return;
+        }
+
+        int size = record.remaining();
+        int index = 0;
+        Base64.Encoder encoder = Base64.getEncoder();
+        while (record.hasRemaining()) {
+            ByteBuffer chunk = record.slice();
+            chunk.limit(Math.min(REPLAY_CHUNK_BYTES, chunk.remaining()));
+            record.position(record.position() + chunk.remaining());
+            ByteBuffer encoded = encoder.encode(chunk);
+
+            Map<String, Object> message = new HashMap<>();
+            message.put("type", Protocol.REPLAY_CHUNK);
+            message.put("replayId", replayId);
+            message.put("index", index++);
+            message.put("size", size);
+            message.put("data", new String(encoded.array(), 0, encoded.limit(), StandardCharsets.ISO_8859_1));
+            message.put("last", !record.hasRemaining());
+            sendMessage(message);
+        }
+        System.out.println("🎞 Sent replay " + replayId + " to " + username + " (" + size + " bytes, " + index +
+                           " chunks)");
+    }
+    
+    private boolean playedIn(ByteBuffer record) {
+        try {
+            for (int id : Replay.parse(record.duplicate()).playerIds) {
+                if (id == playerId) return true;
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("✗ Corrupt replay record: " + e.getMessage());
+        }
+        return false;
+    }
+    
+    /** Rời trận đang xem (nếu có); gọi cả khi người này vào một ván mới. */
+    public void stopSpectating() {
+        if (spectating != null) {
+            spectating.detach(this);
+            spectating = null;
+        }
+    }
+    
+    /** SpectatorChannel đã ngắt người này (xem quá chậm); không đổi nếu họ đã chuyển sang xem trận khác. */
+    void spectatorDropped(SpectatorChannel channel) {
+        if (spectating == channel) {
+            spectating = null;
+        }
+    }
+    
+    // DB đang lỗi (breaker mở, do luồng journal theo dõi): trả lời ngay thay vì để luồng client treo chờ timeout
+    private boolean databaseUnavailable() {
+        return Server.getDatabaseBreaker().isOpen();
+    }
+    
     private void sendError(String message) {
         Map<String, Object> error = new HashMap<>();
         error.put("type", Protocol.ERROR);
@@ -332,17 +743,31 @@ public class ClientHandler implements Runnable {
     }
     
     private void disconnect() {
+        stopSpectating();
+        Server.getMatchmaker().leave(this);
         if (inGame && currentGame != null) {
             currentGame.playerQuit(this);
         }
         
         if (isLoggedIn) {
             server.removeOnlinePlayer(this);
+            Server.getDiscipline().forget(this);
+            Server.getRecentMatches().evict(playerId);
+            Server.getRatings().release(playerId);
+            ReplicaRouter.unbindSession();
         }
         
         try {
-            if (in != null) in.close();
-            if (out != null) out.close();
+            // Đóng socket là đóng luôn in/out; out.close() sẽ flush vào socket đã đóng và báo lỗi
+            if (socket != null) socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    /** Đóng socket; vòng đọc trong run() sẽ thoát và tự dọn dẹp qua disconnect(). */
+    public void closeConnection() {
+        try {
             if (socket != null) socket.close();
         } catch (IOException e) {
             e.printStackTrace();
@@ -357,6 +782,10 @@ public class ClientHandler implements Runnable {
         return username;
     }
     
+    public boolean supportsCardReveal() {
+        return cardReveal;
+    }
+    
     public boolean isInGame() {
         return inGame;
     }
@@ -1,49 +1,133 @@
 package server;
 
+import common.Protocol;
 import java.sql.*;
+import java.io.File;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
 import java.util.*;
+import java.util.concurrent.*;
 import org.mindrot.jbcrypt.BCrypt;
 
-public class DatabaseManager {
-    // MySQL Configuration
-    private static final String DB_HOST = "localhost";
-    private static final String DB_PORT = "3306";
-    private static final String DB_NAME = "card_flip_game";
-    private static final String DB_USER = "root";
-    private static final String DB_PASSWORD = "khanhdangkhukho"; // Change this
-    
-    private static final String DB_URL = "jdbc:mysql://" + DB_HOST + ":" + DB_PORT + 
-                                         "/" + DB_NAME + "?useSSL=false&serverTimezone=UTC&allowPublicKeyRetrieval=true";
+public class DatabaseManager implements GameStorage {
+    // MySQL Configuration (override with -Ddb.host=..., -Ddb.password=..., etc.)
+    static final String DB_HOST = System.getProperty("db.host", "localhost");
+    static final String DB_PORT = System.getProperty("db.port", "3306");
+    static final String DB_NAME = System.getProperty("db.name", "card_flip_game");
+    static final String DB_USER = System.getProperty("db.user", "root");
+    // Không có mật khẩu mặc định: thiếu -Ddb.password thì dừng ngay (xem password())
+    private static final String DB_PASSWORD = System.getProperty("db.password");
+    
+    private static final String URL_OPTIONS = "?useSSL=false&serverTimezone=UTC&allowPublicKeyRetrieval=true" +
+                                              "&connectTimeout=5000";
+    private final String dbHost;
+    private final String dbPort;
+    private final String dbName;
+    private final String dbUrl;
+    // Vị trí của schema này trong ShardedStorage (0/1 khi không chia shard)
+    private final int shardIndex;
+    private final int shardCount;
     private Connection conn;
+    // Truy vấn chỉ đọc có thể đi replica (-Ddb.replica.host=...), xem ReplicaRouter
+    private final ReplicaRouter reads;
+    // Kết nối riêng cho luồng áp dụng journal, vì nó cần transaction
+    private Connection journalConn;
+    // Kết nối riêng cho luồng ghi rating, gộp mỗi lô UPDATE thành ít lượt gửi (rewriteBatchedStatements)
+    private Connection ratingConn;
+    private int appliedSinceCleanup;
+    private final PlayerProfileCache profiles = new PlayerProfileCache();
+    private MatchArchive archive;
+    
+    /** Mật khẩu MySQL; ném IllegalStateException nếu chưa đặt -Ddb.password. */
+    static String password() {
+        if (DB_PASSWORD == null) {
+            throw new IllegalStateException("db.password is not set (run with -Ddb.password=...)");
+        }
+        return DB_PASSWORD;
+    }
     
     public DatabaseManager() {
+        this(DB_HOST, DB_PORT, DB_NAME, 0, 1);
+    }
+    
+    /** Một schema trong ShardedStorage, giữ các người chơi có id % shardCount == shardIndex. */
+    DatabaseManager(String host, String port, String name, int shardIndex, int shardCount) {
+        this.dbHost = host;
+        this.dbPort = port;
+        this.dbName = name;
+        this.dbUrl = urlFor(host, port, name);
+        this.shardIndex = shardIndex;
+        this.shardCount = shardCount;
+        String password = password();
+        this.reads = shardCount == 1 ? ReplicaRouter.fromSystemProperties(name, DB_USER, password, URL_OPTIONS)
+                                     : new ReplicaRouter(null, DB_USER, password, 0);
         try {
             Class.forName("com.mysql.cj.jdbc.Driver");
-            createDatabaseIfNotExists();
-            conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-            System.out.println("✓ Connected to MySQL database: " + DB_NAME);
+            conn = connectAndCreateDatabase();
+            System.out.println("✓ Connected to MySQL database: " + dbName);
             createTables();
+            archive = new MatchArchive(this, MatchArchive.directoryFor(dbName));
+            archive.start();
         } catch (Exception e) {
             e.printStackTrace();
             System.err.println("✗ Failed to connect to MySQL database!");
         }
     }
     
-    private void createDatabaseIfNotExists() {
-        try {
-            String tempUrl = "jdbc:mysql://" + DB_HOST + ":" + DB_PORT + 
-                           "?useSSL=false&serverTimezone=UTC&allowPublicKeyRetrieval=true";
-            Connection tempConn = DriverManager.getConnection(tempUrl, DB_USER, DB_PASSWORD);
-            Statement stmt = tempConn.createStatement();
-            
-            String createDB = "CREATE DATABASE IF NOT EXISTS " + DB_NAME + 
-                            " CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci";
-            stmt.execute(createDB);
-            
-            stmt.close();
-            tempConn.close();
+    static String urlFor(String host, String port, String name) {
+        return "jdbc:mysql://" + host + ":" + port + "/" + name + URL_OPTIONS;
+    }
+    
+    Connection openConnection() throws SQLException {
+        return configureSession(DriverManager.getConnection(dbUrl, DB_USER, password()));
+    }
+    
+    /**
+     * Kết nối cho player_directory (chỉ ở shard 0): giữ bước tăng id mặc định. Dùng kết nối thường thì
+     * id người chơi cũng theo dãy của shard 0 (luôn ≡ 1 mod số shard) và mọi người rơi vào cùng một shard.
+     */
+    Connection openDirectoryConnection() throws SQLException {
+        Connection c = DriverManager.getConnection(dbUrl, DB_USER, password());
+        try (Statement stmt = c.createStatement()) {
+            stmt.execute("SET SESSION auto_increment_increment = 1, auto_increment_offset = 1");
         } catch (SQLException e) {
-            e.printStackTrace();
+            c.close();
+            throw e;
+        }
+        return c;
+    }
+    
+    private Connection configureSession(Connection c) throws SQLException {
+        if (shardCount > 1) {
+            // Mỗi shard sinh id trận theo một dãy riêng, để bản sao trận chéo shard giữ cùng id
+            try (Statement stmt = c.createStatement()) {
+                stmt.execute("SET SESSION auto_increment_increment = " + shardCount +
+                             ", auto_increment_offset = " + (shardIndex + 1));
+            }
+        }
+        return c;
+    }
+    
+    Connection connection() {
+        return conn;
+    }
+    
+    boolean ownsPlayer(int playerId) {
+        return shardCount == 1 || Math.floorMod(playerId, shardCount) == shardIndex;
+    }
+    
+    // Một kết nối duy nhất: vào server chưa chọn schema, tạo schema nếu chưa có rồi dùng tiếp kết nối đó
+    private Connection connectAndCreateDatabase() throws SQLException {
+        Connection c = DriverManager.getConnection(urlFor(dbHost, dbPort, ""), DB_USER, password());
+        try (Statement stmt = c.createStatement()) {
+            stmt.execute("CREATE DATABASE IF NOT EXISTS " + dbName +
+                         " CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci");
+            c.setCatalog(dbName);
+            return configureSession(c);
+        } catch (SQLException e) {
+            c.close();
+            throw e;
         }
     }
     
@@ -67,10 +151,17 @@ public class DatabaseManager {
                 "INDEX idx_total_score (total_score DESC)" +
                 ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci";
             stmt.execute(createPlayers);
+            // Rating Glicko của RatingEngine
+            ensureColumn("players", "rating", "DOUBLE NOT NULL DEFAULT " + RatingEngine.INITIAL_RATING);
+            ensureColumn("players", "rating_rd", "DOUBLE NOT NULL DEFAULT " + RatingEngine.MAX_RD);
+            ensureColumn("players", "rated_games", "INT NOT NULL DEFAULT 0");
+            ensureColumn("players", "rating_period", "INT NOT NULL DEFAULT 0");
+            ensureIndex(conn, "players", "idx_rating", "(rating DESC)");
             
-            // Match history
+            // Match history, chia partition theo tháng (khóa partition phải nằm trong PRIMARY KEY,
+            // và bảng có partition không dùng được FOREIGN KEY)
             String createMatches = "CREATE TABLE IF NOT EXISTS match_history (" +
-                "id INT AUTO_INCREMENT PRIMARY KEY," +
+                "id INT AUTO_INCREMENT," +
                 "player1_id INT NOT NULL," +
                 "player2_id INT NOT NULL," +
                 "winner_id INT," +
@@ -78,16 +169,70 @@ public class DatabaseManager {
                 "player1_score INT DEFAULT 0," +
                 "player2_score INT DEFAULT 0," +
                 "duration INT," +
-                "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
-                "FOREIGN KEY (player1_id) REFERENCES players(id) ON DELETE CASCADE," +
-                "FOREIGN KEY (player2_id) REFERENCES players(id) ON DELETE CASCADE," +
-                "FOREIGN KEY (winner_id) REFERENCES players(id) ON DELETE SET NULL," +
-                "INDEX idx_player1 (player1_id)," +
-                "INDEX idx_player2 (player2_id)," +
-                "INDEX idx_created_at (created_at DESC)" +
-                ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci";
+                "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                "PRIMARY KEY (id, created_at)," +
+                "INDEX idx_player1_created (player1_id, created_at, id)," +
+                "INDEX idx_player2_created (player2_id, created_at, id)" +
+                ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci " +
+                partitionClause(YearMonth.now(ZoneOffset.UTC));
             stmt.execute(createMatches);
             
+            // Bảng cũ chỉ có idx_player1/idx_player2, bổ sung index kép cho phân trang keyset
+            ensureIndex(conn, "match_history", "idx_player1_created", "(player1_id, created_at, id)");
+            ensureIndex(conn, "match_history", "idx_player2_created", "(player2_id, created_at, id)");
+            // Id replay trong ReplayStore, NULL với trận cũ
+            ensureColumn("match_history", "replay_id", "BIGINT NULL");
+            ensurePartitioned();
+            ensureFuturePartitions(conn);
+            
+            // Rolling leaderboard counters, one row per (period, bucket, difficulty, player)
+            String createBuckets = "CREATE TABLE IF NOT EXISTS leaderboard_buckets (" +
+                "period VARCHAR(10) NOT NULL," +
+                "bucket_start DATE NOT NULL," +
+                "difficulty VARCHAR(10) NOT NULL," +
+                "player_id INT NOT NULL," +
+                "score INT DEFAULT 0," +
+                "wins INT DEFAULT 0," +
+                "losses INT DEFAULT 0," +
+                "PRIMARY KEY (period, bucket_start, difficulty, player_id)," +
+                "FOREIGN KEY (player_id) REFERENCES players(id) ON DELETE CASCADE," +
+                "INDEX idx_bucket_rank (period, bucket_start, difficulty, score DESC)" +
+                ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci";
+            stmt.execute(createBuckets);
+            
+            // Người chơi của trận nhiều người (3-8); match_history chỉ giữ hai người đứng đầu
+            String createParticipants = "CREATE TABLE IF NOT EXISTS match_participants (" +
+                "match_id INT NOT NULL," +
+                "player_id INT NOT NULL," +
+                "placement TINYINT NOT NULL," +
+                "score INT DEFAULT 0," +
+                "left_early BOOLEAN DEFAULT FALSE," +
+                "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP," +
+                "PRIMARY KEY (match_id, player_id)," +
+                "INDEX idx_participant_created (player_id, created_at)," +
+                "INDEX idx_participant_at (created_at)" +
+                ") ENGINE=InnoDB";
+            stmt.execute(createParticipants);
+            // MatchArchive xóa theo thời gian các dòng của tháng đã chuyển ra archive
+            ensureIndex(conn, "match_participants", "idx_participant_at", "(created_at)");
+            
+            // Sự kiện journal đã áp dụng, để phát lại journal không ghi trùng
+            String createApplied = "CREATE TABLE IF NOT EXISTS applied_events (" +
+                "event_id BIGINT PRIMARY KEY," +
+                "match_id INT NULL" +
+                ") ENGINE=InnoDB";
+            stmt.execute(createApplied);
+            ensureColumn("applied_events", "match_id", "INT NULL");
+            
+            if (shardCount > 1 && shardIndex == 0) {
+                // username -> id toàn cục; id quyết định shard của người chơi
+                String createDirectory = "CREATE TABLE IF NOT EXISTS player_directory (" +
+                    "id INT AUTO_INCREMENT PRIMARY KEY," +
+                    "username VARCHAR(50) UNIQUE NOT NULL" +
+                    ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci";
+                stmt.execute(createDirectory);
+            }
+            
             System.out.println("✓ Database tables ready");
             stmt.close();
         } catch (SQLException e) {
@@ -95,7 +240,142 @@ public class DatabaseManager {
         }
     }
     
+    private void ensureIndex(Connection c, String table, String indexName, String columns) throws SQLException {
+        if (hasIndex(c, table, indexName)) return;
+        try (Statement stmt = c.createStatement()) {
+            stmt.execute("ALTER TABLE " + table + " ADD INDEX " + indexName + " " + columns);
+            System.out.println("✓ Added index " + indexName + " on " + table);
+        }
+    }
+    
+    private static final int FUTURE_PARTITIONS = 2;
+    
+    private static String partitionName(YearMonth month) {
+        return String.format("p%04d%02d", month.getYear(), month.getMonthValue());
+    }
+    
+    // Mốc theo giây UTC, để không phụ thuộc time_zone của session
+    private static String partitionDefinition(YearMonth month) {
+        return "PARTITION " + partitionName(month) + " VALUES LESS THAN (" +
+               MatchArchive.monthStart(month.plusMonths(1)) + ")";
+    }
+    
+    /** Các partition từ tháng "from" tới FUTURE_PARTITIONS tháng sau tháng hiện tại, cộng pmax. */
+    private static String partitionClause(YearMonth from) {
+        StringBuilder sql = new StringBuilder("PARTITION BY RANGE (UNIX_TIMESTAMP(created_at)) (");
+        YearMonth last = YearMonth.now(ZoneOffset.UTC).plusMonths(FUTURE_PARTITIONS);
+        for (YearMonth month = from; !month.isAfter(last); month = month.plusMonths(1)) {
+            sql.append(partitionDefinition(month)).append(", ");
+        }
+        return sql.append("PARTITION pmax VALUES LESS THAN MAXVALUE)").toString();
+    }
+    
+    /**
+     * Chuyển một bảng match_history cũ (chưa partition) sang partition theo tháng: bỏ FK và
+     * idx_created_at, đổi PRIMARY KEY thành (id, created_at). Chỉ chạy một lần, có thể lâu nếu bảng lớn.
+     */
+    private void ensurePartitioned() throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM information_schema.partitions " +
+                     "WHERE table_schema = DATABASE() AND table_name = 'match_history' " +
+                     "AND partition_name IS NOT NULL")) {
+            if (rs.next() && rs.getInt(1) > 0) return;
+        }
+        System.out.println("⚠ Converting match_history to monthly partitions (one-time)...");
+        
+        List<String> foreignKeys = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT constraint_name FROM information_schema.table_constraints " +
+                     "WHERE table_schema = DATABASE() AND table_name = 'match_history' " +
+                     "AND constraint_type = 'FOREIGN KEY'")) {
+            while (rs.next()) foreignKeys.add(rs.getString(1));
+        }
+        YearMonth first = YearMonth.now(ZoneOffset.UTC);
+        try (Statement stmt = conn.createStatement()) {
+            for (String fk : foreignKeys) {
+                stmt.execute("ALTER TABLE match_history DROP FOREIGN KEY " + fk);
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT MIN(created_at) FROM match_history")) {
+                if (rs.next() && rs.getTimestamp(1) != null) {
+                    first = YearMonth.from(rs.getTimestamp(1).toInstant().atZone(ZoneOffset.UTC));
+                }
+            }
+            stmt.execute("ALTER TABLE match_history " +
+                         "MODIFY created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, " +
+                         "DROP PRIMARY KEY, ADD PRIMARY KEY (id, created_at)");
+            if (hasIndex(conn, "match_history", "idx_created_at")) {
+                stmt.execute("ALTER TABLE match_history DROP INDEX idx_created_at");
+            }
+            stmt.execute("ALTER TABLE match_history " + partitionClause(first));
+        }
+        System.out.println("✓ match_history partitioned by month since " + first);
+    }
+    
+    /** Tách pmax để luôn có sẵn partition cho FUTURE_PARTITIONS tháng tới. */
+    void ensureFuturePartitions(Connection c) throws SQLException {
+        Set<String> existing = listPartitions(c).keySet();
+        YearMonth last = YearMonth.now(ZoneOffset.UTC).plusMonths(FUTURE_PARTITIONS);
+        try (Statement stmt = c.createStatement()) {
+            for (YearMonth month = YearMonth.now(ZoneOffset.UTC); !month.isAfter(last); month = month.plusMonths(1)) {
+                if (existing.contains(partitionName(month))) continue;
+                stmt.execute("ALTER TABLE match_history REORGANIZE PARTITION pmax INTO (" +
+                             partitionDefinition(month) + ", PARTITION pmax VALUES LESS THAN MAXVALUE)");
+                System.out.println("✓ Added match_history partition " + partitionName(month));
+            }
+        }
+    }
+    
+    /** Partition tháng của match_history (không gồm pmax) -> mốc trên (giây UTC), theo thứ tự thời gian. */
+    Map<String, Long> listPartitions(Connection c) throws SQLException {
+        Map<String, Long> partitions = new LinkedHashMap<>();
+        try (Statement stmt = c.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT partition_name, partition_description " +
+                     "FROM information_schema.partitions " +
+                     "WHERE table_schema = DATABASE() AND table_name = 'match_history' " +
+                     "AND partition_name IS NOT NULL ORDER BY partition_ordinal_position")) {
+            while (rs.next()) {
+                if ("pmax".equals(rs.getString(1))) continue;
+                partitions.put(rs.getString(1), Long.parseLong(rs.getString(2)));
+            }
+        }
+        return partitions;
+    }
+    
+    private boolean hasIndex(Connection c, String table, String indexName) throws SQLException {
+        String sql = "SELECT COUNT(*) FROM information_schema.statistics " +
+                    "WHERE table_schema = DATABASE() AND table_name = ? AND index_name = ?";
+        try (PreparedStatement pstmt = c.prepareStatement(sql)) {
+            pstmt.setString(1, table);
+            pstmt.setString(2, indexName);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() && rs.getInt(1) > 0;
+            }
+        }
+    }
+    
+    private void ensureColumn(String table, String column, String definition) throws SQLException {
+        String sql = "SELECT COUNT(*) FROM information_schema.columns " +
+                    "WHERE table_schema = DATABASE() AND table_name = ? AND column_name = ?";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, table);
+            pstmt.setString(2, column);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next() && rs.getInt(1) > 0) return;
+            }
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+            System.out.println("✓ Added column " + column + " on " + table);
+        }
+    }
+    
+    @Override
     public boolean registerPlayer(String username, String password) {
+        return registerPlayer(0, username, password);
+    }
+    
+    /** playerId > 0: dùng id đã cấp từ player_directory (chế độ chia shard). */
+    boolean registerPlayer(int playerId, String username, String password) {
         try {
             // Validate input
             if (username == null || username.trim().isEmpty()) {
@@ -112,10 +392,12 @@ public class DatabaseManager {
             String hashedPassword = BCrypt.hashpw(password, BCrypt.gensalt());
             System.out.println("Password hashed successfully");
             
-            String sql = "INSERT INTO players (username, password) VALUES (?, ?)";
+            String sql = playerId > 0 ? "INSERT INTO players (username, password, id) VALUES (?, ?, ?)"
+                                      : "INSERT INTO players (username, password) VALUES (?, ?)";
             PreparedStatement pstmt = conn.prepareStatement(sql);
             pstmt.setString(1, username.trim());
             pstmt.setString(2, hashedPassword);
+            if (playerId > 0) pstmt.setInt(3, playerId);
             pstmt.executeUpdate();
             pstmt.close();
             
@@ -136,165 +418,179 @@ public class DatabaseManager {
         }
     }
     
+    @Override
     public Map<String, Object> loginPlayer(String username, String password) {
+        PlayerProfileCache.Profile profile = profiles.getByUsername(username);
+        if (profile == null) {
+            long loadStamp = profiles.beginLoad();
+            profile = loadProfile(username);
+            if (profile == null) {
+                System.out.println("✗ Login failed: User not found");
+                return null;
+            }
+            profiles.put(profile, loadStamp);
+        }
+        
+        System.out.println("Login attempt for user: " + username);
+        if (profile.banned) {
+            System.out.println("✗ Login failed: Account is banned");
+            return null;
+        }
+        
+        // Verify password
+        boolean passwordMatch = false;
         try {
-            String sql = "SELECT * FROM players WHERE username = ?";
-            PreparedStatement pstmt = conn.prepareStatement(sql);
+            passwordMatch = BCrypt.checkpw(password, profile.passwordHash);
+        } catch (Exception e) {
+            System.err.println("✗ Error checking password: " + e.getMessage());
+        }
+        if (!passwordMatch) {
+            System.out.println("✗ Login failed: Invalid password");
+            return null;
+        }
+        
+        Map<String, Object> playerData = new HashMap<>();
+        playerData.put("id", profile.id);
+        playerData.put("username", profile.username);
+        playerData.put("total_score", profile.totalScore);
+        playerData.put("wins", profile.wins);
+        playerData.put("losses", profile.losses);
+        playerData.put("quit_count", profile.quitCount);
+        System.out.println("✓ Login successful for: " + username);
+        // last_login được ghi qua journal (ClientHandler), không tốn thêm một lượt DB ở đây
+        return playerData;
+    }
+    
+    private PlayerProfileCache.Profile loadProfile(String username) {
+        String sql = "SELECT id, username, password, total_score, wins, losses, quit_count, is_banned " +
+                    "FROM players WHERE username = ?";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setString(1, username);
-            ResultSet rs = pstmt.executeQuery();
-            
-            if (rs.next()) {
-                int playerId = rs.getInt("id");
-                String storedHash = rs.getString("password");
-                boolean isBanned = rs.getBoolean("is_banned");
-                
-                System.out.println("Login attempt for user: " + username);
-                System.out.println("Account banned: " + isBanned);
-                
-                if (isBanned) {
-                    System.out.println("✗ Login failed: Account is banned");
-                    rs.close();
-                    pstmt.close();
-                    return null;
-                }
-                
-                // Verify password
-                boolean passwordMatch = false;
-                try {
-                    passwordMatch = BCrypt.checkpw(password, storedHash);
-                    System.out.println("Password match: " + passwordMatch);
-                } catch (Exception e) {
-                    System.err.println("✗ Error checking password: " + e.getMessage());
-                    passwordMatch = false;
-                }
-                
-                if (passwordMatch) {
-                    Map<String, Object> playerData = new HashMap<>();
-                    playerData.put("id", playerId);
-                    playerData.put("username", rs.getString("username"));
-                    playerData.put("total_score", rs.getInt("total_score"));
-                    playerData.put("wins", rs.getInt("wins"));
-                    playerData.put("losses", rs.getInt("losses"));
-                    playerData.put("quit_count", rs.getInt("quit_count"));
-                    
-                    System.out.println("✓ Login successful for: " + username);
-                    
-                    rs.close();
-                    pstmt.close();
-                    
-                    // Update last login
-                    updateLastLogin(playerId);
-                    
-                    return playerData;
-                } else {
-                    System.out.println("✗ Login failed: Invalid password");
-                }
-            } else {
-                System.out.println("✗ Login failed: User not found");
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) return null;
+                return new PlayerProfileCache.Profile(rs.getInt("id"), rs.getString("username"),
+                        rs.getString("password"), rs.getInt("total_score"), rs.getInt("wins"),
+                        rs.getInt("losses"), rs.getInt("quit_count"), rs.getBoolean("is_banned"));
             }
-            rs.close();
-            pstmt.close();
         } catch (SQLException e) {
             System.err.println("✗ Database error during login:");
             e.printStackTrace();
+            return null;
         }
-        return null;
     }
     
-    private void updateLastLogin(int playerId) {
+    @Override
+    public void updatePlayerScore(int playerId, int scoreToAdd, boolean won) {
+        long token = profiles.beginWrite(playerId);
         try {
-            String sql = "UPDATE players SET last_login = CURRENT_TIMESTAMP WHERE id = ?";
-            PreparedStatement pstmt = conn.prepareStatement(sql);
-            pstmt.setInt(1, playerId);
-            pstmt.executeUpdate();
-            pstmt.close();
+            updatePlayerScore(conn, playerId, scoreToAdd, won);
+            profiles.applyScore(token, playerId, scoreToAdd, won);
         } catch (SQLException e) {
+            System.err.println("✗ Error updating player score:");
             e.printStackTrace();
         }
     }
     
-    public void updatePlayerScore(int playerId, int scoreToAdd, boolean won) {
-        try {
-            // Update player statistics
-            String sql = "UPDATE players SET " +
-                        "total_score = total_score + ?, " +
-                        (won ? "wins = wins + 1, " : "losses = losses + 1, ") +
-                        "last_login = CURRENT_TIMESTAMP " +
-                        "WHERE id = ?";
-            PreparedStatement pstmt = conn.prepareStatement(sql);
+    private void updatePlayerScore(Connection c, int playerId, int scoreToAdd, boolean won) throws SQLException {
+        reads.recordWrite(playerId);
+        // Update player statistics
+        String sql = "UPDATE players SET " +
+                    "total_score = total_score + ?, " +
+                    (won ? "wins = wins + 1, " : "losses = losses + 1, ") +
+                    "last_login = CURRENT_TIMESTAMP " +
+                    "WHERE id = ?";
+        try (PreparedStatement pstmt = c.prepareStatement(sql)) {
             pstmt.setInt(1, scoreToAdd);
             pstmt.setInt(2, playerId);
             int rowsAffected = pstmt.executeUpdate();
-            pstmt.close();
             
             if (rowsAffected > 0) {
                 System.out.println("✓ Updated player " + playerId + ": +" + scoreToAdd + " points, " + 
                                  (won ? "Win" : "Loss"));
             }
-        } catch (SQLException e) {
-            System.err.println("✗ Error updating player score:");
-            e.printStackTrace();
         }
     }
     
-    public void incrementQuitCount(int playerId) {
+    /**
+     * Tăng quit_count và ban (nếu chạm ngưỡng) trong cùng một câu UPDATE.
+     * MySQL gán các cột theo thứ tự trái sang phải, nên is_banned nhìn thấy quit_count mới;
+     * hai lần thoát đồng thời không thể "lọt" qua ngưỡng như khi UPDATE rồi SELECT riêng.
+     */
+    @Override
+    public void incrementQuitCount(int playerId, int banThreshold) {
+        long token = profiles.beginWrite(playerId);
         try {
-            // Increment quit count
-            String sql = "UPDATE players SET quit_count = quit_count + 1, " +
-                        "last_login = CURRENT_TIMESTAMP WHERE id = ?";
-            PreparedStatement pstmt = conn.prepareStatement(sql);
-            pstmt.setInt(1, playerId);
-            pstmt.executeUpdate();
-            pstmt.close();
-            
-            System.out.println("⚠ Player " + playerId + " quit count incremented");
-            
-            // Check if should ban (quit_count >= 3)
-            sql = "SELECT username, quit_count FROM players WHERE id = ?";
-            pstmt = conn.prepareStatement(sql);
-            pstmt.setInt(1, playerId);
-            ResultSet rs = pstmt.executeQuery();
-            
-            if (rs.next()) {
-                int quitCount = rs.getInt("quit_count");
-                String username = rs.getString("username");
-                
-                if (quitCount >= 3) {
-                    banPlayer(playerId);
-                    System.out.println("🚫 Player " + username + " BANNED (quit count: " + quitCount + ")");
-                } else {
-                    System.out.println("⚠ Player " + username + " quit count: " + quitCount + "/3");
-                }
-            }
-            rs.close();
-            pstmt.close();
+            incrementQuitCount(conn, playerId, banThreshold);
+            profiles.applyQuit(token, playerId, banThreshold);
         } catch (SQLException e) {
             System.err.println("✗ Error incrementing quit count:");
             e.printStackTrace();
         }
     }
     
+    private void incrementQuitCount(Connection c, int playerId, int banThreshold) throws SQLException {
+        reads.recordWrite(playerId);
+        String sql = "UPDATE players SET quit_count = quit_count + 1, " +
+                    "is_banned = is_banned OR quit_count >= ?, " +
+                    "last_login = CURRENT_TIMESTAMP WHERE id = ?";
+        try (PreparedStatement pstmt = c.prepareStatement(sql)) {
+            pstmt.setInt(1, banThreshold);
+            pstmt.setInt(2, playerId);
+            pstmt.executeUpdate();
+        }
+    }
+    
+    @Override
     public void banPlayer(int playerId) {
+        long token = profiles.beginWrite(playerId);
         try {
             String sql = "UPDATE players SET is_banned = TRUE WHERE id = ?";
             PreparedStatement pstmt = conn.prepareStatement(sql);
             pstmt.setInt(1, playerId);
             pstmt.executeUpdate();
             pstmt.close();
+            profiles.applyBan(token, playerId);
             System.out.println("⚠ Player banned (ID: " + playerId + ")");
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
     
-    public void saveMatch(int player1Id, int player2Id, int winnerId, 
-                         String difficulty, int p1Score, int p2Score, int duration) {
+    /**
+     * Lưu một trận, trả về id vừa sinh (hoặc -1 nếu lỗi).
+     * created_at được truyền vào để cache lịch sử dùng đúng cùng giá trị với DB.
+     */
+    @Override
+    public int saveMatch(int player1Id, int player2Id, int winnerId, 
+                         String difficulty, int p1Score, int p2Score, int duration,
+                         Timestamp createdAt) {
+        return saveMatch(0, player1Id, player2Id, winnerId, difficulty, p1Score, p2Score, duration, createdAt);
+    }
+    
+    /** matchId > 0: ghi bản sao của một trận đã có id ở shard khác. */
+    int saveMatch(int matchId, int player1Id, int player2Id, int winnerId,
+                  String difficulty, int p1Score, int p2Score, int duration, Timestamp createdAt) {
         try {
-            // Save match history
-            String sql = "INSERT INTO match_history (player1_id, player2_id, winner_id, " +
-                        "difficulty, player1_score, player2_score, duration) " +
-                        "VALUES (?, ?, ?, ?, ?, ?, ?)";
-            PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            return saveMatch(conn, matchId, player1Id, player2Id, winnerId, difficulty, p1Score, p2Score,
+                             duration, createdAt, 0);
+        } catch (SQLException e) {
+            System.err.println("✗ Error saving match:");
+            e.printStackTrace();
+            return -1;
+        }
+    }
+    
+    private int saveMatch(Connection c, int explicitId, int player1Id, int player2Id, int winnerId, 
+                          String difficulty, int p1Score, int p2Score, int duration,
+                          Timestamp createdAt, long replayId) throws SQLException {
+        reads.recordWrite(player1Id, player2Id);
+        int matchId = -1;
+        // Save match history
+        String sql = "INSERT INTO match_history (player1_id, player2_id, winner_id, " +
+                    "difficulty, player1_score, player2_score, duration, created_at, replay_id" +
+                    (explicitId > 0 ? ", id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"
+                                    : ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        try (PreparedStatement pstmt = c.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             pstmt.setInt(1, player1Id);
             pstmt.setInt(2, player2Id);
             
@@ -308,126 +604,619 @@ public class DatabaseManager {
             pstmt.setInt(5, p1Score);
             pstmt.setInt(6, p2Score);
             pstmt.setInt(7, duration);
+            pstmt.setTimestamp(8, createdAt);
+            if (replayId != 0) {
+                pstmt.setLong(9, replayId);
+            } else {
+                pstmt.setNull(9, Types.BIGINT);
+            }
+            if (explicitId > 0) pstmt.setInt(10, explicitId);
             
             int rowsAffected = pstmt.executeUpdate();
             
-            if (rowsAffected > 0) {
-                ResultSet rs = pstmt.getGeneratedKeys();
-                if (rs.next()) {
-                    int matchId = rs.getInt(1);
-                    System.out.println("✓ Match saved (ID: " + matchId + ") - " + 
-                                     "P1:" + p1Score + " vs P2:" + p2Score + 
-                                     " | Duration: " + duration + "s");
+            if (rowsAffected > 0 && explicitId > 0) {
+                matchId = explicitId;
+            } else if (rowsAffected > 0) {
+                try (ResultSet rs = pstmt.getGeneratedKeys()) {
+                    if (rs.next()) {
+                        matchId = rs.getInt(1);
+                        System.out.println("✓ Match saved (ID: " + matchId + ") - " + 
+                                         "P1:" + p1Score + " vs P2:" + p2Score + 
+                                         " | Duration: " + duration + "s");
+                    }
                 }
-                rs.close();
             }
-            pstmt.close();
+        }
+        return matchId;
+    }
+    
+    private interface Query<T> {
+        T run(Connection c) throws SQLException;
+    }
+    
+    /** Chạy truy vấn đọc trên replica nếu dùng được, lỗi thì chạy lại trên primary. */
+    private <T> T read(Query<T> query, T onError) {
+        Connection replica = reads.replicaForRead();
+        if (replica != null) {
+            try {
+                T result = query.run(replica);
+                reads.recordReplicaRead();
+                return result;
+            } catch (SQLException e) {
+                reads.replicaFailed(e);
+            }
+        }
+        try {
+            T result = query.run(conn);
+            reads.recordPrimaryRead();
+            return result;
         } catch (SQLException e) {
-            System.err.println("✗ Error saving match:");
             e.printStackTrace();
+            return onError;
         }
     }
     
+    @Override
+    public String getStats() {
+        return reads.getStats();
+    }
+    
+    @Override
     public List<Map<String, Object>> getLeaderboard(int limit) {
+        return read(c -> getLeaderboard(c, limit), new ArrayList<>());
+    }
+    
+    private List<Map<String, Object>> getLeaderboard(Connection c, int limit) throws SQLException {
         List<Map<String, Object>> leaderboard = new ArrayList<>();
-        try {
-            String sql = "SELECT " +
-                        "username, " +
-                        "total_score, " +
-                        "wins, " +
-                        "losses, " +
-                        "(wins + losses) AS total_games, " +
-                        "CASE " +
-                        "    WHEN (wins + losses) = 0 THEN 0 " +
-                        "    ELSE ROUND(wins * 100.0 / (wins + losses), 2) " +
-                        "END AS win_rate " +
-                        "FROM players " +
-                        "WHERE is_banned = FALSE " +
-                        "ORDER BY total_score DESC, wins DESC " +
-                        "LIMIT ?";
-            PreparedStatement pstmt = conn.prepareStatement(sql);
+        String sql = "SELECT " +
+                    "username, " +
+                    "total_score, " +
+                    "wins, " +
+                    "losses, " +
+                    "(wins + losses) AS total_games, " +
+                    "CASE " +
+                    "    WHEN (wins + losses) = 0 THEN 0 " +
+                    "    ELSE ROUND(wins * 100.0 / (wins + losses), 2) " +
+                    "END AS win_rate " +
+                    "FROM players " +
+                    "WHERE is_banned = FALSE " +
+                    "ORDER BY total_score DESC, wins DESC " +
+                    "LIMIT ?";
+        try (PreparedStatement pstmt = c.prepareStatement(sql)) {
             pstmt.setInt(1, limit);
-            ResultSet rs = pstmt.executeQuery();
-            
-            while (rs.next()) {
-                Map<String, Object> player = new HashMap<>();
-                player.put("username", rs.getString("username"));
-                player.put("total_score", rs.getInt("total_score"));
-                player.put("wins", rs.getInt("wins"));
-                player.put("losses", rs.getInt("losses"));
-                player.put("total_games", rs.getInt("total_games"));
-                player.put("win_rate", rs.getDouble("win_rate"));
-                leaderboard.add(player);
-            }
-            rs.close();
-            pstmt.close();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Map<String, Object> player = new HashMap<>();
+                    player.put("username", rs.getString("username"));
+                    player.put("total_score", rs.getInt("total_score"));
+                    player.put("wins", rs.getInt("wins"));
+                    player.put("losses", rs.getInt("losses"));
+                    player.put("total_games", rs.getInt("total_games"));
+                    player.put("win_rate", rs.getDouble("win_rate"));
+                    leaderboard.add(player);
+                }
+            }
+        }
+        return leaderboard;
+    }
+    
+    /**
+     * Cộng dồn kết quả một trận vào các bucket leaderboard (ngày, tuần, trọn đời theo độ khó).
+     * Bucket ngày/tuần được ghi cho cả độ khó cụ thể lẫn "ALL"; tổng trọn đời của "ALL"
+     * đã nằm sẵn trong bảng players nên không cần ghi lại.
+     */
+    @Override
+    public void recordLeaderboardResult(int playerId, String difficulty, int score, boolean won,
+                                        LocalDate dayStart, LocalDate weekStart) {
+        try {
+            recordLeaderboardResult(conn, playerId, difficulty, score, won, dayStart, weekStart);
         } catch (SQLException e) {
+            System.err.println("✗ Error updating leaderboard buckets:");
             e.printStackTrace();
         }
+    }
+    
+    private void recordLeaderboardResult(Connection c, int playerId, String difficulty, int score, boolean won,
+                                         LocalDate dayStart, LocalDate weekStart) throws SQLException {
+        reads.recordWrite(playerId);
+        Object[][] rows = {
+            {Protocol.PERIOD_DAILY, dayStart, difficulty},
+            {Protocol.PERIOD_DAILY, dayStart, Protocol.ALL_DIFFICULTIES},
+            {Protocol.PERIOD_WEEKLY, weekStart, difficulty},
+            {Protocol.PERIOD_WEEKLY, weekStart, Protocol.ALL_DIFFICULTIES},
+            {Protocol.PERIOD_ALL_TIME, LeaderboardService.ALL_TIME_BUCKET, difficulty}
+        };
+        
+        StringBuilder sql = new StringBuilder(
+            "INSERT INTO leaderboard_buckets (period, bucket_start, difficulty, player_id, score, wins, losses) VALUES ");
+        for (int i = 0; i < rows.length; i++) {
+            sql.append(i == 0 ? "(?, ?, ?, ?, ?, ?, ?)" : ", (?, ?, ?, ?, ?, ?, ?)");
+        }
+        sql.append(" ON DUPLICATE KEY UPDATE " +
+                   "score = score + VALUES(score), " +
+                   "wins = wins + VALUES(wins), " +
+                   "losses = losses + VALUES(losses)");
+        
+        try (PreparedStatement pstmt = c.prepareStatement(sql.toString())) {
+            int idx = 1;
+            for (Object[] row : rows) {
+                pstmt.setString(idx++, (String) row[0]);
+                pstmt.setDate(idx++, java.sql.Date.valueOf((LocalDate) row[1]));
+                pstmt.setString(idx++, (String) row[2]);
+                pstmt.setInt(idx++, playerId);
+                pstmt.setInt(idx++, score);
+                pstmt.setInt(idx++, won ? 1 : 0);
+                pstmt.setInt(idx++, won ? 0 : 1);
+            }
+            pstmt.executeUpdate();
+        }
+    }
+    
+    @Override
+    public List<Map<String, Object>> getBucketLeaderboard(String period, LocalDate bucketStart,
+                                                          String difficulty, int limit) {
+        return read(c -> getBucketLeaderboard(c, period, bucketStart, difficulty, limit), new ArrayList<>());
+    }
+    
+    private List<Map<String, Object>> getBucketLeaderboard(Connection c, String period, LocalDate bucketStart,
+                                                           String difficulty, int limit) throws SQLException {
+        List<Map<String, Object>> leaderboard = new ArrayList<>();
+        String sql = "SELECT " +
+                    "p.username, " +
+                    "b.score, " +
+                    "b.wins, " +
+                    "b.losses " +
+                    "FROM leaderboard_buckets b " +
+                    "JOIN players p ON p.id = b.player_id " +
+                    "WHERE b.period = ? AND b.bucket_start = ? AND b.difficulty = ? " +
+                    "AND p.is_banned = FALSE " +
+                    "ORDER BY b.score DESC, b.wins DESC " +
+                    "LIMIT ?";
+        try (PreparedStatement pstmt = c.prepareStatement(sql)) {
+            pstmt.setString(1, period);
+            pstmt.setDate(2, java.sql.Date.valueOf(bucketStart));
+            pstmt.setString(3, difficulty);
+            pstmt.setInt(4, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    int wins = rs.getInt("wins");
+                    int losses = rs.getInt("losses");
+                    int totalGames = wins + losses;
+                    
+                    Map<String, Object> player = new HashMap<>();
+                    player.put("username", rs.getString("username"));
+                    player.put("total_score", rs.getInt("score"));
+                    player.put("wins", wins);
+                    player.put("losses", losses);
+                    player.put("total_games", totalGames);
+                    player.put("win_rate", totalGames == 0 ? 0.0 :
+                               Math.round(wins * 10000.0 / totalGames) / 100.0);
+                    leaderboard.add(player);
+                }
+            }
+        }
         return leaderboard;
     }
     
-    public List<Map<String, Object>> getPlayerMatchHistory(int playerId, int limit) {
+    /**
+     * Xóa các bucket đã hết hạn của một period theo từng lô nhỏ,
+     * để không khóa bảng lâu khi có nhiều dữ liệu.
+     */
+    @Override
+    public int compactLeaderboardBuckets(String period, LocalDate olderThan) {
+        int total = 0;
+        String sql = "DELETE FROM leaderboard_buckets WHERE period = ? AND bucket_start < ? LIMIT 5000";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, period);
+            pstmt.setDate(2, java.sql.Date.valueOf(olderThan));
+            int deleted;
+            do {
+                deleted = pstmt.executeUpdate();
+                total += deleted;
+            } while (deleted > 0);
+        } catch (SQLException e) {
+            System.err.println("✗ Error compacting leaderboard buckets:");
+            e.printStackTrace();
+        }
+        return total;
+    }
+    
+    /**
+     * Lấy một trang lịch sử đấu, mới nhất trước, bắt đầu ngay sau cursor (null = trang đầu).
+     * Hai nhánh UNION ALL mỗi nhánh chỉ quét một đoạn của index (playerX_id, created_at, id)
+     * và dừng sau "limit" dòng, thay vì OR trên hai index rồi sort toàn bộ lịch sử.
+     * Nhánh thứ ba đọc các trận nhiều người mà người chơi đứng từ hạng 3 trở xuống qua index
+     * (player_id, created_at) của match_participants; đối thủ hiển thị là người đứng đầu.
+     */
+    @Override
+    public List<Map<String, Object>> getPlayerMatchHistory(int playerId, HistoryCursor cursor, int limit) {
+        List<Map<String, Object>> history = read(c -> getPlayerMatchHistory(c, playerId, cursor, limit), null);
+        // Lỗi DB: không trả trang rỗng (hay chỉ phần archive) như thể đã hết lịch sử
+        if (history == null) return null;
+        // Hết dữ liệu trong DB: đọc tiếp các tháng đã chuyển ra archive (index bỏ qua tháng không liên quan)
+        if (history.size() < limit && archive != null && archive.hasArchives()) {
+            HistoryCursor from = history.isEmpty() ? cursor : HistoryCursor.of(history.get(history.size() - 1));
+            history.addAll(archive.getHistory(playerId, from, limit - history.size()));
+        }
+        return history;
+    }
+    
+    private List<Map<String, Object>> getPlayerMatchHistory(Connection c, int playerId, HistoryCursor cursor,
+                                                            int limit) throws SQLException {
         List<Map<String, Object>> history = new ArrayList<>();
+        String keyset = cursor == null ? "" :
+                        "AND (created_at < ? OR (created_at = ? AND id < ?)) ";
+        String participantKeyset = cursor == null ? "" :
+                        "AND (mp.created_at < ? OR (mp.created_at = ? AND mp.match_id < ?)) ";
+        String sql = "SELECT h.id, h.created_at, h.difficulty, h.duration, h.winner_id, h.replay_id, " +
+                    "h.my_score, h.opponent_score, h.opponent_id, p.username AS opponent " +
+                    "FROM (" +
+                    "    (SELECT id, created_at, difficulty, duration, winner_id, replay_id, " +
+                    "     player2_id AS opponent_id, player1_score AS my_score, player2_score AS opponent_score " +
+                    "     FROM match_history WHERE player1_id = ? " + keyset +
+                    "     ORDER BY created_at DESC, id DESC LIMIT ?)" +
+                    "    UNION ALL " +
+                    "    (SELECT id, created_at, difficulty, duration, winner_id, replay_id, " +
+                    "     player1_id AS opponent_id, player2_score AS my_score, player1_score AS opponent_score " +
+                    "     FROM match_history WHERE player2_id = ? " + keyset +
+                    "     ORDER BY created_at DESC, id DESC LIMIT ?)" +
+                    "    UNION ALL " +
+                    "    (SELECT m.id, m.created_at, m.difficulty, m.duration, m.winner_id, m.replay_id, " +
+                    "     m.player1_id AS opponent_id, mp.score AS my_score, m.player1_score AS opponent_score " +
+                    "     FROM match_participants mp " +
+                    "     JOIN match_history m ON m.id = mp.match_id AND m.created_at = mp.created_at " +
+                    "     WHERE mp.player_id = ? AND mp.placement > 2 " + participantKeyset +
+                    "     ORDER BY mp.created_at DESC, mp.match_id DESC LIMIT ?)" +
+                    ") h " +
+                    "LEFT JOIN players p ON p.id = h.opponent_id " +
+                    "ORDER BY h.created_at DESC, h.id DESC " +
+                    "LIMIT ?";
+        try (PreparedStatement pstmt = c.prepareStatement(sql)) {
+            int idx = 1;
+            for (int branch = 0; branch < 3; branch++) {
+                pstmt.setInt(idx++, playerId);
+                if (cursor != null) {
+                    Timestamp ts = new Timestamp(cursor.getCreatedAt());
+                    pstmt.setTimestamp(idx++, ts);
+                    pstmt.setTimestamp(idx++, ts);
+                    pstmt.setInt(idx++, cursor.getMatchId());
+                }
+                pstmt.setInt(idx++, limit);
+            }
+            pstmt.setInt(idx, limit);
+            
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    int winnerId = rs.getInt("winner_id");
+                    boolean draw = rs.wasNull();
+                    
+                    Map<String, Object> match = new HashMap<>();
+                    match.put("id", rs.getInt("id"));
+                    String opponent = rs.getString("opponent");
+                    if (opponent != null) {
+                        match.put("opponent", opponent);
+                    } else {
+                        // Đối thủ ở shard khác: ShardedStorage tra tên theo id
+                        match.put("opponent_id", rs.getInt("opponent_id"));
+                    }
+                    match.put("result", draw ? "DRAW" : (winnerId == playerId ? "WIN" : "LOSS"));
+                    match.put("difficulty", rs.getString("difficulty"));
+                    match.put("my_score", rs.getInt("my_score"));
+                    match.put("opponent_score", rs.getInt("opponent_score"));
+                    match.put("duration", rs.getInt("duration"));
+                    match.put("created_at", rs.getTimestamp("created_at"));
+                    long replayId = rs.getLong("replay_id");
+                    if (replayId != 0) match.put("replay_id", replayId);
+                    history.add(match);
+                }
+            }
+        }
+        return history;
+    }
+    
+    /**
+     * Áp dụng một kết quả trận từ journal trong một transaction.
+     * Dòng applied_events (khóa chính event_id) đảm bảo mỗi sự kiện chỉ được áp dụng một lần,
+     * kể cả khi journal phát lại sau khi crash. Lỗi SQL được ném ra để journal thử lại sau.
+     */
+    @Override
+    public int applyResultEvent(ResultEvent event) throws SQLException {
+        return applyResultEvent(event, 0);
+    }
+    
+    /**
+     * Bản dùng cho ShardedStorage: chỉ cập nhật người chơi thuộc shard này,
+     * và matchId > 0 nghĩa là ghi bản sao trận với id đã được shard kia cấp.
+     */
+    int applyResultEvent(ResultEvent event, int matchId) throws SQLException {
+        Connection c = journalConnection();
         try {
-            String sql = "SELECT " +
-                        "m.id, " +
-                        "CASE " +
-                        "    WHEN m.player1_id = ? THEN p2.username " +
-                        "    ELSE p1.username " +
-                        "END AS opponent, " +
-                        "CASE " +
-                        "    WHEN m.winner_id IS NULL THEN 'DRAW' " +
-                        "    WHEN m.winner_id = ? THEN 'WIN' " +
-                        "    ELSE 'LOSS' " +
-                        "END AS result, " +
-                        "m.difficulty, " +
-                        "CASE " +
-                        "    WHEN m.player1_id = ? THEN m.player1_score " +
-                        "    ELSE m.player2_score " +
-                        "END AS my_score, " +
-                        "CASE " +
-                        "    WHEN m.player1_id = ? THEN m.player2_score " +
-                        "    ELSE m.player1_score " +
-                        "END AS opponent_score, " +
-                        "m.duration, " +
-                        "m.created_at " +
-                        "FROM match_history m " +
-                        "JOIN players p1 ON m.player1_id = p1.id " +
-                        "JOIN players p2 ON m.player2_id = p2.id " +
-                        "WHERE m.player1_id = ? OR m.player2_id = ? " +
-                        "ORDER BY m.created_at DESC " +
-                        "LIMIT ?";
-            PreparedStatement pstmt = conn.prepareStatement(sql);
-            pstmt.setInt(1, playerId);
-            pstmt.setInt(2, playerId);
-            pstmt.setInt(3, playerId);
-            pstmt.setInt(4, playerId);
-            pstmt.setInt(5, playerId);
-            pstmt.setInt(6, playerId);
-            pstmt.setInt(7, limit);
-            ResultSet rs = pstmt.executeQuery();
+            if (event.isLogin()) {
+                reads.recordWrite(event.player1Id);
+                // Ghi lại nhiều lần vẫn cho cùng kết quả, không cần applied_events
+                try (PreparedStatement pstmt = c.prepareStatement(
+                        "UPDATE players SET last_login = GREATEST(COALESCE(last_login, ?), ?) WHERE id = ?")) {
+                    pstmt.setTimestamp(1, new Timestamp(event.at));
+                    pstmt.setTimestamp(2, new Timestamp(event.at));
+                    pstmt.setInt(3, event.player1Id);
+                    pstmt.executeUpdate();
+                }
+                c.commit();
+                return -1;
+            }
             
-            while (rs.next()) {
-                Map<String, Object> match = new HashMap<>();
-                match.put("opponent", rs.getString("opponent"));
-                match.put("result", rs.getString("result"));
-                match.put("difficulty", rs.getString("difficulty"));
-                match.put("my_score", rs.getInt("my_score"));
-                match.put("opponent_score", rs.getInt("opponent_score"));
-                match.put("duration", rs.getInt("duration"));
-                match.put("created_at", rs.getTimestamp("created_at"));
-                history.add(match);
-            }
-            rs.close();
-            pstmt.close();
+            try (PreparedStatement pstmt = c.prepareStatement(
+                    "INSERT IGNORE INTO applied_events (event_id) VALUES (?)")) {
+                pstmt.setLong(1, event.eventId);
+                if (pstmt.executeUpdate() == 0) {
+                    c.rollback();
+                    System.out.println("⚠ Result " + event.eventId + " already applied, skipping");
+                    return -1;
+                }
+            }
+            
+            LocalDate day = LeaderboardService.dayOf(event.at);
+            LocalDate week = LeaderboardService.bucketStart(Protocol.PERIOD_WEEKLY, day);
+            List<ResultEvent.Participant> scored = event.scoredPlayers();
+            int[] scoredIds = new int[scored.size()];
+            for (int i = 0; i < scoredIds.length; i++) scoredIds[i] = scored.get(i).id;
+            long token = profiles.beginWrite(scoredIds);
+            
+            if (event.isQuit() && ownsPlayer(event.quitterId)) {
+                incrementQuitCount(c, event.quitterId, DisciplineTracker.BAN_QUIT_COUNT);
+            }
+            for (ResultEvent.Participant p : scored) {
+                if (!ownsPlayer(p.id)) continue;
+                boolean won = event.winnerId == p.id;
+                updatePlayerScore(c, p.id, p.score, won);
+                recordLeaderboardResult(c, p.id, event.difficulty, p.score, won, day, week);
+            }
+            if (event.ratings != null) {
+                List<RatingEngine.Rating> owned = new ArrayList<>();
+                for (RatingEngine.Rating rating : event.ratings) {
+                    if (ownsPlayer(rating.playerId)) owned.add(rating);
+                }
+                saveRatings(c, owned);
+            }
+            
+            if (!event.isQuit()) {
+                matchId = saveMatch(c, matchId, event.player1Id, event.player2Id, event.winnerId, event.difficulty,
+                                    event.player1Score, event.player2Score, event.duration,
+                                    new Timestamp(event.at), event.replayId);
+                if (event.participants != null) {
+                    saveParticipants(c, matchId, event);
+                }
+                if (shardCount > 1) {
+                    // Để shard kia lấy lại được id trận nếu lần ghi bên đó thất bại và được thử lại
+                    try (PreparedStatement pstmt = c.prepareStatement(
+                            "UPDATE applied_events SET match_id = ? WHERE event_id = ?")) {
+                        pstmt.setInt(1, matchId);
+                        pstmt.setLong(2, event.eventId);
+                        pstmt.executeUpdate();
+                    }
+                }
+            } else {
+                matchId = -1;
+            }
+            c.commit();
+            if (event.isQuit()) {
+                profiles.applyQuit(token, event.quitterId, DisciplineTracker.BAN_QUIT_COUNT);
+            }
+            for (ResultEvent.Participant p : scored) {
+                profiles.applyScore(token, p.id, p.score, event.winnerId == p.id);
+            }
+            
+            // Event id gắn với thời gian (millis * 1000): xóa dần các id đã quá cũ
+            if (++appliedSinceCleanup >= 1000) {
+                appliedSinceCleanup = 0;
+                try (PreparedStatement pstmt = c.prepareStatement(
+                        "DELETE FROM applied_events WHERE event_id < ? LIMIT 10000")) {
+                    pstmt.setLong(1, (System.currentTimeMillis() - 7L * 24 * 3600 * 1000) * 1000);
+                    pstmt.executeUpdate();
+                }
+                c.commit();
+            }
+            return matchId;
         } catch (SQLException e) {
+            closeJournalConnection();
+            throw e;
+        }
+    }
+    
+    /** Mọi người chơi của trận nhiều người, theo thứ hạng (placement 1 = đứng đầu). */
+    private void saveParticipants(Connection c, int matchId, ResultEvent event) throws SQLException {
+        try (PreparedStatement pstmt = c.prepareStatement(
+                "INSERT IGNORE INTO match_participants (match_id, player_id, placement, score, left_early, created_at) " +
+                "VALUES (?, ?, ?, ?, ?, ?)")) {
+            int placement = 0;
+            for (ResultEvent.Participant p : event.participants) {
+                pstmt.setInt(1, matchId);
+                pstmt.setInt(2, p.id);
+                pstmt.setInt(3, ++placement);
+                pstmt.setInt(4, p.score);
+                pstmt.setBoolean(5, p.left);
+                pstmt.setTimestamp(6, new Timestamp(event.at));
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+    
+    /** Id trận đã ghi cho một sự kiện đã áp dụng, hoặc -1. */
+    int appliedMatchId(long eventId) throws SQLException {
+        try (PreparedStatement pstmt = journalConnection().prepareStatement(
+                "SELECT match_id FROM applied_events WHERE event_id = ?")) {
+            pstmt.setLong(1, eventId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                int matchId = rs.next() ? rs.getInt(1) : 0;
+                journalConn.commit();
+                return matchId > 0 ? matchId : -1;
+            }
+        }
+    }
+    
+    @Override
+    public RatingEngine.Rating loadRating(int playerId) {
+        // Đọc ở primary: replica trễ có thể trả về rating trước ván vừa ghi
+        String sql = "SELECT rating, rating_rd, rated_games, rating_period FROM players WHERE id = ?";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, playerId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? toRating(playerId, rs) : null;
+            }
+        } catch (SQLException e) {
+            System.err.println("✗ Error loading rating:");
             e.printStackTrace();
+            return null;
+        }
+    }
+    
+    @Override
+    public void saveRatings(List<RatingEngine.Rating> ratings) throws SQLException {
+        reads.recordWrite();
+        Connection c = ratingConnection();
+        try {
+            saveRatings(c, ratings);
+            c.commit();
+        } catch (SQLException e) {
+            closeRatingConnection();
+            throw e;
+        }
+    }
+    
+    // Không commit: applyResultEvent ghi rating trong cùng transaction với kết quả trận
+    private void saveRatings(Connection c, List<RatingEngine.Rating> ratings) throws SQLException {
+        if (ratings.isEmpty()) return;
+        String sql = "UPDATE players SET rating = ?, rating_rd = ?, rated_games = ?, rating_period = ? " +
+                    "WHERE id = ? AND rated_games <= ?";
+        try (PreparedStatement pstmt = c.prepareStatement(sql)) {
+            for (RatingEngine.Rating rating : ratings) {
+                pstmt.setDouble(1, rating.rating);
+                pstmt.setDouble(2, rating.rd);
+                pstmt.setInt(3, rating.games);
+                pstmt.setInt(4, rating.period);
+                pstmt.setInt(5, rating.playerId);
+                pstmt.setInt(6, rating.games);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+    
+    @Override
+    public List<RatingEngine.Rating> loadRatings() throws SQLException {
+        Connection c = ratingConnection();
+        List<RatingEngine.Rating> ratings = new ArrayList<>();
+        String sql = "SELECT id, rating, rating_rd, rated_games, rating_period FROM players WHERE rated_games > 0";
+        try (Statement stmt = c.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                ratings.add(toRating(rs.getInt("id"), rs));
+            }
+            c.commit();
+        } catch (SQLException e) {
+            closeRatingConnection();
+            throw e;
+        }
+        return ratings;
+    }
+    
+    private static RatingEngine.Rating toRating(int playerId, ResultSet rs) throws SQLException {
+        RatingEngine.Rating rating = new RatingEngine.Rating(playerId);
+        rating.rating = rs.getDouble("rating");
+        rating.rd = rs.getDouble("rating_rd");
+        rating.games = rs.getInt("rated_games");
+        rating.period = rs.getInt("rating_period");
+        return rating;
+    }
+    
+    @Override
+    public List<Map<String, Object>> getRatingLeaderboard(int limit, double maxRd) {
+        return read(c -> getRatingLeaderboard(c, limit, maxRd), new ArrayList<>());
+    }
+    
+    private List<Map<String, Object>> getRatingLeaderboard(Connection c, int limit, double maxRd) throws SQLException {
+        List<Map<String, Object>> leaderboard = new ArrayList<>();
+        String sql = "SELECT username, rating, rating_rd, total_score, wins, losses " +
+                    "FROM players " +
+                    "WHERE is_banned = FALSE AND rated_games > 0 AND rating_rd <= ? " +
+                    "ORDER BY rating DESC " +
+                    "LIMIT ?";
+        try (PreparedStatement pstmt = c.prepareStatement(sql)) {
+            pstmt.setDouble(1, maxRd);
+            pstmt.setInt(2, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    int wins = rs.getInt("wins");
+                    int losses = rs.getInt("losses");
+                    int totalGames = wins + losses;
+                    Map<String, Object> player = new HashMap<>();
+                    player.put("username", rs.getString("username"));
+                    player.put("rating", (int) Math.round(rs.getDouble("rating")));
+                    player.put("rating_rd", (int) Math.round(rs.getDouble("rating_rd")));
+                    player.put("total_score", rs.getInt("total_score"));
+                    player.put("wins", wins);
+                    player.put("losses", losses);
+                    player.put("total_games", totalGames);
+                    player.put("win_rate", totalGames == 0 ? 0.0 : Math.round(wins * 10000.0 / totalGames) / 100.0);
+                    leaderboard.add(player);
+                }
+            }
+        }
+        return leaderboard;
+    }
+    
+    private synchronized Connection ratingConnection() throws SQLException {
+        if (ratingConn == null || ratingConn.isClosed()) {
+            ratingConn = configureSession(DriverManager.getConnection(dbUrl + "&rewriteBatchedStatements=true",
+                                                                      DB_USER, password()));
+            ratingConn.setAutoCommit(false);
+        }
+        return ratingConn;
+    }
+    
+    private synchronized void closeRatingConnection() {
+        try {
+            if (ratingConn != null) ratingConn.close();
+        } catch (SQLException ignored) {
+            // Kết nối đã hỏng sẵn
+        }
+        ratingConn = null;
+    }
+    
+    @Override
+    public boolean isAvailable() {
+        try {
+            return journalConnection().isValid(2);
+        } catch (SQLException e) {
+            closeJournalConnection();
+            return false;
         }
-        return history;
     }
     
+    private synchronized Connection journalConnection() throws SQLException {
+        if (journalConn == null || journalConn.isClosed()) {
+            journalConn = openConnection();
+            journalConn.setAutoCommit(false);
+        }
+        return journalConn;
+    }
+    
+    private synchronized void closeJournalConnection() {
+        try {
+            if (journalConn != null) journalConn.close();
+        } catch (SQLException ignored) {
+            // Kết nối đã hỏng sẵn
+        }
+        journalConn = null;
+    }
+    
+    @Override
     public void close() {
+        if (archive != null) archive.shutdown();
+        closeJournalConnection();
+        closeRatingConnection();
+        System.out.println("[DatabaseManager] " + reads.getStats());
+        reads.close();
         try {
             if (conn != null && !conn.isClosed()) {
                 conn.close();
@@ -438,9 +1227,222 @@ public class DatabaseManager {
         }
     }
 
+    // Các index truy vấn nóng cần có; bảng cũ hoặc bị sửa tay có thể thiếu
+    private static final String[][] EXPECTED_INDEXES = {
+        {"players", "idx_username", "(username)"},
+        {"players", "idx_total_score", "(total_score DESC)"},
+        {"players", "idx_rating", "(rating DESC)"},
+        {"match_history", "idx_player1_created", "(player1_id, created_at, id)"},
+        {"match_history", "idx_player2_created", "(player2_id, created_at, id)"},
+        {"leaderboard_buckets", "idx_bucket_rank", "(period, bucket_start, difficulty, score DESC)"},
+        {"match_participants", "idx_participant_created", "(player_id, created_at)"},
+        {"match_participants", "idx_participant_at", "(created_at)"},
+    };
+    private static final int INTEGRITY_CHUNK = 5000;
+    
+    private interface IntegrityCheck {
+        void run(Connection c, IntegrityReport.Check check, boolean repair) throws Exception;
+    }
+    
+    @Override
     public void verifyDatabaseIntegrity() {
-    System.out.println("[DatabaseManager] Database integrity verified successfully.");
-    // Nếu bạn chưa cần kiểm tra gì, để trống cũng được.
-    // Sau này có thể thêm kiểm tra bảng, cấu trúc, dữ liệu ở đây.
+        checkIntegrity(Boolean.getBoolean("db.integrity.repair")).print();
+    }
+    
+    /**
+     * Chạy song song các kiểm tra nhất quán, mỗi kiểm tra trên một kết nối riêng và đi qua bảng
+     * theo từng khoảng id để không có truy vấn nào quét cả bảng một lúc.
+     * repair = true thì sửa luôn theo lô.
+     */
+    public IntegrityReport checkIntegrity(boolean repair) {
+        IntegrityReport report = new IntegrityReport(dbName, repair);
+        Map<String, IntegrityCheck> checks = new LinkedHashMap<>();
+        checks.put("missing indexes", this::checkIndexes);
+        checks.put("orphaned matches", this::checkOrphanedMatches);
+        checks.put("wins/losses vs history", this::checkResultCounts);
+        checks.put("unbanned quitters", this::checkUnbannedQuitters);
+        
+        ExecutorService pool = Executors.newFixedThreadPool(checks.size(), r -> {
+            Thread t = new Thread(r, "integrity-check");
+            t.setDaemon(true);
+            return t;
+        });
+        List<Future<?>> running = new ArrayList<>();
+        for (Map.Entry<String, IntegrityCheck> entry : checks.entrySet()) {
+            IntegrityReport.Check check = report.check(entry.getKey());
+            running.add(pool.submit(() -> runCheck(check, entry.getValue(), repair)));
+        }
+        for (Future<?> future : running) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                // runCheck đã tự ghi lỗi vào report
+            }
+        }
+        pool.shutdownNow();
+        return report;
+    }
+    
+    private void runCheck(IntegrityReport.Check check, IntegrityCheck body, boolean repair) {
+        long start = System.currentTimeMillis();
+        String error = null;
+        try (Connection c = openConnection()) {
+            body.run(c, check, repair);
+        } catch (Exception e) {
+            error = e.getMessage();
+        }
+        check.finish(System.currentTimeMillis() - start, error);
+    }
+    
+    private void checkIndexes(Connection c, IntegrityReport.Check check, boolean repair) throws SQLException {
+        for (String[] index : EXPECTED_INDEXES) {
+            if (hasIndex(c, index[0], index[1])) continue;
+            check.addIssue(index[0] + "." + index[1]);
+            if (repair) {
+                ensureIndex(c, index[0], index[1], index[2]);
+                check.addRepaired(1);
+            }
+        }
+    }
+    
+    /** Trận trỏ tới người chơi không còn trong players (chỉ xét người chơi thuộc shard này). */
+    private void checkOrphanedMatches(Connection c, IntegrityReport.Check check, boolean repair) throws SQLException {
+        long[] range = idRange(c, "match_history");
+        for (long low = range[0]; low <= range[1]; low += INTEGRITY_CHUNK) {
+            // Trận mà cả hai người chơi đều mất chỉ tính một lần
+            Map<Integer, Timestamp> orphans = new LinkedHashMap<>();
+            for (String column : new String[]{"player1_id", "player2_id"}) {
+                String sql = "SELECT m.id, m.created_at, m." + column + " FROM match_history m " +
+                            "LEFT JOIN players p ON p.id = m." + column + " " +
+                            "WHERE m.id BETWEEN ? AND ? AND p.id IS NULL" +
+                            (shardCount > 1 ? " AND MOD(m." + column + ", " + shardCount + ") = " + shardIndex : "");
+                try (PreparedStatement pstmt = c.prepareStatement(sql)) {
+                    pstmt.setLong(1, low);
+                    pstmt.setLong(2, low + INTEGRITY_CHUNK - 1);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            if (orphans.put(rs.getInt(1), rs.getTimestamp(2)) == null) {
+                                check.addIssue("match " + rs.getInt(1) + " -> player " + rs.getInt(3));
+                            }
+                        }
+                    }
+                }
+            }
+            if (repair && !orphans.isEmpty()) {
+                try (PreparedStatement pstmt = c.prepareStatement(
+                        "DELETE FROM match_history WHERE id = ? AND created_at = ?")) {
+                    for (Map.Entry<Integer, Timestamp> orphan : orphans.entrySet()) {
+                        pstmt.setInt(1, orphan.getKey());
+                        pstmt.setTimestamp(2, orphan.getValue());
+                        pstmt.addBatch();
+                    }
+                    check.addRepaired(sum(pstmt.executeBatch()));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Trận thoát giữa chừng được cộng vào wins/losses nhưng không lưu vào match_history (hòa tính là thua),
+     * nên lịch sử (kể cả phần đã archive) chỉ cho cận dưới: wins >= số trận thắng, losses >= số trận còn lại.
+     * Sửa bằng cách nâng wins/losses lên cận dưới đó.
+     */
+    private void checkResultCounts(Connection c, IntegrityReport.Check check, boolean repair) throws Exception {
+        Map<Integer, int[]> archived = archive != null ? archive.countResults() : Collections.emptyMap();
+        String sql = "SELECT p.id, p.wins, p.losses, COALESCE(h.won, 0), COALESCE(h.played, 0) FROM players p " +
+                    "LEFT JOIN (SELECT pid, SUM(winner_id <=> pid) AS won, COUNT(*) AS played FROM (" +
+                    "SELECT player1_id AS pid, winner_id FROM match_history WHERE player1_id BETWEEN ? AND ? " +
+                    "UNION ALL " +
+                    "SELECT player2_id, winner_id FROM match_history WHERE player2_id BETWEEN ? AND ?) x " +
+                    "GROUP BY pid) h ON h.pid = p.id " +
+                    "WHERE p.id BETWEEN ? AND ?";
+        long[] range = idRange(c, "players");
+        for (long low = range[0]; low <= range[1]; low += INTEGRITY_CHUNK) {
+            List<int[]> fixes = new ArrayList<>();
+            try (PreparedStatement pstmt = c.prepareStatement(sql)) {
+                for (int i = 0; i < 3; i++) {
+                    pstmt.setLong(i * 2 + 1, low);
+                    pstmt.setLong(i * 2 + 2, low + INTEGRITY_CHUNK - 1);
+                }
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        int id = rs.getInt(1);
+                        int[] old = archived.getOrDefault(id, new int[2]);
+                        int minWins = rs.getInt(4) + old[0];
+                        int minLosses = rs.getInt(5) + old[1] - minWins;
+                        int wins = rs.getInt(2);
+                        int losses = rs.getInt(3);
+                        if (wins < minWins || losses < minLosses) {
+                            check.addIssue("player " + id + ": " + wins + "W/" + losses + "L, history " +
+                                           minWins + "W/" + minLosses + "L");
+                            fixes.add(new int[]{id, minWins, minLosses});
+                        }
+                    }
+                }
+            }
+            if (repair && !fixes.isEmpty()) {
+                try (PreparedStatement pstmt = c.prepareStatement(
+                        "UPDATE players SET wins = GREATEST(wins, ?), losses = GREATEST(losses, ?) WHERE id = ?")) {
+                    for (int[] fix : fixes) {
+                        pstmt.setInt(1, fix[1]);
+                        pstmt.setInt(2, fix[2]);
+                        pstmt.setInt(3, fix[0]);
+                        pstmt.addBatch();
+                        profiles.invalidate(fix[0]);
+                    }
+                    check.addRepaired(sum(pstmt.executeBatch()));
+                }
+            }
+        }
+    }
+    
+    private void checkUnbannedQuitters(Connection c, IntegrityReport.Check check, boolean repair) throws SQLException {
+        long[] range = idRange(c, "players");
+        for (long low = range[0]; low <= range[1]; low += INTEGRITY_CHUNK) {
+            List<Integer> ids = new ArrayList<>();
+            try (PreparedStatement pstmt = c.prepareStatement(
+                    "SELECT id, quit_count FROM players " +
+                    "WHERE id BETWEEN ? AND ? AND quit_count >= ? AND is_banned = FALSE")) {
+                pstmt.setLong(1, low);
+                pstmt.setLong(2, low + INTEGRITY_CHUNK - 1);
+                pstmt.setInt(3, DisciplineTracker.BAN_QUIT_COUNT);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        ids.add(rs.getInt(1));
+                        check.addIssue("player " + rs.getInt(1) + " quit " + rs.getInt(2) + " times");
+                    }
+                }
+            }
+            if (repair && !ids.isEmpty()) {
+                try (PreparedStatement pstmt = c.prepareStatement("UPDATE players SET is_banned = TRUE WHERE id = ?")) {
+                    for (int id : ids) {
+                        pstmt.setInt(1, id);
+                        pstmt.addBatch();
+                        profiles.invalidate(id);
+                    }
+                    check.addRepaired(sum(pstmt.executeBatch()));
+                }
+            }
+        }
+    }
+    
+    private static long[] idRange(Connection c, String table) throws SQLException {
+        try (Statement stmt = c.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MIN(id), 0), COALESCE(MAX(id), -1) FROM " + table)) {
+            rs.next();
+            return new long[]{rs.getLong(1), rs.getLong(2)};
+        }
+    }
+    
+    private static long sum(int[] updateCounts) {
+        long total = 0;
+        for (int count : updateCounts) {
+            // SUCCESS_NO_INFO (-2): driver không báo số dòng, tính là một
+            total += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+        }
+        return total;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,137 @@
+package server;
+
+import common.BoardGenerator;
+import common.Protocol;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Kho bộ bài đã xáo sẵn cho từng độ khó, để tạo phòng chỉ việc lấy một bộ ra.
+ * Một luồng nền duy nhất lấy seed, sinh bàn bằng BoardGenerator và nạp lại kho; kích thước mục tiêu của
+ * mỗi kho tự co giãn theo tốc độ lấy bài gần đây. Kho rỗng thì người gọi tự xáo một bộ, không bao giờ phải chờ.
+ * Seed lấy từ SecureRandom: seed nằm trong replay, nên seed của các ván trước không được phép
+ * cho biết seed của ván sau (SplittableRandom/ThreadLocalRandom đoán được từ vài giá trị liền nhau).
+ */
+public class DeckPool {
+    private static final String[] DIFFICULTIES = {Protocol.EASY, Protocol.MEDIUM, Protocol.HARD};
+    private static final int MIN_DECKS = 8;
+    private static final int MAX_DECKS = 4096;
+    // Giữ đủ bài cho chừng này giây ở tốc độ lấy hiện tại
+    private static final double HORIZON_SECONDS = 10;
+    private static final long TICK_MILLIS = 200;
+
+    /** Bàn bài cùng seed sinh ra nó, để client/replay dựng lại được. */
+    public static class Deck {
+        public final long seed;
+        public final int[] values;
+
+        Deck(long seed, int cardCount) {
+            this.seed = seed;
+            this.values = BoardGenerator.generate(seed, cardCount);
+        }
+    }
+
+    private static class Pool {
+        final int cardCount;
+        final LinkedBlockingQueue<Deck> decks = new LinkedBlockingQueue<>(MAX_DECKS);
+        final AtomicLong taken = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        // Chỉ luồng nền ghi
+        long lastTaken;
+        double takesPerSecond;
+        volatile int target = MIN_DECKS;
+
+        Pool(int cardCount) {
+            this.cardCount = cardCount;
+        }
+    }
+
+    private final Map<String, Pool> pools = new HashMap<>();
+    // Dùng chung được giữa các luồng; chỉ tốn thêm ở luồng nền và khi kho rỗng
+    private final SecureRandom random = new SecureRandom();
+    private final Semaphore wakeUp = new Semaphore(0);
+    private final Thread generator;
+    private volatile boolean running = true;
+
+    public DeckPool() {
+        for (String difficulty : DIFFICULTIES) {
+            pools.put(difficulty, new Pool(Protocol.getCardCount(difficulty)));
+        }
+        generator = new Thread(this::run, "deck-generator");
+        generator.setDaemon(true);
+        generator.start();
+    }
+
+    /** Bộ bài đã xáo (mỗi giá trị 0..cardCount/2-1 xuất hiện hai lần); người nhận sở hữu mảng. */
+    public Deck take(String difficulty, int cardCount) {
+        Pool pool = pools.get(difficulty);
+        if (pool == null || pool.cardCount != cardCount) {
+            // Bàn CUSTOM: không giữ kho cho từng kích thước, xáo tại chỗ (400 lá vẫn chỉ vài micro giây)
+            return new Deck(random.nextLong(), cardCount);
+        }
+        pool.taken.incrementAndGet();
+        Deck deck = pool.decks.poll();
+        if (deck == null) {
+            pool.misses.incrementAndGet();
+            wakeUp.release();
+            return new Deck(random.nextLong(), pool.cardCount);
+        }
+        if (pool.decks.size() < pool.target / 2) {
+            wakeUp.release();
+        }
+        return deck;
+    }
+
+    private void run() {
+        long lastTick = System.nanoTime();
+        while (running) {
+            try {
+                wakeUp.tryAcquire(TICK_MILLIS, TimeUnit.MILLISECONDS);
+                wakeUp.drainPermits();
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            double seconds = (now - lastTick) / 1e9;
+            if (seconds >= TICK_MILLIS / 1000.0) {
+                lastTick = now;
+                for (Pool pool : pools.values()) {
+                    adjustTarget(pool, seconds);
+                }
+            }
+            for (Pool pool : pools.values()) {
+                while (running && pool.decks.size() < pool.target) {
+                    pool.decks.offer(new Deck(random.nextLong(), pool.cardCount));
+                }
+            }
+        }
+    }
+
+    // Trung bình trượt theo hàm mũ của tốc độ lấy bài, để một đợt tạo phòng dồn dập nâng kho lên nhanh
+    // nhưng lúc vắng thì kho thu nhỏ dần
+    private void adjustTarget(Pool pool, double seconds) {
+        long taken = pool.taken.get();
+        double rate = (taken - pool.lastTaken) / seconds;
+        pool.lastTaken = taken;
+        pool.takesPerSecond = pool.takesPerSecond * 0.8 + rate * 0.2;
+        pool.target = (int) Math.max(MIN_DECKS, Math.min(MAX_DECKS, Math.ceil(pool.takesPerSecond * HORIZON_SECONDS)));
+    }
+
+    public String getStats() {
+        StringBuilder stats = new StringBuilder("decks:");
+        for (String difficulty : DIFFICULTIES) {
+            Pool pool = pools.get(difficulty);
+            stats.append(' ').append(difficulty).append(' ').append(pool.decks.size()).append('/').append(pool.target)
+                 .append(" (").append(pool.taken.get()).append(" taken, ").append(pool.misses.get()).append(" missed)");
+        }
+        return stats.toString();
+    }
+
+    public void shutdown() {
+        running = false;
+        generator.interrupt();
+        System.out.println("[DeckPool] " + getStats());
+    }
+}
@@ -0,0 +1,70 @@
+package server;
+
+import common.Protocol;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Theo dõi số lần thoát trận của người chơi đang online và áp dụng luật ban.
+ * Số lần thoát được nạp lúc đăng nhập, sau đó quyết định ban hoàn toàn trong bộ nhớ;
+ * DB nhận quit_count qua MatchJournal (cùng transaction với kết quả trận bị bỏ).
+ */
+public class DisciplineTracker {
+    public static final int BAN_QUIT_COUNT = 3;
+
+    private final Map<Integer, Session> sessions = new ConcurrentHashMap<>();
+    // Ban có hiệu lực ngay cả khi journal chưa kịp ghi is_banned xuống DB
+    private final Set<Integer> bannedIds = ConcurrentHashMap.newKeySet();
+
+    public void register(ClientHandler player, int quitCount) {
+        sessions.put(player.getPlayerId(), new Session(player, quitCount));
+    }
+
+    public void forget(ClientHandler player) {
+        Session session = sessions.get(player.getPlayerId());
+        if (session != null && session.player == player) {
+            sessions.remove(player.getPlayerId(), session);
+        }
+    }
+
+    /** Ghi nhận một lần thoát trận; trả về true nếu người chơi vừa bị ban. */
+    public boolean recordQuit(ClientHandler player) {
+        int playerId = player.getPlayerId();
+        Session session = sessions.computeIfAbsent(playerId, id -> new Session(player, 0));
+        int quitCount = session.quitCount.incrementAndGet();
+
+        if (quitCount >= BAN_QUIT_COUNT) {
+            System.out.println("🚫 Player " + player.getUsername() + " BANNED (quit count: " + quitCount + ")");
+            kick(session, "Tài khoản đã bị khóa do thoát trận " + quitCount + " lần");
+            return true;
+        }
+        System.out.println("⚠ Player " + player.getUsername() + " quit count: " + quitCount + "/" + BAN_QUIT_COUNT);
+        return false;
+    }
+
+    public boolean isBanned(int playerId) {
+        return bannedIds.contains(playerId);
+    }
+
+    // Ban có hiệu lực ngay: báo cho client rồi đóng kết nối
+    private void kick(Session session, String reason) {
+        bannedIds.add(session.player.getPlayerId());
+        sessions.remove(session.player.getPlayerId(), session);
+        Map<String, Object> msg = new HashMap<>();
+        msg.put("type", Protocol.ACCOUNT_BANNED);
+        msg.put("message", reason);
+        session.player.sendMessage(msg);
+        session.player.closeConnection();
+    }
+
+    private static class Session {
+        final ClientHandler player;
+        final AtomicInteger quitCount;
+
+        Session(ClientHandler player, int quitCount) {
+            this.player = player;
+            this.quitCount = new AtomicInteger(quitCount);
+        }
+    }
+}
@@ -0,0 +1,854 @@
+package server;
+
+import common.Protocol;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.*;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.mindrot.jbcrypt.BCrypt;
+
+/**
+ * Backend lưu trữ nhúng, không cần MySQL.
+ * Toàn bộ dữ liệu nằm trong bộ nhớ; mỗi thay đổi được ghi thêm (append-only) thành một
+ * dòng JSON vào players.log / matches.log / leaderboard.log và được phát lại khi khởi động.
+ * Khi log dài gấp đôi trạng thái hiện có, ba file được ghi lại từ bộ nhớ (compact()).
+ */
+public class FileStorage implements GameStorage {
+    private static final String[] LOGS = {"players.log", "matches.log", "leaderboard.log"};
+    // Đánh dấu ba file .compact đã ghi xong; còn file này khi khởi động thì đổi tên nốt
+    private static final String COMPACT_DONE = "compact.done";
+    private static final long MIN_COMPACT_LINES = Long.getLong("storage.compactLines", 100_000);
+    // Như applied_events của DatabaseManager: journal không phát lại sự kiện cũ hơn 7 ngày
+    private static final long APPLIED_EVENT_MILLIS = 7L * 24 * 3600 * 1000;
+
+    private final File directory;
+    private final Map<Integer, PlayerRecord> playersById = new HashMap<>();
+    private final Map<String, PlayerRecord> playersByName = new HashMap<>();
+    private final Map<Integer, List<MatchRecord>> matchesByPlayer = new HashMap<>();
+    private final Map<String, int[]> buckets = new HashMap<>();
+    private final Set<Long> appliedEvents = new HashSet<>();
+    private int nextPlayerId = 1;
+    private int nextMatchId = 1;
+    private int matchCount;
+    private int appliedSinceCleanup;
+    // Số dòng đang có trong ba log
+    private long logLines;
+
+    private Writer playerLog;
+    private Writer matchLog;
+    private Writer leaderboardLog;
+
+    public FileStorage(String directory) {
+        this.directory = new File(directory);
+        try {
+            this.directory.mkdirs();
+            finishCompaction();
+            for (String log : LOGS) {
+                replay(log);
+            }
+            openLogs();
+            if (needsCompaction()) compact();
+            System.out.println("✓ Embedded storage ready: " + this.directory.getAbsolutePath() +
+                               " (" + playersById.size() + " players, " + matchCount + " matches)");
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("✗ Failed to open embedded storage!");
+        }
+    }
+
+    private void openLogs() throws IOException {
+        playerLog = openLog("players.log");
+        matchLog = openLog("matches.log");
+        leaderboardLog = openLog("leaderboard.log");
+    }
+
+    private Writer openLog(String name) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(new File(directory, name), true), StandardCharsets.UTF_8));
+    }
+
+    private void replay(String name) throws IOException {
+        File file = new File(directory, name);
+        if (!file.exists()) return;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) continue;
+                logLines++;
+                try {
+                    apply(new JSONObject(line));
+                } catch (Exception e) {
+                    // Dòng cuối có thể bị ghi dở khi process bị kill
+                    System.err.println("✗ Skipping corrupt record in " + name + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void apply(JSONObject event) {
+        String op = event.getString("op");
+        switch (op) {
+            case "REGISTER": {
+                PlayerRecord p = new PlayerRecord();
+                p.id = event.getInt("id");
+                p.username = event.getString("username");
+                p.passwordHash = event.getString("password");
+                p.createdAt = event.getLong("at");
+                p.lastLogin = p.createdAt;
+                playersById.put(p.id, p);
+                playersByName.put(p.username, p);
+                nextPlayerId = Math.max(nextPlayerId, p.id + 1);
+                break;
+            }
+            case "PLAYER": {
+                // Bản chụp của compact(): toàn bộ trạng thái một người chơi trong một dòng
+                PlayerRecord p = new PlayerRecord();
+                p.id = event.getInt("id");
+                p.username = event.getString("username");
+                p.passwordHash = event.getString("password");
+                p.createdAt = event.getLong("at");
+                p.lastLogin = event.getLong("login");
+                p.totalScore = event.getInt("score");
+                p.wins = event.getInt("wins");
+                p.losses = event.getInt("losses");
+                p.quitCount = event.getInt("quits");
+                p.banned = event.getBoolean("banned");
+                p.rating = event.getDouble("rating");
+                p.ratingRd = event.getDouble("rd");
+                p.ratedGames = event.getInt("games");
+                p.ratingPeriod = event.getInt("period");
+                playersById.put(p.id, p);
+                playersByName.put(p.username, p);
+                nextPlayerId = Math.max(nextPlayerId, p.id + 1);
+                break;
+            }
+            case "LOGIN": {
+                PlayerRecord p = playersById.get(event.getInt("id"));
+                if (p != null) p.lastLogin = event.getLong("at");
+                break;
+            }
+            case "SCORE": {
+                PlayerRecord p = playersById.get(event.getInt("id"));
+                if (p == null) break;
+                p.totalScore += event.getInt("score");
+                if (event.getBoolean("won")) p.wins++; else p.losses++;
+                p.lastLogin = event.getLong("at");
+                break;
+            }
+            case "QUIT": {
+                PlayerRecord p = playersById.get(event.getInt("id"));
+                if (p == null) break;
+                p.quitCount++;
+                if (p.quitCount >= event.optInt("banAt", DisciplineTracker.BAN_QUIT_COUNT)) p.banned = true;
+                break;
+            }
+            case "BAN": {
+                PlayerRecord p = playersById.get(event.getInt("id"));
+                if (p != null) p.banned = true;
+                break;
+            }
+            case "MATCH": {
+                MatchRecord m = new MatchRecord();
+                m.id = event.getInt("id");
+                m.player1Id = event.getInt("p1");
+                m.player2Id = event.getInt("p2");
+                m.winnerId = event.getInt("winner");
+                m.difficulty = event.getString("difficulty");
+                m.player1Score = event.getInt("s1");
+                m.player2Score = event.getInt("s2");
+                m.duration = event.getInt("duration");
+                m.createdAt = event.getLong("at");
+                m.replayId = event.optLong("replay", 0);
+                matchesByPlayer.computeIfAbsent(m.player1Id, k -> new ArrayList<>()).add(m);
+                matchesByPlayer.computeIfAbsent(m.player2Id, k -> new ArrayList<>()).add(m);
+                // Trận nhiều người: mọi ghế theo thứ hạng, hai ghế đầu là player1/player2
+                JSONArray seats = event.optJSONArray("seats");
+                if (seats != null) {
+                    m.seatIds = new int[seats.length()];
+                    m.seatScores = new int[seats.length()];
+                    for (int i = 0; i < seats.length(); i++) {
+                        m.seatIds[i] = seats.getJSONObject(i).getInt("id");
+                        m.seatScores[i] = seats.getJSONObject(i).getInt("score");
+                        if (i >= 2) matchesByPlayer.computeIfAbsent(m.seatIds[i], k -> new ArrayList<>()).add(m);
+                    }
+                }
+                nextMatchId = Math.max(nextMatchId, m.id + 1);
+                matchCount++;
+                break;
+            }
+            case "BUCKET_TOTAL": {
+                buckets.put(event.getString("key"),
+                            new int[]{event.getInt("score"), event.getInt("wins"), event.getInt("losses")});
+                break;
+            }
+            case "APPLIED": {
+                JSONArray ids = event.getJSONArray("ids");
+                for (int i = 0; i < ids.length(); i++) {
+                    appliedEvents.add(ids.getLong(i));
+                }
+                break;
+            }
+            case "BUCKET": {
+                int[] counters = buckets.computeIfAbsent(event.getString("key"), k -> new int[3]);
+                counters[0] += event.getInt("score");
+                counters[event.getBoolean("won") ? 1 : 2]++;
+                break;
+            }
+            case "RESULT": {
+                // Một dòng cho cả kết quả trận, nên áp dụng lại là nguyên tử và idempotent
+                ResultEvent result = ResultEvent.fromJSON(event.getJSONObject("event"));
+                if (result.isLogin()) {
+                    PlayerRecord p = playersById.get(result.player1Id);
+                    if (p != null) p.lastLogin = Math.max(p.lastLogin, result.at);
+                    break;
+                }
+                if (!appliedEvents.add(result.eventId)) break;
+                if (++appliedSinceCleanup >= 1000) {
+                    appliedSinceCleanup = 0;
+                    dropOldEvents();
+                }
+                if (result.isQuit()) {
+                    PlayerRecord quitter = playersById.get(result.quitterId);
+                    if (quitter != null && ++quitter.quitCount >= DisciplineTracker.BAN_QUIT_COUNT) {
+                        quitter.banned = true;
+                    }
+                }
+                LocalDate day = LeaderboardService.dayOf(result.at);
+                LocalDate week = LeaderboardService.bucketStart(Protocol.PERIOD_WEEKLY, day);
+                // Trận nhiều người: dòng RESULT giữ nguyên danh sách participants của sự kiện
+                for (ResultEvent.Participant p : result.scoredPlayers()) {
+                    applyResultSide(p.id, p.score, result.winnerId == p.id, result.difficulty, result.at, day, week);
+                }
+                if (event.has("matchId")) {
+                    JSONObject match = new JSONObject();
+                    match.put("id", event.getInt("matchId"));
+                    match.put("p1", result.player1Id);
+                    match.put("p2", result.player2Id);
+                    match.put("winner", result.winnerId > 0 ? result.winnerId : -1);
+                    match.put("difficulty", result.difficulty);
+                    match.put("s1", result.player1Score);
+                    match.put("s2", result.player2Score);
+                    match.put("duration", result.duration);
+                    match.put("at", result.at);
+                    if (result.replayId != 0) match.put("replay", result.replayId);
+                    if (result.participants != null) {
+                        JSONArray seats = new JSONArray();
+                        for (ResultEvent.Participant p : result.participants) {
+                            JSONObject seat = new JSONObject();
+                            seat.put("id", p.id);
+                            seat.put("score", p.score);
+                            seats.put(seat);
+                        }
+                        match.put("seats", seats);
+                    }
+                    match.put("op", "MATCH");
+                    apply(match);
+                }
+                if (result.ratings != null) {
+                    for (RatingEngine.Rating rating : result.ratings) {
+                        applyRating(rating.playerId, rating.rating, rating.rd, rating.games, rating.period);
+                    }
+                }
+                break;
+            }
+            case "RATING":
+                applyRating(event.getInt("id"), event.getDouble("rating"), event.getDouble("rd"),
+                            event.getInt("games"), event.getInt("period"));
+                break;
+            case "COMPACT": {
+                String prefix = event.getString("period") + "|";
+                String olderThan = event.getString("before");
+                buckets.keySet().removeIf(key -> key.startsWith(prefix) &&
+                                                 key.split("\\|")[1].compareTo(olderThan) < 0);
+                break;
+            }
+        }
+    }
+
+    // Bản có ít ván hơn bản đang có là bản cũ (xem GameStorage.saveRatings)
+    private void applyRating(int playerId, double rating, double rd, int games, int period) {
+        PlayerRecord p = playersById.get(playerId);
+        if (p == null || games < p.ratedGames) return;
+        p.rating = rating;
+        p.ratingRd = rd;
+        p.ratedGames = games;
+        p.ratingPeriod = period;
+    }
+
+    private void applyResultSide(int playerId, int score, boolean won, String difficulty, long at,
+                                 LocalDate day, LocalDate week) {
+        PlayerRecord p = playersById.get(playerId);
+        if (p != null) {
+            p.totalScore += score;
+            if (won) p.wins++; else p.losses++;
+            p.lastLogin = at;
+        }
+        String[] keys = {
+            bucketKey(Protocol.PERIOD_DAILY, day, difficulty, playerId),
+            bucketKey(Protocol.PERIOD_DAILY, day, Protocol.ALL_DIFFICULTIES, playerId),
+            bucketKey(Protocol.PERIOD_WEEKLY, week, difficulty, playerId),
+            bucketKey(Protocol.PERIOD_WEEKLY, week, Protocol.ALL_DIFFICULTIES, playerId),
+            bucketKey(Protocol.PERIOD_ALL_TIME, LeaderboardService.ALL_TIME_BUCKET, difficulty, playerId)
+        };
+        for (String key : keys) {
+            int[] counters = buckets.computeIfAbsent(key, k -> new int[3]);
+            counters[0] += score;
+            counters[won ? 1 : 2]++;
+        }
+    }
+
+    /** Áp dụng vào bộ nhớ rồi ghi thêm một dòng vào log tương ứng. */
+    private void write(Writer log, JSONObject event) {
+        apply(event);
+        try {
+            log.write(event.toString());
+            log.write('\n');
+            log.flush();
+            logLines++;
+        } catch (IOException e) {
+            System.err.println("✗ Error writing embedded storage log:");
+            e.printStackTrace();
+        }
+        if (needsCompaction()) compact();
+    }
+
+    private void dropOldEvents() {
+        long cutoff = (System.currentTimeMillis() - APPLIED_EVENT_MILLIS) * 1000;
+        appliedEvents.removeIf(id -> id < cutoff);
+    }
+
+    private boolean needsCompaction() {
+        return logLines >= MIN_COMPACT_LINES &&
+               logLines >= 2L * (playersById.size() + matchCount + buckets.size() + 1);
+    }
+
+    /**
+     * Ghi lại ba log từ trạng thái trong bộ nhớ: mỗi người chơi, mỗi trận, mỗi ô leaderboard một dòng,
+     * cùng các eventId còn trong hạn. Ghi ra *.compact, fsync, đặt dấu compact.done rồi mới đổi tên,
+     * nên chết giữa chừng thì lần khởi động sau hoặc bỏ bản mới (chưa có dấu) hoặc đổi tên nốt.
+     */
+    synchronized void compact() {
+        long start = System.currentTimeMillis();
+        long before = logLines;
+        try {
+            closeLogs();
+            dropOldEvents();
+            long lines = writeCompacted("players.log", playerSnapshot());
+            lines += writeCompacted("matches.log", matchSnapshot());
+            lines += writeCompacted("leaderboard.log", bucketSnapshot());
+            new File(directory, COMPACT_DONE).createNewFile();
+            finishCompaction();
+            logLines = lines;
+            System.out.println("✓ Compacted embedded storage: " + before + " → " + lines + " lines (" +
+                               (System.currentTimeMillis() - start) + "ms)");
+        } catch (IOException e) {
+            System.err.println("✗ Failed to compact embedded storage: " + e.getMessage());
+            finishCompaction();
+        }
+        try {
+            openLogs();
+        } catch (IOException e) {
+            System.err.println("✗ Failed to reopen embedded storage logs!");
+            e.printStackTrace();
+        }
+    }
+
+    private long writeCompacted(String name, List<JSONObject> records) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(directory, name + ".compact"));
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            for (JSONObject record : records) {
+                writer.write(record.toString());
+                writer.write('\n');
+            }
+            writer.flush();
+            out.getFD().sync();
+        }
+        return records.size();
+    }
+
+    // Có dấu thì đổi tên các file .compact còn lại; không có thì .compact là bản ghi dở, bỏ đi
+    private void finishCompaction() {
+        File done = new File(directory, COMPACT_DONE);
+        for (String name : LOGS) {
+            File compacted = new File(directory, name + ".compact");
+            if (!compacted.exists()) continue;
+            try {
+                if (done.exists()) {
+                    Files.move(compacted.toPath(), new File(directory, name).toPath(),
+                               StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } else {
+                    Files.delete(compacted.toPath());
+                }
+            } catch (IOException e) {
+                // Giữ dấu lại để lần khởi động sau làm tiếp
+                System.err.println("✗ Failed to finish compacting " + name + ": " + e.getMessage());
+                return;
+            }
+        }
+        done.delete();
+    }
+
+    private List<JSONObject> playerSnapshot() {
+        List<JSONObject> records = new ArrayList<>();
+        for (PlayerRecord p : playersById.values()) {
+            JSONObject record = new JSONObject();
+            record.put("op", "PLAYER");
+            record.put("id", p.id);
+            record.put("username", p.username);
+            record.put("password", p.passwordHash);
+            record.put("at", p.createdAt);
+            record.put("login", p.lastLogin);
+            record.put("score", p.totalScore);
+            record.put("wins", p.wins);
+            record.put("losses", p.losses);
+            record.put("quits", p.quitCount);
+            record.put("banned", p.banned);
+            record.put("rating", p.rating);
+            record.put("rd", p.ratingRd);
+            record.put("games", p.ratedGames);
+            record.put("period", p.ratingPeriod);
+            records.add(record);
+        }
+        return records;
+    }
+
+    // Theo id, tức là theo thứ tự đã ghi, để lịch sử của mỗi người vẫn cũ trước mới sau
+    private List<JSONObject> matchSnapshot() {
+        Map<Integer, MatchRecord> matches = new TreeMap<>();
+        for (List<MatchRecord> list : matchesByPlayer.values()) {
+            for (MatchRecord m : list) {
+                matches.put(m.id, m);
+            }
+        }
+        List<JSONObject> records = new ArrayList<>();
+        for (MatchRecord m : matches.values()) {
+            JSONObject record = new JSONObject();
+            record.put("op", "MATCH");
+            record.put("id", m.id);
+            record.put("p1", m.player1Id);
+            record.put("p2", m.player2Id);
+            record.put("winner", m.winnerId);
+            record.put("difficulty", m.difficulty);
+            record.put("s1", m.player1Score);
+            record.put("s2", m.player2Score);
+            record.put("duration", m.duration);
+            record.put("at", m.createdAt);
+            if (m.replayId != 0) record.put("replay", m.replayId);
+            if (m.seatIds != null) {
+                JSONArray seats = new JSONArray();
+                for (int i = 0; i < m.seatIds.length; i++) {
+                    JSONObject seat = new JSONObject();
+                    seat.put("id", m.seatIds[i]);
+                    seat.put("score", m.seatScores[i]);
+                    seats.put(seat);
+                }
+                record.put("seats", seats);
+            }
+            records.add(record);
+        }
+        if (!appliedEvents.isEmpty()) {
+            JSONObject applied = new JSONObject();
+            applied.put("op", "APPLIED");
+            applied.put("ids", new JSONArray(appliedEvents));
+            records.add(applied);
+        }
+        return records;
+    }
+
+    private List<JSONObject> bucketSnapshot() {
+        List<JSONObject> records = new ArrayList<>();
+        for (Map.Entry<String, int[]> entry : buckets.entrySet()) {
+            JSONObject record = new JSONObject();
+            record.put("op", "BUCKET_TOTAL");
+            record.put("key", entry.getKey());
+            record.put("score", entry.getValue()[0]);
+            record.put("wins", entry.getValue()[1]);
+            record.put("losses", entry.getValue()[2]);
+            records.add(record);
+        }
+        return records;
+    }
+
+    @Override
+    public synchronized boolean registerPlayer(String username, String password) {
+        if (username == null || username.trim().isEmpty()) {
+            System.out.println("✗ Registration failed: Username is empty");
+            return false;
+        }
+        if (password == null || password.length() < 4) {
+            System.out.println("✗ Registration failed: Password too short");
+            return false;
+        }
+        if (playersByName.containsKey(username.trim())) {
+            System.out.println("✗ Registration failed: Username already exists");
+            return false;
+        }
+
+        JSONObject event = new JSONObject();
+        event.put("op", "REGISTER");
+        event.put("id", nextPlayerId);
+        event.put("username", username.trim());
+        event.put("password", BCrypt.hashpw(password, BCrypt.gensalt()));
+        event.put("at", System.currentTimeMillis());
+        write(playerLog, event);
+
+        System.out.println("✓ User registered successfully: " + username);
+        return true;
+    }
+
+    @Override
+    public synchronized Map<String, Object> loginPlayer(String username, String password) {
+        PlayerRecord p = playersByName.get(username);
+        if (p == null) {
+            System.out.println("✗ Login failed: User not found");
+            return null;
+        }
+        if (p.banned) {
+            System.out.println("✗ Login failed: Account is banned");
+            return null;
+        }
+
+        boolean passwordMatch;
+        try {
+            passwordMatch = BCrypt.checkpw(password, p.passwordHash);
+        } catch (Exception e) {
+            System.err.println("✗ Error checking password: " + e.getMessage());
+            passwordMatch = false;
+        }
+        if (!passwordMatch) {
+            System.out.println("✗ Login failed: Invalid password");
+            return null;
+        }
+
+        Map<String, Object> playerData = new HashMap<>();
+        playerData.put("id", p.id);
+        playerData.put("username", p.username);
+        playerData.put("total_score", p.totalScore);
+        playerData.put("wins", p.wins);
+        playerData.put("losses", p.losses);
+        playerData.put("quit_count", p.quitCount);
+        System.out.println("✓ Login successful for: " + username);
+        return playerData;
+    }
+
+    @Override
+    public synchronized void updatePlayerScore(int playerId, int scoreToAdd, boolean won) {
+        if (!playersById.containsKey(playerId)) return;
+        JSONObject event = new JSONObject();
+        event.put("op", "SCORE");
+        event.put("id", playerId);
+        event.put("score", scoreToAdd);
+        event.put("won", won);
+        event.put("at", System.currentTimeMillis());
+        write(playerLog, event);
+    }
+
+    @Override
+    public synchronized void incrementQuitCount(int playerId, int banThreshold) {
+        if (!playersById.containsKey(playerId)) return;
+        JSONObject event = new JSONObject();
+        event.put("op", "QUIT");
+        event.put("id", playerId);
+        event.put("banAt", banThreshold);
+        write(playerLog, event);
+    }
+
+    @Override
+    public synchronized void banPlayer(int playerId) {
+        if (!playersById.containsKey(playerId)) return;
+        JSONObject event = new JSONObject();
+        event.put("op", "BAN");
+        event.put("id", playerId);
+        write(playerLog, event);
+    }
+
+    @Override
+    public synchronized int saveMatch(int player1Id, int player2Id, int winnerId,
+                                      String difficulty, int p1Score, int p2Score, int duration,
+                                      Timestamp createdAt) {
+        int matchId = nextMatchId;
+        JSONObject event = new JSONObject();
+        event.put("op", "MATCH");
+        event.put("id", matchId);
+        event.put("p1", player1Id);
+        event.put("p2", player2Id);
+        event.put("winner", winnerId > 0 ? winnerId : -1);
+        event.put("difficulty", difficulty);
+        event.put("s1", p1Score);
+        event.put("s2", p2Score);
+        event.put("duration", duration);
+        event.put("at", createdAt.getTime());
+        write(matchLog, event);
+        return matchId;
+    }
+
+    @Override
+    public synchronized List<Map<String, Object>> getLeaderboard(int limit) {
+        List<PlayerRecord> ranked = new ArrayList<>();
+        for (PlayerRecord p : playersById.values()) {
+            if (!p.banned) ranked.add(p);
+        }
+        ranked.sort((a, b) -> a.totalScore != b.totalScore ? Integer.compare(b.totalScore, a.totalScore)
+                                                             : Integer.compare(b.wins, a.wins));
+
+        List<Map<String, Object>> leaderboard = new ArrayList<>();
+        for (PlayerRecord p : ranked.subList(0, Math.min(limit, ranked.size()))) {
+            leaderboard.add(leaderboardRow(p.username, p.totalScore, p.wins, p.losses));
+        }
+        return leaderboard;
+    }
+
+    @Override
+    public synchronized void recordLeaderboardResult(int playerId, String difficulty, int score, boolean won,
+                                                     LocalDate dayStart, LocalDate weekStart) {
+        String[] keys = {
+            bucketKey(Protocol.PERIOD_DAILY, dayStart, difficulty, playerId),
+            bucketKey(Protocol.PERIOD_DAILY, dayStart, Protocol.ALL_DIFFICULTIES, playerId),
+            bucketKey(Protocol.PERIOD_WEEKLY, weekStart, difficulty, playerId),
+            bucketKey(Protocol.PERIOD_WEEKLY, weekStart, Protocol.ALL_DIFFICULTIES, playerId),
+            bucketKey(Protocol.PERIOD_ALL_TIME, LeaderboardService.ALL_TIME_BUCKET, difficulty, playerId)
+        };
+        for (String key : keys) {
+            JSONObject event = new JSONObject();
+            event.put("op", "BUCKET");
+            event.put("key", key);
+            event.put("score", score);
+            event.put("won", won);
+            write(leaderboardLog, event);
+        }
+    }
+
+    @Override
+    public synchronized List<Map<String, Object>> getBucketLeaderboard(String period, LocalDate bucketStart,
+                                                                       String difficulty, int limit) {
+        String prefix = period + "|" + bucketStart + "|" + difficulty + "|";
+        List<Map.Entry<String, int[]>> rows = new ArrayList<>();
+        for (Map.Entry<String, int[]> entry : buckets.entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) continue;
+            PlayerRecord p = playersById.get(Integer.parseInt(entry.getKey().substring(prefix.length())));
+            if (p != null && !p.banned) rows.add(entry);
+        }
+        rows.sort((a, b) -> a.getValue()[0] != b.getValue()[0] ? Integer.compare(b.getValue()[0], a.getValue()[0])
+                                                                : Integer.compare(b.getValue()[1], a.getValue()[1]));
+
+        List<Map<String, Object>> leaderboard = new ArrayList<>();
+        for (Map.Entry<String, int[]> entry : rows.subList(0, Math.min(limit, rows.size()))) {
+            PlayerRecord p = playersById.get(Integer.parseInt(entry.getKey().substring(prefix.length())));
+            int[] c = entry.getValue();
+            leaderboard.add(leaderboardRow(p.username, c[0], c[1], c[2]));
+        }
+        return leaderboard;
+    }
+
+    @Override
+    public synchronized int compactLeaderboardBuckets(String period, LocalDate olderThan) {
+        int before = buckets.size();
+        JSONObject event = new JSONObject();
+        event.put("op", "COMPACT");
+        event.put("period", period);
+        event.put("before", olderThan.toString());
+        write(leaderboardLog, event);
+        return before - buckets.size();
+    }
+
+    @Override
+    public synchronized List<Map<String, Object>> getPlayerMatchHistory(int playerId, HistoryCursor cursor, int limit) {
+        List<Map<String, Object>> history = new ArrayList<>();
+        List<MatchRecord> matches = matchesByPlayer.getOrDefault(playerId, Collections.emptyList());
+        // Danh sách được ghi theo thứ tự thời gian, duyệt ngược để lấy mới nhất trước
+        for (int i = matches.size() - 1; i >= 0 && history.size() < limit; i--) {
+            MatchRecord m = matches.get(i);
+            if (cursor != null && !cursor.isBefore(m.createdAt, m.id)) continue;
+
+            boolean isPlayer1 = m.player1Id == playerId;
+            boolean isPlayer2 = !isPlayer1 && m.player2Id == playerId;
+            // Người đứng từ hạng 3 trở xuống thấy đối thủ là người đứng đầu
+            PlayerRecord opponent = playersById.get(isPlayer1 ? m.player2Id : m.player1Id);
+            int myScore = isPlayer1 ? m.player1Score : isPlayer2 ? m.player2Score : m.seatScore(playerId);
+
+            Map<String, Object> match = new HashMap<>();
+            match.put("id", m.id);
+            match.put("opponent", opponent != null ? opponent.username : "?");
+            match.put("result", m.winnerId <= 0 ? "DRAW" : (m.winnerId == playerId ? "WIN" : "LOSS"));
+            match.put("difficulty", m.difficulty);
+            match.put("my_score", myScore);
+            match.put("opponent_score", isPlayer1 ? m.player2Score : m.player1Score);
+            match.put("duration", m.duration);
+            match.put("created_at", new Timestamp(m.createdAt));
+            if (m.replayId != 0) match.put("replay_id", m.replayId);
+            history.add(match);
+        }
+        return history;
+    }
+
+    @Override
+    public synchronized int applyResultEvent(ResultEvent event) {
+        if (appliedEvents.contains(event.eventId)) return -1;
+        JSONObject line = new JSONObject();
+        line.put("op", "RESULT");
+        line.put("event", event.toJSON());
+        int matchId = -1;
+        if (!event.isQuit() && !event.isLogin()) {
+            matchId = nextMatchId;
+            line.put("matchId", matchId);
+        }
+        write(matchLog, line);
+        return matchId;
+    }
+
+    @Override
+    public synchronized RatingEngine.Rating loadRating(int playerId) {
+        PlayerRecord p = playersById.get(playerId);
+        return p == null ? null : toRating(p);
+    }
+
+    @Override
+    public synchronized void saveRatings(List<RatingEngine.Rating> ratings) {
+        for (RatingEngine.Rating rating : ratings) {
+            PlayerRecord p = playersById.get(rating.playerId);
+            if (p == null || rating.games < p.ratedGames) continue;
+            JSONObject event = new JSONObject();
+            event.put("op", "RATING");
+            event.put("id", rating.playerId);
+            event.put("rating", rating.rating);
+            event.put("rd", rating.rd);
+            event.put("games", rating.games);
+            event.put("period", rating.period);
+            write(playerLog, event);
+        }
+    }
+
+    @Override
+    public synchronized List<RatingEngine.Rating> loadRatings() {
+        List<RatingEngine.Rating> ratings = new ArrayList<>();
+        for (PlayerRecord p : playersById.values()) {
+            if (p.ratedGames > 0) ratings.add(toRating(p));
+        }
+        return ratings;
+    }
+
+    @Override
+    public synchronized List<Map<String, Object>> getRatingLeaderboard(int limit, double maxRd) {
+        List<PlayerRecord> ranked = new ArrayList<>();
+        for (PlayerRecord p : playersById.values()) {
+            if (!p.banned && p.ratedGames > 0 && p.ratingRd <= maxRd) ranked.add(p);
+        }
+        ranked.sort((a, b) -> Double.compare(b.rating, a.rating));
+
+        List<Map<String, Object>> leaderboard = new ArrayList<>();
+        for (PlayerRecord p : ranked.subList(0, Math.min(limit, ranked.size()))) {
+            Map<String, Object> row = leaderboardRow(p.username, p.totalScore, p.wins, p.losses);
+            row.put("rating", (int) Math.round(p.rating));
+            row.put("rating_rd", (int) Math.round(p.ratingRd));
+            leaderboard.add(row);
+        }
+        return leaderboard;
+    }
+
+    private static RatingEngine.Rating toRating(PlayerRecord p) {
+        RatingEngine.Rating rating = new RatingEngine.Rating(p.id);
+        rating.rating = p.rating;
+        rating.rd = p.ratingRd;
+        rating.games = p.ratedGames;
+        rating.period = p.ratingPeriod;
+        return rating;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public synchronized void verifyDatabaseIntegrity() {
+        int orphaned = 0;
+        for (Map.Entry<Integer, List<MatchRecord>> entry : matchesByPlayer.entrySet()) {
+            if (!playersById.containsKey(entry.getKey())) orphaned += entry.getValue().size();
+        }
+        System.out.println("[FileStorage] " + playersById.size() + " players, " + matchCount +
+                           " matches, " + orphaned + " orphaned match references");
+    }
+
+    @Override
+    public synchronized String getStats() {
+        return playersById.size() + " players, " + matchCount + " matches";
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            closeLogs();
+            System.out.println("✓ Embedded storage closed");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void closeLogs() throws IOException {
+        if (playerLog != null) playerLog.close();
+        if (matchLog != null) matchLog.close();
+        if (leaderboardLog != null) leaderboardLog.close();
+    }
+
+    private static String bucketKey(String period, LocalDate start, String difficulty, int playerId) {
+        return period + "|" + start + "|" + difficulty + "|" + playerId;
+    }
+
+    private static Map<String, Object> leaderboardRow(String username, int score, int wins, int losses) {
+        int totalGames = wins + losses;
+        Map<String, Object> player = new HashMap<>();
+        player.put("username", username);
+        player.put("total_score", score);
+        player.put("wins", wins);
+        player.put("losses", losses);
+        player.put("total_games", totalGames);
+        player.put("win_rate", totalGames == 0 ? 0.0 : Math.round(wins * 10000.0 / totalGames) / 100.0);
+        return player;
+    }
+
+    private static class PlayerRecord {
+        int id;
+        String username;
+        String passwordHash;
+        int totalScore;
+        int wins;
+        int losses;
+        int quitCount;
+        boolean banned;
+        long createdAt;
+        long lastLogin;
+        double rating = RatingEngine.INITIAL_RATING;
+        double ratingRd = RatingEngine.MAX_RD;
+        int ratedGames;
+        int ratingPeriod;
+    }
+
+    private static class MatchRecord {
+        int id;
+        int player1Id;
+        int player2Id;
+        int winnerId;
+        String difficulty;
+        int player1Score;
+        int player2Score;
+        int duration;
+        long createdAt;
+        long replayId;
+        // null với trận 2 người
+        int[] seatIds;
+        int[] seatScores;
+
+        int seatScore(int playerId) {
+            for (int i = 0; seatIds != null && i < seatIds.length; i++) {
+                if (seatIds[i] == playerId) return seatScores[i];
+            }
+            return 0;
+        }
+    }
+}
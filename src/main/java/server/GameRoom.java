@@ -1,28 +1,46 @@
 package server;
 
+import common.BoardConfig;
 import common.Protocol;
+import common.Replay;
 import java.util.*;
 
+/**
+ * Một ván đấu của 2 tới MAX_PLAYERS người trên cùng một bàn bài; mỗi người lật trên bản sao riêng.
+ * Trạng thái theo ghế (seat) nằm trong các mảng song song, điểm được gửi gộp theo tick thay vì
+ * sau mỗi cặp ghép đúng, để phòng 8 người không nhân số message lên theo bình phương.
+ */
 public class GameRoom {
+    public static final int MAX_PLAYERS = Protocol.MAX_ROOM_PLAYERS;
+    private static final long SCORE_TICK_MILLIS = 250;
+    
     private String roomId;
-    private ClientHandler player1;
-    private ClientHandler player2;
+    private final ClientHandler[] players;
+    private final BoardConfig board;
     private String difficulty;
+    // Mặc định giữ bí mật giá trị bài; -Dgame.boardMode=OPEN gửi cả bàn như trước, SEEDED chỉ gửi seed
+    private final String boardMode;
+    private long boardSeed;
     private int cardCount;
     private int timeLimit;
     
-    // Mỗi player có bàn riêng
-    private int[] player1CardValues;
-    private int[] player2CardValues;
-    private boolean[] player1FlippedCards;
-    private boolean[] player2FlippedCards;
-    
-    private int player1Score;
-    private int player2Score;
-    private int player1MatchedPairs;
-    private int player2MatchedPairs;
+    // Mọi người chơi dùng chung một bàn (chỉ đọc)
+    private int[] cardValues;
+    // Lá đã ghép xong của từng ghế, một bit mỗi lá (bàn 400 lá chỉ tốn 56 byte mỗi người)
+    private final BitSet[] matchedCards;
+    // Trạng thái lật từng lá (FLIP) của từng ghế
+    private final FlipState[] flips;
+    private final int[] scores;
+    private final int[] matchedPairs;
+    private final boolean[] left;
+    private int remaining;
+    private boolean scoresDirty;
     
     private long startTime;
+    // Người xem nhận lại các message của ván sau một khoảng trễ, không bao giờ làm chậm người chơi
+    private SpectatorChannel spectators;
+    // Mọi lượt lật, ghi vào bộ nhớ; lưu xuống ReplayStore khi hết ván
+    private ReplayRecorder replay;
     private Timer gameTimer;
     private boolean gameEnded;
     
@@ -30,101 +48,115 @@ public class GameRoom {
     public int gameCols;
     
     public GameRoom(String roomId, ClientHandler p1, ClientHandler p2, String difficulty) {
+        this(roomId, p1, p2, BoardConfig.of(difficulty));
+    }
+    
+    public GameRoom(String roomId, ClientHandler p1, ClientHandler p2, BoardConfig board) {
+        this(roomId, Arrays.asList(p1, p2), board);
+    }
+    
+    public GameRoom(String roomId, List<ClientHandler> players, BoardConfig board) {
+        if (players.size() < 2 || players.size() > MAX_PLAYERS) {
+            throw new IllegalArgumentException("A room needs 2-" + MAX_PLAYERS + " players");
+        }
         this.roomId = roomId;
-        this.player1 = p1;
-        this.player2 = p2;
-        this.difficulty = difficulty;
-        this.cardCount = Protocol.getCardCount(difficulty);
-        this.timeLimit = Protocol.getTimeLimit(difficulty);
-        this.player1Score = 0;
-        this.player2Score = 0;
-        this.player1MatchedPairs = 0;
-        this.player2MatchedPairs = 0;
+        this.players = players.toArray(new ClientHandler[0]);
+        this.board = board;
+        this.difficulty = board.difficulty;
+        this.cardCount = board.cardCount;
+        this.timeLimit = board.timeLimit;
+        this.gameRows = board.rows;
+        this.gameCols = board.cols;
+        int seats = this.players.length;
+        this.matchedCards = new BitSet[seats];
+        this.flips = new FlipState[seats];
+        this.scores = new int[seats];
+        this.matchedPairs = new int[seats];
+        this.left = new boolean[seats];
+        this.remaining = seats;
         this.gameEnded = false;
+        this.boardMode = boardModeFor(this.players);
+        for (ClientHandler player : this.players) {
+            player.stopSpectating();
+            Server.getMatchmaker().leave(player);
+        }
         
-        // Khởi tạo 2 bàn độc lập
         initializePlayerCards();
         startGame();
     }
     
-    private void initializePlayerCards() {
-        int pairs = cardCount / 2;
-
-        // Tạo 1 bộ bài duy nhất cho cả 2 người chơi
-        List<Integer> sharedValues = new ArrayList<>();
-        for (int i = 0; i < pairs; i++) {
-            sharedValues.add(i);
-            sharedValues.add(i);
-        }
-        Collections.shuffle(sharedValues); // Xáo bài 1 lần duy nhất
-
-        // Cả 2 player dùng chung bộ bài này
-        player1CardValues = new int[cardCount];
-        player2CardValues = new int[cardCount];
-        for (int i = 0; i < cardCount; i++) {
-            player1CardValues[i] = sharedValues.get(i);
-            player2CardValues[i] = sharedValues.get(i); // Giống hệt player 1
+    private static String boardModeSetting() {
+        String mode = System.getProperty("game.boardMode", Protocol.BOARD_HIDDEN);
+        return Protocol.BOARD_OPEN.equals(mode) || Protocol.BOARD_SEEDED.equals(mode) ? mode : Protocol.BOARD_HIDDEN;
+    }
+    
+    // Client cũ (chỉ gửi CARD_FLIP hai lá) cần biết giá trị bài trước: phòng có client như vậy dùng OPEN
+    private static String boardModeFor(ClientHandler[] players) {
+        String mode = boardModeSetting();
+        if (!Protocol.BOARD_HIDDEN.equals(mode)) return mode;
+        for (ClientHandler player : players) {
+            if (!player.supportsCardReveal()) return Protocol.BOARD_OPEN;
         }
-
-        // Khởi tạo trạng thái lật bài riêng
-        player1FlippedCards = new boolean[cardCount];
-        player2FlippedCards = new boolean[cardCount];
-        Arrays.fill(player1FlippedCards, false);
-        Arrays.fill(player2FlippedCards, false);
+        return mode;
+    }
+    
+    public long getBoardSeed() {
+        return boardSeed;
+    }
+    
+    private void initializePlayerCards() {
+        // Bộ bài đã xáo sẵn ở DeckPool; mọi người chơi dùng chung (chỉ đọc)
+        DeckPool.Deck deck = Server.getDecks().take(difficulty, cardCount);
+        boardSeed = deck.seed;
+        cardValues = deck.values;
         
-        int cols = (int) Math.ceil(Math.sqrt(cardCount));
-        int rows = (int) Math.ceil((double) cardCount / cols);
+        // Khởi tạo trạng thái lật bài riêng
+        for (int seat = 0; seat < players.length; seat++) {
+            matchedCards[seat] = new BitSet(cardCount);
+            flips[seat] = new FlipState();
+        }
         
-        gameRows = rows;
-        gameCols = cols;
-
-            
-        System.out.println("✓ Initialized IDENTICAL game boards for both players with " + cardCount + " cards");
+        System.out.println("✓ Initialized IDENTICAL game boards for " + players.length + " players with " +
+                           cardCount + " cards");
     }
     
     private void startGame() {
         startTime = System.currentTimeMillis();
         
-        // Chuyển cardValues thành List
-        List<Integer> cardValuesList1 = new ArrayList<>();
-        for (int value : player1CardValues) {
-            cardValuesList1.add(value);
+        List<String> names = new ArrayList<>();
+        for (ClientHandler player : players) {
+            names.add(player.getUsername());
+        }
+        spectators = new SpectatorChannel(roomId, board, startTime, names);
+        replay = new ReplayRecorder(startTime, board, boardSeed, players);
+        // Giữ rating cả phòng trong cache tới hết ván, kể cả người thoát giữa chừng
+        Server.getRatings().pin(playerIds());
+        
+        Map<String, Object> gameData = new HashMap<>();
+        gameData.put("type", Protocol.GAME_START);
+        gameData.put("roomId", roomId);
+        gameData.put("difficulty", difficulty);
+        gameData.put("cardCount", cardCount);
+        gameData.put("timeLimit", timeLimit);
+        gameData.put("players", names);
+        gameData.put("boardMode", boardMode);
+        if (Protocol.BOARD_OPEN.equals(boardMode)) {
+            gameData.put("cardValues", BoardConfig.packValues(cardValues));
+        } else if (Protocol.BOARD_SEEDED.equals(boardMode)) {
+            gameData.put("seed", boardSeed);
         }
+        gameData.put("rows", gameRows);
+        gameData.put("cols", gameCols);
         
-        List<Integer> cardValuesList2 = new ArrayList<>();
-        for (int value : player2CardValues) {
-            cardValuesList2.add(value);
+        // Mỗi người nhận cùng một bàn; "opponent" là người ngồi kế tiếp (phòng 2 người: đối thủ duy nhất)
+        for (int seat = 0; seat < players.length; seat++) {
+            gameData.put("opponent", names.get((seat + 1) % players.length));
+            players[seat].sendMessage(gameData);
         }
         
-        // Gửi cho player 1 - bàn riêng của họ
-        Map<String, Object> gameData1 = new HashMap<>();
-        gameData1.put("type", Protocol.GAME_START);
-        gameData1.put("roomId", roomId);
-        gameData1.put("difficulty", difficulty);
-        gameData1.put("cardCount", cardCount);
-        gameData1.put("timeLimit", timeLimit);
-        gameData1.put("opponent", player2.getUsername());
-        gameData1.put("cardValues", cardValuesList1);
-        gameData1.put("rows", gameRows);
-        gameData1.put("cols", gameCols);
-        player1.sendMessage(gameData1);
-        
-        // Gửi cho player 2 - bàn riêng của họ
-        Map<String, Object> gameData2 = new HashMap<>();
-        gameData2.put("type", Protocol.GAME_START);
-        gameData2.put("roomId", roomId);
-        gameData2.put("difficulty", difficulty);
-        gameData2.put("cardCount", cardCount);
-        gameData2.put("timeLimit", timeLimit);
-        gameData2.put("opponent", player1.getUsername());
-        gameData2.put("cardValues", cardValuesList2);
-        gameData2.put("rows", gameRows);
-        gameData2.put("cols", gameCols);
-        player2.sendMessage(gameData2);
-        
-        System.out.println("🎮 Game started - " + player1.getUsername() + " vs " + player2.getUsername());
-        
-        // Bắt đầu timer
+        System.out.println("🎮 Game started - " + String.join(" vs ", names));
+        
+        // Bắt đầu timer: hết giờ, và gửi điểm gộp mỗi tick
         gameTimer = new Timer();
         gameTimer.schedule(new TimerTask() {
             @Override
@@ -132,6 +164,27 @@ public class GameRoom {
                 endGameByTime();
             }
         }, timeLimit * 1000L);
+        gameTimer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                flushScores();
+            }
+        }, SCORE_TICK_MILLIS, SCORE_TICK_MILLIS);
+    }
+    
+    private int[] playerIds() {
+        int[] ids = new int[players.length];
+        for (int seat = 0; seat < players.length; seat++) {
+            ids[seat] = players[seat].getPlayerId();
+        }
+        return ids;
+    }
+    
+    private int seatOf(ClientHandler player) {
+        for (int seat = 0; seat < players.length; seat++) {
+            if (players[seat] == player) return seat;
+        }
+        return -1;
     }
     
     public synchronized boolean flipCard(ClientHandler player, int card1, int card2) {
@@ -139,13 +192,69 @@ public class GameRoom {
         if (card1 < 0 || card1 >= cardCount || card2 < 0 || card2 >= cardCount) return false;
         if (card1 == card2) return false;
         
-        boolean isPlayer1 = (player == player1);
-        int[] cardValues = isPlayer1 ? player1CardValues : player2CardValues;
-        boolean[] flippedCards = isPlayer1 ? player1FlippedCards : player2FlippedCards;
+        int seat = seatOf(player);
+        if (seat < 0 || left[seat]) return false;
+        if (matchedCards[seat].get(card1) || matchedCards[seat].get(card2)) return false;
         
-        if (flippedCards[card1] || flippedCards[card2]) return false;
+        return resolvePair(seat, card1, card2, null, -1);
+    }
+    
+    /**
+     * Lật từng lá (FLIP): lá thứ nhất được trả giá trị ngay bằng CARD_REVEAL, lá thứ hai thì xét cặp
+     * và trả GAME_UPDATE như CARD_FLIP. seq tăng dần theo từng người chơi nên client có thể gửi liên tiếp
+     * không cần chờ; seq đã xử lý (client gửi lại) thì chỉ gửi lại đúng câu trả lời cũ.
+     */
+    public synchronized void flipCard(ClientHandler player, int card, long seq) {
+        int seat = seatOf(player);
+        if (seat < 0) return;
+        FlipState state = flips[seat];
+        if (seq <= state.lastSeq) {
+            Map<String, Object> previous = state.responses.get(seq);
+            if (previous != null) player.sendMessage(previous);
+            return;
+        }
+        state.lastSeq = seq;
         
+        if (gameEnded || left[seat] || card < 0 || card >= cardCount || matchedCards[seat].get(card)
+                || card == state.pendingCard) {
+            Map<String, Object> rejected = new HashMap<>();
+            rejected.put("type", Protocol.FLIP_REJECTED);
+            rejected.put("card", card);
+            state.remember(seq, rejected);
+            player.sendMessage(rejected);
+            return;
+        }
+        
+        if (state.pendingCard < 0) {
+            state.pendingCard = card;
+            replay.reveal(seat, card);
+            Map<String, Object> reveal = new HashMap<>();
+            reveal.put("type", Protocol.CARD_REVEAL);
+            reveal.put("card", card);
+            reveal.put("value", cardValues[card]);
+            state.remember(seq, reveal);
+            player.sendMessage(reveal);
+        } else {
+            int first = state.pendingCard;
+            state.pendingCard = -1;
+            resolvePair(seat, first, card, state, seq);
+        }
+    }
+    
+    /** Xét một cặp đã hợp lệ; flips != null thì ghi nhớ GAME_UPDATE cho seq để trả lại khi client gửi lại. */
+    private boolean resolvePair(int seat, int card1, int card2, FlipState flips, long seq) {
+        ClientHandler player = players[seat];
         boolean matched = cardValues[card1] == cardValues[card2];
+        replay.pair(seat, card1, card2, matched);
+        
+        if (matched) {
+            matchedCards[seat].set(card1);
+            matchedCards[seat].set(card2);
+            scores[seat] += 10;
+            matchedPairs[seat]++;
+            // Người khác thấy điểm mới ở tick kế tiếp
+            scoresDirty = true;
+        }
         
         Map<String, Object> updateMsg = new HashMap<>();
         updateMsg.put("type", Protocol.GAME_UPDATE);
@@ -155,151 +264,175 @@ public class GameRoom {
         updateMsg.put("value1", cardValues[card1]);
         updateMsg.put("value2", cardValues[card2]);
         updateMsg.put("matched", matched);
+        // Điểm của chính người chơi đi kèm luôn, không phải chờ SCORE_UPDATE
+        updateMsg.put("score", scores[seat]);
+        if (flips != null) flips.remember(seq, updateMsg);
         
-        if (matched) {
-            flippedCards[card1] = true;
-            flippedCards[card2] = true;
-            
-            if (isPlayer1) {
-                player1Score += 10;
-                player1MatchedPairs++;
-            } else {
-                player2Score += 10;
-                player2MatchedPairs++;
-            }
-            
-            // Gửi update cho chính người chơi
-            player.sendMessage(updateMsg);
-            
-            // Gửi update điểm cho cả 2
-            broadcastScores();
-            
-            // Kiểm tra xem player này đã lật hết chưa
-            if (isPlayer1 && player1MatchedPairs >= cardCount / 2) {
-                endGameByCompletion(player1);
-            } else if (!isPlayer1 && player2MatchedPairs >= cardCount / 2) {
-                endGameByCompletion(player2);
-            }
-        } else {
-            // Chỉ gửi cho người chơi đó thôi
-            player.sendMessage(updateMsg);
+        // Chỉ gửi cho người chơi đó thôi (người xem thấy sau khoảng trễ)
+        player.sendMessage(updateMsg);
+        spectators.publish(updateMsg);
+        
+        // Kiểm tra xem player này đã lật hết chưa
+        if (matched && matchedPairs[seat] >= cardCount / 2) {
+            endGameByCompletion(seat);
         }
         
         return matched;
     }
     
-    private void broadcastScores() {
+    /** Gửi điểm của mọi người nếu có thay đổi từ tick trước (một message mỗi người mỗi tick). */
+    private synchronized void flushScores() {
+        if (gameEnded || !scoresDirty) return;
+        scoresDirty = false;
+        
         Map<String, Object> scoreMsg = new HashMap<>();
         scoreMsg.put("type", Protocol.SCORE_UPDATE);
-        scoreMsg.put(player1.getUsername(), player1Score);
-        scoreMsg.put(player2.getUsername(), player2Score);
-        
-        player1.sendMessage(scoreMsg);
-        player2.sendMessage(scoreMsg);
+        for (int seat = 0; seat < players.length; seat++) {
+            if (!left[seat]) scoreMsg.put(players[seat].getUsername(), scores[seat]);
+        }
+        for (int seat = 0; seat < players.length; seat++) {
+            if (!left[seat]) players[seat].sendMessage(scoreMsg);
+        }
+        spectators.publish(scoreMsg);
     }
     
-    private void endGameByCompletion(ClientHandler winner) {
+    private void endGameByCompletion(int seat) {
         if (gameEnded) return;
-        endGame(winner.getUsername());
+        endGame(seat, Replay.END_COMPLETED);
     }
     
-    private void endGameByTime() {
+    private synchronized void endGameByTime() {
         if (!gameEnded) {
-            // Ai có điểm cao hơn thắng
-            String winner;
-            if (player1Score > player2Score) {
-                winner = player1.getUsername();
-            } else if (player2Score > player1Score) {
-                winner = player2.getUsername();
-            } else {
-                winner = "DRAW";
+            // Ai có điểm cao nhất thắng; nhiều người cùng điểm cao nhất thì hòa
+            int winner = -1;
+            boolean tied = false;
+            for (int seat = 0; seat < players.length; seat++) {
+                if (left[seat]) continue;
+                if (winner < 0 || scores[seat] > scores[winner]) {
+                    winner = seat;
+                    tied = false;
+                } else if (scores[seat] == scores[winner]) {
+                    tied = true;
+                }
             }
-            endGame(winner);
+            endGame(tied ? -1 : winner, Replay.END_TIME);
         }
     }
     
-    private void endGame(String winnerName) {
+    /** Ghế theo thứ hạng: người còn chơi theo điểm giảm dần (cùng điểm thì theo ghế), người đã thoát ở cuối. */
+    private Integer[] ranking() {
+        Integer[] order = new Integer[players.length];
+        for (int seat = 0; seat < order.length; seat++) order[seat] = seat;
+        Arrays.sort(order, (a, b) -> left[a] != left[b] ? Boolean.compare(left[a], left[b])
+                                                         : Integer.compare(scores[b], scores[a]));
+        return order;
+    }
+    
+    /** winnerSeat = -1 nghĩa là hòa; reason là lý do kết thúc ghi vào replay. */
+    private void endGame(int winnerSeat, byte reason) {
         gameEnded = true;
         if (gameTimer != null) {
             gameTimer.cancel();
         }
         
         long duration = (System.currentTimeMillis() - startTime) / 1000;
-        ClientHandler winnerHandler = null;
-        ClientHandler loserHandler = null;
-        
-        if (!winnerName.equals("DRAW")) {
-            if (winnerName.equals(player1.getUsername())) {
-                winnerHandler = player1;
-                loserHandler = player2;
-            } else {
-                winnerHandler = player2;
-                loserHandler = player1;
-            }
+        String winnerName = winnerSeat >= 0 ? players[winnerSeat].getUsername() : "DRAW";
+        int winnerId = winnerSeat >= 0 ? players[winnerSeat].getPlayerId() : -1;
+        
+        // Phòng 2 người giữ thứ tự player1/player2 như cũ; phòng nhiều người đưa hai người đứng đầu lên trước
+        Integer[] order = ranking();
+        int first = players.length == 2 ? 0 : order[0];
+        int second = players.length == 2 ? 1 : order[1];
+        List<ResultEvent.Participant> participants = new ArrayList<>();
+        for (int seat : order) {
+            participants.add(new ResultEvent.Participant(players[seat].getPlayerId(), players[seat].getUsername(),
+                                                         scores[seat], left[seat]));
+        }
+        
+        // Kết quả đi qua journal; luồng nền sẽ áp dụng xuống DB (điểm, leaderboard, lịch sử, rating).
+        // Rating tính ngay trong bộ nhớ để gửi kèm kết quả và gắn vào sự kiện trước khi ghi journal
+        ResultEvent result = players.length == 2
+                ? ResultEvent.gameEnd(difficulty, players[0], scores[0], players[1], scores[1], winnerId, (int)duration)
+                : ResultEvent.gameEnd(difficulty, participants, winnerId, (int)duration);
+        result.replayId = saveReplay(reason, winnerSeat);
+        Map<Integer, RatingEngine.Rating> ratings = Server.getRatings().record(result);
+        Server.getRatings().unpin(playerIds());
+        Server.getJournal().submit(result);
+        
+        List<Map<String, Object>> standings = new ArrayList<>();
+        for (int seat : order) {
+            Map<String, Object> standing = new HashMap<>();
+            standing.put("username", players[seat].getUsername());
+            standing.put("score", scores[seat]);
+            standing.put("left", left[seat]);
+            RatingEngine.Rating rating = ratings != null ? ratings.get(players[seat].getPlayerId()) : null;
+            if (rating != null) standing.put("rating", (int) Math.round(rating.rating));
+            standings.add(standing);
         }
         
         // Gửi kết quả
         Map<String, Object> endMsg = new HashMap<>();
         endMsg.put("type", Protocol.GAME_END);
         endMsg.put("winner", winnerName);
-        endMsg.put("player1", player1.getUsername());
-        endMsg.put("player2", player2.getUsername());
-        endMsg.put("player1Score", player1Score);
-        endMsg.put("player2Score", player2Score);
+        endMsg.put("player1", players[first].getUsername());
+        endMsg.put("player2", players[second].getUsername());
+        endMsg.put("player1Score", scores[first]);
+        endMsg.put("player2Score", scores[second]);
+        endMsg.put("players", standings);
         endMsg.put("duration", duration);
         
-        player1.sendMessage(endMsg);
-        player2.sendMessage(endMsg);
-        
-        // Cập nhật database
-        DatabaseManager db = Server.getDatabase();
-        if (winnerHandler != null) {
-            db.updatePlayerScore(winnerHandler.getPlayerId(), 
-                                winnerHandler == player1 ? player1Score : player2Score, true);
-            db.updatePlayerScore(loserHandler.getPlayerId(), 
-                                loserHandler == player1 ? player1Score : player2Score, false);
-            db.saveMatch(player1.getPlayerId(), player2.getPlayerId(), 
-                        winnerHandler.getPlayerId(), difficulty, 
-                        player1Score, player2Score, (int)duration);
-        } else {
-            // Draw
-            db.updatePlayerScore(player1.getPlayerId(), player1Score, false);
-            db.updatePlayerScore(player2.getPlayerId(), player2Score, false);
-            db.saveMatch(player1.getPlayerId(), player2.getPlayerId(), 
-                        -1, difficulty, player1Score, player2Score, (int)duration);
+        for (int seat = 0; seat < players.length; seat++) {
+            if (!left[seat]) players[seat].sendMessage(endMsg);
         }
+        spectators.publish(endMsg);
         
-        System.out.println("🏁 Game ended - Winner: " + winnerName + " | " + 
-                          player1.getUsername() + ": " + player1Score + " | " + 
-                          player2.getUsername() + ": " + player2Score);
+        StringBuilder summary = new StringBuilder("🏁 Game ended - Winner: " + winnerName);
+        for (int seat : order) {
+            summary.append(" | ").append(players[seat].getUsername()).append(": ")
+                   .append(left[seat] ? "left" : String.valueOf(scores[seat]));
+        }
+        System.out.println(summary);
         
-        player1.setInGame(false);
-        player2.setInGame(false);
+        for (int seat = 0; seat < players.length; seat++) {
+            if (!left[seat]) players[seat].setInGame(false);
+        }
     }
     
-    public void playerQuit(ClientHandler player) {
-        if (gameEnded) return;
+    public synchronized void playerQuit(ClientHandler player) {
+        int seat = seatOf(player);
+        if (gameEnded || seat < 0 || left[seat]) return;
+        
+        if (players.length > 2) {
+            leaveRoom(seat);
+            return;
+        }
         
         gameEnded = true;
         if (gameTimer != null) {
             gameTimer.cancel();
         }
         
-        ClientHandler opponent = (player == player1) ? player2 : player1;
+        int opponentSeat = 1 - seat;
+        ClientHandler opponent = players[opponentSeat];
+        // Để trình xem lại biết ai là người thoát
+        replay.leave(seat);
         
         Map<String, Object> quitMsg = new HashMap<>();
         quitMsg.put("type", Protocol.OPPONENT_QUIT);
         quitMsg.put("quitter", player.getUsername());
         opponent.sendMessage(quitMsg);
+        spectators.publish(quitMsg);
         
-        // Cập nhật quit count
-        DatabaseManager db = Server.getDatabase();
-        db.incrementQuitCount(player.getPlayerId());
+        // Cập nhật quit count (và ban nếu đủ số lần)
+        Server.getDiscipline().recordQuit(player);
         
-        // Opponent thắng
-        int opponentScore = (opponent == player1) ? player1Score : player2Score;
-        db.updatePlayerScore(opponent.getPlayerId(), Math.max(opponentScore, 100), true);
-        db.updatePlayerScore(player.getPlayerId(), 0, false);
+        // Opponent thắng; quit_count, điểm và leaderboard được ghi qua journal
+        int opponentScore = Math.max(scores[opponentSeat], 100);
+        ResultEvent result = ResultEvent.quit(difficulty, player, opponent, opponentScore);
+        result.replayId = saveReplay(Replay.END_QUIT, opponentSeat);
+        Server.getRatings().record(result);
+        Server.getRatings().unpin(playerIds());
+        Server.getJournal().submit(result);
         
         System.out.println("⚠ " + player.getUsername() + " quit the game");
         
@@ -307,15 +440,75 @@ public class GameRoom {
         opponent.setInGame(false);
     }
     
+    /**
+     * Phòng nhiều người: người thoát bị tính thua và quit_count ngay, những người còn lại chơi tiếp;
+     * chỉ còn một người thì người đó thắng.
+     */
+    private void leaveRoom(int seat) {
+        ClientHandler player = players[seat];
+        left[seat] = true;
+        remaining--;
+        replay.leave(seat);
+        scores[seat] = 0;
+        scoresDirty = true;
+        
+        Map<String, Object> leftMsg = new HashMap<>();
+        leftMsg.put("type", Protocol.PLAYER_LEFT);
+        leftMsg.put("player", player.getUsername());
+        for (int other = 0; other < players.length; other++) {
+            if (!left[other]) players[other].sendMessage(leftMsg);
+        }
+        spectators.publish(leftMsg);
+        
+        Server.getDiscipline().recordQuit(player);
+        Server.getJournal().submit(ResultEvent.leave(difficulty, player));
+        player.setInGame(false);
+        
+        System.out.println("⚠ " + player.getUsername() + " left the game (" + remaining + " players remaining)");
+        
+        if (remaining == 1) {
+            for (int other = 0; other < players.length; other++) {
+                if (!left[other]) endGame(other, Replay.END_LAST_PLAYER);
+            }
+        }
+    }
+    
+    /** Đóng replay và giao cho ReplayStore; trả về id replay, 0 nếu không có kho replay. */
+    private long saveReplay(byte reason, int winnerSeat) {
+        ReplayStore store = Server.getReplays();
+        if (store == null) return 0;
+        long replayId = store.store(replay.finish(reason, winnerSeat, scores));
+        System.out.println("🎞 Replay " + replayId + " recorded for room " + roomId);
+        return replayId;
+    }
+    
     public String getRoomId() {
         return roomId;
     }
     
-    public ClientHandler getPlayer1() {
-        return player1;
+    public List<ClientHandler> getPlayers() {
+        return Arrays.asList(players);
     }
     
-    public ClientHandler getPlayer2() {
-        return player2;
+    public SpectatorChannel getSpectators() {
+        return spectators;
+    }
+    
+    /** Lá đang chờ ghép và các câu trả lời gần nhất theo seq, để gửi lại khi client thử lại. */
+    private static class FlipState {
+        private static final int REMEMBERED = 16;
+        int pendingCard = -1;
+        long lastSeq = -1;
+        final Map<Long, Map<String, Object>> responses = new LinkedHashMap<Long, Map<String, Object>>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Map<String, Object>> eldest) {
+                return size() > REMEMBERED;
+            }
+        };
+        
+        void remember(long seq, Map<String, Object> message) {
+            message.put("seq", seq);
+            responses.put(seq, message);
+        }
     }
-}
\ No newline at end of file
+}
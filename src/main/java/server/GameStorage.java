@@ -0,0 +1,89 @@
+package server;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lớp lưu trữ của server: người chơi, thống kê, lịch sử đấu và leaderboard.
+ * DatabaseManager là bản MySQL; ShardedStorage chia người chơi ra nhiều schema MySQL;
+ * FileStorage là bản nhúng chạy trong cùng process, dùng cho load test / CI khi không có MySQL.
+ */
+public interface GameStorage {
+
+    boolean registerPlayer(String username, String password);
+
+    /** Trả về thông tin người chơi nếu đăng nhập hợp lệ, null nếu sai hoặc bị ban. */
+    Map<String, Object> loginPlayer(String username, String password);
+
+    void updatePlayerScore(int playerId, int scoreToAdd, boolean won);
+
+    /** Tăng số lần thoát trận và ban luôn nếu đạt banThreshold, như một thao tác nguyên tử. */
+    void incrementQuitCount(int playerId, int banThreshold);
+
+    void banPlayer(int playerId);
+
+    /** Trả về id của trận vừa lưu, hoặc -1 nếu lỗi. */
+    int saveMatch(int player1Id, int player2Id, int winnerId,
+                  String difficulty, int p1Score, int p2Score, int duration,
+                  Timestamp createdAt);
+
+    List<Map<String, Object>> getLeaderboard(int limit);
+
+    void recordLeaderboardResult(int playerId, String difficulty, int score, boolean won,
+                                 LocalDate dayStart, LocalDate weekStart);
+
+    List<Map<String, Object>> getBucketLeaderboard(String period, LocalDate bucketStart,
+                                                   String difficulty, int limit);
+
+    int compactLeaderboardBuckets(String period, LocalDate olderThan);
+
+    /** Một trang lịch sử đấu, mới nhất trước, bắt đầu ngay sau cursor (null = trang đầu); null nếu không đọc được. */
+    List<Map<String, Object>> getPlayerMatchHistory(int playerId, HistoryCursor cursor, int limit);
+
+    /**
+     * Áp dụng một kết quả trận đã được journal (điểm, quit/ban, leaderboard, lịch sử) một cách
+     * idempotent theo eventId. Trả về id trận vừa lưu, hoặc -1 nếu không có/đã áp dụng trước đó.
+     * Ném SQLException khi backend không ghi được, để journal giữ sự kiện lại và thử sau.
+     */
+    int applyResultEvent(ResultEvent event) throws SQLException;
+
+    /** Rating đã lưu của một người chơi (xem RatingEngine), null nếu không có người chơi này. */
+    RatingEngine.Rating loadRating(int playerId);
+
+    /**
+     * Ghi một lô rating trong một transaction. Bản ghi có rated_games nhỏ hơn bản đã lưu bị bỏ qua,
+     * để bước cuối kỳ chạy song song không đè lên rating vừa được ghi sau một ván.
+     */
+    void saveRatings(List<RatingEngine.Rating> ratings) throws SQLException;
+
+    /** Rating của mọi người chơi đã có ít nhất một ván tính rating, cho bước cuối kỳ rating. */
+    List<RatingEngine.Rating> loadRatings() throws SQLException;
+
+    /** Leaderboard theo rating, chỉ gồm người có RD không quá maxRd. */
+    List<Map<String, Object>> getRatingLeaderboard(int limit, double maxRd);
+
+    /** Kiểm tra nhanh backend có đang truy cập được không. */
+    boolean isAvailable();
+
+    void verifyDatabaseIntegrity();
+
+    /** Một dòng thống kê cho log định kỳ của server (vd. tỉ lệ đọc replica/primary). */
+    String getStats();
+
+    void close();
+
+    /** Chọn backend theo -Dstorage=mysql|file (mặc định mysql). */
+    static GameStorage create() {
+        String backend = System.getProperty("storage", "mysql");
+        if ("file".equalsIgnoreCase(backend)) {
+            return new FileStorage(System.getProperty("storage.dir", "data"));
+        }
+        if ("sharded".equalsIgnoreCase(backend)) {
+            return ShardedStorage.fromSystemProperties();
+        }
+        return new DatabaseManager();
+    }
+}
@@ -0,0 +1,48 @@
+package server;
+
+import common.BoardConfig;
+import java.util.*;
+
+/**
+ * Lời mời vào phòng nhiều người: phòng chỉ được tạo khi mọi người được mời đã đồng ý,
+ * một người từ chối thì cả lời mời bị hủy. Lời mời chưa trả lời sau EXPIRY_MILLIS bị bỏ.
+ */
+public class GroupChallenge {
+    static final long EXPIRY_MILLIS = 2 * 60 * 1000;
+
+    public final String id;
+    public final String host;
+    public final BoardConfig board;
+    private final List<String> invited;
+    private final Set<String> accepted = new HashSet<>();
+    private final long createdAt = System.currentTimeMillis();
+
+    public GroupChallenge(String host, List<String> invited, BoardConfig board) {
+        this.id = UUID.randomUUID().toString();
+        this.host = host;
+        this.invited = new ArrayList<>(invited);
+        this.board = board;
+    }
+
+    /** Chủ phòng trước, rồi tới những người được mời theo thứ tự mời. */
+    public List<String> getPlayers() {
+        List<String> players = new ArrayList<>();
+        players.add(host);
+        players.addAll(invited);
+        return players;
+    }
+
+    public boolean isInvited(String username) {
+        return invited.contains(username);
+    }
+
+    /** Trả về true khi người cuối cùng vừa đồng ý. */
+    public synchronized boolean accept(String username) {
+        accepted.add(username);
+        return accepted.containsAll(invited);
+    }
+
+    public boolean isExpired() {
+        return System.currentTimeMillis() - createdAt > EXPIRY_MILLIS;
+    }
+}
@@ -0,0 +1,61 @@
+package server;
+
+import java.util.Map;
+
+/**
+ * Cursor cho phân trang lịch sử đấu theo keyset (created_at, id).
+ * Dạng chuỗi gửi cho client là "createdAtMillis:id"; trang kế tiếp lấy các trận
+ * cũ hơn hẳn vị trí này nên không bị trùng hay sót khi có trận mới được ghi thêm.
+ */
+public final class HistoryCursor {
+    public static final int DEFAULT_PAGE_SIZE = 20;
+    public static final int MAX_PAGE_SIZE = 50;
+
+    private final long createdAt;
+    private final int matchId;
+
+    public HistoryCursor(long createdAt, int matchId) {
+        this.createdAt = createdAt;
+        this.matchId = matchId;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public int getMatchId() {
+        return matchId;
+    }
+
+    /** Trận (createdAt, id) có nằm sau cursor này theo thứ tự mới -> cũ không. */
+    public boolean isBefore(long otherCreatedAt, int otherId) {
+        return otherCreatedAt < createdAt || (otherCreatedAt == createdAt && otherId < matchId);
+    }
+
+    public String encode() {
+        return createdAt + ":" + matchId;
+    }
+
+    public static HistoryCursor of(Map<String, Object> match) {
+        return new HistoryCursor(((java.sql.Timestamp) match.get("created_at")).getTime(),
+                                 (int) match.get("id"));
+    }
+
+    /** Trả về null nếu cursor rỗng hoặc sai định dạng (coi như trang đầu). */
+    public static HistoryCursor parse(String value) {
+        if (value == null || value.isEmpty()) return null;
+        int sep = value.indexOf(':');
+        if (sep <= 0) return null;
+        try {
+            return new HistoryCursor(Long.parseLong(value.substring(0, sep)),
+                                     Integer.parseInt(value.substring(sep + 1)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public static int clampPageSize(int pageSize) {
+        if (pageSize <= 0) return DEFAULT_PAGE_SIZE;
+        return Math.min(pageSize, MAX_PAGE_SIZE);
+    }
+}
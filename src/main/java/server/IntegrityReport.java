@@ -0,0 +1,99 @@
+package server;
+
+import java.util.*;
+
+/**
+ * Kết quả của DatabaseManager.checkIntegrity: mỗi kiểm tra có số lỗi tìm thấy, số đã sửa,
+ * vài mẫu để tra cứu và thời gian chạy. Các kiểm tra chạy song song nên mọi thao tác đều đồng bộ.
+ */
+public class IntegrityReport {
+    private static final int MAX_SAMPLES = 5;
+
+    public static class Check {
+        public final String name;
+        private final List<String> samples = new ArrayList<>();
+        private long issues;
+        private long repaired;
+        private long millis;
+        private String error;
+
+        Check(String name) {
+            this.name = name;
+        }
+
+        synchronized void addIssue(String sample) {
+            issues++;
+            if (samples.size() < MAX_SAMPLES) samples.add(sample);
+        }
+
+        synchronized void addRepaired(long count) {
+            repaired += count;
+        }
+
+        synchronized void finish(long millis, String error) {
+            this.millis = millis;
+            this.error = error;
+        }
+
+        public synchronized long getIssues() {
+            return issues;
+        }
+
+        public synchronized long getRepaired() {
+            return repaired;
+        }
+
+        public synchronized String getError() {
+            return error;
+        }
+
+        synchronized String describe() {
+            String status;
+            if (error != null) {
+                status = "✗ failed: " + error;
+            } else if (issues == 0) {
+                status = "✓";
+            } else {
+                status = "⚠ " + issues + " found" + (repaired > 0 ? ", " + repaired + " repaired" : "") +
+                         " (e.g. " + String.join("; ", samples) + ")";
+            }
+            return String.format("  %-24s %6dms %s", name, millis, status);
+        }
+    }
+
+    private final String schema;
+    private final boolean repair;
+    private final List<Check> checks = new ArrayList<>();
+
+    public IntegrityReport(String schema, boolean repair) {
+        this.schema = schema;
+        this.repair = repair;
+    }
+
+    synchronized Check check(String name) {
+        Check check = new Check(name);
+        checks.add(check);
+        return check;
+    }
+
+    public synchronized List<Check> getChecks() {
+        return new ArrayList<>(checks);
+    }
+
+    public synchronized boolean isClean() {
+        for (Check check : checks) {
+            if (check.getError() != null || check.getIssues() > check.getRepaired()) return false;
+        }
+        return true;
+    }
+
+    public synchronized void print() {
+        System.out.println("=== Integrity check " + schema + " (repair " + (repair ? "on" : "off") + ") ===");
+        for (Check check : checks) {
+            System.out.println(check.describe());
+        }
+        if (!isClean() && !repair) {
+            System.out.println("  Run with -Ddb.integrity.repair=true to fix the issues above");
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package server;
+
+import common.Protocol;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.TemporalAdjusters;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Leaderboard theo ngày, tuần và theo độ khó, cùng bảng theo rating (RatingEngine).
+ * Mỗi kết quả trận được cộng dồn vào bucket của kỳ chứa thời điểm kết thúc trận, nên khi sang ngày/tuần mới
+ * chỉ đơn giản là bắt đầu ghi vào bucket mới, không phải tính lại gì cả.
+ * Các bucket đã hết hạn được dọn định kỳ ở background.
+ */
+public class LeaderboardService {
+    public static final LocalDate ALL_TIME_BUCKET = LocalDate.of(1970, 1, 1);
+
+    // Giữ lại vài kỳ cũ để còn xem "hôm qua", "tuần trước"
+    private static final int DAILY_RETENTION_DAYS = 14;
+    private static final int WEEKLY_RETENTION_WEEKS = 8;
+
+    private final GameStorage database;
+    private final ZoneId zone;
+    private final ScheduledExecutorService compactor;
+
+    public LeaderboardService(GameStorage database) {
+        this.database = database;
+        this.zone = ZoneId.systemDefault();
+        this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "leaderboard-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(this::compactExpiredBuckets, 1, 60, TimeUnit.MINUTES);
+    }
+
+    public List<Map<String, Object>> getLeaderboard(String period, String difficulty, int limit) {
+        if (Protocol.PERIOD_RATING.equals(period)) {
+            // Rating là một con số chung cho mọi độ khó
+            return database.getRatingLeaderboard(limit, RatingEngine.RANKED_MAX_RD);
+        }
+        if (Protocol.PERIOD_ALL_TIME.equals(period) && Protocol.ALL_DIFFICULTIES.equals(difficulty)) {
+            return database.getLeaderboard(limit);
+        }
+        LocalDate start = bucketStart(period, LocalDate.now(zone));
+        return database.getBucketLeaderboard(period, start, difficulty, limit);
+    }
+
+    /**
+     * Chạy trước các truy vấn leaderboard phổ biến lúc khởi động, để index và trang dữ liệu
+     * đã nằm trong buffer pool trước khi người chơi đầu tiên mở bảng xếp hạng.
+     */
+    public void warmUp() {
+        for (String period : new String[]{Protocol.PERIOD_DAILY, Protocol.PERIOD_WEEKLY, Protocol.PERIOD_ALL_TIME}) {
+            for (String difficulty : new String[]{Protocol.ALL_DIFFICULTIES, Protocol.EASY, Protocol.MEDIUM,
+                                                  Protocol.HARD}) {
+                getLeaderboard(period, difficulty, 10);
+            }
+        }
+    }
+
+    private void compactExpiredBuckets() {
+        LocalDate today = LocalDate.now(zone);
+        int days = database.compactLeaderboardBuckets(Protocol.PERIOD_DAILY,
+                                                      today.minusDays(DAILY_RETENTION_DAYS));
+        int weeks = database.compactLeaderboardBuckets(Protocol.PERIOD_WEEKLY,
+                                                       bucketStart(Protocol.PERIOD_WEEKLY, today)
+                                                           .minusWeeks(WEEKLY_RETENTION_WEEKS));
+        if (days + weeks > 0) {
+            System.out.println("🧹 Compacted leaderboard buckets: " + days + " daily, " + weeks + " weekly");
+        }
+    }
+
+    /** Ngày (theo múi giờ server) của một thời điểm, dùng để chọn bucket khi áp dụng kết quả. */
+    public static LocalDate dayOf(long epochMillis) {
+        return Instant.ofEpochMilli(epochMillis).atZone(ZoneId.systemDefault()).toLocalDate();
+    }
+
+    public static LocalDate bucketStart(String period, LocalDate day) {
+        switch (period) {
+            case Protocol.PERIOD_DAILY: return day;
+            case Protocol.PERIOD_WEEKLY: return day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            default: return ALL_TIME_BUCKET;
+        }
+    }
+
+    public static boolean isValidPeriod(String period) {
+        return Protocol.PERIOD_DAILY.equals(period) || Protocol.PERIOD_WEEKLY.equals(period)
+            || Protocol.PERIOD_ALL_TIME.equals(period) || Protocol.PERIOD_RATING.equals(period);
+    }
+
+    public static boolean isValidDifficulty(String difficulty) {
+        return Protocol.EASY.equals(difficulty) || Protocol.MEDIUM.equals(difficulty)
+            || Protocol.HARD.equals(difficulty) || Protocol.ALL_DIFFICULTIES.equals(difficulty);
+    }
+
+    public void shutdown() {
+        compactor.shutdownNow();
+    }
+}
@@ -0,0 +1,416 @@
+package server;
+
+import java.io.*;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Lưu trữ các partition tháng cũ của match_history ra file nén.
+ * Mỗi ngày job nền: thêm partition cho các tháng sắp tới, rồi với mỗi partition cũ hơn
+ * history.liveMonths tháng thì stream ra archive/{schema}/match_history_pYYYYMM.jsonl.gz và DROP nó.
+ * Khi người chơi lật lịch sử tới quá phần còn trong DB, getHistory() đọc tiếp từ các file này.
+ * Cạnh mỗi file có một index nhỏ (.idx: thời điểm trận cũ/mới nhất và tập id người chơi), nên chỉ
+ * giải nén những tháng thật sự có trận của người đó, cũ hơn cursor.
+ * Trận nhiều người mang thêm "seats" (mọi người chơi theo thứ hạng, từ match_participants); các dòng
+ * match_participants của tháng đã lưu trữ được xóa khỏi DB cùng với partition.
+ */
+public class MatchArchive {
+    private static final int DEFAULT_LIVE_MONTHS = 6;
+    private static final String PREFIX = "match_history_";
+    private static final String SUFFIX = ".jsonl.gz";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    /** Nhận từng trận đã lưu trữ (dòng JSON của file archive), xem forEachArchivedMatch. */
+    public interface RowHandler {
+        void accept(JSONObject row) throws IOException;
+    }
+
+    /** Index của một file archive: khoảng thời gian và các người chơi có trận trong file. */
+    private static class Index {
+        final long minAt;
+        final long maxAt;
+        final BitSet players;
+
+        Index(long minAt, long maxAt, BitSet players) {
+            this.minAt = minAt;
+            this.maxAt = maxAt;
+            this.players = players;
+        }
+    }
+
+    private final DatabaseManager database;
+    private final File directory;
+    private final int liveMonths;
+    private final ScheduledExecutorService scheduler;
+    // Mỗi file đã đọc: playerId -> các trận, mới nhất trước; giữ bằng SoftReference vì chỉ dùng khi lật rất xa
+    private final Map<String, SoftReference<Map<Integer, List<Map<String, Object>>>>> loaded =
+            new ConcurrentHashMap<>();
+    // Index nhỏ (một bit mỗi id người chơi) nên giữ luôn
+    private final Map<String, Index> indexes = new ConcurrentHashMap<>();
+
+    /** Thư mục archive của một schema (-Dhistory.archive.dir, mặc định archive/{schema}). */
+    static File directoryFor(String dbName) {
+        return new File(System.getProperty("history.archive.dir", "archive"), dbName);
+    }
+
+    public MatchArchive(DatabaseManager database, File directory) {
+        this.database = database;
+        this.directory = directory;
+        this.liveMonths = Integer.getInteger("history.liveMonths", DEFAULT_LIVE_MONTHS);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "match-archiver");
+            t.setDaemon(true);
+            return t;
+        });
+        directory.mkdirs();
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::runMaintenance, 1, 24 * 60, TimeUnit.MINUTES);
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void runMaintenance() {
+        try (Connection c = database.openConnection()) {
+            database.ensureFuturePartitions(c);
+            long cutoff = monthStart(YearMonth.now(ZoneOffset.UTC).minusMonths(liveMonths));
+            for (Map.Entry<String, Long> partition : database.listPartitions(c).entrySet()) {
+                if (partition.getValue() <= cutoff) {
+                    archivePartition(c, partition.getKey(), partition.getValue());
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("✗ Match history archival failed:");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Ghi partition ra file tạm, đổi tên khi đã ghi xong, rồi mới DROP. Chạy lại vẫn an toàn.
+     * upperBound: mốc trên của partition (giây UTC).
+     */
+    private void archivePartition(Connection c, String partition, long upperBound) throws SQLException, IOException {
+        File target = new File(directory, PREFIX + partition + SUFFIX);
+        File temp = new File(directory, target.getName() + ".tmp");
+        // Ghế của các trận nhiều người trong tháng (ít hơn nhiều so với số trận), theo thứ hạng
+        Map<Integer, JSONArray> seats = new HashMap<>();
+        String seatSql = "SELECT mp.match_id, mp.player_id, mp.score, mp.left_early, p.username " +
+                        "FROM match_history PARTITION (" + partition + ") m " +
+                        "JOIN match_participants mp ON mp.match_id = m.id AND mp.created_at = m.created_at " +
+                        "LEFT JOIN players p ON p.id = mp.player_id " +
+                        "ORDER BY mp.match_id, mp.placement";
+        try (Statement stmt = c.createStatement(); ResultSet rs = stmt.executeQuery(seatSql)) {
+            while (rs.next()) {
+                JSONObject seat = new JSONObject();
+                seat.put("id", rs.getInt("player_id"));
+                seat.put("name", rs.getString("username"));
+                seat.put("score", rs.getInt("score"));
+                seat.put("left", rs.getBoolean("left_early"));
+                seats.computeIfAbsent(rs.getInt("match_id"), k -> new JSONArray()).put(seat);
+            }
+        }
+        String sql = "SELECT m.id, m.player1_id, m.player2_id, m.winner_id, m.difficulty, m.player1_score, " +
+                    "m.player2_score, m.duration, m.created_at, m.replay_id, p1.username AS p1_name, " +
+                    "p2.username AS p2_name " +
+                    "FROM match_history PARTITION (" + partition + ") m " +
+                    "LEFT JOIN players p1 ON p1.id = m.player1_id " +
+                    "LEFT JOIN players p2 ON p2.id = m.player2_id";
+        long rows = 0;
+        long minAt = Long.MAX_VALUE;
+        long maxAt = Long.MIN_VALUE;
+        BitSet players = new BitSet();
+        try (Statement stmt = c.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            stmt.setFetchSize(Integer.MIN_VALUE);
+            try (ResultSet rs = stmt.executeQuery(sql);
+                 FileOutputStream file = new FileOutputStream(temp);
+                 GZIPOutputStream gzip = new GZIPOutputStream(file);
+                 Writer out = new BufferedWriter(new OutputStreamWriter(gzip, StandardCharsets.UTF_8))) {
+                while (rs.next()) {
+                    JSONObject row = new JSONObject();
+                    row.put("id", rs.getInt("id"));
+                    row.put("p1", rs.getInt("player1_id"));
+                    row.put("p2", rs.getInt("player2_id"));
+                    int winnerId = rs.getInt("winner_id");
+                    row.put("winner", rs.wasNull() ? -1 : winnerId);
+                    row.put("difficulty", rs.getString("difficulty"));
+                    row.put("s1", rs.getInt("player1_score"));
+                    row.put("s2", rs.getInt("player2_score"));
+                    row.put("duration", rs.getInt("duration"));
+                    long at = rs.getTimestamp("created_at").getTime();
+                    row.put("at", at);
+                    minAt = Math.min(minAt, at);
+                    maxAt = Math.max(maxAt, at);
+                    players.set(rs.getInt("player1_id"));
+                    players.set(rs.getInt("player2_id"));
+                    row.put("p1Name", rs.getString("p1_name"));
+                    row.put("p2Name", rs.getString("p2_name"));
+                    long replayId = rs.getLong("replay_id");
+                    if (replayId != 0) row.put("replay", replayId);
+                    JSONArray matchSeats = seats.get(rs.getInt("id"));
+                    if (matchSeats != null) {
+                        row.put("seats", matchSeats);
+                        for (int i = 0; i < matchSeats.length(); i++) {
+                            players.set(matchSeats.getJSONObject(i).getInt("id"));
+                        }
+                    }
+                    out.write(row.toString());
+                    out.write('\n');
+                    rows++;
+                }
+                out.flush();
+                gzip.finish();
+                file.getFD().sync();
+            }
+        }
+        // Index trước, file dữ liệu sau: file dữ liệu đã có thì index của nó cũng đã có
+        writeIndex(target.getName(), new Index(minAt, maxAt, players));
+        rename(temp, target);
+        loaded.remove(target.getName());
+        try (Statement stmt = c.createStatement()) {
+            stmt.execute("ALTER TABLE match_history DROP PARTITION " + partition);
+        }
+        // Sau DROP, xóa theo lô; chết giữa chừng thì lần lưu trữ tháng sau xóa nốt (mọi dòng cũ hơn mốc trên)
+        long seatRows = 0;
+        try (PreparedStatement pstmt = c.prepareStatement(
+                "DELETE FROM match_participants WHERE created_at < FROM_UNIXTIME(?) LIMIT 10000")) {
+            pstmt.setLong(1, upperBound);
+            int deleted;
+            do {
+                deleted = pstmt.executeUpdate();
+                seatRows += deleted;
+            } while (deleted > 0);
+        }
+        System.out.println("✓ Archived match_history partition " + partition + " (" + rows + " matches, " +
+                           seatRows + " participant rows) to " + target.getPath());
+    }
+
+    private static void rename(File from, File to) throws IOException {
+        if (!from.renameTo(to)) {
+            to.delete();
+            if (!from.renameTo(to)) {
+                throw new IOException("cannot rename " + from + " to " + to);
+            }
+        }
+    }
+
+    private void writeIndex(String name, Index index) throws IOException {
+        File target = new File(directory, name + INDEX_SUFFIX);
+        File temp = new File(directory, target.getName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeLong(index.minAt);
+            out.writeLong(index.maxAt);
+            long[] words = index.players.toLongArray();
+            out.writeInt(words.length);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        rename(temp, target);
+        indexes.put(name, index);
+    }
+
+    /** Index của file archive; file cũ chưa có index thì đọc một lần để dựng và ghi lại. */
+    private Index index(String name) throws IOException {
+        Index index = indexes.get(name);
+        if (index != null) return index;
+        File file = new File(directory, name + INDEX_SUFFIX);
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                long minAt = in.readLong();
+                long maxAt = in.readLong();
+                long[] words = new long[in.readInt()];
+                for (int i = 0; i < words.length; i++) {
+                    words[i] = in.readLong();
+                }
+                index = new Index(minAt, maxAt, BitSet.valueOf(words));
+            }
+            indexes.put(name, index);
+            return index;
+        }
+
+        long minAt = Long.MAX_VALUE;
+        long maxAt = Long.MIN_VALUE;
+        BitSet players = new BitSet();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(new File(directory, name))), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                JSONObject row = new JSONObject(line);
+                minAt = Math.min(minAt, row.getLong("at"));
+                maxAt = Math.max(maxAt, row.getLong("at"));
+                players.set(row.getInt("p1"));
+                players.set(row.getInt("p2"));
+                JSONArray seats = row.optJSONArray("seats");
+                for (int i = 0; seats != null && i < seats.length(); i++) {
+                    players.set(seats.getJSONObject(i).getInt("id"));
+                }
+            }
+        }
+        index = new Index(minAt, maxAt, players);
+        writeIndex(name, index);
+        System.out.println("✓ Built index for match archive " + name);
+        return index;
+    }
+
+    public boolean hasArchives() {
+        String[] names = directory.list((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        return names != null && names.length > 0;
+    }
+
+    /**
+     * Trang lịch sử từ các file archive, mới nhất trước, sau cursor (null = từ trận mới nhất).
+     * Cùng định dạng dòng với DatabaseManager.getPlayerMatchHistory.
+     */
+    public List<Map<String, Object>> getHistory(int playerId, HistoryCursor cursor, int limit) {
+        List<Map<String, Object>> page = new ArrayList<>();
+        String[] names = directory.list((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (names == null) return page;
+        Arrays.sort(names, Collections.reverseOrder());
+        for (String name : names) {
+            try {
+                Index index = index(name);
+                // Tháng không có trận của người này, hoặc mọi trận đều không cũ hơn cursor: không giải nén
+                if (!index.players.get(playerId)) continue;
+                if (cursor != null && index.minAt > cursor.getCreatedAt()) continue;
+            } catch (IOException e) {
+                System.err.println("✗ Cannot read index of match archive " + name + ": " + e.getMessage());
+            }
+            for (Map<String, Object> match : load(name).getOrDefault(playerId, Collections.emptyList())) {
+                if (cursor != null && !cursor.isBefore(((Timestamp) match.get("created_at")).getTime(),
+                                                       (int) match.get("id"))) continue;
+                page.add(new HashMap<>(match));
+                if (page.size() >= limit) return page;
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Số trận thắng và số trận đã chơi ({won, played}) của từng người chơi trong toàn bộ archive.
+     * Đọc stream từng file, không đưa vào cache của getHistory().
+     */
+    public Map<Integer, int[]> countResults() throws IOException {
+        Map<Integer, int[]> counts = new HashMap<>();
+        String[] names = directory.list((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (names == null) return counts;
+        for (String name : names) {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(new FileInputStream(new File(directory, name))), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    JSONObject row = new JSONObject(line);
+                    int winnerId = row.getInt("winner");
+                    for (int playerId : new int[]{row.getInt("p1"), row.getInt("p2")}) {
+                        int[] count = counts.computeIfAbsent(playerId, k -> new int[2]);
+                        if (playerId == winnerId) count[0]++;
+                        count[1]++;
+                    }
+                    // Từ hạng 3 trở xuống: luôn là một trận đã chơi, không thắng
+                    JSONArray seats = row.optJSONArray("seats");
+                    for (int i = 2; seats != null && i < seats.length(); i++) {
+                        counts.computeIfAbsent(seats.getJSONObject(i).getInt("id"), k -> new int[2])[1]++;
+                    }
+                }
+            }
+        }
+        return counts;
+    }
+
+    /** Đọc stream mọi trận trong archive, tháng cũ trước (cho BulkTransfer), không đưa vào cache. */
+    public void forEachArchivedMatch(RowHandler handler) throws IOException {
+        String[] names = directory.list((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (names == null) return;
+        Arrays.sort(names);
+        for (String name : names) {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(new FileInputStream(new File(directory, name))), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    handler.accept(new JSONObject(line));
+                }
+            }
+        }
+    }
+
+    private Map<Integer, List<Map<String, Object>>> load(String name) {
+        SoftReference<Map<Integer, List<Map<String, Object>>>> ref = loaded.get(name);
+        Map<Integer, List<Map<String, Object>>> byPlayer = ref != null ? ref.get() : null;
+        if (byPlayer != null) return byPlayer;
+
+        byPlayer = new HashMap<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(new File(directory, name))), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                JSONObject row = new JSONObject(line);
+                byPlayer.computeIfAbsent(row.getInt("p1"), k -> new ArrayList<>()).add(toHistoryRow(row, true));
+                byPlayer.computeIfAbsent(row.getInt("p2"), k -> new ArrayList<>()).add(toHistoryRow(row, false));
+                JSONArray seats = row.optJSONArray("seats");
+                for (int i = 2; seats != null && i < seats.length(); i++) {
+                    JSONObject seat = seats.getJSONObject(i);
+                    byPlayer.computeIfAbsent(seat.getInt("id"), k -> new ArrayList<>()).add(toSeatRow(row, seat));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("✗ Cannot read match archive " + name + ": " + e.getMessage());
+        }
+        Comparator<Map<String, Object>> newestFirst = Comparator
+                .comparing((Map<String, Object> m) -> (Timestamp) m.get("created_at"))
+                .thenComparing(m -> (Integer) m.get("id"))
+                .reversed();
+        byPlayer.values().forEach(list -> list.sort(newestFirst));
+        loaded.put(name, new SoftReference<>(byPlayer));
+        return byPlayer;
+    }
+
+    private static Map<String, Object> toHistoryRow(JSONObject row, boolean asPlayer1) {
+        int me = row.getInt(asPlayer1 ? "p1" : "p2");
+        int winnerId = row.getInt("winner");
+        Map<String, Object> match = new HashMap<>();
+        match.put("id", row.getInt("id"));
+        String opponent = row.optString(asPlayer1 ? "p2Name" : "p1Name", null);
+        if (opponent != null) {
+            match.put("opponent", opponent);
+        } else {
+            match.put("opponent_id", row.getInt(asPlayer1 ? "p2" : "p1"));
+        }
+        match.put("result", winnerId <= 0 ? "DRAW" : (winnerId == me ? "WIN" : "LOSS"));
+        match.put("difficulty", row.getString("difficulty"));
+        match.put("my_score", row.getInt(asPlayer1 ? "s1" : "s2"));
+        match.put("opponent_score", row.getInt(asPlayer1 ? "s2" : "s1"));
+        match.put("duration", row.getInt("duration"));
+        match.put("created_at", new Timestamp(row.getLong("at")));
+        if (row.has("replay")) match.put("replay_id", row.getLong("replay"));
+        return match;
+    }
+
+    /** Người đứng từ hạng 3 trở xuống của trận nhiều người: đối thủ hiển thị là người đứng đầu. */
+    private static Map<String, Object> toSeatRow(JSONObject row, JSONObject seat) {
+        Map<String, Object> match = toHistoryRow(row, false);
+        int me = seat.getInt("id");
+        int winnerId = row.getInt("winner");
+        match.put("result", winnerId <= 0 ? "DRAW" : (winnerId == me ? "WIN" : "LOSS"));
+        match.put("my_score", seat.getInt("score"));
+        match.put("opponent_score", row.getInt("s1"));
+        return match;
+    }
+
+    static long monthStart(YearMonth month) {
+        return month.atDay(1).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+    }
+}
@@ -0,0 +1,304 @@
+package server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLNonTransientException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONObject;
+
+/**
+ * Journal cục bộ (append-only) cho kết quả trận.
+ * GameRoom chỉ ghi sự kiện vào một file được cấp phát trước và map vào bộ nhớ rồi đi tiếp,
+ * không bao giờ chờ DB. Một luồng nền đọc lần lượt các sự kiện và áp dụng xuống DB;
+ * nếu DB đang lỗi thì circuit breaker mở và sự kiện nằm chờ trong file cho tới khi DB trở lại.
+ * Sự kiện bị DB từ chối hẳn (vi phạm ràng buộc, dữ liệu sai...) được chuyển sang results.deadletter
+ * để không chặn các sự kiện phía sau.
+ *
+ * Record không force xuống đĩa từng cái: luồng nền force theo lô mỗi FORCE_MILLIS (-Djournal.forceMillis),
+ * nên server chết vẫn không mất gì (page cache), chỉ mất điện mới có thể mất các record trong khoảng đó.
+ *
+ * Định dạng file: [magic:int][reserved:int][appliedOffset:long] rồi tới các record
+ * [length:int][JSON UTF-8]. length được ghi sau cùng, nên length == 0 nghĩa là hết dữ liệu.
+ */
+public class MatchJournal {
+    private static final int MAGIC = 0x4D4A524E; // "MJRN"
+    private static final int HEADER_SIZE = 16;
+    private static final int APPLIED_OFFSET_POS = 8;
+    private static final int INITIAL_SIZE = 8 * 1024 * 1024;
+    // Khi đã áp dụng hết, chỉ quay lại đầu file nếu đã dùng quá ngưỡng này
+    private static final int RESET_THRESHOLD = 1024 * 1024;
+    private static final long IDLE_PROBE_MILLIS = 5_000;
+    private static final long FORCE_MILLIS = Long.getLong("journal.forceMillis", 20);
+
+    private final GameStorage database;
+    private final CircuitBreaker breaker;
+    private final RecentMatchCache recentMatches;
+    private final RatingEngine ratings;
+    private final File deadLetters;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int writeOffset;
+    private int appliedOffset;
+    private long lastEventId;
+    // Vùng đã ghi nhưng chưa force xuống đĩa
+    private int unforcedFrom = Integer.MAX_VALUE;
+    private int unforcedTo;
+    private volatile boolean running = true;
+    private final Thread replayer;
+    private final ScheduledExecutorService syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "match-journal-sync");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public MatchJournal(GameStorage database, CircuitBreaker breaker, RecentMatchCache recentMatches,
+                        RatingEngine ratings, File directory) throws IOException {
+        this.database = database;
+        this.breaker = breaker;
+        this.recentMatches = recentMatches;
+        this.ratings = ratings;
+        directory.mkdirs();
+        deadLetters = new File(directory, "results.deadletter");
+        file = new RandomAccessFile(new File(directory, "results.journal"), "rw");
+        if (file.length() < INITIAL_SIZE) {
+            file.setLength(INITIAL_SIZE);
+        }
+        channel = file.getChannel();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+
+        if (buffer.getInt(0) != MAGIC) {
+            buffer.putInt(0, MAGIC);
+            buffer.putLong(APPLIED_OFFSET_POS, HEADER_SIZE);
+        }
+        appliedOffset = (int) buffer.getLong(APPLIED_OFFSET_POS);
+        writeOffset = appliedOffset;
+        int pending = 0;
+        int length;
+        while (writeOffset + 4 <= buffer.capacity() && (length = buffer.getInt(writeOffset)) > 0
+               && writeOffset + 4 + length <= buffer.capacity()) {
+            writeOffset += 4 + length;
+            pending++;
+        }
+        if (pending > 0) {
+            System.out.println("⚠ Match journal has " + pending + " unapplied result(s), replaying");
+        }
+
+        replayer = new Thread(this::replayLoop, "match-journal-replayer");
+        replayer.setDaemon(true);
+        replayer.start();
+        syncer.scheduleWithFixedDelay(this::forcePending, FORCE_MILLIS, FORCE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Ghi sự kiện vào journal; trả về ngay, không chạm tới DB. */
+    public synchronized void submit(ResultEvent event) {
+        // Id tăng dần và gắn với thời gian, để vẫn duy nhất sau khi journal quay về đầu file
+        lastEventId = Math.max(lastEventId + 1, System.currentTimeMillis() * 1000);
+        event.eventId = lastEventId;
+
+        byte[] payload = event.toJSON().toString().getBytes(StandardCharsets.UTF_8);
+        int recordSize = 4 + payload.length;
+        try {
+            ensureCapacity(writeOffset + recordSize + 4);
+        } catch (IOException e) {
+            // Không ghi thẳng xuống DB từ luồng ván đấu: cất riêng để áp dụng lại bằng tay
+            System.err.println("✗ Match journal is full (" + e.getMessage() + "), result " + event.eventId +
+                               " moved to " + deadLetters.getName());
+            deadLetter(event.toJSON().toString(), "journal full");
+            ratings.persisted(event);
+            return;
+        }
+
+        for (int i = 0; i < payload.length; i++) {
+            buffer.put(writeOffset + 4 + i, payload[i]);
+        }
+        buffer.putInt(writeOffset, payload.length);
+        markUnforced(writeOffset, writeOffset + recordSize);
+        writeOffset += recordSize;
+        notifyAll();
+    }
+
+    private void markUnforced(int from, int to) {
+        unforcedFrom = Math.min(unforcedFrom, from);
+        unforcedTo = Math.max(unforcedTo, to);
+    }
+
+    /** Force vùng chưa force theo lô; chạy trên luồng nền, không giữ khóa lúc chờ đĩa. */
+    private void forcePending() {
+        MappedByteBuffer target;
+        int from;
+        int to;
+        synchronized (this) {
+            if (unforcedFrom >= unforcedTo) return;
+            target = buffer;
+            from = unforcedFrom;
+            to = unforcedTo;
+            unforcedFrom = Integer.MAX_VALUE;
+            unforcedTo = 0;
+        }
+        target.force(from, to - from);
+    }
+
+    public synchronized int getPendingCount() {
+        int count = 0;
+        for (int offset = appliedOffset; offset < writeOffset; offset += 4 + buffer.getInt(offset)) {
+            count++;
+        }
+        return count;
+    }
+
+    private void ensureCapacity(int required) throws IOException {
+        if (required <= buffer.capacity()) return;
+        long newSize = Math.max((long) buffer.capacity() * 2, required);
+        if (newSize > Integer.MAX_VALUE) {
+            throw new IOException("journal exceeds " + Integer.MAX_VALUE + " bytes");
+        }
+        buffer.force();
+        file.setLength(newSize);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+        System.out.println("⚠ Match journal grown to " + (newSize / 1024 / 1024) + "MB (database backlog)");
+    }
+
+    private void replayLoop() {
+        while (running) {
+            try {
+                // Mạch mở thì chờ tới lúc thử lại; record kế tiếp là lần thử half-open
+                if (!breaker.allowRequest()) {
+                    Thread.sleep(Math.min(breaker.millisUntilRetry() + 1, 1000));
+                    continue;
+                }
+
+                int[] record = nextRecord();
+                if (!running) return;
+                if (record == null) {
+                    // Không có gì cần ghi: kiểm tra DB định kỳ để breaker phản ánh đúng trạng thái
+                    if (database.isAvailable()) breaker.recordSuccess(); else breaker.recordFailure();
+                    continue;
+                }
+
+                ResultEvent event;
+                try {
+                    event = ResultEvent.fromJSON(new JSONObject(readPayload(record[0], record[1])));
+                } catch (Exception e) {
+                    System.err.println("✗ Skipping corrupt journal record at offset " + record[0]);
+                    markApplied(record[0] + 4 + record[1]);
+                    continue;
+                }
+
+                int matchId;
+                try {
+                    matchId = database.applyResultEvent(event);
+                    breaker.recordSuccess();
+                } catch (SQLException e) {
+                    if (isRejected(e)) {
+                        // DB vẫn chạy nhưng không nhận sự kiện này: thử lại cũng vô ích
+                        System.err.println("✗ Journaled result " + event.eventId + " rejected, moved to " +
+                                           deadLetters.getName() + ": " + e.getMessage());
+                        deadLetter(readPayload(record[0], record[1]), e.toString());
+                        markApplied(record[0] + 4 + record[1]);
+                        ratings.persisted(event);
+                        continue;
+                    }
+                    breaker.recordFailure();
+                    System.err.println("✗ Could not apply journaled result " + event.eventId + ": " + e.getMessage());
+                    continue;
+                }
+                markApplied(record[0] + 4 + record[1]);
+                afterApply(event, matchId);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /** Chờ tối đa IDLE_PROBE_MILLIS; trả về {offset, length} của record chưa áp dụng, hoặc null. */
+    private synchronized int[] nextRecord() throws InterruptedException {
+        if (appliedOffset == writeOffset && running) {
+            wait(IDLE_PROBE_MILLIS);
+        }
+        if (appliedOffset == writeOffset) return null;
+        return new int[]{appliedOffset, buffer.getInt(appliedOffset)};
+    }
+
+    private synchronized String readPayload(int offset, int length) {
+        byte[] payload = new byte[length];
+        for (int i = 0; i < length; i++) {
+            payload[i] = buffer.get(offset + 4 + i);
+        }
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    private synchronized void markApplied(int offset) {
+        appliedOffset = offset;
+        if (appliedOffset == writeOffset && writeOffset > RESET_THRESHOLD) {
+            // Đã áp dụng hết: xóa vùng đã dùng và quay lại đầu file
+            for (int i = HEADER_SIZE; i < writeOffset; i++) {
+                buffer.put(i, (byte) 0);
+            }
+            markUnforced(HEADER_SIZE, writeOffset);
+            appliedOffset = HEADER_SIZE;
+            writeOffset = HEADER_SIZE;
+        }
+        buffer.putLong(APPLIED_OFFSET_POS, appliedOffset);
+        markUnforced(0, HEADER_SIZE);
+    }
+
+    // Lỗi không tạm thời (trừ lỗi kết nối): ràng buộc, cú pháp, dữ liệu sai
+    private static boolean isRejected(SQLException e) {
+        return e instanceof SQLNonTransientException && !(e instanceof SQLNonTransientConnectionException);
+    }
+
+    /** Ghi thêm một dòng JSON {reason, event} vào results.deadletter (force ngay, vì hiếm). */
+    private synchronized void deadLetter(String payload, String reason) {
+        JSONObject line = new JSONObject();
+        line.put("reason", reason);
+        line.put("event", new JSONObject(payload));
+        try (FileOutputStream out = new FileOutputStream(deadLetters, true)) {
+            out.write((line.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException e) {
+            System.err.println("✗ Could not write dead letter, result lost: " + payload);
+            e.printStackTrace();
+        }
+    }
+
+    private void afterApply(ResultEvent event, int matchId) {
+        ratings.persisted(event);
+        if (matchId > 0) {
+            recentMatches.recordMatch(matchId, event);
+        }
+    }
+
+    public void shutdown() {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        syncer.shutdown();
+        try {
+            replayer.join(2000);
+            syncer.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            buffer.force();
+            try {
+                channel.close();
+                file.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        System.out.println("✓ Match journal closed");
+    }
+}
@@ -0,0 +1,239 @@
+package server;
+
+import common.BoardConfig;
+import common.Protocol;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hàng chờ QUICK_PLAY. Người chờ được chia vào các ô theo (độ khó, dải rating BAND_WIDTH, xem RatingEngine),
+ * mỗi ô là một hàng FIFO. Một luồng nền duy nhất ghép cặp mỗi TICK_MILLIS:
+ *   1. ghép lần lượt hai người đầu hàng của từng ô (sau bước này mỗi ô còn nhiều nhất một người)
+ *   2. người còn lại ở đầu ô được nới cửa sổ tìm thêm một dải mỗi bên sau mỗi WIDEN_MILLIS chờ
+ *      (tối đa MAX_WINDOW dải) và ghép với đầu ô gần nhất trong cửa sổ
+ * Mỗi tick chỉ nhìn đầu các ô nên tốn thời gian cố định theo số ô, không theo số người chờ;
+ * rời hàng chỉ đánh dấu hủy, đầu hàng gặp mục đã hủy thì bỏ qua.
+ */
+public class Matchmaker {
+    private static final String[] DIFFICULTIES = {Protocol.EASY, Protocol.MEDIUM, Protocol.HARD};
+    private static final int BAND_WIDTH = Integer.getInteger("matchmaking.bandWidth", 100);
+    private static final int MAX_SKILL = 3000;
+    private static final int BANDS = MAX_SKILL / BAND_WIDTH + 1;
+    private static final long TICK_MILLIS = 200;
+    private static final long WIDEN_MILLIS = Long.getLong("matchmaking.widenMillis", 5000);
+    private static final int MAX_WINDOW = 5;
+    // Thời gian chờ của WAIT_SAMPLES người được ghép gần nhất, để tính phân vị
+    private static final int WAIT_SAMPLES = 4096;
+    private static final long STATS_EVERY_MILLIS = 60_000;
+
+    private static class Entry {
+        final ClientHandler player;
+        final int difficulty;
+        final int band;
+        final long joinedAt = System.currentTimeMillis();
+        volatile boolean cancelled;
+
+        Entry(ClientHandler player, int difficulty, int band) {
+            this.player = player;
+            this.difficulty = difficulty;
+            this.band = band;
+        }
+    }
+
+    private final Server server;
+    private final ConcurrentLinkedQueue<Entry> incoming = new ConcurrentLinkedQueue<>();
+    private final ConcurrentHashMap<ClientHandler, Entry> queued = new ConcurrentHashMap<>();
+    private final AtomicLong matched = new AtomicLong();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    // Chỉ luồng matchmaker dùng
+    private final ArrayDeque<Entry>[][] buckets;
+    private final long[] waits = new long[WAIT_SAMPLES];
+    private int waitCount;
+    private long lastStats = System.currentTimeMillis();
+    private long matchedAtLastStats;
+    // p50, p90, p99 (mili giây), tính lại mỗi tick có người được ghép
+    private volatile long[] percentiles = {0, 0, 0};
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public Matchmaker(Server server) {
+        this.server = server;
+        buckets = new ArrayDeque[DIFFICULTIES.length][BANDS];
+        for (ArrayDeque<Entry>[] bands : buckets) {
+            for (int band = 0; band < BANDS; band++) {
+                bands[band] = new ArrayDeque<>();
+            }
+        }
+        thread = new Thread(this::run, "matchmaker");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Vào hàng chờ (thay chỗ cũ nếu đang chờ); false nếu độ khó không ghép nhanh được. */
+    public boolean join(ClientHandler player, String difficulty, int skill) {
+        int index = Arrays.asList(DIFFICULTIES).indexOf(difficulty);
+        if (index < 0) return false;
+        Entry entry = new Entry(player, index, Math.max(0, Math.min(MAX_SKILL, skill)) / BAND_WIDTH);
+        Entry previous = queued.put(player, entry);
+        if (previous != null) previous.cancelled = true;
+        incoming.add(entry);
+        return true;
+    }
+
+    /** Rời hàng chờ; gọi cả khi người chơi vào một ván khác hoặc ngắt kết nối. */
+    public boolean leave(ClientHandler player) {
+        Entry entry = queued.remove(player);
+        if (entry == null) return false;
+        entry.cancelled = true;
+        return true;
+    }
+
+    public boolean isQueued(ClientHandler player) {
+        return queued.containsKey(player);
+    }
+
+    /** Thời gian chờ trung vị gần đây, để báo cho người vừa vào hàng. */
+    public long expectedWaitMillis() {
+        return percentiles[0];
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                Thread.sleep(TICK_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                tick();
+            } catch (RuntimeException e) {
+                // Một lần ghép lỗi không được làm dừng hàng chờ
+                System.err.println("✗ Matchmaker tick failed:");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void tick() {
+        Entry entry;
+        while ((entry = incoming.poll()) != null) {
+            if (!entry.cancelled) buckets[entry.difficulty][entry.band].addLast(entry);
+        }
+
+        long now = System.currentTimeMillis();
+        long before = matched.get();
+        for (int difficulty = 0; difficulty < DIFFICULTIES.length; difficulty++) {
+            ArrayDeque<Entry>[] bands = buckets[difficulty];
+            for (int band = 0; band < BANDS; band++) {
+                ArrayDeque<Entry> bucket = bands[band];
+                Entry first;
+                while ((first = head(bucket)) != null) {
+                    bucket.pollFirst();
+                    Entry second = head(bucket);
+                    if (second == null) {
+                        bucket.addFirst(first);
+                        break;
+                    }
+                    bucket.pollFirst();
+                    pair(first, second, now);
+                }
+            }
+            for (int band = 0; band < BANDS; band++) {
+                Entry first = head(bands[band]);
+                if (first == null) continue;
+                int window = (int) Math.min(MAX_WINDOW, (now - first.joinedAt) / WIDEN_MILLIS);
+                for (int distance = 1; distance <= window; distance++) {
+                    ArrayDeque<Entry> partnerBucket = nearestWaiting(bands, band, distance);
+                    if (partnerBucket != null) {
+                        bands[band].pollFirst();
+                        pair(first, partnerBucket.pollFirst(), now);
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (matched.get() != before) {
+            updatePercentiles();
+        }
+        if (now - lastStats >= STATS_EVERY_MILLIS) {
+            lastStats = now;
+            if (matched.get() != matchedAtLastStats) {
+                matchedAtLastStats = matched.get();
+                System.out.println("[Matchmaker] " + getStats());
+            }
+        }
+    }
+
+    // Xét dải dưới rồi dải trên, chỉ nhìn người đầu ô
+    private ArrayDeque<Entry> nearestWaiting(ArrayDeque<Entry>[] bands, int band, int distance) {
+        if (band - distance >= 0 && head(bands[band - distance]) != null) return bands[band - distance];
+        if (band + distance < BANDS && head(bands[band + distance]) != null) return bands[band + distance];
+        return null;
+    }
+
+    private static Entry head(ArrayDeque<Entry> bucket) {
+        Entry entry;
+        while ((entry = bucket.peekFirst()) != null && entry.cancelled) {
+            bucket.pollFirst();
+        }
+        return entry;
+    }
+
+    private void pair(Entry first, Entry second, long now) {
+        queued.remove(first.player, first);
+        queued.remove(second.player, second);
+        if (!ClientHandler.reserveQuickMatch(server, first.player, second.player)) {
+            // Một người vừa vào ván khác hoặc đã thoát: người còn lại giữ chỗ ở đầu ô
+            requeue(second);
+            requeue(first);
+            return;
+        }
+        matched.incrementAndGet();
+        recordWait(now - first.joinedAt);
+        recordWait(now - second.joinedAt);
+        // Đã giữ chỗ nên tạo phòng ngoài khóa; lỗi thì cả hai được báo và không xếp lại
+        ClientHandler.startQuickMatch(server, first.player, second.player,
+                                      BoardConfig.of(DIFFICULTIES[first.difficulty]));
+    }
+
+    private void requeue(Entry entry) {
+        if (entry.cancelled || entry.player.isInGame() ||
+            server.findPlayerByUsername(entry.player.getUsername()) != entry.player) {
+            return;
+        }
+        if (queued.putIfAbsent(entry.player, entry) == null) {
+            buckets[entry.difficulty][entry.band].addFirst(entry);
+        }
+    }
+
+    private void recordWait(long millis) {
+        waits[waitCount % WAIT_SAMPLES] = millis;
+        waitCount++;
+    }
+
+    private void updatePercentiles() {
+        long[] sorted = Arrays.copyOf(waits, Math.min(waitCount, WAIT_SAMPLES));
+        Arrays.sort(sorted);
+        percentiles = new long[]{percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99)};
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    public String getStats() {
+        long[] p = percentiles;
+        return String.format("%d waiting, %d matched, wait p50 %.1fs p90 %.1fs p99 %.1fs",
+                             queued.size(), matched.get(), p[0] / 1000.0, p[1] / 1000.0, p[2] / 1000.0);
+    }
+
+    public void shutdown() {
+        running = false;
+        thread.interrupt();
+        System.out.println("[Matchmaker] " + getStats());
+    }
+}
@@ -0,0 +1,179 @@
+package server;
+
+import java.util.*;
+
+/**
+ * Cache hồ sơ người chơi cho đăng nhập, tra theo username hoặc id.
+ * Giới hạn theo dung lượng ước tính (không phải số phần tử) và hết hạn theo TTL;
+ * khi đầy thì bỏ hồ sơ ít dùng nhất (LRU). Điểm/quit/ban được cập nhật trực tiếp
+ * vào hồ sơ sau khi DB ghi thành công, nên không phải đọc lại từ DB.
+ *
+ * Thứ tự ghi: beginWrite() trước khi ghi DB, apply*() sau khi commit. Số thứ tự ghi giúp
+ * phân biệt hồ sơ được nạp trước hay sau lần ghi, để không bỏ sót hoặc cộng điểm hai lần.
+ */
+public class PlayerProfileCache {
+    private static final long DEFAULT_MAX_BYTES = 8L * 1024 * 1024;
+    private static final long DEFAULT_TTL_MILLIS = 10 * 60 * 1000;
+    // Ước lượng phần cố định của một entry: object header, các field, node của 2 map
+    private static final int ENTRY_OVERHEAD = 160;
+    private static final int RECENT_WRITES = 1024;
+
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final LinkedHashMap<Integer, Profile> byId = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<String, Integer> idByName = new HashMap<>();
+    private long usedBytes;
+    // Id người chơi của các lần ghi gần nhất, để put() không nạp đè dữ liệu cũ đọc trước lúc ghi
+    private final int[] recentWrites = new int[RECENT_WRITES];
+    private long writeSeq;
+    private long hits;
+    private long misses;
+
+    public PlayerProfileCache() {
+        this(Long.getLong("profile.cache.bytes", DEFAULT_MAX_BYTES),
+             Long.getLong("profile.cache.ttl", DEFAULT_TTL_MILLIS / 1000) * 1000);
+    }
+
+    public PlayerProfileCache(long maxBytes, long ttlMillis) {
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public static class Profile {
+        public final int id;
+        public final String username;
+        public final String passwordHash;
+        public int totalScore;
+        public int wins;
+        public int losses;
+        public int quitCount;
+        public boolean banned;
+        final long loadedAt = System.currentTimeMillis();
+        long loadStamp;
+
+        public Profile(int id, String username, String passwordHash, int totalScore, int wins,
+                       int losses, int quitCount, boolean banned) {
+            this.id = id;
+            this.username = username;
+            this.passwordHash = passwordHash;
+            this.totalScore = totalScore;
+            this.wins = wins;
+            this.losses = losses;
+            this.quitCount = quitCount;
+            this.banned = banned;
+        }
+
+        int weight() {
+            // String Java lưu tối đa 2 byte/ký tự
+            return ENTRY_OVERHEAD + 2 * (username.length() + passwordHash.length());
+        }
+    }
+
+    /** Trả về bản sao hồ sơ, hoặc null nếu chưa có / đã hết hạn. */
+    public synchronized Profile getByUsername(String username) {
+        Integer id = idByName.get(username);
+        Profile profile = id != null ? byId.get(id) : null;
+        if (profile != null && System.currentTimeMillis() - profile.loadedAt > ttlMillis) {
+            remove(profile);
+            profile = null;
+        }
+        if (profile == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return copy(profile);
+    }
+
+    /** Gọi trước khi đọc hồ sơ từ DB; truyền giá trị trả về cho put(). */
+    public synchronized long beginLoad() {
+        return writeSeq;
+    }
+
+    /**
+     * Đưa hồ sơ vừa đọc từ DB vào cache, trừ khi người chơi này đã bị ghi (điểm/quit/ban)
+     * kể từ beginLoad(): khi đó hồ sơ có thể đã cũ, để lần đăng nhập sau đọc lại.
+     */
+    public synchronized void put(Profile profile, long loadStamp) {
+        if (writeSeq - loadStamp > RECENT_WRITES) return;
+        for (long seq = loadStamp; seq < writeSeq; seq++) {
+            if (recentWrites[(int) (seq % RECENT_WRITES)] == profile.id) return;
+        }
+        Profile old = byId.get(profile.id);
+        if (old != null) remove(old);
+        profile.loadStamp = loadStamp;
+        int weight = profile.weight();
+        if (weight > maxBytes) return;
+        byId.put(profile.id, profile);
+        idByName.put(profile.username, profile.id);
+        usedBytes += weight;
+
+        Iterator<Profile> eldest = byId.values().iterator();
+        while (usedBytes > maxBytes && eldest.hasNext()) {
+            Profile victim = eldest.next();
+            eldest.remove();
+            idByName.remove(victim.username);
+            usedBytes -= victim.weight();
+        }
+    }
+
+    /** Đánh dấu các người chơi sắp được ghi xuống DB; trả về token cho apply*(). */
+    public synchronized long beginWrite(int... playerIds) {
+        long token = writeSeq;
+        for (int playerId : playerIds) {
+            recentWrites[(int) (writeSeq % RECENT_WRITES)] = playerId;
+            writeSeq++;
+        }
+        return token;
+    }
+
+    public synchronized void applyScore(long token, int playerId, int scoreToAdd, boolean won) {
+        Profile profile = current(token, playerId);
+        if (profile == null) return;
+        profile.totalScore += scoreToAdd;
+        if (won) profile.wins++; else profile.losses++;
+    }
+
+    public synchronized void applyQuit(long token, int playerId, int banThreshold) {
+        Profile profile = current(token, playerId);
+        if (profile == null) return;
+        profile.quitCount++;
+        if (profile.quitCount >= banThreshold) profile.banned = true;
+    }
+
+    public synchronized void applyBan(long token, int playerId) {
+        Profile profile = current(token, playerId);
+        if (profile != null) profile.banned = true;
+    }
+
+    public synchronized void invalidate(int playerId) {
+        Profile profile = byId.get(playerId);
+        if (profile != null) remove(profile);
+    }
+
+    public synchronized String getStats() {
+        return byId.size() + " profiles, " + (usedBytes / 1024) + "KB/" + (maxBytes / 1024) + "KB, " +
+               hits + " hits, " + misses + " misses";
+    }
+
+    // Hồ sơ nạp sau beginWrite có thể đã chứa lần ghi này: bỏ đi thay vì cộng thêm
+    private Profile current(long token, int playerId) {
+        Profile profile = byId.get(playerId);
+        if (profile != null && profile.loadStamp > token) {
+            remove(profile);
+            return null;
+        }
+        return profile;
+    }
+
+    private void remove(Profile profile) {
+        byId.remove(profile.id);
+        idByName.remove(profile.username);
+        usedBytes -= profile.weight();
+    }
+
+    private static Profile copy(Profile p) {
+        return new Profile(p.id, p.username, p.passwordHash, p.totalScore, p.wins, p.losses,
+                           p.quitCount, p.banned);
+    }
+}
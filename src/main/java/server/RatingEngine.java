@@ -0,0 +1,356 @@
+package server;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+/**
+ * Rating kỹ năng theo Glicko-1 (Elo cộng thêm độ lệch RD: RD lớn = chưa chắc, rating đổi nhanh).
+ * Khác total_score, thắng đối thủ yếu ở EASY gần như không được thêm gì.
+ *
+ * - Hết ván: rating của những người trong phòng được cập nhật ngay trong bộ nhớ, mỗi ván O(1)
+ *   (phòng 3-8 người tính như từng cặp đấu theo thứ hạng). Rating của người đang online nằm trong cache
+ *   và cache là bản mới nhất; người chơi được nạp khi đăng nhập và được giữ (pin) suốt ván,
+ *   nên tính rating lúc hết ván không bao giờ phải đọc DB.
+ * - Rating mới sau trận được gắn vào ResultEvent và đi qua MatchJournal, nên được ghi cùng transaction với
+ *   kết quả trận và không mất khi server chết. Người chơi còn sự kiện chưa áp dụng được giữ trong cache.
+ * - Phần RD tăng theo kỳ được đánh dấu bẩn, luồng nền ghi theo lô mỗi FLUSH_MILLIS (saveRatings).
+ *   Ghi lỗi thì giữ lại lần sau ghi tiếp.
+ * - Mỗi kỳ rating (-Drating.periodHours, mặc định 24 giờ) RD của người không chơi tăng dần. Đầu kỳ mới, luồng nền đọc mọi rating,
+ *   tính lại song song (parallel stream) và ghi theo lô những người thay đổi.
+ */
+public class RatingEngine {
+    public static final double INITIAL_RATING = 1500;
+    public static final double MAX_RD = 350;
+    private static final double MIN_RD = 30;
+    // RD tăng thêm mỗi kỳ không chơi: từ 50 về lại 350 sau khoảng 100 kỳ
+    private static final double RD_GROWTH = 34.6;
+    // Bảng xếp hạng rating chỉ lấy người đã đủ chắc chắn (khoảng 5 ván trở lên)
+    public static final double RANKED_MAX_RD = Double.parseDouble(System.getProperty("rating.rankedMaxRd", "200"));
+    private static final double Q = Math.log(10) / 400;
+    private static final long FLUSH_MILLIS = Long.getLong("rating.flushMillis", 5000);
+    private static final long PERIOD_MILLIS = Long.getLong("rating.periodHours", 24) * 3600_000;
+    private static final long PERIOD_CHECK_MINUTES = 5;
+    private static final int BATCH_SIZE = 1000;
+
+    public static class Rating {
+        public final int playerId;
+        public double rating = INITIAL_RATING;
+        public double rd = MAX_RD;
+        public int games;
+        // Kỳ rating gần nhất đã tính RD tới
+        public int period;
+
+        public Rating(int playerId) {
+            this.playerId = playerId;
+        }
+
+        Rating copy() {
+            Rating copy = new Rating(playerId);
+            copy.rating = rating;
+            copy.rd = rd;
+            copy.games = games;
+            copy.period = period;
+            return copy;
+        }
+    }
+
+    private final GameStorage storage;
+    private final CircuitBreaker breaker;
+    private final Map<Integer, Rating> cache = new ConcurrentHashMap<>();
+    // Chỉ sửa khi giữ khóa của engine
+    private final Set<Integer> dirty = new HashSet<>();
+    // Đã thoát; bỏ khỏi cache sau khi rating đã ghi xong
+    private final Set<Integer> released = new HashSet<>();
+    // Người chơi -> số sự kiện có rating của họ mà journal chưa áp dụng xong
+    private final Map<Integer, Integer> journaled = new HashMap<>();
+    // Người chơi -> số phòng đang chơi; giữ trong cache tới khi hết ván dù đã thoát
+    private final Map<Integer, Integer> pinned = new HashMap<>();
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "rating-writer");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile int recomputedPeriod = -1;
+    private long updates;
+    private long flushed;
+
+    public RatingEngine(GameStorage storage, CircuitBreaker breaker) {
+        this.storage = storage;
+        this.breaker = breaker;
+        worker.execute(this::recomputeIfNewPeriod);
+        worker.scheduleWithFixedDelay(this::flushQuietly, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+        worker.scheduleWithFixedDelay(this::recomputeIfNewPeriod, PERIOD_CHECK_MINUTES, PERIOD_CHECK_MINUTES,
+                                      TimeUnit.MINUTES);
+    }
+
+    static int currentPeriod() {
+        return (int) (System.currentTimeMillis() / PERIOD_MILLIS);
+    }
+
+    /** Nạp rating khi đăng nhập (đọc DB nếu chưa có trong cache) và trả về bản sao. */
+    public Rating load(int playerId) {
+        Rating rating = cache.get(playerId);
+        if (rating == null) {
+            Rating stored = storage.loadRating(playerId);
+            if (stored == null) {
+                stored = new Rating(playerId);
+                stored.period = currentPeriod();
+            }
+            Rating previous = cache.putIfAbsent(playerId, stored);
+            rating = previous != null ? previous : stored;
+        }
+        synchronized (this) {
+            released.remove(playerId);
+            age(rating, currentPeriod());
+            return rating.copy();
+        }
+    }
+
+    /** Người chơi thoát: giữ trong cache tới khi rating của họ đã được ghi. */
+    public synchronized void release(int playerId) {
+        if (pending(playerId)) {
+            released.add(playerId);
+        } else {
+            cache.remove(playerId);
+        }
+    }
+
+    private boolean pending(int playerId) {
+        return dirty.contains(playerId) || journaled.containsKey(playerId) || pinned.containsKey(playerId);
+    }
+
+    /** Phòng bắt đầu: giữ rating của mọi người trong phòng ở cache tới khi unpin (hết ván). */
+    public synchronized void pin(int[] playerIds) {
+        for (int playerId : playerIds) {
+            pinned.merge(playerId, 1, Integer::sum);
+        }
+    }
+
+    /** Hết ván: bỏ giữ; người đã thoát và không còn gì chờ ghi thì bỏ khỏi cache. */
+    public synchronized void unpin(int[] playerIds) {
+        for (int playerId : playerIds) {
+            Integer count = pinned.get(playerId);
+            if (count == null) continue;
+            if (count > 1) {
+                pinned.put(playerId, count - 1);
+                continue;
+            }
+            pinned.remove(playerId);
+            if (!pending(playerId) && released.remove(playerId)) {
+                cache.remove(playerId);
+            }
+        }
+    }
+
+    /**
+     * Cập nhật rating từ kết quả một trận (GAME_END hoặc QUIT của trận 2 người) ngay trong bộ nhớ, và gắn
+     * rating mới vào event.ratings; gọi trước khi event được submit vào journal.
+     * Trận nhiều người: participants đã xếp theo thứ hạng, người đã thoát thua mọi người còn chơi.
+     * Không đọc storage: người không có trong cache (không được pin) chỉ làm đối thủ với rating mặc định
+     * và không được cập nhật.
+     * Trả về rating mới theo id người chơi, null nếu sự kiện không tính rating.
+     */
+    public Map<Integer, Rating> record(ResultEvent event) {
+        if (event.isLogin()) return null;
+        int[] ids;
+        double[][] outcome;
+        if (event.participants == null) {
+            ids = new int[]{event.player1Id, event.player2Id};
+            double first = event.winnerId == event.player1Id ? 1 : event.winnerId == event.player2Id ? 0 : 0.5;
+            outcome = new double[][]{{0, first}, {1 - first, 0}};
+        } else {
+            List<ResultEvent.Participant> seats = event.participants;
+            // leave() của phòng nhiều người chỉ có một người: tính ở GAME_END của cả phòng
+            if (seats.size() < 2) return null;
+            ids = new int[seats.size()];
+            outcome = new double[ids.length][ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = seats.get(i).id;
+                for (int j = 0; j < ids.length; j++) {
+                    outcome[i][j] = pairOutcome(seats.get(i), seats.get(j));
+                }
+            }
+        }
+
+        Map<Integer, Rating> updated = new LinkedHashMap<>();
+        synchronized (this) {
+            int period = currentPeriod();
+            Rating[] ratings = new Rating[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                ratings[i] = cache.get(ids[i]);
+                if (ratings[i] == null) {
+                    ratings[i] = new Rating(ids[i]);
+                    ratings[i].period = period;
+                    System.err.println("⚠ Rating of player " + ids[i] + " not cached, using default for this match");
+                }
+                age(ratings[i], period);
+            }
+            // Tính hết từ rating trước trận rồi mới gán
+            double[] newRating = new double[ids.length];
+            double[] newRd = new double[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                double variance = 0;
+                double delta = 0;
+                for (int j = 0; j < ids.length; j++) {
+                    if (j == i) continue;
+                    double g = g(ratings[j].rd);
+                    double expected = expected(ratings[i].rating, ratings[j].rating, g);
+                    variance += g * g * expected * (1 - expected);
+                    delta += g * (outcome[i][j] - expected);
+                }
+                double precision = 1 / (ratings[i].rd * ratings[i].rd) + Q * Q * variance;
+                newRating[i] = ratings[i].rating + Q / precision * delta;
+                newRd[i] = Math.max(MIN_RD, Math.sqrt(1 / precision));
+            }
+            for (int i = 0; i < ids.length; i++) {
+                if (!cache.containsKey(ids[i])) continue;
+                ratings[i].rating = newRating[i];
+                ratings[i].rd = newRd[i];
+                ratings[i].games++;
+                journaled.merge(ids[i], 1, Integer::sum);
+                updated.put(ids[i], ratings[i].copy());
+            }
+            updates++;
+        }
+        event.ratings = new ArrayList<>(updated.values());
+        return updated;
+    }
+
+    /** Journal đã áp dụng (hoặc bỏ qua) sự kiện: rating trong đó đã nằm ở DB, thả người đã thoát khỏi cache. */
+    public synchronized void persisted(ResultEvent event) {
+        if (event.ratings == null) return;
+        for (Rating rating : event.ratings) {
+            // Sự kiện phát lại sau khi khởi động lại không có trong bộ đếm
+            Integer count = journaled.get(rating.playerId);
+            if (count == null) continue;
+            if (count > 1) {
+                journaled.put(rating.playerId, count - 1);
+                continue;
+            }
+            journaled.remove(rating.playerId);
+            if (!dirty.contains(rating.playerId) && released.remove(rating.playerId)) {
+                cache.remove(rating.playerId);
+            }
+        }
+    }
+
+    private static double pairOutcome(ResultEvent.Participant a, ResultEvent.Participant b) {
+        if (a.left != b.left) return a.left ? 0 : 1;
+        if (a.score != b.score) return a.score > b.score ? 1 : 0;
+        return 0.5;
+    }
+
+    private static double g(double rd) {
+        return 1 / Math.sqrt(1 + 3 * Q * Q * rd * rd / (Math.PI * Math.PI));
+    }
+
+    private static double expected(double rating, double opponent, double g) {
+        return 1 / (1 + Math.pow(10, -g * (rating - opponent) / 400));
+    }
+
+    /** Tăng RD theo số kỳ đã trôi qua kể từ lần tính trước; true nếu có thay đổi. */
+    private static boolean age(Rating rating, int period) {
+        if (rating.period >= period) return false;
+        int idle = period - rating.period;
+        rating.rd = Math.min(MAX_RD, Math.sqrt(rating.rd * rating.rd + RD_GROWTH * RD_GROWTH * idle));
+        rating.period = period;
+        return true;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            System.err.println("✗ Rating flush failed:");
+            e.printStackTrace();
+        }
+    }
+
+    /** Ghi các rating đã đổi theo lô; DB đang lỗi thì để lần sau (hết thời gian chờ thì lô này là lần thử lại). */
+    private void flush() {
+        if (!breaker.allowRequest()) return;
+        List<Rating> batch = new ArrayList<>();
+        synchronized (this) {
+            if (dirty.isEmpty()) return;
+            for (int playerId : dirty) {
+                Rating rating = cache.get(playerId);
+                if (rating != null) batch.add(rating.copy());
+            }
+            dirty.clear();
+        }
+
+        int saved = 0;
+        try {
+            for (int from = 0; from < batch.size(); from += BATCH_SIZE) {
+                storage.saveRatings(batch.subList(from, Math.min(batch.size(), from + BATCH_SIZE)));
+                saved = Math.min(batch.size(), from + BATCH_SIZE);
+            }
+            breaker.recordSuccess();
+        } catch (SQLException e) {
+            breaker.recordFailure();
+            System.err.println("✗ Error saving ratings, will retry: " + e.getMessage());
+        }
+
+        synchronized (this) {
+            for (Rating rating : batch.subList(saved, batch.size())) {
+                dirty.add(rating.playerId);
+            }
+            flushed += saved;
+            released.removeIf(playerId -> {
+                if (pending(playerId)) return false;
+                cache.remove(playerId);
+                return true;
+            });
+        }
+    }
+
+    /**
+     * Bước cuối kỳ rating: RD của mọi người chưa chơi trong kỳ tăng lên. Người đang online được tính
+     * ngay trong cache (ghi ở lần flush tới), những người còn lại đọc từ DB, tính song song rồi ghi theo lô.
+     */
+    private void recomputeIfNewPeriod() {
+        int period = currentPeriod();
+        if (period == recomputedPeriod) return;
+        long start = System.currentTimeMillis();
+        try {
+            synchronized (this) {
+                for (Rating rating : cache.values()) {
+                    if (age(rating, period)) dirty.add(rating.playerId);
+                }
+            }
+            List<Rating> changed = storage.loadRatings().parallelStream()
+                .filter(rating -> !cache.containsKey(rating.playerId))
+                .filter(rating -> age(rating, period))
+                .collect(Collectors.toList());
+            for (int from = 0; from < changed.size(); from += BATCH_SIZE) {
+                storage.saveRatings(changed.subList(from, Math.min(changed.size(), from + BATCH_SIZE)));
+            }
+            recomputedPeriod = period;
+            System.out.println("📊 Rating period " + period + ": " + changed.size() + " offline players updated in " +
+                               (System.currentTimeMillis() - start) + "ms");
+        } catch (SQLException e) {
+            // Để lần kiểm tra sau chạy lại
+            System.err.println("✗ Rating period " + period + " failed: " + e.getMessage());
+        }
+    }
+
+    public synchronized String getStats() {
+        return String.format("%d rating updates, %d ratings saved, %d cached, %d pending, %d in journal",
+                             updates, flushed, cache.size(), dirty.size(), journaled.size());
+    }
+
+    /** Ghi nốt RD đã đổi trước khi đóng storage (rating sau trận nằm trong journal). */
+    public void shutdown() {
+        // Không ngắt lần ghi đang chạy; các lần chạy định kỳ bị hủy
+        worker.shutdown();
+        try {
+            worker.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        System.out.println("[RatingEngine] " + getStats());
+    }
+}
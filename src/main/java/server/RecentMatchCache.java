@@ -0,0 +1,138 @@
+package server;
+
+import java.lang.ref.SoftReference;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache các trận gần nhất của người chơi đang online.
+ * Mỗi người có một ring buffer cố định, nạp từ DB lúc đăng nhập và được ghi thêm
+ * ngay khi GameRoom kết thúc trận, nên trang đầu của MATCH_HISTORY không cần query DB.
+ * Giá trị được giữ qua SoftReference để GC có thể thu hồi khi thiếu bộ nhớ;
+ * entry bị mất thì chỉ đơn giản là quay lại đọc từ DB.
+ */
+public class RecentMatchCache {
+    // Trang đầu mặc định + 1 dòng để biết còn trang sau
+    public static final int CAPACITY = HistoryCursor.DEFAULT_PAGE_SIZE + 1;
+
+    private final GameStorage database;
+    private final Map<Integer, SoftReference<Ring>> entries = new ConcurrentHashMap<>();
+
+    public RecentMatchCache(GameStorage database) {
+        this.database = database;
+    }
+
+    public void load(int playerId) {
+        List<Map<String, Object>> rows = database.getPlayerMatchHistory(playerId, null, CAPACITY);
+        // Đọc lỗi: không cache, trang đầu sẽ đọc lại từ DB
+        if (rows == null) return;
+        Ring ring = new Ring();
+        // rows: mới -> cũ, ring nhận theo thứ tự cũ -> mới
+        for (int i = rows.size() - 1; i >= 0; i--) {
+            ring.add(rows.get(i));
+        }
+        ring.complete = rows.size() < CAPACITY;
+        entries.put(playerId, new SoftReference<>(ring));
+    }
+
+    public void evict(int playerId) {
+        entries.remove(playerId);
+    }
+
+    /**
+     * Trả về tối đa "limit" trận mới nhất, hoặc null nếu cache không trả lời được
+     * (chưa nạp, đã bị GC thu hồi, hoặc cần nhiều dòng hơn đang giữ).
+     */
+    public List<Map<String, Object>> getFirstPage(int playerId, int limit) {
+        Ring ring = get(playerId);
+        if (ring == null) return null;
+        return ring.newest(limit);
+    }
+
+    /**
+     * Ghi kết quả trận vừa lưu vào cache của mọi người chơi (nếu đang có). Trận nhiều người: người đứng
+     * từ hạng 3 trở xuống thấy đối thủ là người đứng đầu, giống dòng đọc từ DB.
+     */
+    public void recordMatch(int matchId, ResultEvent event) {
+        Timestamp createdAt = new Timestamp(event.at);
+        append(event.player1Id, toEntry(matchId, createdAt, event.player1Id, event.player2Name, event.winnerId,
+                                        event.difficulty, event.player1Score, event.player2Score, event.duration,
+                                        event.replayId));
+        append(event.player2Id, toEntry(matchId, createdAt, event.player2Id, event.player1Name, event.winnerId,
+                                        event.difficulty, event.player2Score, event.player1Score, event.duration,
+                                        event.replayId));
+        if (event.participants == null) return;
+        for (int i = 2; i < event.participants.size(); i++) {
+            ResultEvent.Participant p = event.participants.get(i);
+            append(p.id, toEntry(matchId, createdAt, p.id, event.player1Name, event.winnerId, event.difficulty,
+                                 p.score, event.player1Score, event.duration, event.replayId));
+        }
+    }
+
+    private void append(int playerId, Map<String, Object> match) {
+        Ring ring = get(playerId);
+        if (ring != null) {
+            ring.add(match);
+        }
+    }
+
+    private Ring get(int playerId) {
+        SoftReference<Ring> ref = entries.get(playerId);
+        if (ref == null) return null;
+        Ring ring = ref.get();
+        if (ring == null) {
+            entries.remove(playerId, ref);
+        }
+        return ring;
+    }
+
+    private static Map<String, Object> toEntry(int matchId, Timestamp createdAt, int playerId,
+                                               String opponentName, int winnerId, String difficulty,
+                                               int myScore, int opponentScore, int duration, long replayId) {
+        Map<String, Object> match = new HashMap<>();
+        match.put("id", matchId);
+        match.put("opponent", opponentName);
+        match.put("result", winnerId <= 0 ? "DRAW" : (winnerId == playerId ? "WIN" : "LOSS"));
+        match.put("difficulty", difficulty);
+        match.put("my_score", myScore);
+        match.put("opponent_score", opponentScore);
+        match.put("duration", duration);
+        match.put("created_at", createdAt);
+        if (replayId != 0) match.put("replay_id", replayId);
+        return match;
+    }
+
+    private static class Ring {
+        private final Map<String, Object>[] buffer;
+        private int head; // vị trí sẽ ghi tiếp theo
+        private int size;
+        // true nếu ring đang giữ toàn bộ lịch sử của người chơi
+        private boolean complete;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Ring() {
+            buffer = new Map[CAPACITY];
+        }
+
+        synchronized void add(Map<String, Object> match) {
+            buffer[head] = match;
+            head = (head + 1) % CAPACITY;
+            if (size < CAPACITY) {
+                size++;
+            } else {
+                complete = false;
+            }
+        }
+
+        synchronized List<Map<String, Object>> newest(int limit) {
+            if (limit > size && !complete) return null;
+            int count = Math.min(limit, size);
+            List<Map<String, Object>> result = new ArrayList<>(count);
+            for (int i = 1; i <= count; i++) {
+                result.add(buffer[(head - i + CAPACITY) % CAPACITY]);
+            }
+            return result;
+        }
+    }
+}
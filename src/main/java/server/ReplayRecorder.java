@@ -0,0 +1,84 @@
+package server;
+
+import common.BoardConfig;
+import common.Replay;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Bản ghi nhị phân của một ván (định dạng xem common.Replay), giữ trong bộ nhớ tới khi kết thúc
+ * rồi giao cho ReplayStore. Các hàm ghi chỉ được gọi trong lúc giữ khóa của GameRoom.
+ */
+public class ReplayRecorder {
+    private final long startTime;
+    private ByteBuffer buffer = ByteBuffer.allocate(512);
+
+    public ReplayRecorder(long startTime, BoardConfig board, long seed, ClientHandler[] players) {
+        this.startTime = startTime;
+        buffer.putInt(Replay.MAGIC);
+        buffer.putInt(0); // độ dài, điền khi kết thúc
+        buffer.put(Replay.VERSION);
+        buffer.putLong(startTime);
+        buffer.putLong(seed);
+        buffer.putShort((short) board.cardCount);
+        buffer.putInt(board.timeLimit);
+        putString(board.difficulty);
+        buffer.put((byte) players.length);
+        for (ClientHandler player : players) {
+            ensure(4);
+            buffer.putInt(player.getPlayerId());
+            putString(player.getUsername());
+        }
+    }
+
+    public void reveal(int seat, int card) {
+        event(Replay.REVEAL, seat, 2);
+        buffer.putShort((short) card);
+    }
+
+    public void pair(int seat, int card1, int card2, boolean matched) {
+        event(Replay.PAIR, seat, 5);
+        buffer.putShort((short) card1);
+        buffer.putShort((short) card2);
+        buffer.put((byte) (matched ? 1 : 0));
+    }
+
+    public void leave(int seat) {
+        event(Replay.LEAVE, seat, 0);
+    }
+
+    /** Ghi sự kiện kết thúc và trả về bản ghi hoàn chỉnh (sẵn để đọc). */
+    public ByteBuffer finish(byte reason, int winnerSeat, int[] scores) {
+        event(Replay.END, winnerSeat < 0 ? 0 : winnerSeat, 2 + 4 * scores.length);
+        buffer.put(reason);
+        buffer.put((byte) winnerSeat);
+        for (int score : scores) {
+            buffer.putInt(score);
+        }
+        buffer.putInt(4, buffer.position());
+        buffer.flip();
+        return buffer;
+    }
+
+    private void event(byte type, int seat, int payload) {
+        ensure(6 + payload);
+        buffer.put(type);
+        buffer.put((byte) seat);
+        buffer.putInt((int) (System.currentTimeMillis() - startTime));
+    }
+
+    private void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensure(2 + bytes.length);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() >= bytes) return;
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+}
@@ -0,0 +1,169 @@
+package server;
+
+import common.Replay;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Kho replay: các file segment chỉ ghi nối (replays-000001.rpl, ...), mỗi segment tối đa SEGMENT_BYTES.
+ * Id replay = (số segment << 32) | vị trí trong segment, nên đọc lại chỉ cần seek, không cần index.
+ *
+ * GameRoom ghi sự kiện vào bộ đệm trong bộ nhớ (ReplayRecorder); hết ván, bản ghi được cấp chỗ ngay
+ * (chỉ là cộng vị trí) và luồng nền ghi xuống đĩa bằng một lần write, nên ván đấu không bao giờ chờ đĩa.
+ * Mỗi lần khởi động bắt đầu segment mới, để không ghi đè lên chỗ đã cấp nhưng chưa kịp ghi trước khi tắt.
+ * Đọc lại (open) map thẳng vùng của bản ghi trong file, không chép vào heap.
+ *
+ *   java server.ReplayStore [dir] replayId   -- in các sự kiện của một replay
+ */
+public class ReplayStore {
+    private static final long SEGMENT_BYTES = Long.getLong("replay.segmentMB", 64) * 1024 * 1024;
+
+    private final File dir;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "replay-writer");
+        t.setDaemon(true);
+        return t;
+    });
+    // Chỉ luồng writer dùng
+    private FileChannel channel;
+    private int channelSegment = -1;
+
+    private int segment;
+    private long position;
+
+    public ReplayStore(File dir) throws IOException {
+        this.dir = dir;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create replay directory " + dir.getAbsolutePath());
+        }
+        int last = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                int index = segmentIndex(file.getName());
+                last = Math.max(last, index);
+            }
+        }
+        segment = last + 1;
+        System.out.println("✓ Replay store ready: " + dir.getAbsolutePath() + " (segment " + segment + ")");
+    }
+
+    private static int segmentIndex(String name) {
+        if (!name.startsWith("replays-") || !name.endsWith(".rpl")) return 0;
+        try {
+            return Integer.parseInt(name.substring(8, name.length() - 4));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static File segmentFile(File dir, int index) {
+        return new File(dir, String.format("replays-%06d.rpl", index));
+    }
+
+    /** Cấp chỗ cho một replay đã đóng khung (ReplayRecorder.finish) và trả về id; việc ghi chạy ở nền. */
+    public long store(ByteBuffer record) {
+        int seg;
+        long pos;
+        synchronized (this) {
+            if (position > 0 && position + record.remaining() > SEGMENT_BYTES) {
+                segment++;
+                position = 0;
+            }
+            seg = segment;
+            pos = position;
+            position += record.remaining();
+        }
+        writer.execute(() -> write(seg, pos, record));
+        return ((long) seg << 32) | pos;
+    }
+
+    private void write(int seg, long pos, ByteBuffer record) {
+        try {
+            if (seg != channelSegment) {
+                // Segment cũ không còn lần ghi nào (writer chạy theo thứ tự cấp chỗ)
+                if (channel != null) channel.close();
+                channel = FileChannel.open(segmentFile(dir, seg).toPath(), StandardOpenOption.CREATE,
+                                           StandardOpenOption.WRITE);
+                channelSegment = seg;
+            }
+            while (record.hasRemaining()) {
+                pos += channel.write(record, pos);
+            }
+        } catch (IOException e) {
+            System.err.println("✗ Replay " + (((long) seg << 32) | pos) + " lost:");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Vùng file của một replay, map chỉ đọc (page cache của hệ điều hành, không chép vào heap);
+     * null nếu id không trỏ tới một bản ghi đã ghi xong.
+     */
+    public ByteBuffer open(long replayId) throws IOException {
+        return map(dir, replayId);
+    }
+
+    private static ByteBuffer map(File dir, long replayId) throws IOException {
+        int seg = segmentOf(replayId);
+        long offset = offsetOf(replayId);
+        File file = segmentFile(dir, seg);
+        if (seg <= 0 || !file.isFile()) return null;
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = in.size();
+            if (offset + Replay.PREFIX_BYTES > size) return null;
+            ByteBuffer prefix = ByteBuffer.allocate(Replay.PREFIX_BYTES);
+            if (in.read(prefix, offset) < Replay.PREFIX_BYTES) return null;
+            prefix.flip();
+            // Chỗ đã cấp nhưng writer chưa ghi tới thì còn là số 0 (hoặc ngoài cuối file)
+            if (prefix.getInt() != Replay.MAGIC) return null;
+            int length = prefix.getInt();
+            if (length < Replay.PREFIX_BYTES || offset + length > size) return null;
+            // Mapping vẫn dùng được sau khi đóng channel
+            return in.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        }
+    }
+
+    public static int segmentOf(long replayId) {
+        return (int) (replayId >>> 32);
+    }
+
+    public static long offsetOf(long replayId) {
+        return replayId & 0xFFFFFFFFL;
+    }
+
+    /** Đợi các lần ghi còn lại rồi đóng segment hiện tại. */
+    public void shutdown() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(5, TimeUnit.SECONDS);
+            if (channel != null) {
+                channel.force(false);
+                channel.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        System.out.println("✓ Replay store closed");
+    }
+
+    public static void main(String[] args) throws IOException {
+        File dir = new File(args.length > 1 ? args[0] : System.getProperty("replay.dir", "replays"));
+        long replayId = Long.parseLong(args[args.length - 1]);
+        ByteBuffer record = map(dir, replayId);
+        if (record == null) {
+            System.out.println("✗ No replay at " + replayId);
+            System.exit(1);
+        }
+        for (String line : Replay.parse(record).describe()) {
+            System.out.println(line);
+        }
+    }
+}
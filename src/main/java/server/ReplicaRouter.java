@@ -0,0 +1,235 @@
+package server;
+
+import java.sql.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chọn kết nối cho các truy vấn chỉ đọc (leaderboard, lịch sử đấu).
+ * Nếu có cấu hình replica (-Ddb.replica.host) và replica không trễ quá
+ * db.replica.maxLagSeconds so với primary thì đọc từ replica; ngược lại đọc từ primary.
+ * Replica lỗi thì bị bỏ qua một lúc rồi mới thử lại. Các bộ đếm cho biết tỉ lệ đọc/ghi thực tế.
+ *
+ * Đọc được ghi của chính mình: luồng của một người chơi gắn phiên bằng bindSession(), các lần ghi ghi lại
+ * id người chơi bị ảnh hưởng. Người vừa có dữ liệu được ghi mà replica chưa chắc đã nhận (theo độ trễ
+ * đo lần gần nhất) thì đọc từ primary.
+ */
+public class ReplicaRouter {
+    private static final long LAG_CHECK_MILLIS = 1_000;
+    private static final long RETRY_MILLIS = 5_000;
+    // Người chơi của luồng đang đọc (luồng ClientHandler sau khi đăng nhập)
+    private static final ThreadLocal<Integer> SESSION = new ThreadLocal<>();
+
+    /** Kết nối tới replica và cách đo độ trễ; test thay bằng bản giả. */
+    interface Source {
+        Connection connect() throws SQLException;
+
+        /** Độ trễ (giây) so với primary, -1 nếu không biết (replication dừng). */
+        long lagSeconds(Connection replica) throws SQLException;
+    }
+
+    private static class MySqlSource implements Source {
+        private final String url;
+        private final String user;
+        private final String password;
+        private boolean warnedNotReplica;
+
+        MySqlSource(String url, String user, String password) {
+            this.url = url;
+            this.user = user;
+            this.password = password;
+        }
+
+        @Override
+        public Connection connect() throws SQLException {
+            Connection connection = DriverManager.getConnection(url, user, password);
+            connection.setReadOnly(true);
+            return connection;
+        }
+
+        // Seconds_Behind_Source = NULL khi replication dừng: coi như trễ vô hạn
+        @Override
+        public long lagSeconds(Connection replica) throws SQLException {
+            try (Statement stmt = replica.createStatement()) {
+                ResultSet rs;
+                String column = "Seconds_Behind_Source";
+                try {
+                    rs = stmt.executeQuery("SHOW REPLICA STATUS");
+                } catch (SQLException e) {
+                    // MySQL cũ hơn 8.0.22
+                    rs = stmt.executeQuery("SHOW SLAVE STATUS");
+                    column = "Seconds_Behind_Master";
+                }
+                try (ResultSet status = rs) {
+                    if (!status.next()) {
+                        // Không phải replica (vd. một instance độc lập dùng thay thế khi chạy thử)
+                        if (!warnedNotReplica) {
+                            warnedNotReplica = true;
+                            System.out.println("⚠ Read replica reports no replication status, assuming no lag");
+                        }
+                        return 0;
+                    }
+                    long lag = status.getLong(column);
+                    return status.wasNull() ? -1 : lag;
+                }
+            }
+        }
+    }
+
+    private final Source source;
+    private final long maxLagSeconds;
+    private final long lagCheckMillis;
+    private final long retryMillis;
+    private Connection replica;
+    private boolean healthy;
+    private long lagSeconds = -1;
+    private long checkedAt;
+    private long retryAt;
+    // Replica chắc chắn đã có mọi ghi trước thời điểm này (theo lần đo lag gần nhất)
+    private long appliedUpTo;
+    // Người chơi -> lần ghi gần nhất mà replica có thể chưa có
+    private final Map<Integer, Long> lastWriteAt = new ConcurrentHashMap<>();
+
+    private final AtomicLong replicaReads = new AtomicLong();
+    private final AtomicLong primaryReads = new AtomicLong();
+    private final AtomicLong fallbackReads = new AtomicLong();
+    private final AtomicLong pinnedReads = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+
+    public ReplicaRouter(String url, String user, String password, long maxLagSeconds) {
+        this(url == null ? null : new MySqlSource(url, user, password), maxLagSeconds, LAG_CHECK_MILLIS,
+             RETRY_MILLIS);
+    }
+
+    ReplicaRouter(Source source, long maxLagSeconds, long lagCheckMillis, long retryMillis) {
+        this.source = source;
+        this.maxLagSeconds = maxLagSeconds;
+        this.lagCheckMillis = lagCheckMillis;
+        this.retryMillis = retryMillis;
+    }
+
+    /** Các lần đọc sau trên luồng này thuộc về người chơi playerId (gọi khi đăng nhập). */
+    public static void bindSession(int playerId) {
+        SESSION.set(playerId);
+    }
+
+    public static void unbindSession() {
+        SESSION.remove();
+    }
+
+    /** Replica theo system property; url null nghĩa là không có replica, mọi truy vấn đọc đi primary. */
+    public static ReplicaRouter fromSystemProperties(String dbName, String defaultUser, String defaultPassword,
+                                                     String urlOptions) {
+        String host = System.getProperty("db.replica.host");
+        String url = host == null ? null :
+                     "jdbc:mysql://" + host + ":" + System.getProperty("db.replica.port", "3306") +
+                     "/" + dbName + urlOptions;
+        ReplicaRouter router = new ReplicaRouter(url,
+                System.getProperty("db.replica.user", defaultUser),
+                System.getProperty("db.replica.password", defaultPassword),
+                Long.getLong("db.replica.maxLagSeconds", 5));
+        if (url != null) {
+            System.out.println("✓ Read queries routed to replica " + host + " (max lag " +
+                               router.maxLagSeconds + "s)");
+        }
+        return router;
+    }
+
+    /** Kết nối replica dùng được ngay lúc này, hoặc null nếu phải đọc từ primary. */
+    public synchronized Connection replicaForRead() {
+        if (source == null) return null;
+        long now = System.currentTimeMillis();
+        if (now >= retryAt && now - checkedAt >= lagCheckMillis) {
+            checkedAt = now;
+            checkReplica();
+        }
+        if (!healthy) {
+            fallbackReads.incrementAndGet();
+            return null;
+        }
+        Integer session = SESSION.get();
+        Long writtenAt = session == null ? null : lastWriteAt.get(session);
+        if (writtenAt != null && writtenAt >= appliedUpTo) {
+            pinnedReads.incrementAndGet();
+            return null;
+        }
+        return replica;
+    }
+
+    private void checkReplica() {
+        try {
+            if (replica == null || replica.isClosed()) {
+                replica = source.connect();
+            }
+            long measuredAt = System.currentTimeMillis();
+            lagSeconds = source.lagSeconds(replica);
+            if (lagSeconds >= 0) {
+                // Lag tính theo giây (làm tròn xuống): trừ thêm 1 giây cho chắc
+                appliedUpTo = measuredAt - (lagSeconds + 1) * 1000;
+                lastWriteAt.values().removeIf(at -> at < appliedUpTo);
+            }
+            boolean wasHealthy = healthy;
+            healthy = lagSeconds >= 0 && lagSeconds <= maxLagSeconds;
+            if (wasHealthy && !healthy) {
+                System.err.println("⚠ Replica lag " + (lagSeconds < 0 ? "unknown" : lagSeconds + "s") +
+                                   ", reading from primary");
+            } else if (!wasHealthy && healthy) {
+                System.out.println("✓ Replica caught up (lag " + lagSeconds + "s), reading from replica");
+            }
+        } catch (SQLException e) {
+            replicaFailed(e);
+        }
+    }
+
+    public synchronized void replicaFailed(SQLException e) {
+        if (healthy || replica != null) {
+            System.err.println("✗ Read replica failed, reading from primary: " + e.getMessage());
+        }
+        healthy = false;
+        retryAt = System.currentTimeMillis() + retryMillis;
+        try {
+            if (replica != null) replica.close();
+        } catch (SQLException ignored) {
+            // Kết nối đã hỏng sẵn
+        }
+        replica = null;
+    }
+
+    public void recordReplicaRead() {
+        replicaReads.incrementAndGet();
+    }
+
+    public void recordPrimaryRead() {
+        primaryReads.incrementAndGet();
+    }
+
+    /** Đếm một lần ghi; playerIds là những người chơi có dữ liệu vừa đổi (đọc từ primary tới khi replica có). */
+    public void recordWrite(int... playerIds) {
+        writes.incrementAndGet();
+        if (source == null) return;
+        long now = System.currentTimeMillis();
+        for (int playerId : playerIds) {
+            lastWriteAt.put(playerId, now);
+        }
+    }
+
+    public synchronized String getStats() {
+        long reads = replicaReads.get() + primaryReads.get();
+        String split = reads == 0 ? "-" : Math.round(replicaReads.get() * 100.0 / reads) + "%";
+        return "reads: " + replicaReads.get() + " replica / " + primaryReads.get() + " primary (" +
+               split + " on replica, " + fallbackReads.get() + " fallbacks, " + pinnedReads.get() +
+               " read-your-writes), writes: " + writes.get() +
+               (source == null ? ", no replica configured" : ", replica lag: " +
+                (lagSeconds < 0 ? "unknown" : lagSeconds + "s"));
+    }
+
+    public synchronized void close() {
+        try {
+            if (replica != null) replica.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        replica = null;
+    }
+}
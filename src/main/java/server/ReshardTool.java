@@ -0,0 +1,283 @@
+package server;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Chuyển toàn bộ dữ liệu từ bố cục shard hiện tại sang một số shard mới.
+ * Nguồn đọc theo cấu hình đang dùng (-Ddb.shards, mặc định 1 = không chia shard);
+ * đích là các schema mới {reshard.target}_k (hoặc {reshard.target} nếu chỉ 1 shard),
+ * để dữ liệu cũ không bị đụng tới cho tới khi đổi cấu hình server sang đích mới.
+ *
+ * Cách dùng (server phải dừng và journal đã áp dụng hết):
+ *   java -Ddb.shards=1 -Dreshard.target=card_flip_game_v2 server.ReshardTool 4
+ * rồi chạy server với -Dstorage=sharded -Ddb.shards=4 -Ddb.name=card_flip_game_v2
+ *
+ * Các dòng được đọc dạng stream (không nạp hết vào bộ nhớ) và ghi theo lô.
+ * Id trận được giữ nguyên nên không còn theo dãy (id ≡ shard) của bố cục mới; sau khi chép, AUTO_INCREMENT
+ * của match_history ở mọi shard đích được đặt quá id lớn nhất để id mới không trùng id đã chép.
+ */
+public class ReshardTool {
+    private static final int BATCH_SIZE = 500;
+    // Id người chơi từ hạng 3 trở xuống của trận m, cách nhau bởi dấu phẩy (NULL với trận 2 người)
+    private static final String SEATS_OF_MATCH =
+        "(SELECT GROUP_CONCAT(s.player_id) FROM match_participants s " +
+        "WHERE s.match_id = m.id AND s.created_at = m.created_at AND s.placement > 2)";
+
+    private final List<Connection> sources = new ArrayList<>();
+    private final List<Connection> targets = new ArrayList<>();
+    private final List<DatabaseManager> targetManagers = new ArrayList<>();
+    private final int sourceCount;
+    private final int targetCount;
+
+    public ReshardTool(int sourceCount, int targetCount, String targetName) throws SQLException {
+        this.sourceCount = sourceCount;
+        this.targetCount = targetCount;
+        for (String[] location : ShardedStorage.shardLocations(sourceCount)) {
+            sources.add(DriverManager.getConnection(DatabaseManager.urlFor(location[0], location[1], location[2]),
+                                                    DatabaseManager.DB_USER, DatabaseManager.password()));
+        }
+        for (String[] location : ShardedStorage.shardLocations(targetCount, targetName)) {
+            // DatabaseManager tạo schema và bảng đích
+            DatabaseManager target = new DatabaseManager(location[0], location[1], location[2],
+                                                         targetManagers.size(), targetCount);
+            targetManagers.add(target);
+            Connection c = target.connection();
+            c.setAutoCommit(false);
+            targets.add(c);
+        }
+    }
+
+    public void run() throws SQLException {
+        long start = System.currentTimeMillis();
+        copyPlayers();
+        copyMatches();
+        copyParticipants();
+        copyBuckets();
+        System.out.println("✓ Resharded " + sourceCount + " -> " + targetCount + " shards in " +
+                           (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private void copyPlayers() throws SQLException {
+        String insert = "INSERT INTO players (id, username, password, total_score, wins, losses, " +
+                       "quit_count, is_banned, created_at, last_login, rating, rating_rd, rated_games, " +
+                       "rating_period) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        Batches batches = new Batches(insert);
+        Batches directory = targetCount > 1
+                ? new Batches("INSERT INTO player_directory (id, username) VALUES (?, ?)") : null;
+        long copied = 0;
+        for (Connection source : sources) {
+            try (Statement stmt = streaming(source);
+                 ResultSet rs = stmt.executeQuery("SELECT id, username, password, total_score, wins, losses, " +
+                                                  "quit_count, is_banned, created_at, last_login, rating, " +
+                                                  "rating_rd, rated_games, rating_period FROM players")) {
+                while (rs.next()) {
+                    int id = rs.getInt("id");
+                    PreparedStatement pstmt = batches.statementFor(ShardedStorage.shardOf(id, targetCount));
+                    for (int col = 1; col <= 14; col++) {
+                        pstmt.setObject(col, rs.getObject(col));
+                    }
+                    batches.add(ShardedStorage.shardOf(id, targetCount));
+                    if (directory != null) {
+                        PreparedStatement dir = directory.statementFor(0);
+                        dir.setInt(1, id);
+                        dir.setString(2, rs.getString("username"));
+                        directory.add(0);
+                    }
+                    copied++;
+                }
+            }
+        }
+        batches.flush();
+        if (directory != null) directory.flush();
+        System.out.println("✓ Copied " + copied + " players");
+    }
+
+    /**
+     * Nguồn đã chia shard thì trận chéo shard có nhiều bản; chỉ lấy bản ở shard của player1
+     * để mỗi trận được chép đúng một lần, rồi ghi vào shard đích của mọi người chơi
+     * (trận nhiều người gồm cả những người trong match_participants).
+     */
+    private void copyMatches() throws SQLException {
+        String insert = "INSERT INTO match_history (id, player1_id, player2_id, winner_id, difficulty, " +
+                       "player1_score, player2_score, duration, created_at, replay_id) " +
+                       "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        Batches batches = new Batches(insert);
+        long copied = 0;
+        long maxId = 0;
+        for (int k = 0; k < sources.size(); k++) {
+            String sql = "SELECT id, player1_id, player2_id, winner_id, difficulty, player1_score, " +
+                        "player2_score, duration, created_at, replay_id, " + SEATS_OF_MATCH + " AS seats " +
+                        "FROM match_history m" +
+                        (sourceCount > 1 ? " WHERE MOD(player1_id, " + sourceCount + ") = " + k : "");
+            try (Statement stmt = streaming(sources.get(k)); ResultSet rs = stmt.executeQuery(sql)) {
+                while (rs.next()) {
+                    maxId = Math.max(maxId, rs.getLong("id"));
+                    for (int shard : targetShards(rs.getInt("player1_id"), rs.getInt("player2_id"),
+                                                  rs.getString("seats"))) {
+                        PreparedStatement pstmt = batches.statementFor(shard);
+                        for (int col = 1; col <= 10; col++) {
+                            pstmt.setObject(col, rs.getObject(col));
+                        }
+                        batches.add(shard);
+                    }
+                    copied++;
+                }
+            }
+        }
+        batches.flush();
+        for (Connection target : targets) {
+            try (Statement stmt = target.createStatement()) {
+                stmt.execute("ALTER TABLE match_history AUTO_INCREMENT = " + (maxId + 1));
+            }
+        }
+        System.out.println("✓ Copied " + copied + " matches (new match ids start after " + maxId + ")");
+    }
+
+    /** Ghế của trận nhiều người, chép tới mọi shard đích đang giữ trận đó (xem copyMatches). */
+    private void copyParticipants() throws SQLException {
+        String insert = "INSERT INTO match_participants (match_id, player_id, placement, score, left_early, " +
+                       "created_at) VALUES (?, ?, ?, ?, ?, ?)";
+        Batches batches = new Batches(insert);
+        long copied = 0;
+        for (int k = 0; k < sources.size(); k++) {
+            String sql = "SELECT mp.match_id, mp.player_id, mp.placement, mp.score, mp.left_early, mp.created_at, " +
+                        "m.player1_id, m.player2_id, " + SEATS_OF_MATCH + " AS seats " +
+                        "FROM match_participants mp " +
+                        "JOIN match_history m ON m.id = mp.match_id AND m.created_at = mp.created_at" +
+                        (sourceCount > 1 ? " WHERE MOD(m.player1_id, " + sourceCount + ") = " + k : "");
+            try (Statement stmt = streaming(sources.get(k)); ResultSet rs = stmt.executeQuery(sql)) {
+                while (rs.next()) {
+                    for (int shard : targetShards(rs.getInt("player1_id"), rs.getInt("player2_id"),
+                                                  rs.getString("seats"))) {
+                        PreparedStatement pstmt = batches.statementFor(shard);
+                        for (int col = 1; col <= 6; col++) {
+                            pstmt.setObject(col, rs.getObject(col));
+                        }
+                        batches.add(shard);
+                    }
+                    copied++;
+                }
+            }
+        }
+        batches.flush();
+        System.out.println("✓ Copied " + copied + " match participants");
+    }
+
+    /** Các shard đích (không trùng) của player1, player2 và các ghế còn lại. */
+    private Collection<Integer> targetShards(int player1Id, int player2Id, String seats) {
+        Set<Integer> shards = new LinkedHashSet<>();
+        shards.add(ShardedStorage.shardOf(player1Id, targetCount));
+        shards.add(ShardedStorage.shardOf(player2Id, targetCount));
+        if (seats != null) {
+            for (String seat : seats.split(",")) {
+                shards.add(ShardedStorage.shardOf(Integer.parseInt(seat), targetCount));
+            }
+        }
+        return shards;
+    }
+
+    private void copyBuckets() throws SQLException {
+        String insert = "INSERT INTO leaderboard_buckets (period, bucket_start, difficulty, player_id, " +
+                       "score, wins, losses) VALUES (?, ?, ?, ?, ?, ?, ?)";
+        Batches batches = new Batches(insert);
+        long copied = 0;
+        for (Connection source : sources) {
+            try (Statement stmt = streaming(source);
+                 ResultSet rs = stmt.executeQuery("SELECT period, bucket_start, difficulty, player_id, " +
+                                                  "score, wins, losses FROM leaderboard_buckets")) {
+                while (rs.next()) {
+                    int shard = ShardedStorage.shardOf(rs.getInt("player_id"), targetCount);
+                    PreparedStatement pstmt = batches.statementFor(shard);
+                    for (int col = 1; col <= 7; col++) {
+                        pstmt.setObject(col, rs.getObject(col));
+                    }
+                    batches.add(shard);
+                    copied++;
+                }
+            }
+        }
+        batches.flush();
+        System.out.println("✓ Copied " + copied + " leaderboard buckets");
+    }
+
+    // Connector/J chỉ stream từng dòng khi fetchSize = Integer.MIN_VALUE trên statement forward-only
+    private static Statement streaming(Connection c) throws SQLException {
+        Statement stmt = c.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(Integer.MIN_VALUE);
+        return stmt;
+    }
+
+    /** Một PreparedStatement theo lô cho mỗi shard đích. */
+    private class Batches {
+        private final PreparedStatement[] statements = new PreparedStatement[targetCount];
+        private final int[] pending = new int[targetCount];
+        private final String sql;
+
+        Batches(String sql) {
+            this.sql = sql;
+        }
+
+        PreparedStatement statementFor(int shard) throws SQLException {
+            if (statements[shard] == null) {
+                statements[shard] = targets.get(shard).prepareStatement(sql);
+            }
+            return statements[shard];
+        }
+
+        void add(int shard) throws SQLException {
+            statements[shard].addBatch();
+            if (++pending[shard] >= BATCH_SIZE) {
+                flush(shard);
+            }
+        }
+
+        void flush() throws SQLException {
+            for (int shard = 0; shard < targetCount; shard++) {
+                if (statements[shard] != null) {
+                    flush(shard);
+                    statements[shard].close();
+                    statements[shard] = null;
+                }
+            }
+        }
+
+        private void flush(int shard) throws SQLException {
+            statements[shard].executeBatch();
+            targets.get(shard).commit();
+            pending[shard] = 0;
+        }
+    }
+
+    public void close() {
+        for (Connection source : sources) {
+            try {
+                source.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        for (DatabaseManager target : targetManagers) {
+            target.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: java [-Ddb.shards=<current>] [-Dreshard.target=<schema>] " +
+                               "server.ReshardTool <newShardCount>");
+            return;
+        }
+        int sourceCount = Integer.getInteger("db.shards", 1);
+        int targetCount = Integer.parseInt(args[0]);
+        String targetName = System.getProperty("reshard.target", DatabaseManager.DB_NAME + "_r" + targetCount);
+        System.out.println("⚠ Make sure the server is stopped and its match journal is fully applied");
+
+        ReshardTool tool = new ReshardTool(sourceCount, targetCount, targetName);
+        try {
+            tool.run();
+        } finally {
+            tool.close();
+        }
+    }
+}
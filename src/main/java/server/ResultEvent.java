@@ -0,0 +1,257 @@
+package server;
+
+import java.util.*;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Một kết quả trận cần ghi xuống DB, được ghi vào MatchJournal trước rồi mới áp dụng.
+ * LOGIN chỉ mang last_login của player1, để đăng nhập không phải chờ thêm một câu UPDATE.
+ * eventId là duy nhất nên việc áp dụng lại (sau khi crash hoặc DB mất kết nối) là idempotent.
+ * Trận nhiều người (3-8) mang thêm danh sách participants; player1/player2 là hai người điểm cao nhất
+ * để match_history và lịch sử vẫn đọc như trận 2 người.
+ */
+public class ResultEvent {
+    public static final String GAME_END = "GAME_END";
+    public static final String QUIT = "QUIT";
+    public static final String LOGIN = "LOGIN";
+
+    public long eventId;
+    public String type;
+    public long at;              // thời điểm kết thúc trận, làm tròn tới giây
+    public String difficulty;
+    public int player1Id;
+    public String player1Name;
+    public int player1Score;
+    public int player2Id;
+    public String player2Name;
+    public int player2Score;
+    public int winnerId;         // -1 nếu hòa
+    public int duration;
+    public int quitterId;        // chỉ dùng cho QUIT
+    public List<Participant> participants;  // null với trận 2 người
+    public long replayId;        // 0 nếu không có replay (xem ReplayStore)
+    public List<RatingEngine.Rating> ratings;  // rating sau trận (RatingEngine.record), ghi cùng kết quả
+
+    /** Một người chơi của trận nhiều người; left = đã thoát giữa trận, kết quả đã ghi bằng sự kiện QUIT riêng. */
+    public static class Participant {
+        public final int id;
+        public final String name;
+        public final int score;
+        public final boolean left;
+
+        public Participant(int id, String name, int score, boolean left) {
+            this.id = id;
+            this.name = name;
+            this.score = score;
+            this.left = left;
+        }
+    }
+
+    public static ResultEvent gameEnd(String difficulty, ClientHandler p1, int p1Score,
+                                      ClientHandler p2, int p2Score, int winnerId, int duration) {
+        ResultEvent e = base(GAME_END, difficulty, p1, p1Score, p2, p2Score);
+        e.winnerId = winnerId;
+        e.duration = duration;
+        return e;
+    }
+
+    /** Người thoát nhận 0 điểm, đối thủ thắng với ít nhất 100 điểm. */
+    public static ResultEvent quit(String difficulty, ClientHandler quitter, ClientHandler opponent,
+                                   int opponentScore) {
+        ResultEvent e = base(QUIT, difficulty, quitter, 0, opponent, opponentScore);
+        e.winnerId = opponent.getPlayerId();
+        e.quitterId = quitter.getPlayerId();
+        return e;
+    }
+
+    /**
+     * Kết thúc trận nhiều người; seats đã xếp theo thứ hạng (người còn chơi theo điểm giảm dần,
+     * người đã thoát ở cuối), nên player1/player2 là hai người đứng đầu.
+     */
+    public static ResultEvent gameEnd(String difficulty, List<Participant> seats, int winnerId, int duration) {
+        Participant first = seats.get(0);
+        Participant second = seats.get(1);
+        ResultEvent e = new ResultEvent();
+        e.type = GAME_END;
+        e.at = System.currentTimeMillis() / 1000 * 1000;
+        e.difficulty = difficulty;
+        e.player1Id = first.id;
+        e.player1Name = first.name;
+        e.player1Score = first.score;
+        e.player2Id = second.id;
+        e.player2Name = second.name;
+        e.player2Score = second.score;
+        e.winnerId = winnerId;
+        e.duration = duration;
+        e.participants = new ArrayList<>(seats);
+        return e;
+    }
+
+    /**
+     * Thoát khỏi phòng nhiều người khi vẫn còn ít nhất hai người chơi tiếp: chỉ ghi 0 điểm, một trận thua
+     * và quit_count cho người thoát (player2Id = 0); trận vẫn được ghi khi kết thúc.
+     */
+    public static ResultEvent leave(String difficulty, ClientHandler quitter) {
+        ResultEvent e = new ResultEvent();
+        e.type = QUIT;
+        e.at = System.currentTimeMillis() / 1000 * 1000;
+        e.difficulty = difficulty;
+        e.player1Id = quitter.getPlayerId();
+        e.player1Name = quitter.getUsername();
+        e.player2Name = "";
+        e.winnerId = -1;
+        e.quitterId = quitter.getPlayerId();
+        e.participants = new ArrayList<>();
+        e.participants.add(new Participant(e.player1Id, e.player1Name, 0, false));
+        return e;
+    }
+
+    public static ResultEvent login(int playerId, String username) {
+        ResultEvent e = new ResultEvent();
+        e.type = LOGIN;
+        e.at = System.currentTimeMillis() / 1000 * 1000;
+        e.difficulty = "";
+        e.player1Id = playerId;
+        e.player1Name = username;
+        e.player2Name = "";
+        e.winnerId = -1;
+        return e;
+    }
+
+    private static ResultEvent base(String type, String difficulty, ClientHandler p1, int p1Score,
+                                    ClientHandler p2, int p2Score) {
+        ResultEvent e = new ResultEvent();
+        e.type = type;
+        e.at = System.currentTimeMillis() / 1000 * 1000;
+        e.difficulty = difficulty;
+        e.player1Id = p1.getPlayerId();
+        e.player1Name = p1.getUsername();
+        e.player1Score = p1Score;
+        e.player2Id = p2.getPlayerId();
+        e.player2Name = p2.getUsername();
+        e.player2Score = p2Score;
+        e.winnerId = -1;
+        return e;
+    }
+
+    public boolean isQuit() {
+        return QUIT.equals(type);
+    }
+
+    public boolean isLogin() {
+        return LOGIN.equals(type);
+    }
+
+    /** Những người cần cộng điểm/thắng thua từ sự kiện này (bỏ người đã thoát trước đó). */
+    public List<Participant> scoredPlayers() {
+        List<Participant> scored = new ArrayList<>();
+        if (participants == null) {
+            scored.add(new Participant(player1Id, player1Name, player1Score, false));
+            scored.add(new Participant(player2Id, player2Name, player2Score, false));
+        } else {
+            for (Participant p : participants) {
+                if (!p.left) scored.add(p);
+            }
+        }
+        return scored;
+    }
+
+    /** Id mọi người chơi của trận, kể cả người đã thoát. */
+    public List<Integer> playerIds() {
+        List<Integer> ids = new ArrayList<>();
+        if (participants == null) {
+            ids.add(player1Id);
+            ids.add(player2Id);
+        } else {
+            for (Participant p : participants) ids.add(p.id);
+        }
+        return ids;
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("eventId", eventId);
+        json.put("type", type);
+        json.put("at", at);
+        json.put("difficulty", difficulty);
+        json.put("p1", player1Id);
+        json.put("p1Name", player1Name);
+        json.put("s1", player1Score);
+        json.put("p2", player2Id);
+        json.put("p2Name", player2Name);
+        json.put("s2", player2Score);
+        json.put("winner", winnerId);
+        json.put("duration", duration);
+        json.put("quitter", quitterId);
+        if (replayId != 0) json.put("replay", replayId);
+        if (participants != null) {
+            JSONArray seats = new JSONArray();
+            for (Participant p : participants) {
+                JSONObject seat = new JSONObject();
+                seat.put("id", p.id);
+                seat.put("name", p.name);
+                seat.put("score", p.score);
+                seat.put("left", p.left);
+                seats.put(seat);
+            }
+            json.put("participants", seats);
+        }
+        if (ratings != null) {
+            JSONArray list = new JSONArray();
+            for (RatingEngine.Rating rating : ratings) {
+                JSONObject item = new JSONObject();
+                item.put("id", rating.playerId);
+                item.put("rating", rating.rating);
+                item.put("rd", rating.rd);
+                item.put("games", rating.games);
+                item.put("period", rating.period);
+                list.put(item);
+            }
+            json.put("ratings", list);
+        }
+        return json;
+    }
+
+    public static ResultEvent fromJSON(JSONObject json) {
+        ResultEvent e = new ResultEvent();
+        e.eventId = json.getLong("eventId");
+        e.type = json.getString("type");
+        e.at = json.getLong("at");
+        e.difficulty = json.getString("difficulty");
+        e.player1Id = json.getInt("p1");
+        e.player1Name = json.getString("p1Name");
+        e.player1Score = json.getInt("s1");
+        e.player2Id = json.getInt("p2");
+        e.player2Name = json.getString("p2Name");
+        e.player2Score = json.getInt("s2");
+        e.winnerId = json.getInt("winner");
+        e.duration = json.getInt("duration");
+        e.quitterId = json.getInt("quitter");
+        e.replayId = json.optLong("replay", 0);
+        // Journal cũ không có khóa này
+        JSONArray seats = json.optJSONArray("participants");
+        if (seats != null) {
+            e.participants = new ArrayList<>();
+            for (int i = 0; i < seats.length(); i++) {
+                JSONObject seat = seats.getJSONObject(i);
+                e.participants.add(new Participant(seat.getInt("id"), seat.getString("name"),
+                                                   seat.getInt("score"), seat.getBoolean("left")));
+            }
+        }
+        JSONArray list = json.optJSONArray("ratings");
+        if (list != null) {
+            e.ratings = new ArrayList<>();
+            for (int i = 0; i < list.length(); i++) {
+                JSONObject item = list.getJSONObject(i);
+                RatingEngine.Rating rating = new RatingEngine.Rating(item.getInt("id"));
+                rating.rating = item.getDouble("rating");
+                rating.rd = item.getDouble("rd");
+                rating.games = item.getInt("games");
+                rating.period = item.getInt("period");
+                e.ratings.add(rating);
+            }
+        }
+        return e;
+    }
+}
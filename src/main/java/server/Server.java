@@ -1,36 +1,107 @@
 package server;
 
 import common.Protocol;
+import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class Server {
     private static final int PORT = 5555;
-    private static DatabaseManager database;
+    private static final long STATS_SECONDS = Long.getLong("server.statsSeconds", 60);
+    private static final boolean REPAIR_ON_STARTUP = Boolean.getBoolean("db.integrity.repair");
+    // Kiểm tra chỉ đọc chạy nền sau khi đã mở cổng; tắt bằng -Ddb.integrity.check=false
+    private static final boolean CHECK_IN_BACKGROUND =
+            !REPAIR_ON_STARTUP && Boolean.parseBoolean(System.getProperty("db.integrity.check", "true"));
+    private static GameStorage database;
+    private static LeaderboardService leaderboards;
+    private static RecentMatchCache recentMatches;
+    private static DisciplineTracker discipline;
+    private static CircuitBreaker databaseBreaker;
+    private static MatchJournal journal;
+    private static DeckPool decks;
+    private static ReplayStore replays;
+    private static Matchmaker matchmaker;
+    private static RatingEngine ratings;
     private Map<String, ClientHandler> onlinePlayers;
     private Map<String, GameRoom> gameRooms;
+    private Map<String, GroupChallenge> groupChallenges;
     private ServerSocket serverSocket;
+    private ScheduledExecutorService statsLogger;
     private boolean running;
     
     public Server() {
-        database = new DatabaseManager();
         onlinePlayers = new ConcurrentHashMap<>();
         gameRooms = new ConcurrentHashMap<>();
+        groupChallenges = new ConcurrentHashMap<>();
         running = true;
+        databaseBreaker = new CircuitBreaker("Database");
+        decks = new DeckPool();
+        matchmaker = new Matchmaker(this);
         
-        // Verify database integrity on startup
-        database.verifyDatabaseIntegrity();
+        // Các bước độc lập chạy song song; cổng chỉ mở sau khi mọi bước bắt buộc đã xong
+        Startup startup = new Startup();
+        CompletableFuture<GameStorage> storage = startup.required("storage", () -> {
+            GameStorage storageBackend = GameStorage.create();
+            if (!storageBackend.isAvailable()) {
+                storageBackend.close();
+                throw new IllegalStateException("database unreachable at " + DatabaseManager.DB_HOST + ":" +
+                                                DatabaseManager.DB_PORT + " (check -Ddb.host/-Ddb.password)");
+            }
+            database = storageBackend;
+            leaderboards = new LeaderboardService(storageBackend);
+            recentMatches = new RecentMatchCache(storageBackend);
+            discipline = new DisciplineTracker();
+            ratings = new RatingEngine(storageBackend, databaseBreaker);
+            return storageBackend;
+        }, storageBackend -> {
+            ratings.shutdown();
+            leaderboards.shutdown();
+            storageBackend.close();
+        });
+        if (REPAIR_ON_STARTUP) {
+            // Sửa số liệu không được chạy song song với trận đang ghi: làm xong trước khi mở cổng
+            startup.required("integrity repair", () -> {
+                database.verifyDatabaseIntegrity();
+                return null;
+            }, storage);
+        }
+        startup.required("match journal", () -> {
+            journal = new MatchJournal(database, databaseBreaker, recentMatches, ratings,
+                                       new File(System.getProperty("journal.dir", "journal")));
+            return journal;
+        }, MatchJournal::shutdown, storage);
+        startup.required("replay store", () -> {
+            replays = new ReplayStore(new File(System.getProperty("replay.dir", "replays")));
+            return replays;
+        }, ReplayStore::shutdown);
+        startup.optional("leaderboard warm-up", () -> leaderboards.warmUp(), storage);
+        try {
+            startup.await();
+        } catch (Startup.StartupException e) {
+            // Hai thứ này tạo trước khi khởi động các bước, không thuộc bước nào
+            matchmaker.shutdown();
+            decks.shutdown();
+            throw e;
+        } finally {
+            startup.printReport();
+        }
     }
     
     public void start() {
         try {
             serverSocket = new ServerSocket(PORT);
             System.out.println("Server started on port " + PORT);
+            startStatsLogger();
+            if (CHECK_IN_BACKGROUND) startIntegrityCheck();
             
             while (running) {
                 Socket clientSocket = serverSocket.accept();
@@ -44,6 +115,32 @@ public class Server {
         }
     }
     
+    // Quét toàn bộ (kể cả giải nén archive) mất lâu, không giữ cổng đóng trong lúc đó
+    private void startIntegrityCheck() {
+        Thread check = new Thread(() -> {
+            try {
+                database.verifyDatabaseIntegrity();
+            } catch (RuntimeException e) {
+                System.err.println("⚠ Integrity check failed: " + e.getMessage());
+            }
+        }, "integrity-check");
+        check.setDaemon(true);
+        check.start();
+    }
+    
+    // Một dòng thống kê định kỳ: người online, kết quả còn chờ trong journal, định tuyến đọc của storage, rating
+    private void startStatsLogger() {
+        statsLogger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "server-stats");
+            t.setDaemon(true);
+            return t;
+        });
+        statsLogger.scheduleWithFixedDelay(() -> System.out.println(
+                "[Server] " + onlinePlayers.size() + " online | journal: " + journal.getPendingCount() +
+                " pending | storage: " + database.getStats() +
+                " | ratings: " + ratings.getStats()), STATS_SECONDS, STATS_SECONDS, TimeUnit.SECONDS);
+    }
+    
     public synchronized void addOnlinePlayer(ClientHandler player) {
         onlinePlayers.put(player.getUsername(), player);
         System.out.println("Player online: " + player.getUsername());
@@ -87,29 +184,100 @@ public class Server {
         System.out.println("Game room created: " + room.getRoomId());
     }
     
+    public void addGroupChallenge(GroupChallenge challenge) {
+        groupChallenges.values().removeIf(GroupChallenge::isExpired);
+        groupChallenges.put(challenge.id, challenge);
+    }
+    
+    /** Lấy ra và bỏ khỏi danh sách nếu đã hết hạn. */
+    public GroupChallenge findGroupChallenge(String challengeId) {
+        GroupChallenge challenge = groupChallenges.get(challengeId);
+        if (challenge != null && challenge.isExpired()) {
+            groupChallenges.remove(challengeId);
+            return null;
+        }
+        return challenge;
+    }
+    
+    public boolean removeGroupChallenge(String challengeId) {
+        return groupChallenges.remove(challengeId) != null;
+    }
+    
     public void removeGameRoom(String roomId) {
         gameRooms.remove(roomId);
         System.out.println("Game room closed: " + roomId);
     }
     
-    public static DatabaseManager getDatabase() {
+    public static GameStorage getDatabase() {
         return database;
     }
     
+    public static LeaderboardService getLeaderboards() {
+        return leaderboards;
+    }
+    
+    public static RecentMatchCache getRecentMatches() {
+        return recentMatches;
+    }
+    
+    public static DisciplineTracker getDiscipline() {
+        return discipline;
+    }
+    
+    public static CircuitBreaker getDatabaseBreaker() {
+        return databaseBreaker;
+    }
+    
+    public static MatchJournal getJournal() {
+        return journal;
+    }
+    
+    public static DeckPool getDecks() {
+        return decks;
+    }
+    
+    public static ReplayStore getReplays() {
+        return replays;
+    }
+    
+    public static Matchmaker getMatchmaker() {
+        return matchmaker;
+    }
+    
+    public static RatingEngine getRatings() {
+        return ratings;
+    }
+    
     public void stop() {
         running = false;
         try {
             if (serverSocket != null) {
                 serverSocket.close();
             }
-            database.close();
+            if (statsLogger != null) statsLogger.shutdownNow();
+            decks.shutdown();
+            matchmaker.shutdown();
+            if (leaderboards != null) leaderboards.shutdown();
+            // Journal trước: kết quả chưa áp dụng vẫn nằm trong file, lần chạy sau sẽ phát lại
+            if (replays != null) replays.shutdown();
+            if (journal != null) journal.shutdown();
+            // RD tăng theo kỳ không đi qua journal: ghi nốt phần còn trong bộ nhớ trước khi đóng DB
+            if (ratings != null) ratings.shutdown();
+            if (database != null) database.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
     
     public static void main(String[] args) throws UnknownHostException {
-        Server server = new Server();
+        Server server;
+        try {
+            server = new Server();
+        } catch (Startup.StartupException e) {
+            System.err.println("✗ Server startup failed: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
         
         // Shutdown hook
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
@@ -0,0 +1,398 @@
+package server;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Chia dữ liệu người chơi ra nhiều schema/instance MySQL theo id: shard = id % số shard.
+ * Bật bằng -Dstorage=sharded -Ddb.shards=N; shard k mặc định là schema {db.name}_k trên db.host,
+ * có thể đổi bằng -Ddb.shard.k.host / .port / .name.
+ *
+ * - player_directory (ở shard 0) cấp id toàn cục và cho biết username thuộc shard nào; dùng kết nối riêng
+ *   với bước tăng id mặc định, không theo dãy id trận của shard 0.
+ * - Trận giữa hai người ở hai shard được ghi vào cả hai, cùng một id, để lịch sử của mỗi người
+ *   chỉ cần đọc shard của mình.
+ * - Leaderboard hỏi song song mọi shard lấy top-N rồi trộn lại.
+ * Chuyển dữ liệu sang số shard khác bằng ReshardTool.
+ */
+public class ShardedStorage implements GameStorage {
+    private static final int NAME_CACHE_SIZE = 100_000;
+
+    private final List<DatabaseManager> shards;
+    private final ExecutorService gatherPool;
+    // username <-> id không bao giờ đổi nên cache được lâu, chỉ cần giới hạn kích thước
+    private final Map<String, Integer> idByName = lruMap();
+    private final Map<Integer, String> nameById = lruMap();
+    private Connection directoryConn;
+
+    public ShardedStorage(List<DatabaseManager> shards) {
+        this.shards = shards;
+        this.gatherPool = Executors.newFixedThreadPool(shards.size(), r -> {
+            Thread t = new Thread(r, "shard-gather");
+            t.setDaemon(true);
+            return t;
+        });
+        System.out.println("✓ Sharded storage ready: " + shards.size() + " shards");
+    }
+
+    public static ShardedStorage fromSystemProperties() {
+        int count = Integer.getInteger("db.shards", 2);
+        List<DatabaseManager> shards = new ArrayList<>();
+        for (String[] location : shardLocations(count)) {
+            shards.add(new DatabaseManager(location[0], location[1], location[2], shards.size(), count));
+        }
+        return new ShardedStorage(shards);
+    }
+
+    /** {host, port, schema} của từng shard theo cấu hình hiện tại. */
+    static List<String[]> shardLocations(int count) {
+        return shardLocations(count, DatabaseManager.DB_NAME);
+    }
+
+    static List<String[]> shardLocations(int count, String baseName) {
+        List<String[]> locations = new ArrayList<>();
+        if (count == 1) {
+            locations.add(new String[]{DatabaseManager.DB_HOST, DatabaseManager.DB_PORT, baseName});
+            return locations;
+        }
+        for (int k = 0; k < count; k++) {
+            locations.add(new String[]{
+                System.getProperty("db.shard." + k + ".host", DatabaseManager.DB_HOST),
+                System.getProperty("db.shard." + k + ".port", DatabaseManager.DB_PORT),
+                System.getProperty("db.shard." + k + ".name", baseName + "_" + k)
+            });
+        }
+        return locations;
+    }
+
+    static int shardOf(int playerId, int shardCount) {
+        return Math.floorMod(playerId, shardCount);
+    }
+
+    private DatabaseManager shard(int playerId) {
+        return shards.get(shardOf(playerId, shards.size()));
+    }
+
+    private synchronized Connection directory() throws SQLException {
+        if (directoryConn == null || directoryConn.isClosed()) {
+            directoryConn = shards.get(0).openDirectoryConnection();
+        }
+        return directoryConn;
+    }
+
+    @Override
+    public boolean registerPlayer(String username, String password) {
+        if (username == null || username.trim().isEmpty() || password == null || password.length() < 4) {
+            System.out.println("✗ Registration failed: invalid username or password");
+            return false;
+        }
+        username = username.trim();
+        int playerId;
+        try (PreparedStatement pstmt = directory().prepareStatement(
+                "INSERT INTO player_directory (username) VALUES (?)", Statement.RETURN_GENERATED_KEYS)) {
+            pstmt.setString(1, username);
+            pstmt.executeUpdate();
+            try (ResultSet rs = pstmt.getGeneratedKeys()) {
+                rs.next();
+                playerId = rs.getInt(1);
+            }
+        } catch (SQLException e) {
+            if (e.getMessage().contains("Duplicate entry")) {
+                System.out.println("✗ Registration failed: Username already exists");
+            } else {
+                System.err.println("✗ Database error during registration:");
+                e.printStackTrace();
+            }
+            return false;
+        }
+
+        if (!shard(playerId).registerPlayer(playerId, username, password)) {
+            // Không tạo được ở shard: trả lại username trong directory
+            try (PreparedStatement pstmt = directory().prepareStatement(
+                    "DELETE FROM player_directory WHERE id = ?")) {
+                pstmt.setInt(1, playerId);
+                pstmt.executeUpdate();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            return false;
+        }
+        remember(playerId, username);
+        return true;
+    }
+
+    @Override
+    public Map<String, Object> loginPlayer(String username, String password) {
+        Integer playerId = lookupId(username);
+        if (playerId == null) {
+            System.out.println("✗ Login failed: User not found");
+            return null;
+        }
+        return shard(playerId).loginPlayer(username, password);
+    }
+
+    private Integer lookupId(String username) {
+        synchronized (idByName) {
+            Integer cached = idByName.get(username);
+            if (cached != null) return cached;
+        }
+        try (PreparedStatement pstmt = directory().prepareStatement(
+                "SELECT id FROM player_directory WHERE username = ?")) {
+            pstmt.setString(1, username);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) return null;
+                remember(rs.getInt(1), username);
+                return rs.getInt(1);
+            }
+        } catch (SQLException e) {
+            System.err.println("✗ Error reading player directory:");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void remember(int playerId, String username) {
+        synchronized (idByName) {
+            idByName.put(username, playerId);
+        }
+        synchronized (nameById) {
+            nameById.put(playerId, username);
+        }
+    }
+
+    @Override
+    public void updatePlayerScore(int playerId, int scoreToAdd, boolean won) {
+        shard(playerId).updatePlayerScore(playerId, scoreToAdd, won);
+    }
+
+    @Override
+    public void incrementQuitCount(int playerId, int banThreshold) {
+        shard(playerId).incrementQuitCount(playerId, banThreshold);
+    }
+
+    @Override
+    public void banPlayer(int playerId) {
+        shard(playerId).banPlayer(playerId);
+    }
+
+    @Override
+    public int saveMatch(int player1Id, int player2Id, int winnerId, String difficulty,
+                         int p1Score, int p2Score, int duration, Timestamp createdAt) {
+        DatabaseManager first = shard(player1Id);
+        DatabaseManager second = shard(player2Id);
+        int matchId = first.saveMatch(0, player1Id, player2Id, winnerId, difficulty, p1Score, p2Score,
+                                      duration, createdAt);
+        if (matchId > 0 && second != first) {
+            second.saveMatch(matchId, player1Id, player2Id, winnerId, difficulty, p1Score, p2Score,
+                             duration, createdAt);
+        }
+        return matchId;
+    }
+
+    @Override
+    public List<Map<String, Object>> getLeaderboard(int limit) {
+        return mergeTop(gather(shard -> shard.getLeaderboard(limit)), limit);
+    }
+
+    @Override
+    public void recordLeaderboardResult(int playerId, String difficulty, int score, boolean won,
+                                        LocalDate dayStart, LocalDate weekStart) {
+        shard(playerId).recordLeaderboardResult(playerId, difficulty, score, won, dayStart, weekStart);
+    }
+
+    @Override
+    public List<Map<String, Object>> getBucketLeaderboard(String period, LocalDate bucketStart,
+                                                          String difficulty, int limit) {
+        return mergeTop(gather(shard -> shard.getBucketLeaderboard(period, bucketStart, difficulty, limit)), limit);
+    }
+
+    @Override
+    public int compactLeaderboardBuckets(String period, LocalDate olderThan) {
+        int total = 0;
+        for (DatabaseManager shard : shards) {
+            total += shard.compactLeaderboardBuckets(period, olderThan);
+        }
+        return total;
+    }
+
+    @Override
+    public List<Map<String, Object>> getPlayerMatchHistory(int playerId, HistoryCursor cursor, int limit) {
+        List<Map<String, Object>> history = shard(playerId).getPlayerMatchHistory(playerId, cursor, limit);
+        if (history == null) return null;
+        for (Map<String, Object> match : history) {
+            Object opponentId = match.remove("opponent_id");
+            if (opponentId != null) {
+                match.put("opponent", lookupName((int) opponentId));
+            }
+        }
+        return history;
+    }
+
+    private String lookupName(int playerId) {
+        synchronized (nameById) {
+            String cached = nameById.get(playerId);
+            if (cached != null) return cached;
+        }
+        try (PreparedStatement pstmt = directory().prepareStatement(
+                "SELECT username FROM player_directory WHERE id = ?")) {
+            pstmt.setInt(1, playerId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) return "?";
+                remember(playerId, rs.getString(1));
+                return rs.getString(1);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return "?";
+        }
+    }
+
+    /**
+     * Trận chéo shard: áp dụng ở shard của player1 trước (cấp id trận), rồi lần lượt shard của những
+     * người chơi còn lại với cùng id. Mỗi shard tự chống ghi trùng bằng applied_events, nên nếu một shard
+     * sau lỗi thì journal thử lại cả sự kiện và các shard đã ghi chỉ trả lại id trận đã ghi.
+     */
+    @Override
+    public int applyResultEvent(ResultEvent event) throws SQLException {
+        DatabaseManager first = shard(event.player1Id);
+        if (event.isLogin()) {
+            return first.applyResultEvent(event);
+        }
+        int result = first.applyResultEvent(event, 0);
+        int matchId = result;
+        Set<DatabaseManager> applied = new HashSet<>();
+        applied.add(first);
+        for (int playerId : event.playerIds()) {
+            DatabaseManager next = shard(playerId);
+            if (!applied.add(next)) continue;
+            if (matchId < 0 && !event.isQuit()) {
+                matchId = first.appliedMatchId(event.eventId);
+            }
+            // Kết quả của shard cuối cùng: -1 nếu sự kiện đã được áp dụng trọn vẹn từ trước
+            result = next.applyResultEvent(event, Math.max(matchId, 0));
+        }
+        return result;
+    }
+
+    @Override
+    public RatingEngine.Rating loadRating(int playerId) {
+        return shard(playerId).loadRating(playerId);
+    }
+
+    /** Mỗi shard ghi phần của mình trong một transaction riêng. */
+    @Override
+    public void saveRatings(List<RatingEngine.Rating> ratings) throws SQLException {
+        Map<DatabaseManager, List<RatingEngine.Rating>> byShard = new LinkedHashMap<>();
+        for (RatingEngine.Rating rating : ratings) {
+            byShard.computeIfAbsent(shard(rating.playerId), k -> new ArrayList<>()).add(rating);
+        }
+        for (Map.Entry<DatabaseManager, List<RatingEngine.Rating>> entry : byShard.entrySet()) {
+            entry.getKey().saveRatings(entry.getValue());
+        }
+    }
+
+    @Override
+    public List<RatingEngine.Rating> loadRatings() throws SQLException {
+        List<RatingEngine.Rating> ratings = new ArrayList<>();
+        for (DatabaseManager shard : shards) {
+            ratings.addAll(shard.loadRatings());
+        }
+        return ratings;
+    }
+
+    @Override
+    public List<Map<String, Object>> getRatingLeaderboard(int limit, double maxRd) {
+        return mergeTop(gather(shard -> shard.getRatingLeaderboard(limit, maxRd)), limit, BY_RATING);
+    }
+
+    @Override
+    public boolean isAvailable() {
+        for (DatabaseManager shard : shards) {
+            if (!shard.isAvailable()) return false;
+        }
+        return true;
+    }
+
+    private interface ShardQuery {
+        List<Map<String, Object>> run(DatabaseManager shard);
+    }
+
+    private List<List<Map<String, Object>>> gather(ShardQuery query) {
+        List<Future<List<Map<String, Object>>>> futures = new ArrayList<>();
+        for (DatabaseManager shard : shards) {
+            futures.add(gatherPool.submit(() -> query.run(shard)));
+        }
+        List<List<Map<String, Object>>> results = new ArrayList<>();
+        for (Future<List<Map<String, Object>>> future : futures) {
+            try {
+                results.add(future.get(10, TimeUnit.SECONDS));
+            } catch (Exception e) {
+                // Một shard chậm/lỗi: trả về phần còn lại thay vì lỗi cả leaderboard
+                System.err.println("✗ Shard query failed: " + e);
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    private static final Comparator<Map<String, Object>> BY_SCORE = (a, b) -> {
+        int byScore = Integer.compare((int) b.get("total_score"), (int) a.get("total_score"));
+        return byScore != 0 ? byScore : Integer.compare((int) b.get("wins"), (int) a.get("wins"));
+    };
+    private static final Comparator<Map<String, Object>> BY_RATING =
+        (a, b) -> Integer.compare((int) b.get("rating"), (int) a.get("rating"));
+
+    private static List<Map<String, Object>> mergeTop(List<List<Map<String, Object>>> perShard, int limit) {
+        return mergeTop(perShard, limit, BY_SCORE);
+    }
+
+    private static List<Map<String, Object>> mergeTop(List<List<Map<String, Object>>> perShard, int limit,
+                                                      Comparator<Map<String, Object>> order) {
+        List<Map<String, Object>> merged = new ArrayList<>();
+        perShard.forEach(merged::addAll);
+        merged.sort(order);
+        return new ArrayList<>(merged.subList(0, Math.min(limit, merged.size())));
+    }
+
+    @Override
+    public String getStats() {
+        StringJoiner stats = new StringJoiner(" | ");
+        for (int k = 0; k < shards.size(); k++) {
+            stats.add("shard " + k + " " + shards.get(k).getStats());
+        }
+        return stats.toString();
+    }
+
+    @Override
+    public void verifyDatabaseIntegrity() {
+        for (DatabaseManager shard : shards) {
+            shard.verifyDatabaseIntegrity();
+        }
+    }
+
+    @Override
+    public void close() {
+        gatherPool.shutdownNow();
+        synchronized (this) {
+            try {
+                if (directoryConn != null) directoryConn.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        for (DatabaseManager shard : shards) {
+            shard.close();
+        }
+    }
+
+    private static <K, V> Map<K, V> lruMap() {
+        return new LinkedHashMap<K, V>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > NAME_CACHE_SIZE;
+            }
+        };
+    }
+}
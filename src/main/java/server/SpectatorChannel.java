@@ -0,0 +1,275 @@
+package server;
+
+import common.BoardConfig;
+import common.Protocol;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONObject;
+
+/**
+ * Luồng xem trận của một GameRoom. GameRoom chỉ đẩy sự kiện vào (không chờ gì), sự kiện được phát lại
+ * cho người xem sau DELAY_MILLIS để họ không nhắc bài được cho người chơi.
+ *
+ * Mọi việc của các kênh (áp dụng sự kiện vào trạng thái đã công bố, thêm/bớt người xem) chạy trên một
+ * luồng release duy nhất nên không cần khóa. Mỗi sự kiện chỉ mã hóa JSON một lần thành một mảng byte
+ * dùng chung cho mọi người xem; việc ghi socket nằm ở nhóm luồng writer riêng, mỗi người xem một hàng đợi.
+ * Người xem chậm tới mức tồn quá MAX_BACKLOG sự kiện thì bị ngắt xem (nhận SPECTATE_END kèm "message"),
+ * không ảnh hưởng ai khác. Một lần ghi kẹt quá WRITE_TIMEOUT_MILLIS (client không đọc nữa) thì kết nối
+ * của người đó bị đóng để trả luồng writer cho các phòng khác.
+ */
+public class SpectatorChannel {
+    static final long DELAY_MILLIS = Long.getLong("spectate.delayMillis", 2000);
+    private static final int MAX_VIEWERS = Integer.getInteger("spectate.maxPerRoom", 1000);
+    private static final int MAX_BACKLOG = 256;
+    private static final long WRITE_TIMEOUT_MILLIS = Long.getLong("spectate.writeTimeoutMillis", 5000);
+    private static final String DROPPED_MESSAGE = "Your connection is too slow, stopped streaming the match";
+
+    private static final ScheduledExecutorService releaser = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "spectator-release");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final ExecutorService writers = Executors.newFixedThreadPool(
+            Integer.getInteger("spectate.writers", 4), r -> {
+        Thread t = new Thread(r, "spectator-writer");
+        t.setDaemon(true);
+        return t;
+    });
+    // Người xem đang có một lần ghi dở trên luồng writer
+    private static final Set<Viewer> writing = ConcurrentHashMap.newKeySet();
+
+    static {
+        releaser.scheduleWithFixedDelay(SpectatorChannel::closeStalled, 1, 1, TimeUnit.SECONDS);
+    }
+
+    private static class Viewer {
+        final SpectatorChannel channel;
+        final ClientHandler handler;
+        final ConcurrentLinkedQueue<byte[]> backlog = new ConcurrentLinkedQueue<>();
+        final AtomicInteger size = new AtomicInteger();
+        final AtomicBoolean draining = new AtomicBoolean();
+        volatile boolean dropped;
+        // Dòng báo ngắt xem, vẫn được ghi sau khi dropped
+        volatile byte[] notice;
+        volatile long writeStarted;
+
+        Viewer(SpectatorChannel channel, ClientHandler handler) {
+            this.channel = channel;
+            this.handler = handler;
+        }
+    }
+
+    private final String roomId;
+    private final BoardConfig board;
+    private final long startTime;
+    private final String[] players;
+    private final List<Viewer> viewers = new ArrayList<>();
+
+    // Trạng thái ván theo những gì người xem đã thấy (trễ DELAY_MILLIS); chỉ luồng release đọc/ghi
+    private final BitSet[] matched;
+    private final int[] scores;
+    private final boolean[] left;
+    private final int[] knownValues;
+    private boolean ended;
+
+    public SpectatorChannel(String roomId, BoardConfig board, long startTime, List<String> players) {
+        this.roomId = roomId;
+        this.board = board;
+        this.startTime = startTime;
+        this.players = players.toArray(new String[0]);
+        this.matched = new BitSet[this.players.length];
+        for (int i = 0; i < matched.length; i++) {
+            matched[i] = new BitSet(board.cardCount);
+        }
+        this.scores = new int[this.players.length];
+        this.left = new boolean[this.players.length];
+        this.knownValues = new int[board.cardCount];
+        Arrays.fill(knownValues, -1);
+    }
+
+    /** Gọi từ GameRoom với message vừa gửi cho người chơi; message không được sửa sau đó. */
+    public void publish(Map<String, Object> event) {
+        releaser.schedule(() -> release(event), DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void attach(ClientHandler handler) {
+        releaser.execute(() -> {
+            // Kể cả trả lời từ chối cũng đi qua hàng đợi ghi, luồng release không bao giờ chạm socket
+            Viewer viewer = new Viewer(this, handler);
+            if (ended) {
+                offer(viewer, encode(endMessage()));
+                return;
+            }
+            if (viewers.size() >= MAX_VIEWERS) {
+                Map<String, Object> error = new HashMap<>();
+                error.put("type", Protocol.ERROR);
+                error.put("message", "This match has too many spectators");
+                offer(viewer, encode(error));
+                return;
+            }
+            viewers.add(viewer);
+            offer(viewer, encode(snapshot()));
+        });
+    }
+
+    public void detach(ClientHandler handler) {
+        releaser.execute(() -> viewers.removeIf(viewer -> viewer.handler == handler));
+    }
+
+    private void release(Map<String, Object> event) {
+        if (ended) return;
+        String type = (String) event.get("type");
+        switch (type) {
+            case Protocol.GAME_UPDATE:
+                if (Boolean.TRUE.equals(event.get("matched"))) {
+                    int seat = seatOf((String) event.get("player"));
+                    int card1 = (Integer) event.get("card1");
+                    int card2 = (Integer) event.get("card2");
+                    if (seat >= 0) {
+                        matched[seat].set(card1);
+                        matched[seat].set(card2);
+                    }
+                    knownValues[card1] = (Integer) event.get("value1");
+                    knownValues[card2] = (Integer) event.get("value2");
+                }
+                break;
+            case Protocol.SCORE_UPDATE:
+                for (int seat = 0; seat < players.length; seat++) {
+                    Object score = event.get(players[seat]);
+                    if (score != null) scores[seat] = (Integer) score;
+                }
+                break;
+            case Protocol.PLAYER_LEFT: {
+                int seat = seatOf((String) event.get("player"));
+                if (seat >= 0) left[seat] = true;
+                break;
+            }
+            case Protocol.GAME_END:
+            case Protocol.OPPONENT_QUIT:
+                ended = true;
+                break;
+            default:
+                break;
+        }
+
+        if (viewers.isEmpty()) return;
+        Map<String, Object> wrapped = new HashMap<>();
+        wrapped.put("type", Protocol.SPECTATE_EVENT);
+        wrapped.put("event", event);
+        byte[] line = encode(wrapped);
+        byte[] end = ended ? encode(endMessage()) : null;
+        for (Viewer viewer : viewers) {
+            offer(viewer, line);
+            if (end != null) offer(viewer, end);
+        }
+        viewers.removeIf(viewer -> viewer.dropped);
+        if (ended) {
+            viewers.clear();
+        }
+    }
+
+    private Map<String, Object> snapshot() {
+        List<Map<String, Object>> seats = new ArrayList<>();
+        for (int seat = 0; seat < players.length; seat++) {
+            Map<String, Object> info = new HashMap<>();
+            info.put("username", players[seat]);
+            info.put("score", scores[seat]);
+            info.put("left", left[seat]);
+            info.put("matched", matched[seat].stream().toArray());
+            seats.add(info);
+        }
+        Map<String, Object> snapshot = new HashMap<>();
+        snapshot.put("type", Protocol.SPECTATE_START);
+        snapshot.put("roomId", roomId);
+        board.writeTo(snapshot);
+        snapshot.put("rows", board.rows);
+        snapshot.put("cols", board.cols);
+        snapshot.put("players", seats);
+        // Giá trị đã lộ qua các cặp ghép đúng, -1 = chưa biết
+        snapshot.put("cardValues", knownValues);
+        snapshot.put("delay", DELAY_MILLIS);
+        snapshot.put("elapsed", Math.max(0, (System.currentTimeMillis() - DELAY_MILLIS - startTime) / 1000));
+        return snapshot;
+    }
+
+    private Map<String, Object> endMessage() {
+        Map<String, Object> end = new HashMap<>();
+        end.put("type", Protocol.SPECTATE_END);
+        end.put("roomId", roomId);
+        return end;
+    }
+
+    private byte[] droppedMessage() {
+        Map<String, Object> end = endMessage();
+        end.put("message", DROPPED_MESSAGE);
+        return encode(end);
+    }
+
+    private int seatOf(String username) {
+        for (int seat = 0; seat < players.length; seat++) {
+            if (players[seat].equals(username)) return seat;
+        }
+        return -1;
+    }
+
+    // Cùng bảng mã với ClientHandler.sendMessage
+    private static byte[] encode(Map<String, Object> message) {
+        return (new JSONObject(message).toString() + "\n").getBytes(Charset.defaultCharset());
+    }
+
+    private static void offer(Viewer viewer, byte[] line) {
+        if (viewer.dropped) return;
+        if (viewer.size.incrementAndGet() > MAX_BACKLOG) {
+            viewer.dropped = true;
+            System.out.println("⚠ Spectator " + viewer.handler.getUsername() + " is too slow, stopped streaming");
+            viewer.handler.spectatorDropped(viewer.channel);
+            // Bỏ các sự kiện còn tồn, chỉ ghi dòng báo ngắt
+            line = viewer.notice = viewer.channel.droppedMessage();
+        }
+        viewer.backlog.add(line);
+        if (viewer.draining.compareAndSet(false, true)) {
+            writers.execute(() -> drain(viewer));
+        }
+    }
+
+    private static void drain(Viewer viewer) {
+        do {
+            byte[] line;
+            while ((line = viewer.backlog.poll()) != null) {
+                viewer.size.decrementAndGet();
+                if (viewer.dropped && line != viewer.notice) continue;
+                if (!write(viewer, line)) {
+                    viewer.dropped = true;
+                }
+            }
+            viewer.draining.set(false);
+            // Sự kiện tới đúng lúc vừa thả cờ: lấy lại cờ và ghi tiếp, nếu không thì luồng offer sẽ lo
+        } while (!viewer.backlog.isEmpty() && viewer.draining.compareAndSet(false, true));
+    }
+
+    private static boolean write(Viewer viewer, byte[] line) {
+        viewer.writeStarted = System.currentTimeMillis();
+        writing.add(viewer);
+        try {
+            return viewer.handler.sendLine(line);
+        } finally {
+            writing.remove(viewer);
+        }
+    }
+
+    // Chạy trên luồng release: đóng kết nối làm lần ghi đang kẹt ném lỗi và thả luồng writer
+    private static void closeStalled() {
+        long now = System.currentTimeMillis();
+        for (Viewer viewer : writing) {
+            if (now - viewer.writeStarted > WRITE_TIMEOUT_MILLIS) {
+                writing.remove(viewer);
+                viewer.dropped = true;
+                System.out.println("⚠ Spectator " + viewer.handler.getUsername() + " stopped reading, closing connection");
+                viewer.handler.closeConnection();
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package server;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Chạy các bước khởi động độc lập song song và ghi lại thời gian từng bước.
+ * Bước bắt buộc (required) lỗi thì await() ném StartupException; bước tùy chọn (optional)
+ * lỗi chỉ được ghi vào báo cáo, server vẫn chạy. Khi khởi động thất bại, tài nguyên của các bước
+ * bắt buộc đã xong được đóng theo thứ tự ngược lại.
+ */
+public class Startup {
+    public static class StartupException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public StartupException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private static class Phase {
+        final String name;
+        final boolean required;
+        volatile boolean started;
+        volatile long millis = -1;
+        volatile Throwable error;
+        // Đóng tài nguyên bước này đã tạo, đặt khi bước chạy xong
+        volatile Runnable close;
+
+        Phase(String name, boolean required) {
+            this.name = name;
+            this.required = required;
+        }
+    }
+
+    private final long startedAt = System.currentTimeMillis();
+    private final ExecutorService pool = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "startup");
+        t.setDaemon(true);
+        return t;
+    });
+    private final List<Phase> phases = Collections.synchronizedList(new ArrayList<>());
+    private final List<CompletableFuture<?>> requiredSteps = Collections.synchronizedList(new ArrayList<>());
+    // Các bước có tài nguyên cần đóng, theo thứ tự xong
+    private final List<Phase> completed = Collections.synchronizedList(new ArrayList<>());
+
+    /** Bước bắt buộc, chạy ngay (sau các bước trong after nếu có). */
+    public <T> CompletableFuture<T> required(String name, Callable<T> step, CompletableFuture<?>... after) {
+        return required(name, step, null, after);
+    }
+
+    /** Như trên; close nhận kết quả của bước và được gọi nếu khởi động thất bại ở một bước khác. */
+    public <T> CompletableFuture<T> required(String name, Callable<T> step, Consumer<T> close,
+                                             CompletableFuture<?>... after) {
+        CompletableFuture<T> future = run(new Phase(name, true), step, close, after);
+        requiredSteps.add(future);
+        return future;
+    }
+
+    public CompletableFuture<Void> optional(String name, Runnable step, CompletableFuture<?>... after) {
+        return run(new Phase(name, false), () -> {
+            step.run();
+            return null;
+        }, null, after);
+    }
+
+    private <T> CompletableFuture<T> run(Phase phase, Callable<T> step, Consumer<T> close,
+                                         CompletableFuture<?>... after) {
+        phases.add(phase);
+        // Bước phụ thuộc chỉ chạy khi mọi bước trước nó đã xong, lỗi của bước trước được truyền tiếp
+        return CompletableFuture.allOf(after).thenApplyAsync(ignored -> {
+            long start = System.currentTimeMillis();
+            phase.started = true;
+            try {
+                T result = step.call();
+                if (close != null) {
+                    phase.close = () -> close.accept(result);
+                    completed.add(phase);
+                }
+                return result;
+            } catch (Exception e) {
+                phase.error = e;
+                throw new CompletionException(e);
+            } finally {
+                phase.millis = System.currentTimeMillis() - start;
+            }
+        }, pool);
+    }
+
+    /**
+     * Chờ mọi bước bắt buộc; bước tùy chọn vẫn có thể chạy tiếp ở nền.
+     * allOf chỉ xong khi mọi bước đã dừng, nên lúc đóng không còn bước bắt buộc nào đang tạo tài nguyên.
+     */
+    public void await() {
+        try {
+            CompletableFuture.allOf(requiredSteps.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            closeCompleted();
+            throw new StartupException(cause.getMessage(), cause);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void closeCompleted() {
+        List<Phase> done;
+        synchronized (completed) {
+            done = new ArrayList<>(completed);
+        }
+        Collections.reverse(done);
+        for (Phase phase : done) {
+            try {
+                phase.close.run();
+                System.out.println("↩ Closed " + phase.name);
+            } catch (RuntimeException e) {
+                System.err.println("✗ Failed to close " + phase.name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public void printReport() {
+        System.out.println("=== Startup (" + (System.currentTimeMillis() - startedAt) + "ms) ===");
+        synchronized (phases) {
+            for (Phase phase : phases) {
+                String status;
+                if (phase.error != null) {
+                    status = (phase.required ? "✗ " : "⚠ ") + phase.error.getMessage();
+                } else if (phase.millis < 0) {
+                    status = phase.started ? "… running" : "✗ skipped";
+                } else {
+                    status = "✓";
+                }
+                System.out.printf("  %-22s %6s %s%n", phase.name,
+                                  phase.millis < 0 ? "-" : phase.millis + "ms", status);
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package server;
+
+import common.Protocol;
+import java.io.File;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Chạy cùng một workload lên các backend lưu trữ để so sánh.
+ *
+ * Cách dùng: java server.StorageBenchmark [mysql|file|sharded|both|all] [số trận]
+ * Backend MySQL/sharded dùng cấu hình -Ddb.* như server; backend file ghi vào thư mục tạm.
+ * Mỗi trận được ghi hai cách: từng lệnh riêng lẻ như trước và applyResultEvent như server đang dùng.
+ */
+public class StorageBenchmark {
+    private static final int PLAYER_COUNT = 20;
+    private static final String[] DIFFICULTIES = {Protocol.EASY, Protocol.MEDIUM, Protocol.HARD};
+
+    public static void main(String[] args) throws Exception {
+        String target = args.length > 0 ? args[0] : "file";
+        int games = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        boolean all = target.equals("all");
+        if (target.equals("file") || target.equals("both") || all) {
+            File dir = new File(System.getProperty("java.io.tmpdir"), "cardflip-bench-" + System.nanoTime());
+            FileStorage storage = new FileStorage(dir.getPath());
+            run("file", storage, games);
+            storage.close();
+        }
+        if (target.equals("mysql") || target.equals("both") || all) {
+            DatabaseManager storage = new DatabaseManager();
+            run("mysql", storage, games);
+            storage.close();
+        }
+        if (target.equals("sharded") || all) {
+            ShardedStorage storage = ShardedStorage.fromSystemProperties();
+            run("sharded", storage, games);
+            storage.close();
+        }
+    }
+
+    private static void run(String name, GameStorage storage, int games) throws Exception {
+        Random random = new Random(42);
+        String prefix = "bench" + Long.toString(System.currentTimeMillis() % 100000, 36) + "_";
+        Map<String, long[]> timings = new LinkedHashMap<>();
+
+        // Đăng ký + đăng nhập (BCrypt chiếm phần lớn thời gian ở bước này)
+        int[] playerIds = new int[PLAYER_COUNT];
+        for (int i = 0; i < PLAYER_COUNT; i++) {
+            String username = prefix + i;
+            long start = System.nanoTime();
+            storage.registerPlayer(username, "bench-password");
+            record(timings, "registerPlayer", start);
+
+            start = System.nanoTime();
+            Map<String, Object> data = storage.loginPlayer(username, "bench-password");
+            record(timings, "loginPlayer", start);
+            playerIds[i] = (int) data.get("id");
+        }
+
+        // Id gắn với thời gian như MatchJournal, để chạy lại nhiều lần không trùng applied_events
+        long firstEventId = System.currentTimeMillis() * 1000;
+        LocalDate today = LocalDate.now();
+        LocalDate week = LeaderboardService.bucketStart(Protocol.PERIOD_WEEKLY, today);
+        for (int g = 0; g < games; g++) {
+            int i1 = random.nextInt(PLAYER_COUNT);
+            int i2 = random.nextInt(PLAYER_COUNT);
+            if (i1 == i2) continue;
+            int p1 = playerIds[i1];
+            int p2 = playerIds[i2];
+            String difficulty = DIFFICULTIES[random.nextInt(DIFFICULTIES.length)];
+            int s1 = random.nextInt(16) * 10;
+            int s2 = random.nextInt(16) * 10;
+            int winner = s1 > s2 ? p1 : (s2 > s1 ? p2 : -1);
+
+            long start = System.nanoTime();
+            storage.updatePlayerScore(p1, s1, winner == p1);
+            storage.updatePlayerScore(p2, s2, winner == p2);
+            record(timings, "updatePlayerScore x2", start);
+
+            start = System.nanoTime();
+            storage.recordLeaderboardResult(p1, difficulty, s1, winner == p1, today, week);
+            storage.recordLeaderboardResult(p2, difficulty, s2, winner == p2, today, week);
+            record(timings, "recordLeaderboardResult x2", start);
+
+            start = System.nanoTime();
+            storage.saveMatch(p1, p2, winner, difficulty, s1, s2, 30 + random.nextInt(200),
+                              new Timestamp(System.currentTimeMillis() / 1000 * 1000));
+            record(timings, "saveMatch", start);
+
+            ResultEvent event = new ResultEvent();
+            event.eventId = firstEventId + g;
+            event.type = ResultEvent.GAME_END;
+            event.at = System.currentTimeMillis() / 1000 * 1000;
+            event.difficulty = difficulty;
+            event.player1Id = p1;
+            event.player1Name = prefix + i1;
+            event.player1Score = s1;
+            event.player2Id = p2;
+            event.player2Name = prefix + i2;
+            event.player2Score = s2;
+            event.winnerId = winner;
+            event.duration = 30 + random.nextInt(200);
+            start = System.nanoTime();
+            storage.applyResultEvent(event);
+            record(timings, "applyResultEvent", start);
+
+            if (g % 10 == 0) {
+                start = System.nanoTime();
+                storage.getLeaderboard(10);
+                record(timings, "getLeaderboard", start);
+
+                start = System.nanoTime();
+                storage.getBucketLeaderboard(Protocol.PERIOD_DAILY, today, difficulty, 10);
+                record(timings, "getBucketLeaderboard", start);
+
+                start = System.nanoTime();
+                storage.getPlayerMatchHistory(p1, null, HistoryCursor.DEFAULT_PAGE_SIZE + 1);
+                record(timings, "getPlayerMatchHistory", start);
+            }
+        }
+
+        System.out.println();
+        System.out.println("=== Storage benchmark: " + name + " (" + games + " games, " + PLAYER_COUNT + " players) ===");
+        System.out.printf("%-28s %10s %14s %14s%n", "operation", "calls", "avg (µs)", "total (ms)");
+        for (Map.Entry<String, long[]> entry : timings.entrySet()) {
+            long calls = entry.getValue()[0];
+            long nanos = entry.getValue()[1];
+            System.out.printf("%-28s %10d %14.1f %14.1f%n", entry.getKey(), calls,
+                              nanos / 1000.0 / calls, nanos / 1_000_000.0);
+        }
+    }
+
+    private static void record(Map<String, long[]> timings, String operation, long startNanos) {
+        long[] t = timings.computeIfAbsent(operation, k -> new long[2]);
+        t[0]++;
+        t[1] += System.nanoTime() - startNanos;
+    }
+}
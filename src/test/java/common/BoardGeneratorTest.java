@@ -0,0 +1,52 @@
+package common;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/** Thuật toán sinh bàn là một phần của giao thức: bàn của các seed cố định không được đổi. */
+class BoardGeneratorTest {
+    // Bàn chuẩn {seed, số lá, bàn...}, tính bằng một bản cài đặt độc lập (Python) theo đúng mô tả trong
+    // BoardGenerator; lệch nghĩa là thuật toán đã đổi và client/server/replay cũ sẽ không còn khớp
+    private static final long[][] GOLDEN = {
+        {0L, 12, 2, 5, 3, 3, 1, 0, 1, 4, 4, 0, 2, 5},
+        {1L, 20, 4, 0, 6, 5, 0, 1, 7, 9, 2, 2, 4, 1, 3, 6, 9, 8, 3, 8, 7, 5},
+        {42L, 30, 11, 10, 7, 1, 5, 8, 7, 9, 12, 8, 12, 6, 3, 0, 1, 5, 4, 14, 13, 14, 6, 13, 9, 2, 10, 0, 4, 3, 2, 11},
+        {0xDEADBEEFL, 30, 7, 10, 5, 14, 5, 2, 11, 1, 13, 2, 11, 4, 3, 9, 10, 7, 6, 0, 9, 8, 1, 13, 12, 14, 8, 3, 6, 0,
+            12, 4},
+        {-1L, 20, 2, 1, 4, 2, 7, 0, 3, 7, 8, 5, 0, 4, 9, 6, 6, 5, 3, 1, 9, 8},
+        {Long.MIN_VALUE, 12, 3, 2, 2, 3, 0, 5, 1, 0, 4, 5, 4, 1},
+        {1234567890123456789L, 30, 8, 11, 9, 7, 3, 1, 12, 9, 0, 1, 7, 2, 10, 5, 4, 2, 13, 4, 10, 3, 14, 11, 5, 12, 0,
+            13, 14, 6, 6, 8},
+    };
+
+    @Test
+    void goldenBoardsAreReproduced() {
+        for (long[] golden : GOLDEN) {
+            int[] expected = new int[golden.length - 2];
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = (int) golden[i + 2];
+            }
+            assertArrayEquals(expected, BoardGenerator.generate(golden[0], (int) golden[1]),
+                              "seed " + golden[0] + " (" + golden[1] + " cards)");
+        }
+    }
+
+    @Test
+    void everyValueAppearsExactlyTwice() {
+        for (String difficulty : new String[] {Protocol.EASY, Protocol.MEDIUM, Protocol.HARD}) {
+            for (long seed = 0; seed < 1000; seed++) {
+                int[] board = BoardGenerator.generate(seed, difficulty);
+                assertEquals(Protocol.getCardCount(difficulty), board.length);
+                int[] counts = new int[board.length / 2];
+                for (int value : board) {
+                    assertTrue(value >= 0 && value < counts.length, "seed " + seed + ": value " + value);
+                    counts[value]++;
+                }
+                for (int count : counts) {
+                    assertEquals(2, count, "seed " + seed + " (" + difficulty + ")");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import common.Protocol;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** compact() ghi lại log từ bộ nhớ: mở lại thư mục phải ra đúng trạng thái cũ, kể cả chống áp dụng trùng. */
+class FileStorageTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void compactedLogsReplayToTheSameState() throws Exception {
+        FileStorage storage = new FileStorage(dir.toString());
+        int[] ids = register(storage, "alice", "bob", "carol");
+        long firstEventId = System.currentTimeMillis() * 1000;
+        for (int g = 0; g < 50; g++) {
+            ResultEvent event = game(firstEventId + g, ids[g % 2], ids[1 - g % 2], 10 * g, 10);
+            event.replayId = g + 1;
+            storage.applyResultEvent(event);
+        }
+        ResultEvent group = game(firstEventId + 50, ids[2], ids[0], 40, 20);
+        group.participants = List.of(new ResultEvent.Participant(ids[2], "carol", 40, false),
+                                     new ResultEvent.Participant(ids[0], "alice", 20, false),
+                                     new ResultEvent.Participant(ids[1], "bob", 0, false));
+        storage.applyResultEvent(group);
+        storage.incrementQuitCount(ids[1], DisciplineTracker.BAN_QUIT_COUNT);
+
+        Object before = snapshot(storage, ids);
+        storage.compact();
+        assertEquals(before, snapshot(storage, ids));
+        assertFalse(new File(dir.toFile(), "matches.log.compact").exists());
+        storage.close();
+
+        FileStorage reopened = new FileStorage(dir.toString());
+        assertEquals(before, snapshot(reopened, ids));
+        // Sự kiện đã áp dụng trước khi compact vẫn bị bỏ qua khi journal phát lại
+        assertEquals(-1, reopened.applyResultEvent(game(firstEventId + 3, ids[0], ids[1], 999, 0)));
+        assertEquals(before, snapshot(reopened, ids));
+        reopened.close();
+    }
+
+    @Test
+    void unfinishedCompactionIsDiscarded() throws Exception {
+        FileStorage storage = new FileStorage(dir.toString());
+        int[] ids = register(storage, "alice", "bob");
+        storage.applyResultEvent(game(System.currentTimeMillis() * 1000, ids[0], ids[1], 30, 10));
+        Object before = snapshot(storage, ids);
+        storage.close();
+
+        // Chết khi đang ghi .compact, chưa có dấu compact.done
+        Files.writeString(dir.resolve("players.log.compact"), "{\"op\":\"PLAYER\"");
+        FileStorage reopened = new FileStorage(dir.toString());
+        assertEquals(before, snapshot(reopened, ids));
+        assertFalse(Files.exists(dir.resolve("players.log.compact")));
+        reopened.close();
+    }
+
+    private static int[] register(FileStorage storage, String... names) {
+        int[] ids = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            assertTrue(storage.registerPlayer(names[i], "password"));
+            ids[i] = (int) storage.loginPlayer(names[i], "password").get("id");
+        }
+        return ids;
+    }
+
+    private static ResultEvent game(long eventId, int p1, int p2, int s1, int s2) {
+        ResultEvent event = new ResultEvent();
+        event.eventId = eventId;
+        event.type = ResultEvent.GAME_END;
+        event.at = System.currentTimeMillis() / 1000 * 1000;
+        event.difficulty = Protocol.EASY;
+        event.player1Id = p1;
+        event.player1Name = "p" + p1;
+        event.player1Score = s1;
+        event.player2Id = p2;
+        event.player2Name = "p" + p2;
+        event.player2Score = s2;
+        event.winnerId = s1 > s2 ? p1 : (s2 > s1 ? p2 : -1);
+        event.duration = 60;
+        RatingEngine.Rating rating = new RatingEngine.Rating(p1);
+        rating.rating = 1500 + s1;
+        rating.games = (int) (eventId % 1000) + 1;
+        event.ratings = List.of(rating);
+        return event;
+    }
+
+    // So sánh qua API công khai: leaderboard, bucket, lịch sử và rating
+    private static Object snapshot(FileStorage storage, int[] ids) {
+        LocalDate today = LocalDate.now();
+        List<Object> state = new ArrayList<>();
+        state.add(storage.getLeaderboard(10));
+        state.add(storage.getBucketLeaderboard(Protocol.PERIOD_DAILY, today, Protocol.EASY, 10));
+        state.add(storage.getRatingLeaderboard(10, RatingEngine.MAX_RD));
+        for (int id : ids) {
+            state.add(storage.getPlayerMatchHistory(id, null, 100));
+        }
+        return state.toString();
+    }
+}
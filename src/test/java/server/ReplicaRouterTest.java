@@ -0,0 +1,116 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/** ReplicaRouter với replica giả: lag vượt ngưỡng, replica lỗi rồi trở lại, đọc được ghi của chính mình. */
+class ReplicaRouterTest {
+    private static final long RETRY_MILLIS = 50;
+
+    private long lag;
+    private boolean down;
+    private ReplicaRouter router;
+
+    @BeforeEach
+    void setUp() {
+        ReplicaRouter.Source fake = new ReplicaRouter.Source() {
+            @Override
+            public Connection connect() throws SQLException {
+                if (down) throw new SQLException("replica down");
+                return fakeConnection();
+            }
+
+            @Override
+            public long lagSeconds(Connection replica) throws SQLException {
+                if (down) throw new SQLException("replica down");
+                return lag;
+            }
+        };
+        // lagCheckMillis = 0: mỗi lần đọc đều đo lại lag
+        router = new ReplicaRouter(fake, 5, 0, RETRY_MILLIS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReplicaRouter.unbindSession();
+        router.close();
+    }
+
+    private static Connection fakeConnection() {
+        boolean[] closed = {false};
+        return (Connection) Proxy.newProxyInstance(ReplicaRouterTest.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("isClosed")) return closed[0];
+                    if (method.getName().equals("close")) closed[0] = true;
+                    return null;
+                });
+    }
+
+    @Test
+    void healthyReplicaIsUsed() {
+        assertNotNull(router.replicaForRead());
+    }
+
+    @Test
+    void laggingReplicaFallsBackToPrimaryUntilCaughtUp() {
+        lag = 30;
+        assertNull(router.replicaForRead());
+        lag = 0;
+        assertNotNull(router.replicaForRead());
+    }
+
+    @Test
+    void unknownLagFallsBackToPrimary() {
+        lag = -1;
+        assertNull(router.replicaForRead());
+    }
+
+    @Test
+    void failedReplicaIsRetriedAfterBackoff() throws InterruptedException {
+        assertNotNull(router.replicaForRead());
+        down = true;
+        router.replicaFailed(new SQLException("connection reset"));
+        assertNull(router.replicaForRead());
+        Thread.sleep(RETRY_MILLIS + 10);
+        assertNull(router.replicaForRead(), "unreachable replica stays on primary");
+        down = false;
+        Thread.sleep(RETRY_MILLIS + 10);
+        assertNotNull(router.replicaForRead());
+    }
+
+    @Test
+    void writerReadsOwnWriteFromPrimary() throws InterruptedException {
+        assertNotNull(router.replicaForRead());
+        ReplicaRouter.bindSession(7);
+        router.recordWrite(7);
+        assertNull(router.replicaForRead());
+
+        ReplicaRouter.bindSession(8);
+        assertNotNull(router.replicaForRead(), "other sessions still read the replica");
+
+        // Lag 0 giây: replica chắc chắn có lần ghi sau khoảng 1 giây
+        ReplicaRouter.bindSession(7);
+        Thread.sleep(1100);
+        assertNotNull(router.replicaForRead());
+    }
+
+    @Test
+    void readsWithoutSessionIgnoreRecentWrites() {
+        router.recordWrite(7);
+        assertNotNull(router.replicaForRead());
+    }
+
+    @Test
+    void noReplicaConfiguredReadsPrimary() {
+        ReplicaRouter none = new ReplicaRouter(null, "user", "password", 5);
+        none.recordWrite(7);
+        assertNull(none.replicaForRead());
+        assertTrue(none.getStats().contains("no replica configured"));
+    }
+}